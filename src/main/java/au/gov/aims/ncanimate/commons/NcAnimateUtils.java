@@ -4,17 +4,16 @@
  */
 package au.gov.aims.ncanimate.commons;
 
-import au.gov.aims.aws.s3.FileWrapper;
 import au.gov.aims.aws.s3.entity.S3Client;
 import au.gov.aims.aws.s3.manager.DownloadManager;
 import au.gov.aims.ereefs.Utils;
 import au.gov.aims.ereefs.bean.metadata.TimeIncrement;
 import au.gov.aims.ereefs.bean.metadata.TimeIncrementUnit;
 import au.gov.aims.ereefs.bean.metadata.netcdf.NetCDFMetadataBean;
-import au.gov.aims.ereefs.bean.ncanimate.AbstractNcAnimateBean;
 import au.gov.aims.ereefs.bean.ncanimate.NcAnimateBboxBean;
 import au.gov.aims.ereefs.bean.ncanimate.NcAnimateConfigBean;
 import au.gov.aims.ereefs.bean.ncanimate.NcAnimateInputBean;
+import au.gov.aims.ereefs.bean.ncanimate.NcAnimateIdBean;
 import au.gov.aims.ereefs.bean.ncanimate.NcAnimateLayerBean;
 import au.gov.aims.ereefs.bean.ncanimate.NcAnimatePanelBean;
 import au.gov.aims.ereefs.bean.ncanimate.NcAnimateRegionBean;
@@ -22,10 +21,29 @@ import au.gov.aims.ereefs.bean.ncanimate.render.AbstractNcAnimateRenderFileBean;
 import au.gov.aims.ereefs.bean.ncanimate.render.NcAnimateRenderBean;
 import au.gov.aims.ereefs.bean.ncanimate.NcAnimateTextBean;
 import au.gov.aims.ereefs.helper.MetadataHelper;
+import au.gov.aims.ncanimate.commons.download.Checksum;
+import au.gov.aims.ncanimate.commons.download.DownloadTask;
+import au.gov.aims.ncanimate.commons.download.LocalFileIngester;
+import au.gov.aims.ncanimate.commons.download.LocalFileStrategy;
+import au.gov.aims.ncanimate.commons.download.MultipartDownloader;
+import au.gov.aims.ncanimate.commons.download.S3RangeSource;
+import au.gov.aims.ncanimate.commons.download.SharedInputCache;
+import au.gov.aims.ncanimate.commons.download.SingleFlightDownloader;
+import au.gov.aims.ncanimate.commons.download.VerifiedDownloadTask;
 import au.gov.aims.ncanimate.commons.generator.context.GeneratorContext;
 import au.gov.aims.ncanimate.commons.generator.context.LayerContext;
+import au.gov.aims.ncanimate.commons.output.HeadLastModifiedResolver;
+import au.gov.aims.ncanimate.commons.output.OutdatedOutputFile;
+import au.gov.aims.ncanimate.commons.output.OutdatedOutputFileChecker;
+import au.gov.aims.ncanimate.commons.output.OutputLastModifiedResolver;
+import au.gov.aims.ncanimate.commons.template.ConfigTemplateValues;
+import au.gov.aims.ncanimate.commons.template.ContextValueResolver;
+import au.gov.aims.ncanimate.commons.template.Template;
+import au.gov.aims.ncanimate.commons.template.TemplateDiagnostics;
+import au.gov.aims.ncanimate.commons.template.TemplatePlaceholder;
 import au.gov.aims.ncanimate.commons.timetable.DateTimeRange;
 import au.gov.aims.ncanimate.commons.timetable.FrameTimetableMap;
+import com.amazonaws.AmazonServiceException;
 import com.amazonaws.services.s3.AmazonS3URI;
 import org.apache.log4j.Logger;
 import org.apache.sis.metadata.iso.extent.DefaultGeographicBoundingBox;
@@ -41,18 +59,18 @@ import java.io.File;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.nio.file.Files;
-import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class NcAnimateUtils {
     private static final Logger LOGGER = Logger.getLogger(NcAnimateUtils.class);
@@ -60,7 +78,42 @@ public class NcAnimateUtils {
 
     // Cache
     private static Map<String, NetCDFMetadataBean> netCDFMetadataCacheMap;
-    private static Map<String, File> inputFileCacheMap; // Cache one file per "definitionId" (download source)
+    // Cache one file per "definitionId" (download source)
+    private static final Map<String, File> inputFileCacheMap = new ConcurrentHashMap<String, File>();
+    // Input file of each definition used by each thread (see downloadInputFile).
+    // Guarded by synchronized (inputFileUserMap), like retiredInputFileMap.
+    //   Key: Definition ID
+    //   Value: Map of
+    //       Key: Thread
+    //       Value: Input file in the working directory, used by the thread
+    private static final Map<String, Map<Thread, File>> inputFileUserMap = new HashMap<String, Map<Thread, File>>();
+    // Input files replaced in inputFileCacheMap by a more recent download, which are still used by a thread.
+    //   Key: Input file in the working directory
+    //   Value: Definition ID
+    private static final Map<File, String> retiredInputFileMap = new HashMap<File, String>();
+    // The input files of a definition replace each other in the working directory,
+    // they are downloaded one at a time.
+    //   Key: Definition ID
+    //   Value: Lock
+    private static final ConcurrentHashMap<String, Object> definitionLockMap = new ConcurrentHashMap<String, Object>();
+    // Input files which are used in place (see LocalFileStrategy.IN_PLACE). They must not be deleted.
+    //   Key: Input file in the working directory (as found in inputFileCacheMap)
+    //   Value: Source file used instead
+    private static final Map<File, File> inPlaceInputFileMap = new ConcurrentHashMap<File, File>();
+
+    // Used to download large files from S3 in parts. Null to download files as a single stream.
+    private static volatile MultipartDownloader multipartDownloader = null;
+
+    // Verify the checksum of the NetCDF input files downloaded from S3, when their metadata has one.
+    private static volatile boolean verifyInputChecksums = false;
+
+    // Host-wide input cache, shared with the other NcAnimate processes. Null to disable.
+    private static volatile SharedInputCache sharedInputCache = null;
+    // Files from the shared cache (input files and other downloaded files) are released as soon as
+    // they are linked or copied to the destination. They must not be used in place since they could be evicted.
+    private static final List<LocalFileStrategy> SHARED_CACHE_FILE_STRATEGIES = Arrays.asList(
+            LocalFileStrategy.HARD_LINK,
+            LocalFileStrategy.TRANSFER);
 
     public static BoundingBox convertBoundingBox(NcAnimateBboxBean bboxBean) {
         if (bboxBean == null) {
@@ -164,22 +217,73 @@ public class NcAnimateUtils {
     }
 
 
+    /**
+     * Enable multi-part downloads for the NetCDF input files and the files downloaded from S3.
+     * @param multipartDownloader The downloader, or null to download files as a single stream (default).
+     */
+    public static void setMultipartDownloader(MultipartDownloader multipartDownloader) {
+        NcAnimateUtils.multipartDownloader = multipartDownloader;
+    }
+
+    public static MultipartDownloader getMultipartDownloader() {
+        return NcAnimateUtils.multipartDownloader;
+    }
+
+    /**
+     * Enable or disable the checksum verification of the NetCDF input files downloaded from S3 (disabled by default).
+     * The checksum is calculated while the file is downloaded and compared with the checksum found
+     * in the file metadata. Corrupted files are downloaded again, then quarantined (see VerifiedDownloadTask).
+     * Files without checksum, or with an unsupported checksum, are not verified.
+     * NOTE: When enabled, the input files with a checksum are downloaded using the MultipartDownloader
+     *     (single stream if no multi-part downloader is set) instead of MetadataHelper.downloadNetCDFFile.
+     * @param verifyInputChecksums
+     */
+    public static void setVerifyInputChecksums(boolean verifyInputChecksums) {
+        NcAnimateUtils.verifyInputChecksums = verifyInputChecksums;
+    }
+
+    public static boolean isVerifyInputChecksums() {
+        return NcAnimateUtils.verifyInputChecksums;
+    }
+
+    /**
+     * Enable the host-wide input cache for the NetCDF input files and the files downloaded from S3.
+     * Files are downloaded once into the cache directory, then linked (or copied) to the working directory.
+     * @param sharedInputCache The cache, or null to download the files directly into the working directory (default).
+     */
+    public static void setSharedInputCache(SharedInputCache sharedInputCache) {
+        NcAnimateUtils.sharedInputCache = sharedInputCache;
+    }
+
+    public static SharedInputCache getSharedInputCache() {
+        return NcAnimateUtils.sharedInputCache;
+    }
+
     public static void clearCache() {
         if (netCDFMetadataCacheMap != null) {
             netCDFMetadataCacheMap.clear();
             netCDFMetadataCacheMap = null;
         }
 
-        if (inputFileCacheMap != null) {
-            for (File cachedFile : inputFileCacheMap.values()) {
-                LOGGER.warn(String.format("[-] Deleting cached input files: %s", cachedFile));
-                if (cachedFile != null && !cachedFile.delete()) {
-                    LOGGER.warn(String.format("Could not delete cached input file: %s", cachedFile));
+        synchronized (inputFileUserMap) {
+            List<File> cachedFiles = new ArrayList<File>(inputFileCacheMap.values());
+            cachedFiles.addAll(retiredInputFileMap.keySet());
+            for (File cachedFile : cachedFiles) {
+                if (cachedFile != null && inPlaceInputFileMap.remove(cachedFile) == null) {
+                    LOGGER.warn(String.format("[-] Deleting cached input files: %s", cachedFile));
+                    if (!cachedFile.delete()) {
+                        LOGGER.warn(String.format("Could not delete cached input file: %s", cachedFile));
+                    }
                 }
             }
             inputFileCacheMap.clear();
-            inputFileCacheMap = null;
+            inPlaceInputFileMap.clear();
+            inputFileUserMap.clear();
+            retiredInputFileMap.clear();
         }
+
+        ConfigTemplateValues.clearCache();
+        GeneratorContext.clearConfigStateCache();
     }
 
     public static NetCDFMetadataBean getInputFileMetadata(MetadataHelper metadataHelper, String definitionId, String datasetId) throws Exception {
@@ -210,29 +314,119 @@ public class NcAnimateUtils {
         return NcAnimateUtils.getInputFile(netCDFDirectory, inputMetadata.getDefinitionId(), inputMetadata.getDatasetId());
     }
 
-    public static File downloadInputFile(MetadataHelper metadataHelper, S3Client s3Client, File inputFile, NetCDFMetadataBean inputMetadata) throws IOException {
+    /**
+     * Download a NetCDF input file, unless it's already downloaded.
+     * This method is thread safe. The input files of a definition are downloaded one at a time.
+     * If the file is already being downloaded by another thread, the method waits for that download to finish.
+     *
+     * Only one input file per definition is kept in the working directory: the previous file
+     * of the definition is deleted when a new one is downloaded. A file used by another thread is
+     * deleted once that thread stops using it. A thread uses the last input file it requested
+     * for each definition, until it calls releaseInputFiles.
+     * @param metadataHelper
+     * @param s3Client
+     * @param inputFile
+     * @param inputMetadata
+     * @return
+     * @throws IOException
+     */
+    public static File downloadInputFile(
+            MetadataHelper metadataHelper,
+            S3Client s3Client,
+            File inputFile,
+            NetCDFMetadataBean inputMetadata) throws IOException {
+
         if (inputFile == null || inputMetadata == null) {
             return null;
         }
 
         String definitionId = inputMetadata.getDefinitionId();
+        synchronized (inputFileUserMap) {
+            File cachedInputFile = NcAnimateUtils.getCachedInputFile(inputFile, inputMetadata);
+            if (cachedInputFile != null) {
+                NcAnimateUtils.useInputFile(definitionId, inputFile);
+                return cachedInputFile;
+            }
+        }
 
-        if (inputFileCacheMap == null) {
-            inputFileCacheMap = new HashMap<String, File>();
+        Object definitionLock = definitionLockMap.get(definitionId);
+        if (definitionLock == null) {
+            Object newDefinitionLock = new Object();
+            definitionLock = definitionLockMap.putIfAbsent(definitionId, newDefinitionLock);
+            if (definitionLock == null) {
+                definitionLock = newDefinitionLock;
+            }
         }
-        if (inputFileCacheMap.containsKey(definitionId)) {
-            File cachedInputFile = inputFileCacheMap.get(definitionId);
-            if (cachedInputFile != null && cachedInputFile.canRead()) {
-                if (cachedInputFile.getName().equals(inputFile.getName())) {
-                    // The file in the cache match the requested one.
-                    return cachedInputFile;
-                }
 
-                // The cached file is outdated
-                LOGGER.warn(String.format("[-] Deleting old input files: %s", cachedInputFile));
-                if (!cachedInputFile.delete()) {
-                    LOGGER.warn(String.format("Could not delete old input file: %s", cachedInputFile));
+        synchronized (definitionLock) {
+            File usedInputFile = NcAnimateUtils.downloadInputFileNow(metadataHelper, s3Client, inputFile, inputMetadata);
+            synchronized (inputFileUserMap) {
+                NcAnimateUtils.useInputFile(definitionId, inputFile);
+            }
+            return usedInputFile;
+        }
+    }
+
+    /**
+     * The current thread doesn't use the input files returned by downloadInputFile anymore.
+     * The input files which have been replaced by a more recent download are deleted
+     * when they are not used by any thread.
+     */
+    public static void releaseInputFiles() {
+        synchronized (inputFileUserMap) {
+            for (String definitionId : new ArrayList<String>(inputFileUserMap.keySet())) {
+                NcAnimateUtils.stopUsingInputFile(definitionId);
+            }
+        }
+    }
+
+    private static File getCachedInputFile(File inputFile, NetCDFMetadataBean inputMetadata) {
+        File cachedInputFile = inputFileCacheMap.get(inputMetadata.getDefinitionId());
+        if (cachedInputFile != null && cachedInputFile.getName().equals(inputFile.getName())) {
+            // The file in the cache match the requested one.
+            File inPlaceInputFile = inPlaceInputFileMap.get(cachedInputFile);
+            File usedInputFile = inPlaceInputFile == null ? cachedInputFile : inPlaceInputFile;
+            if (usedInputFile.canRead()) {
+                return usedInputFile;
+            }
+        }
+        return null;
+    }
+
+    // Called with the definition lock
+    private static File downloadInputFileNow(
+            MetadataHelper metadataHelper,
+            S3Client s3Client,
+            File inputFile,
+            NetCDFMetadataBean inputMetadata) throws IOException {
+
+        String definitionId = inputMetadata.getDefinitionId();
+        synchronized (inputFileUserMap) {
+            // The file may have been downloaded by another thread while this thread was waiting
+            File cachedInputFile = NcAnimateUtils.getCachedInputFile(inputFile, inputMetadata);
+            if (cachedInputFile != null) {
+                return cachedInputFile;
+            }
+
+            // This thread doesn't need its previous file of this definition anymore
+            NcAnimateUtils.stopUsingInputFile(definitionId);
+
+            // The cached file is outdated. It's deleted now, or when the last thread using it stops using it.
+            File oldInputFile = inputFileCacheMap.remove(definitionId);
+            if (oldInputFile != null) {
+                retiredInputFileMap.put(oldInputFile, definitionId);
+                NcAnimateUtils.deleteInputFileIfUnused(oldInputFile);
+            }
+
+            // The requested file has been replaced, but it's still used by another thread
+            if (retiredInputFileMap.remove(inputFile) != null) {
+                File inPlaceInputFile = inPlaceInputFileMap.get(inputFile);
+                File usedInputFile = inPlaceInputFile == null ? inputFile : inPlaceInputFile;
+                if (usedInputFile.canRead()) {
+                    inputFileCacheMap.put(definitionId, inputFile);
+                    return usedInputFile;
                 }
+                NcAnimateUtils.deleteInputFile(inputFile);
             }
         }
 
@@ -247,8 +441,39 @@ public class NcAnimateUtils {
             }
         }
 
+        URI inputFileURI = inputMetadata.getFileURI();
+        if (inputFileURI != null && "file".equalsIgnoreCase(inputFileURI.getScheme())) {
+            // Local input file (shared storage), try to avoid copying it
+            LOGGER.info(String.format("[+] Linking or copying local NetCDF input file: %s", inputFile));
+            return NcAnimateUtils.ingestInputFile(new File(inputFileURI), inputFile, definitionId);
+        }
+
         LOGGER.info(String.format("[+] Downloading NetCDF input file: %s", inputFile));
-        metadataHelper.downloadNetCDFFile(inputMetadata, inputFile, s3Client);
+        DownloadTask downloadTask = NcAnimateUtils.createInputDownloadTask(metadataHelper, s3Client, inputMetadata);
+
+        SharedInputCache cache = NcAnimateUtils.sharedInputCache;
+        if (cache != null) {
+            // The definition ID is part of the key, since 2 definitions can have files with the same name.
+            // The last modified is part of the key, to not reuse a file which was re-generated.
+            String cacheKey = String.format("%s_%s_%d", definitionId, inputFile.getName(), inputMetadata.getLastModified());
+            File sharedInputFile = cache.acquire(cacheKey, downloadTask);
+            if (sharedInputFile == null) {
+                throw new IOException(String.format("The input file could not be downloaded into the shared cache: %s", inputFile));
+            }
+
+            // The per-definition strategies are not used: a cached file could be evicted while used in place.
+            // A hard linked file is not evicted, and a copy doesn't depend on the cache.
+            try {
+                LocalFileIngester.ingest(sharedInputFile, inputFile, SHARED_CACHE_FILE_STRATEGIES);
+            } finally {
+                cache.release(cacheKey);
+            }
+            inputFileCacheMap.put(definitionId, inputFile);
+
+            return inputFile;
+        }
+
+        SingleFlightDownloader.downloadAtomically(inputFile, downloadTask);
         if (!inputFile.canRead()) {
             // The download input file can't be read, it's pointless to continue (this should not happen)
             throw new IOException(String.format("The download input file is not readable: %s", inputFile));
@@ -259,6 +484,115 @@ public class NcAnimateUtils {
         return inputFile;
     }
 
+    private static DownloadTask createInputDownloadTask(
+            final MetadataHelper metadataHelper,
+            final S3Client s3Client,
+            final NetCDFMetadataBean inputMetadata) {
+
+        URI inputFileURI = inputMetadata.getFileURI();
+        DownloadTask downloadTask;
+        MultipartDownloader downloader = NcAnimateUtils.multipartDownloader;
+        Checksum expectedChecksum = NcAnimateUtils.verifyInputChecksums ? Checksum.parse(inputMetadata.getChecksum()) : null;
+        if ((downloader != null || expectedChecksum != null) &&
+                s3Client != null && inputFileURI != null && "s3".equalsIgnoreCase(inputFileURI.getScheme())) {
+            if (downloader == null) {
+                // The checksum is calculated while streaming the file to disk
+                downloader = MultipartDownloader.createSingleStreamDownloader();
+            }
+            downloadTask = downloader.createDownloadTask(new S3RangeSource(s3Client.getS3(), new AmazonS3URI(inputFileURI)), expectedChecksum);
+            if (expectedChecksum != null) {
+                downloadTask = new VerifiedDownloadTask(downloadTask);
+            }
+        } else {
+            downloadTask = new DownloadTask() {
+                @Override
+                public void download(File destinationFile) throws IOException {
+                    metadataHelper.downloadNetCDFFile(inputMetadata, destinationFile, s3Client);
+                }
+            };
+        }
+        return downloadTask;
+    }
+
+    // Called with the inputFileUserMap lock
+    private static void useInputFile(String definitionId, File inputFile) {
+        Map<Thread, File> users = inputFileUserMap.get(definitionId);
+        if (users == null) {
+            users = new HashMap<Thread, File>();
+            inputFileUserMap.put(definitionId, users);
+        }
+        File previousInputFile = users.put(Thread.currentThread(), inputFile);
+        if (previousInputFile != null && !previousInputFile.equals(inputFile)) {
+            NcAnimateUtils.deleteInputFileIfUnused(previousInputFile);
+        }
+    }
+
+    // Called with the inputFileUserMap lock
+    private static void stopUsingInputFile(String definitionId) {
+        Map<Thread, File> users = inputFileUserMap.get(definitionId);
+        if (users != null) {
+            File previousInputFile = users.remove(Thread.currentThread());
+            if (users.isEmpty()) {
+                inputFileUserMap.remove(definitionId);
+            }
+            if (previousInputFile != null) {
+                NcAnimateUtils.deleteInputFileIfUnused(previousInputFile);
+            }
+        }
+    }
+
+    // Called with the inputFileUserMap lock.
+    // Only the retired input files are deleted. The cached ones are kept for the next request.
+    private static void deleteInputFileIfUnused(File inputFile) {
+        String definitionId = retiredInputFileMap.get(inputFile);
+        if (definitionId == null) {
+            return;
+        }
+
+        Map<Thread, File> users = inputFileUserMap.get(definitionId);
+        if (users != null) {
+            Iterator<Map.Entry<Thread, File>> userIterator = users.entrySet().iterator();
+            while (userIterator.hasNext()) {
+                Map.Entry<Thread, File> userEntry = userIterator.next();
+                if (!userEntry.getKey().isAlive()) {
+                    // The thread died without releasing its input files
+                    userIterator.remove();
+                } else if (inputFile.equals(userEntry.getValue())) {
+                    // Still in use
+                    return;
+                }
+            }
+        }
+
+        retiredInputFileMap.remove(inputFile);
+        NcAnimateUtils.deleteInputFile(inputFile);
+    }
+
+    private static void deleteInputFile(File inputFile) {
+        if (inPlaceInputFileMap.remove(inputFile) != null) {
+            // The input file was used in place, it's not in the working directory
+            return;
+        }
+        if (inputFile.canRead()) {
+            LOGGER.warn(String.format("[-] Deleting old input files: %s", inputFile));
+            if (!inputFile.delete()) {
+                LOGGER.warn(String.format("Could not delete old input file: %s", inputFile));
+            }
+        }
+    }
+
+    private static File ingestInputFile(File sourceFile, File inputFile, String definitionId) throws IOException {
+        File usedInputFile = LocalFileIngester.ingest(sourceFile, inputFile,
+                LocalFileIngester.getStrategies(definitionId));
+        if (!usedInputFile.equals(inputFile)) {
+            LOGGER.info(String.format("[+] Using NetCDF input file in place: %s", usedInputFile));
+            inPlaceInputFileMap.put(inputFile, usedInputFile);
+        }
+        inputFileCacheMap.put(definitionId, inputFile);
+
+        return usedInputFile;
+    }
+
     // Create a map of all the layers used in this config
     public static Map<String, NcAnimateLayerBean> getLayers(NcAnimateConfigBean ncAnimateConfig) {
         Map<String, NcAnimateLayerBean> layerMap = new HashMap<String, NcAnimateLayerBean>();
@@ -328,11 +662,51 @@ public class NcAnimateUtils {
         return NcAnimateUtils.downloadFile(uri, s3Client, destinationFile);
     }
 
+    /**
+     * Download (or copy) a file.
+     * This method is thread safe. If the file is already being downloaded by another thread,
+     * the method waits for that download to finish (see SingleFlightDownloader).
+     * Local files are copied.
+     * @param uri S3 URI, file URI or path of the file to download.
+     * @param s3Client
+     * @param destinationFile
+     * @return The destination file, or null if the file could not be downloaded.
+     * @throws IOException
+     */
     public static File downloadFile(URI uri, S3Client s3Client, File destinationFile) throws IOException {
+        return NcAnimateUtils.downloadFile(uri, s3Client, destinationFile, LocalFileIngester.DEFAULT_STRATEGIES);
+    }
+
+    /**
+     * Same as downloadFile(URI, S3Client, File), using the given strategies for local files.
+     * Use it to link local files, or to use them in place (see LocalFileIngester.LINK_OR_COPY_STRATEGIES).
+     * @param uri S3 URI, file URI or path of the file to download.
+     * @param s3Client
+     * @param destinationFile
+     * @param localFileStrategies Strategies used to make a local file available, in order.
+     * @return The destination file, the source file if a local file is used in place,
+     *     or null if the file could not be downloaded.
+     * @throws IOException
+     */
+    public static File downloadFile(
+            final URI uri,
+            final S3Client s3Client,
+            final File destinationFile,
+            final List<LocalFileStrategy> localFileStrategies) throws IOException {
+
         if (uri == null || destinationFile == null) {
             return null;
         }
 
+        return SingleFlightDownloader.run(destinationFile, new Callable<File>() {
+            @Override
+            public File call() throws Exception {
+                return NcAnimateUtils.downloadFileNow(uri, s3Client, destinationFile, localFileStrategies);
+            }
+        });
+    }
+
+    private static File downloadFileNow(URI uri, final S3Client s3Client, File destinationFile, List<LocalFileStrategy> localFileStrategies) throws IOException {
         Utils.prepareDirectory(destinationFile.getParentFile());
 
         // Copy URI (S3://, File:// or path) to directory
@@ -341,15 +715,37 @@ public class NcAnimateUtils {
             if (s3Client == null) {
                 return null;
             }
-            AmazonS3URI s3URI = new AmazonS3URI(uri);
-            DownloadManager.download(s3Client, s3URI, destinationFile);
-            if (destinationFile.exists()) {
+            final AmazonS3URI s3URI = new AmazonS3URI(uri);
+            MultipartDownloader downloader = NcAnimateUtils.multipartDownloader;
+            DownloadTask downloadTask;
+            if (downloader != null) {
+                downloadTask = downloader.createDownloadTask(new S3RangeSource(s3Client.getS3(), s3URI));
+            } else {
+                downloadTask = new DownloadTask() {
+                    @Override
+                    public void download(File temporaryFile) throws IOException {
+                        DownloadManager.download(s3Client, s3URI, temporaryFile);
+                    }
+                };
+            }
+
+            boolean downloaded;
+            SharedInputCache cache = NcAnimateUtils.sharedInputCache;
+            if (cache != null) {
+                downloaded = NcAnimateUtils.downloadFileUsingSharedCache(cache, s3Client, s3URI, destinationFile, downloadTask);
+            } else if (downloader != null) {
+                downloaded = s3Client.getS3().doesObjectExist(s3URI.getBucket(), s3URI.getKey()) &&
+                        SingleFlightDownloader.downloadAtomically(destinationFile, downloadTask);
+            } else {
+                downloaded = SingleFlightDownloader.downloadAtomically(destinationFile, downloadTask);
+            }
+            if (downloaded) {
                 sourceFileExists = true;
             } else {
                 sourceFileExists = s3Client.getS3().doesObjectExist(s3URI.getBucket(), s3URI.getKey());
             }
         } else {
-            File sourceFile;
+            final File sourceFile;
             if ("file".equalsIgnoreCase(uri.getScheme())) {
                 sourceFile = new File(uri);
             } else {
@@ -357,7 +753,11 @@ public class NcAnimateUtils {
             }
             if (sourceFile.canRead()) {
                 sourceFileExists = true;
-                Files.copy(sourceFile.toPath(), destinationFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                File usedFile = LocalFileIngester.ingest(sourceFile, destinationFile, localFileStrategies);
+                if (!usedFile.equals(destinationFile) && usedFile.canRead()) {
+                    // The source file is used in place
+                    return usedFile;
+                }
             }
         }
 
@@ -378,6 +778,38 @@ public class NcAnimateUtils {
         return destinationFile;
     }
 
+    private static boolean downloadFileUsingSharedCache(
+            SharedInputCache cache,
+            S3Client s3Client,
+            AmazonS3URI s3URI,
+            File destinationFile,
+            DownloadTask downloadTask) throws IOException {
+
+        String eTag;
+        try {
+            eTag = s3Client.getS3().getObjectMetadata(s3URI.getBucket(), s3URI.getKey()).getETag();
+        } catch (AmazonServiceException ex) {
+            if (ex.getStatusCode() == 404) {
+                return false;
+            }
+            throw ex;
+        }
+
+        // The ETag changes when the S3 object is replaced
+        String cacheKey = String.format("%s_%s", destinationFile.getName(), eTag);
+        File cachedFile = cache.acquire(cacheKey, downloadTask);
+        if (cachedFile == null) {
+            return false;
+        }
+
+        try {
+            LocalFileIngester.ingest(cachedFile, destinationFile, SHARED_CACHE_FILE_STRATEGIES);
+        } finally {
+            cache.release(cacheKey);
+        }
+        return true;
+    }
+
     public static String parseString(NcAnimateTextBean textConf, GeneratorContext context, Map<String, LayerContext> layerContextMap) {
         if (textConf == null) {
             return null;
@@ -423,12 +855,234 @@ public class NcAnimateUtils {
             }
         }
 
+        // If every string contains patterns that are not found in context / config
+        NcAnimateUtils.logUnresolvedStrings(strings, context, layerContextMap);
+
+        return NcAnimateUtils.parseString(strings.get(strings.size() - 1), context, layerContextMap, true);
+    }
+
+    public static String parseString(String str, GeneratorContext context, Map<String, LayerContext> layerContextMap) {
+        return NcAnimateUtils.parseString(str, context, layerContextMap, true);
+    }
+
+    /**
+     *
+     * @param str
+     * @param context
+     * @param layerContextMap
+     * @param force True to return the string with whatever can be changed. False to return null if at least one variable can't be substituted.
+     * @return
+     */
+    private static String parseString(String str, GeneratorContext context, Map<String, LayerContext> layerContextMap, boolean force) {
+        if (str == null || str.isEmpty()) {
+            return str;
+        }
+
+        Template template = Template.compile(str);
+        String[] replacements = NcAnimateUtils.resolvePlaceholders(template, context, layerContextMap, !force);
+        if (replacements == null) {
+            return null;
+        }
+
+        int length = template.getLiteralLength();
+        for (String replacement : replacements) {
+            length += replacement == null ? 0 : replacement.length();
+        }
+
+        StringBuilder sb = new StringBuilder(length);
+        try {
+            NcAnimateUtils.writeTemplate(sb, template, replacements);
+        } catch (IOException ex) {
+            // This should not happen, StringBuilder do not throw IOException
+            throw new IllegalStateException("Error occurred while writing to a StringBuilder.", ex);
+        }
+
+        return sb.toString();
+    }
+
+    public static boolean render(StringBuilder out, String str, GeneratorContext context) {
+        return NcAnimateUtils.render(out, str, context, null);
+    }
+
+    public static boolean render(StringBuilder out, String str, GeneratorContext context, Map<String, LayerContext> layerContextMap) {
+        try {
+            return NcAnimateUtils.render((Appendable)out, str, context, layerContextMap);
+        } catch (IOException ex) {
+            // This should not happen, StringBuilder do not throw IOException
+            throw new IllegalStateException("Error occurred while writing to a StringBuilder.", ex);
+        }
+    }
+
+    public static boolean render(StringBuilder out, List<String> strings, GeneratorContext context, Map<String, LayerContext> layerContextMap) {
+        try {
+            return NcAnimateUtils.render((Appendable)out, strings, context, layerContextMap);
+        } catch (IOException ex) {
+            // This should not happen, StringBuilder do not throw IOException
+            throw new IllegalStateException("Error occurred while writing to a StringBuilder.", ex);
+        }
+    }
+
+    public static boolean render(Appendable out, String str, GeneratorContext context) throws IOException {
+        return NcAnimateUtils.render(out, str, context, null);
+    }
+
+    /**
+     * Write the string into the output, replacing placeholders with values from config or context.
+     * Same as parseString(String, GeneratorContext, Map), without creating intermediate strings.
+     * Placeholders that can not be substituted are written as is.
+     * @param out The output (StringBuilder, Writer, etc). It can be reused between calls.
+     * @param str String that may contains pattern(s) in the form as "${path options}.
+     * @param context
+     * @param layerContextMap
+     * @return True if all placeholders were substituted.
+     * @throws IOException If the output can not be written.
+     */
+    public static boolean render(Appendable out, String str, GeneratorContext context, Map<String, LayerContext> layerContextMap) throws IOException {
+        if (str == null || str.isEmpty()) {
+            return true;
+        }
+
+        Template template = Template.compile(str);
+        boolean allResolved = true;
+
+        int nbPlaceholders = template.getPlaceholderCount();
+        for (int i=0; i<nbPlaceholders; i++) {
+            template.appendLiteral(out, i);
+
+            TemplatePlaceholder placeholder = template.getPlaceholder(i);
+            String replacement = NcAnimateUtils.parseStringPattern(placeholder, context, layerContextMap);
+            if (replacement == null) {
+                NcAnimateUtils.warnUnresolved(placeholder, template, context);
+                placeholder.appendUnresolved(out);
+                allResolved = false;
+            } else {
+                out.append(replacement);
+            }
+        }
+        template.appendLiteral(out, nbPlaceholders);
+
+        return allResolved;
+    }
+
+    public static boolean render(Appendable out, NcAnimateTextBean textConf, GeneratorContext context, Map<String, LayerContext> layerContextMap) throws IOException {
+        if (textConf == null) {
+            return true;
+        }
+
+        return NcAnimateUtils.render(out, textConf.getText(), context, layerContextMap);
+    }
+
+    /**
+     * Write the first string of the list which can be fully substituted into the output.
+     * Same as parseString(List, GeneratorContext, Map), without creating intermediate strings.
+     * @param out The output (StringBuilder, Writer, etc). It can be reused between calls.
+     * @param strings String that may contains pattern(s) in the form as "${path options}.
+     *     If one or more pattern is not found in the context or config, try with the next string in the list.
+     * @param context
+     * @param layerContextMap
+     * @return True if a string was fully substituted. False if the last string was written with
+     *     whatever could be substituted.
+     * @throws IOException If the output can not be written.
+     */
+    public static boolean render(Appendable out, List<String> strings, GeneratorContext context, Map<String, LayerContext> layerContextMap) throws IOException {
+        if (strings == null || strings.isEmpty()) {
+            return true;
+        }
+
+        for (String str : strings) {
+            if (str == null || str.isEmpty()) {
+                if (str != null) {
+                    out.append(str);
+                }
+                return true;
+            }
+
+            Template template = Template.compile(str);
+            String[] replacements = NcAnimateUtils.resolvePlaceholders(template, context, layerContextMap, true);
+            if (replacements != null) {
+                NcAnimateUtils.writeTemplate(out, template, replacements);
+                return true;
+            }
+        }
 
         // If every string contains patterns that are not found in context / config
+        NcAnimateUtils.logUnresolvedStrings(strings, context, layerContextMap);
+
+        NcAnimateUtils.render(out, strings.get(strings.size() - 1), context, layerContextMap);
+        return false;
+    }
+
+    /**
+     * Find the value of every placeholders of the template.
+     * @param template
+     * @param context
+     * @param layerContextMap
+     * @param stopOnMissing True to return null as soon as a placeholder can not be substituted.
+     * @return Array of replacement values, one per placeholder. The value is null for
+     *     placeholders that could not be substituted.
+     */
+    private static String[] resolvePlaceholders(Template template, GeneratorContext context, Map<String, LayerContext> layerContextMap, boolean stopOnMissing) {
+        int nbPlaceholders = template.getPlaceholderCount();
+        String[] replacements = new String[nbPlaceholders];
+
+        for (int i=0; i<nbPlaceholders; i++) {
+            TemplatePlaceholder placeholder = template.getPlaceholder(i);
+            String replacement = NcAnimateUtils.parseStringPattern(placeholder, context, layerContextMap);
+
+            if (replacement == null) {
+                // If the pattern was not found in context / config
+                NcAnimateUtils.warnUnresolved(placeholder, template, context);
+                if (stopOnMissing) {
+                    return null;
+                }
+            }
+            replacements[i] = replacement;
+        }
+
+        return replacements;
+    }
+
+    private static void writeTemplate(Appendable out, Template template, String[] replacements) throws IOException {
+        int nbPlaceholders = template.getPlaceholderCount();
+        for (int i=0; i<nbPlaceholders; i++) {
+            template.appendLiteral(out, i);
+
+            String replacement = replacements[i];
+            if (replacement == null) {
+                template.getPlaceholder(i).appendUnresolved(out);
+            } else {
+                out.append(replacement);
+            }
+        }
+        template.appendLiteral(out, nbPlaceholders);
+    }
+
+    private static void warnUnresolved(TemplatePlaceholder placeholder, Template template, GeneratorContext context) {
+        NcAnimateConfigBean config = context == null ? null : context.getNcAnimateConfig();
+
+        // Placeholders reported by the template validation are counted but not logged again
+        ConfigTemplateValues configValues = context == null ? null : context.getConfigTemplateValues();
+        boolean reported = configValues != null && configValues.isReported(placeholder);
+
+        TemplateDiagnostics.missingVariable(NcAnimateUtils.getConfigId(config), template, placeholder, reported);
+    }
+
+    private static void logUnresolvedStrings(List<String> strings, GeneratorContext context, Map<String, LayerContext> layerContextMap) {
+        NcAnimateConfigBean config = context == null ? null : context.getNcAnimateConfig();
+
+        Template[] templates = new Template[strings.size()];
+        for (int i=0; i<templates.length; i++) {
+            templates[i] = Template.compile(strings.get(i));
+        }
+        TemplateDiagnostics.unresolvedTexts(NcAnimateUtils.getConfigId(config), templates);
+
+        // The config and context dump is very expensive, it's only logged when tracing.
+        if (!LOGGER.isTraceEnabled()) {
+            return;
+        }
+
         String warningMessage = "All texts contains variable(s) that could not be substituted.";
         if (context != null) {
-            NcAnimateConfigBean config = context.getNcAnimateConfig();
-
             if (config != null) {
                 warningMessage += String.format("%n%s", config);
 
@@ -451,95 +1105,64 @@ public class NcAnimateUtils {
             }
             warningMessage += String.format("%nlayerCtx:%n%s", jsonLayerContextMap.toString(4));
         }
-        LOGGER.warn(warningMessage);
-
-
-        return NcAnimateUtils.parseString(strings.get(strings.size() - 1), context, layerContextMap, true);
+        LOGGER.trace(warningMessage);
     }
 
-    public static String parseString(String str, GeneratorContext context, Map<String, LayerContext> layerContextMap) {
-        return NcAnimateUtils.parseString(str, context, layerContextMap, true);
+    private static String getConfigId(NcAnimateConfigBean config) {
+        NcAnimateIdBean id = config == null ? null : config.getId();
+        return id == null ? null : id.getValue();
     }
 
     /**
-     *
-     * @param str
+     * Find the value of a single placeholder.
+     * Values which only depends on the configuration are resolved once
+     * and shared between all contexts of the configuration (see ConfigTemplateValues).
+     * @param placeholder
      * @param context
      * @param layerContextMap
-     * @param force True to return the string with whatever can be changed. False to return null if at least one variable can't be substituted.
-     * @return
+     * @return The placeholder value, or null if it could not be found in the context / config.
      */
-    private static String parseString(String str, GeneratorContext context, Map<String, LayerContext> layerContextMap, boolean force) {
-        if (str == null || str.isEmpty()) {
-            return str;
+    public static String resolvePlaceholder(TemplatePlaceholder placeholder, GeneratorContext context, Map<String, LayerContext> layerContextMap) {
+        if (placeholder == null || context == null) {
+            return null;
         }
+        return NcAnimateUtils.parseStringPattern(placeholder, context, layerContextMap);
+    }
 
-        StringBuilder sb = new StringBuilder(),
-            patternSb = null;
-
-        int strLen = str.length();
-        for (int i=0; i<strLen; i++) {
-            char ch = str.charAt(i),
-                nextCh = i+1 >= strLen ? '\0' : str.charAt(i+1);
-
-            if (patternSb == null) {
-                if (ch == '$' && nextCh == '{') {
-                    patternSb = new StringBuilder();
-                    i++;
-                    continue;
+    private static String parseStringPattern(TemplatePlaceholder placeholder, GeneratorContext context, Map<String, LayerContext> layerContextMap) {
+        if (placeholder.isConfigPlaceholder()) {
+            ConfigTemplateValues configValues = context.getConfigTemplateValues();
+            if (configValues != null) {
+                if (configValues.isResolved(placeholder)) {
+                    return configValues.getValue(placeholder);
                 }
-            }
-
-            if (patternSb != null) {
-                if (ch == '}') {
-                    String path = patternSb.toString();
-                    String replacement = NcAnimateUtils.parseStringPattern(path, context, layerContextMap);
 
-                    if (replacement == null) {
-                        // If the pattern was not found in context / config
-                        LOGGER.warn(String.format("Variable ${%s} not found in: \"%s\".", path, str));
-                        if (force) {
-                            replacement = String.format("${%s}", path);
-                        } else {
-                            return null;
-                        }
-                    }
-                    sb.append(replacement);
-                    patternSb = null;
-                } else {
-                    patternSb.append(ch);
-                }
-            } else {
-                sb.append(ch);
+                String value = NcAnimateUtils.parseUncachedStringPattern(placeholder, context, layerContextMap);
+                configValues.setValue(placeholder, value);
+                return value;
             }
         }
 
-        return sb.toString();
+        return NcAnimateUtils.parseUncachedStringPattern(placeholder, context, layerContextMap);
     }
 
-    private static String parseStringPattern(String str, GeneratorContext context, Map<String, LayerContext> layerContextMap) {
+    private static String parseUncachedStringPattern(TemplatePlaceholder placeholder, GeneratorContext context, Map<String, LayerContext> layerContextMap) {
         NcAnimateConfigBean config = context.getNcAnimateConfig();
-        JSONObject json = config.toJSON();
-
-        str = str.trim();
-
-        String[] strSections = str.split(" ");
-        String path = strSections[0].trim();
-        String options = strSections.length > 1 ? strSections[1].trim() : null;
 
-        String[] pathParts = path.split("\\.");
-
-        String firstPathPart = pathParts[0].trim();
+        int nbPathParts = placeholder.getPathPartCount();
+        String firstPathPart = placeholder.getFirstPathPart();
 
         Object value = null;
 
         // Anything else - attempt to find the attribute in the config
+        // NOTE: The config JSON is only generated when needed.
         Object rawValue = null;
-        JSONObject jsonValue = json;
+        JSONObject jsonValue = null;
+        boolean configValue = true;
         int startIndex = 0;
 
         if ("layers".equals(firstPathPart)) {
-            String secondPathPart = pathParts[1].trim();
+            String secondPathPart = nbPathParts > 1 ? placeholder.getPathPart(1) : null;
             if ("authors".equals(secondPathPart)) {
                 List<String> authors = NcAnimateUtils.getLayersAuthors(config);
                 StringBuilder sb = new StringBuilder();
@@ -573,44 +1196,55 @@ public class NcAnimateUtils {
                 return sb.toString();
             }
         } else if (firstPathPart.startsWith("layers[")) {
-            String[] arrayPropertyParts = NcAnimateUtils.getArrayProperty(firstPathPart);
+            String[] arrayPropertyParts = placeholder.getArrayProperty(0);
             if (arrayPropertyParts != null) {
                 Map<String, NcAnimateLayerBean> layerMap = NcAnimateUtils.getLayers(config);
                 NcAnimateLayerBean layer = layerMap.get(arrayPropertyParts[1]);
                 if (layer != null) {
                     jsonValue = layer.toJSON();
+                    configValue = false;
                     startIndex = 1;
                 }
             }
 
         } else if ("ctx".equalsIgnoreCase(firstPathPart)) {
+            // Common context values are read directly from the context
+            ContextValueResolver contextValueResolver = placeholder.getContextValueResolver();
+            if (contextValueResolver != null) {
+                value = contextValueResolver.resolve(context);
+                return value == null ? null : NcAnimateUtils.formatValue(value, placeholder.getOptions(), context);
+            }
+
             jsonValue = context.toJSON();
+            configValue = false;
             startIndex = 1;
 
         } else if ("layerCtx".equalsIgnoreCase(firstPathPart)) {
-            if (layerContextMap == null || layerContextMap.isEmpty()) {
+            if (layerContextMap == null || layerContextMap.isEmpty() || nbPathParts < 2) {
                 return null;
             }
 
-            String layerId = pathParts[1].trim();
+            String layerId = placeholder.getPathPart(1);
             LayerContext layerContext = layerContextMap.get(layerId);
             if (layerContext == null) {
                 return null;
             }
 
             jsonValue = layerContext.toJSON();
+            configValue = false;
             startIndex = 2;
         }
 
+        if (configValue) {
+            jsonValue = config.toJSON();
+        }
 
-        for (int i=startIndex; i<pathParts.length; i++) {
-            String pathPart = pathParts[i].trim();
-
-            rawValue = NcAnimateUtils.getValue(jsonValue, pathPart);
+        for (int i=startIndex; i<nbPathParts; i++) {
+            rawValue = NcAnimateUtils.getValue(jsonValue, placeholder.getPathPart(i), placeholder.getArrayProperty(i));
             if (rawValue instanceof JSONObject) {
                 jsonValue = (JSONObject) rawValue;
             } else {
-                if (i == pathParts.length-1) {
+                if (i == nbPathParts-1) {
                     // Value found
                     value = rawValue;
                 }
@@ -619,30 +1253,32 @@ public class NcAnimateUtils {
         }
 
         if (value != null) {
-            if (options != null) {
-                if (value instanceof DateTime) {
-                    Locale locale = NcAnimateUtils.getLocale(context.getNcAnimateConfig());
-                    return ((DateTime)value).toString(options.replace('_', ' '), locale);
-                }
-                if (options.startsWith("%")) {
-                    return String.format(options, value);
-                }
-            }
-
-            return value.toString();
+            return NcAnimateUtils.formatValue(value, placeholder.getOptions(), context);
         }
 
         // Path not found in context / config
         return null;
     }
 
-    private static Object getValue(JSONObject json, String property) {
+    private static String formatValue(Object value, String options, GeneratorContext context) {
+        if (options != null) {
+            if (value instanceof DateTime) {
+                Locale locale = NcAnimateUtils.getLocale(context.getNcAnimateConfig());
+                return ((DateTime)value).toString(options.replace('_', ' '), locale);
+            }
+            if (options.startsWith("%")) {
+                return String.format(options, value);
+            }
+        }
+
+        return value.toString();
+    }
+
+    private static Object getValue(JSONObject json, String property, String[] arrayPropertyParts) {
         if (json == null) {
             return null;
         }
 
-        String[] arrayPropertyParts = NcAnimateUtils.getArrayProperty(property);
-
         // JSONArray
         // Example:
         //     panels[temp]
@@ -682,16 +1318,6 @@ public class NcAnimateUtils {
         return null;
     }
 
-    private static String[] getArrayProperty(String propertyStr) {
-        Pattern arrayPattern = Pattern.compile("(.+)\\[(.+)\\]");
-        Matcher arrayMatcher = arrayPattern.matcher(propertyStr);
-        if (arrayMatcher.find()) {
-            return new String[] { arrayMatcher.group(1), arrayMatcher.group(2) };
-        }
-
-        return null;
-    }
-
     /**
      * Return a map of:
      *     Key: S3 URI (String)
@@ -712,44 +1338,81 @@ public class NcAnimateUtils {
             NcAnimateConfigBean ncAnimateConfig,
             String regionId) throws URISyntaxException {
 
-        Map<String, Long> outputFileLastModifiedMap = new HashMap<String, Long>();
+        // The S3 requests are sent in parallel
+        return NcAnimateUtils.getOutputFileLastModifiedMap(new HeadLastModifiedResolver(s3Client),
+                generateFileBean, ncAnimateConfig, regionId);
+    }
+
+    /**
+     * Same as getOutputFileLastModifiedMap(S3Client, NcAnimateGenerateFileBean, NcAnimateConfigBean, String),
+     * using the given resolver to find the last modified timestamp of the output files.
+     * Use a PrefixListingLastModifiedResolver to check many output files with a few list requests.
+     * @param lastModifiedResolver
+     * @param generateFileBean
+     * @param ncAnimateConfig
+     * @param regionId
+     * @return
+     * @throws URISyntaxException
+     */
+    public static Map<String, Long> getOutputFileLastModifiedMap(
+            OutputLastModifiedResolver lastModifiedResolver,
+            NcAnimateGenerateFileBean generateFileBean,
+            NcAnimateConfigBean ncAnimateConfig,
+            String regionId) throws URISyntaxException {
+
+        List<URI> outputFileURIs = NcAnimateUtils.getOutputFileURIs(generateFileBean, ncAnimateConfig, regionId);
+        return lastModifiedResolver.getLastModified(outputFileURIs);
+    }
+
+    /**
+     * Return the list of URI of all the rendered file (svg, png, etc)
+     * for every regions and target heights.
+     * @param generateFileBean
+     * @param ncAnimateConfig
+     * @param regionId Optional. The region to consider. If null, all regions are considered.
+     * @return
+     * @throws URISyntaxException
+     */
+    public static List<URI> getOutputFileURIs(
+            NcAnimateGenerateFileBean generateFileBean,
+            NcAnimateConfigBean ncAnimateConfig,
+            String regionId) throws URISyntaxException {
+
+        List<URI> outputFileURIs = new ArrayList<URI>();
 
-        // Find the oldest last modified of all the rendered file (svg, png, etc)
-        // If one file is outdated, they should all be considered outdated.
         if (generateFileBean.getRenderFiles() != null) {
             DateTimeRange outputFileDateTimeRange = generateFileBean.getDateRange();
 
-            for (AbstractNcAnimateRenderFileBean renderFile : generateFileBean.getRenderFiles().values()) {
-                String fileURIStr = renderFile.getFileURI();
-                if (fileURIStr != null) {
-                    // Get regions
-                    Map<String, NcAnimateRegionBean> regionMap = ncAnimateConfig.getRegions();
-                    if (regionMap != null) {
-                        // Get target heights
-                        List<Double> targetHeights = ncAnimateConfig.getTargetHeights();
-                        if (targetHeights == null || targetHeights.isEmpty()) {
-                            targetHeights = new ArrayList<Double>();
-                            targetHeights.add(null);
-                        }
+            // Get regions
+            Map<String, NcAnimateRegionBean> regionMap = ncAnimateConfig.getRegions();
+            if (regionMap != null) {
+                // Get target heights
+                List<Double> targetHeights = ncAnimateConfig.getTargetHeights();
+                if (targetHeights == null || targetHeights.isEmpty()) {
+                    targetHeights = new ArrayList<Double>();
+                    targetHeights.add(null);
+                }
 
-                        Collection<NcAnimateRegionBean> regions = regionMap.values();
-                        // If regionId is specified, filter out regions
-                        if (regionId != null) {
-                            regions = new ArrayList<NcAnimateRegionBean>();
-                            regions.add(regionMap.get(regionId));
-                        }
+                Collection<NcAnimateRegionBean> regions = regionMap.values();
+                // If regionId is specified, filter out regions
+                if (regionId != null) {
+                    regions = new ArrayList<NcAnimateRegionBean>();
+                    regions.add(regionMap.get(regionId));
+                }
 
+                GeneratorContext baseContext = new GeneratorContext(ncAnimateConfig).withDateRange(outputFileDateTimeRange);
+                StringBuilder fileURISb = new StringBuilder();
+                for (AbstractNcAnimateRenderFileBean renderFile : generateFileBean.getRenderFiles().values()) {
+                    String fileURIStr = renderFile.getFileURI();
+                    if (fileURIStr != null) {
                         for (NcAnimateRegionBean region : regions) {
+                            GeneratorContext regionContext = baseContext.withRegion(region);
                             for (Double targetHeight : targetHeights) {
-                                GeneratorContext context = new GeneratorContext(ncAnimateConfig);
-                                context.setTargetHeight(targetHeight);
-                                context.setRegion(region);
-                                context.setDateRange(outputFileDateTimeRange);
-
-                                URI fileURI = new URI(NcAnimateUtils.parseString(fileURIStr, context));
-                                FileWrapper fileWrapper = new FileWrapper(fileURI, null);
-                                Long lastModified = fileWrapper.getS3LastModified(s3Client);
-                                outputFileLastModifiedMap.put(fileURI.toString(), lastModified);
+                                GeneratorContext context = regionContext.withTargetHeight(targetHeight);
+
+                                fileURISb.setLength(0);
+                                NcAnimateUtils.render(fileURISb, fileURIStr, context);
+                                outputFileURIs.add(new URI(fileURISb.toString()));
                             }
                         }
                     }
@@ -757,7 +1420,7 @@ public class NcAnimateUtils {
             }
         }
 
-        return outputFileLastModifiedMap;
+        return outputFileURIs;
     }
 
     /**
@@ -780,95 +1443,41 @@ public class NcAnimateUtils {
             String regionId,
             boolean logReason
     ) throws URISyntaxException {
+        return NcAnimateUtils.isOutdated(new HeadLastModifiedResolver(s3Client),
+                generateFileBean, frameMap, ncAnimateConfig, regionId, logReason);
+    }
 
-        DateTimeRange outputFileDateTimeRange = generateFileBean.getDateRange();
-        List<FrameTimetableMap> productFrameTimetableMapList = frameMap.get(outputFileDateTimeRange);
-
-        if (productFrameTimetableMapList != null) {
-            Map<String, Long> productFileLastModifiedMap = getOutputFileLastModifiedMap(s3Client, generateFileBean, ncAnimateConfig, regionId);
-
-            // Find the oldest output file
-            boolean missingOutputFile = false;
-            Map.Entry<String, Long> oldestProductFileLastModifiedEntry = null;
-            for (Map.Entry<String, Long> productFileLastModifiedEntry : productFileLastModifiedMap.entrySet()) {
-                Long lastModified = productFileLastModifiedEntry.getValue();
-                if (lastModified == null) {
-                    missingOutputFile = true;
-                    if (logReason) {
-                        LOGGER.info(String.format("Missing output file: %s", productFileLastModifiedEntry.getKey()));
-                    }
-                } else if (oldestProductFileLastModifiedEntry == null || oldestProductFileLastModifiedEntry.getValue() > lastModified) {
-                    oldestProductFileLastModifiedEntry = productFileLastModifiedEntry;
-                }
-            }
-            if (missingOutputFile) {
-                return true;
-            }
-            if (oldestProductFileLastModifiedEntry == null) {
-                // Nothing to generate? This should not happen
-                LOGGER.warn("This product generate no output file");
-                return false;
-            }
-
-            // Find the newest input file
-            // NOTE: If an input file has no lastModified, the product is considered outdated (there is no way to tell)
-            //     That should not happen.
-            Map<NetCDFMetadataBean, Long> inputLastModifiedMap = new HashMap<NetCDFMetadataBean, Long>();
-            for (FrameTimetableMap productFrameTimetableMap : productFrameTimetableMapList) {
-                inputLastModifiedMap.putAll(productFrameTimetableMap.getInputLastModifiedMap());
-            }
-            boolean missingInputLastModified = false;
-            Map.Entry<NetCDFMetadataBean, Long> newestInputLastModifiedEntry = null;
-            for (Map.Entry<NetCDFMetadataBean, Long> inputLastModifiedEntry : inputLastModifiedMap.entrySet()) {
-                Long inputLastModified = inputLastModifiedEntry.getValue();
-                if (inputLastModified == null) {
-                    // This should not happen
-                    missingInputLastModified = true;
-                    if (logReason) {
-                        LOGGER.info(String.format("Missing input file last modified date: %s", inputLastModifiedEntry.getKey().getId()));
-                    }
-                } else if (newestInputLastModifiedEntry == null || newestInputLastModifiedEntry.getValue() < inputLastModified) {
-                    newestInputLastModifiedEntry = inputLastModifiedEntry;
-                }
-            }
-            if (missingInputLastModified) {
-                return true;
-            }
-
-            // Check if the newest input file is more recent than the oldest output file
-            // NOTE: NcAnimate could produce output file without the need for input file (unlikely)
-            if (newestInputLastModifiedEntry != null) {
-                if (newestInputLastModifiedEntry.getValue() > oldestProductFileLastModifiedEntry.getValue()) {
-                    if (logReason) {
-                        LOGGER.info(String.format("Input file (%s - %s) is more recent than output file (%s - %s)",
-                                newestInputLastModifiedEntry.getKey().getId(),
-                                new DateTime(newestInputLastModifiedEntry.getValue()),
-                                oldestProductFileLastModifiedEntry.getKey(),
-                                new DateTime(oldestProductFileLastModifiedEntry.getValue())));
-                    }
-
-                    return true;
-                }
-            }
-
-            // Find the newest config file
-            AbstractNcAnimateBean lastModifiedConfigPart = ncAnimateConfig.getLastModifiedConfigPart();
-            long configLastModified = lastModifiedConfigPart.getLastModified();
-
-            if (configLastModified > oldestProductFileLastModifiedEntry.getValue()) {
-                if (logReason) {
-                    LOGGER.info(String.format("Configuration file (%s - %s) is more recent than output file (%s - %s)",
-                            lastModifiedConfigPart.getId(),
-                            new DateTime(configLastModified),
-                            oldestProductFileLastModifiedEntry.getKey(),
-                            new DateTime(oldestProductFileLastModifiedEntry.getValue())));
-                }
+    /**
+     * Same as isOutdated(S3Client, NcAnimateGenerateFileBean, Map, NcAnimateConfigBean, String, boolean),
+     * using the given resolver to find the last modified timestamp of the output files.
+     * @param lastModifiedResolver
+     * @param generateFileBean
+     * @param frameMap
+     * @param ncAnimateConfig
+     * @param regionId Optional. The region to check. If null, all regions are considered.
+     * @param logReason True to log the reason why the product is considered outdated.
+     * @return
+     * @throws URISyntaxException
+     */
+    public static boolean isOutdated(
+            OutputLastModifiedResolver lastModifiedResolver,
+            NcAnimateGenerateFileBean generateFileBean,
+            Map<DateTimeRange, List<FrameTimetableMap>> frameMap,
+            NcAnimateConfigBean ncAnimateConfig,
+            String regionId,
+            boolean logReason
+    ) throws URISyntaxException {
 
-                return true;
-            }
+        OutdatedOutputFileChecker checker = new OutdatedOutputFileChecker(ncAnimateConfig, lastModifiedResolver);
+        OutdatedOutputFile outdatedOutputFile = checker.check(generateFileBean, frameMap, regionId);
+        if (outdatedOutputFile == null) {
+            return false;
         }
 
-        return false;
+        if (logReason) {
+            LOGGER.info(outdatedOutputFile.getMessage());
+        }
+        return true;
     }
 
     public static DateTimeZone getTimezone(NcAnimateConfigBean ncAnimateConfig) {
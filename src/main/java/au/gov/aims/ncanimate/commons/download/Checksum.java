@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ncanimate.commons.download;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Expected checksum of a file, as recorded in the file metadata.
+ *
+ * Supported formats:
+ *     ALGORITHM:HEX    Example: "MD5:0123456789abcdef0123456789abcdef"
+ *                      Algorithms: MD5, SHA-1, SHA-256, SHA-512 (the dash is optional).
+ *     HEX              The algorithm is guessed from the length of the value.
+ */
+public class Checksum {
+    private static final String[] SUPPORTED_ALGORITHMS = { "MD5", "SHA-1", "SHA-256", "SHA-512" };
+
+    private final String algorithm;
+    private final String value;
+
+    private Checksum(String algorithm, String value) {
+        this.algorithm = algorithm;
+        this.value = value;
+    }
+
+    /**
+     * @param checksum The checksum found in the file metadata.
+     * @return The checksum, or null if the checksum is null or its format is not supported.
+     */
+    public static Checksum parse(String checksum) {
+        if (checksum == null) {
+            return null;
+        }
+        checksum = checksum.trim();
+        if (checksum.isEmpty()) {
+            return null;
+        }
+
+        String algorithm = null;
+        String value = checksum;
+        int separatorIndex = checksum.indexOf(':');
+        if (separatorIndex >= 0) {
+            algorithm = Checksum.getAlgorithm(checksum.substring(0, separatorIndex));
+            if (algorithm == null) {
+                return null;
+            }
+            value = checksum.substring(separatorIndex + 1).trim();
+        }
+        value = value.toLowerCase();
+        if (!value.matches("[0-9a-f]+")) {
+            return null;
+        }
+
+        for (String supportedAlgorithm : SUPPORTED_ALGORITHMS) {
+            if (value.length() == Checksum.getDigestLength(supportedAlgorithm) * 2) {
+                if (algorithm == null) {
+                    return new Checksum(supportedAlgorithm, value);
+                }
+                if (algorithm.equals(supportedAlgorithm)) {
+                    return new Checksum(algorithm, value);
+                }
+            }
+        }
+
+        // Invalid length for the algorithm
+        return null;
+    }
+
+    public String getAlgorithm() {
+        return this.algorithm;
+    }
+
+    public String getValue() {
+        return this.value;
+    }
+
+    public MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance(this.algorithm);
+        } catch (NoSuchAlgorithmException ex) {
+            // All Java platforms support the supported algorithms, this should not happen
+            throw new IllegalStateException(String.format("Unsupported checksum algorithm: %s", this.algorithm), ex);
+        }
+    }
+
+    /**
+     * @param source The file (or URI) the digest was calculated from, used in the error message.
+     * @param digest The digest of the file.
+     * @throws ChecksumMismatchException If the digest doesn't match the expected checksum.
+     */
+    public void verify(Object source, byte[] digest) throws ChecksumMismatchException {
+        String actual = Checksum.toHex(digest);
+        if (!this.value.equals(actual)) {
+            throw new ChecksumMismatchException(source, this, actual);
+        }
+    }
+
+    public static String toHex(byte[] bytes) {
+        StringBuilder hexSb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hexSb.append(String.format("%02x", b));
+        }
+        return hexSb.toString();
+    }
+
+    private static String getAlgorithm(String algorithm) {
+        String normalisedAlgorithm = algorithm.trim().toUpperCase().replace("-", "");
+        for (String supportedAlgorithm : SUPPORTED_ALGORITHMS) {
+            if (supportedAlgorithm.replace("-", "").equals(normalisedAlgorithm)) {
+                return supportedAlgorithm;
+            }
+        }
+        return null;
+    }
+
+    private static int getDigestLength(String algorithm) {
+        switch (algorithm) {
+            case "MD5": return 16;
+            case "SHA-1": return 20;
+            case "SHA-256": return 32;
+            case "SHA-512": return 64;
+            default:
+                // This should not happen
+                return -1;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return this.algorithm + ":" + this.value;
+    }
+}
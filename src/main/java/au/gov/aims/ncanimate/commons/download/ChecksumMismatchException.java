@@ -0,0 +1,31 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ncanimate.commons.download;
+
+import java.io.IOException;
+
+/**
+ * Thrown when the checksum of a downloaded file doesn't match the expected checksum
+ * (the file is truncated or corrupted).
+ */
+public class ChecksumMismatchException extends IOException {
+    private final Checksum expected;
+    private final String actual;
+
+    public ChecksumMismatchException(Object source, Checksum expected, String actual) {
+        super(String.format("Checksum mismatch for %s. Expected %s, got %s:%s",
+                source, expected, expected.getAlgorithm(), actual));
+        this.expected = expected;
+        this.actual = actual;
+    }
+
+    public Checksum getExpected() {
+        return this.expected;
+    }
+
+    public String getActual() {
+        return this.actual;
+    }
+}
@@ -0,0 +1,23 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ncanimate.commons.download;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Download (or copy) a file to a given location.
+ * See SingleFlightDownloader.
+ */
+public interface DownloadTask {
+
+    /**
+     * Download the file.
+     * If the source file doesn't exist, the implementation should leave the destination file absent.
+     * @param destinationFile The file to write. It's a temporary file, located in the same directory as the final file.
+     * @throws IOException
+     */
+    void download(File destinationFile) throws IOException;
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ncanimate.commons.download;
+
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Make a local file available in the working directory, without copying it when possible.
+ *
+ * The strategies are tried in order, until one succeed.
+ * The default is a plain copy (transfer), which gives a private file that can be modified or deleted.
+ * Linking the file, or using it in place, must be enabled explicitly:
+ * per input definition (download source) using setStrategies,
+ * or per call using ingest (or NcAnimateUtils.downloadFile) with the strategies to use.
+ * Example: LINK_OR_COPY_STRATEGIES tries a hard link, then a transfer, then uses the file in place.
+ *
+ * NOTE: With the HARD_LINK and IN_PLACE strategies, the file used by NcAnimate
+ *     is the source file. It must be treated as read-only.
+ */
+public class LocalFileIngester {
+    private static final Logger LOGGER = Logger.getLogger(LocalFileIngester.class);
+
+    public static final List<LocalFileStrategy> DEFAULT_STRATEGIES = Collections.unmodifiableList(Arrays.asList(
+            LocalFileStrategy.TRANSFER));
+
+    public static final List<LocalFileStrategy> LINK_OR_COPY_STRATEGIES = Collections.unmodifiableList(Arrays.asList(
+            LocalFileStrategy.HARD_LINK,
+            LocalFileStrategy.TRANSFER,
+            LocalFileStrategy.IN_PLACE));
+
+    // Key: Input definition ID
+    // Value: Strategies used for the input files of that definition
+    private static final ConcurrentHashMap<String, List<LocalFileStrategy>> DEFINITION_STRATEGIES =
+            new ConcurrentHashMap<String, List<LocalFileStrategy>>();
+
+    /**
+     * Set the strategies used for the input files of an input definition.
+     * @param definitionId The input definition ID (example: "downloads__ereefs__gbr4_v2")
+     * @param strategies The strategies, in order. Null to use the default strategies (copy).
+     */
+    public static void setStrategies(String definitionId, LocalFileStrategy ... strategies) {
+        LocalFileIngester.setStrategies(definitionId, strategies == null ? null : Arrays.asList(strategies));
+    }
+
+    /**
+     * Same as setStrategies(String, LocalFileStrategy...).
+     * Example: setStrategies("downloads__ereefs__gbr4_v2", LocalFileIngester.LINK_OR_COPY_STRATEGIES)
+     * @param definitionId The input definition ID
+     * @param strategies The strategies, in order. Null to use the default strategies (copy).
+     */
+    public static void setStrategies(String definitionId, List<LocalFileStrategy> strategies) {
+        if (strategies == null || strategies.isEmpty()) {
+            DEFINITION_STRATEGIES.remove(definitionId);
+        } else {
+            DEFINITION_STRATEGIES.put(definitionId, Collections.unmodifiableList(new ArrayList<LocalFileStrategy>(strategies)));
+        }
+    }
+
+    public static List<LocalFileStrategy> getStrategies(String definitionId) {
+        List<LocalFileStrategy> strategies = definitionId == null ? null : DEFINITION_STRATEGIES.get(definitionId);
+        return strategies == null ? DEFAULT_STRATEGIES : strategies;
+    }
+
+    /**
+     * Make the source file available at the destination.
+     * NOTE: This method is not single-flight. It should be called inside a task given to
+     *     SingleFlightDownloader.run(File, Callable).
+     * @param sourceFile
+     * @param destinationFile
+     * @param strategies The strategies to try, in order.
+     * @return The file to use: the destination file, or the source file with the IN_PLACE strategy.
+     * @throws IOException If none of the strategies succeed.
+     */
+    public static File ingest(final File sourceFile, File destinationFile, List<LocalFileStrategy> strategies) throws IOException {
+        if (!sourceFile.canRead()) {
+            throw new FileNotFoundException(String.format("The file %s doesn't exist or is not readable.", sourceFile));
+        }
+
+        IOException lastException = null;
+        for (LocalFileStrategy strategy : strategies) {
+            try {
+                switch (strategy) {
+                    case HARD_LINK:
+                        SingleFlightDownloader.downloadAtomically(destinationFile, new DownloadTask() {
+                            @Override
+                            public void download(File temporaryFile) throws IOException {
+                                Files.createLink(temporaryFile.toPath(), sourceFile.toPath());
+                            }
+                        });
+                        return destinationFile;
+
+                    case TRANSFER:
+                        SingleFlightDownloader.downloadAtomically(destinationFile, new DownloadTask() {
+                            @Override
+                            public void download(File temporaryFile) throws IOException {
+                                LocalFileIngester.transfer(sourceFile, temporaryFile);
+                            }
+                        });
+                        return destinationFile;
+
+                    case IN_PLACE:
+                        return sourceFile;
+
+                    default:
+                        // This should not happen
+                        LOGGER.warn(String.format("Unsupported local file strategy: %s", strategy));
+                }
+            } catch (IOException | UnsupportedOperationException ex) {
+                LOGGER.debug(String.format("Local file strategy %s failed for %s", strategy, sourceFile), ex);
+                lastException = ex instanceof IOException ? (IOException) ex : new IOException(ex);
+            }
+        }
+
+        throw new IOException(String.format("The file %s could not be made available at %s using strategies %s",
+                sourceFile, destinationFile, strategies), lastException);
+    }
+
+    private static void transfer(File sourceFile, File destinationFile) throws IOException {
+        try (
+            FileChannel sourceChannel = FileChannel.open(sourceFile.toPath(), StandardOpenOption.READ);
+            FileChannel destinationChannel = FileChannel.open(destinationFile.toPath(),
+                    StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)
+        ) {
+            long size = sourceChannel.size();
+            long position = 0;
+            while (position < size) {
+                long transferred = sourceChannel.transferTo(position, size - position, destinationChannel);
+                if (transferred <= 0) {
+                    throw new IOException(String.format("Could not transfer %s, stopped at byte %d of %d", sourceFile, position, size));
+                }
+                position += transferred;
+            }
+        }
+    }
+}
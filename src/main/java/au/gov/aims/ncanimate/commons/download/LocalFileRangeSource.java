@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ncanimate.commons.download;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Range source for a file on the local filesystem (or a mounted network drive).
+ */
+public class LocalFileRangeSource implements RangeSource {
+    private final File file;
+
+    public LocalFileRangeSource(File file) {
+        this.file = file;
+    }
+
+    @Override
+    public long getLength() throws IOException {
+        if (!this.file.canRead()) {
+            throw new FileNotFoundException(String.format("The file %s doesn't exist or is not readable.", this.file));
+        }
+        return this.file.length();
+    }
+
+    @Override
+    public InputStream openRange(long start, long end) throws IOException {
+        FileChannel channel = FileChannel.open(this.file.toPath(), StandardOpenOption.READ);
+        try {
+            channel.position(start);
+        } catch (IOException ex) {
+            channel.close();
+            throw ex;
+        }
+        return new RangeInputStream(Channels.newInputStream(channel), end - start + 1);
+    }
+
+    @Override
+    public String toString() {
+        return this.file.toString();
+    }
+
+    /**
+     * Input stream which stops after a given number of bytes.
+     */
+    private static class RangeInputStream extends InputStream {
+        private final InputStream inputStream;
+        private long remaining;
+
+        public RangeInputStream(InputStream inputStream, long length) {
+            this.inputStream = inputStream;
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (this.remaining <= 0) {
+                return -1;
+            }
+            int b = this.inputStream.read();
+            if (b >= 0) {
+                this.remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (this.remaining <= 0) {
+                return -1;
+            }
+            int read = this.inputStream.read(buffer, offset, (int) Math.min(length, this.remaining));
+            if (read > 0) {
+                this.remaining -= read;
+            }
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.inputStream.close();
+        }
+    }
+}
@@ -0,0 +1,30 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ncanimate.commons.download;
+
+/**
+ * Strategies used to make a local file (file:// URI or path) available in the working directory.
+ * See LocalFileIngester.
+ */
+public enum LocalFileStrategy {
+    /**
+     * Create a hard link to the source file.
+     * No data is copied. Only works when the source and the destination are on the same filesystem.
+     */
+    HARD_LINK,
+
+    /**
+     * Copy the file using FileChannel.transferTo.
+     * The copy is done by the operating system, without going through the Java heap.
+     * Some filesystems (btrfs, xfs, etc) can clone the file (reflink) instead of copying the data.
+     */
+    TRANSFER,
+
+    /**
+     * Use the source file where it is, read-only.
+     * Nothing is written in the working directory.
+     */
+    IN_PLACE
+}
@@ -0,0 +1,316 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ncanimate.commons.download;
+
+import org.apache.log4j.Logger;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Download large files (multi-gigabyte NetCDF files) in parts, in parallel.
+ *
+ * The destination file is preallocated to the size of the source file.
+ * Each part is requested using a range request and written directly
+ * at its position in the file, using FileChannel positional writes.
+ * A part which fails is retried individually, starting from the last byte written.
+ *
+ * The checksum of the file can be calculated during the download:
+ *     Single part (single stream): the bytes are digested as they are written, the file is never read back.
+ *     Multiple parts: the parts arrive out of order, so the file is read back once, sequentially,
+ *         after all the parts are written. The read-back doesn't slow down the parts (no shared lock),
+ *         and the file is usually still in the OS page cache.
+ */
+public class MultipartDownloader {
+    private static final Logger LOGGER = Logger.getLogger(MultipartDownloader.class);
+
+    public static final long DEFAULT_PART_SIZE = 64L * 1024 * 1024; // 64 MB
+    public static final int DEFAULT_PARALLELISM = 8;
+    public static final int DEFAULT_MAX_RETRIES = 3;
+    public static final long DEFAULT_RETRY_DELAY_MS = 1000;
+
+    private static final int BUFFER_SIZE = 256 * 1024; // 256 kB
+
+    private final long partSize;
+    private final int parallelism;
+    private final int maxRetries;
+    private final long retryDelayMs;
+
+    public MultipartDownloader() {
+        this(DEFAULT_PART_SIZE, DEFAULT_PARALLELISM, DEFAULT_MAX_RETRIES, DEFAULT_RETRY_DELAY_MS);
+    }
+
+    /**
+     * @param partSize Size of each part, in bytes.
+     * @param parallelism Maximum number of parts downloaded at the same time.
+     * @param maxRetries Number of times a part is retried before the download fails.
+     * @param retryDelayMs Delay before retrying a part. The delay increase with each attempt.
+     */
+    public MultipartDownloader(long partSize, int parallelism, int maxRetries, long retryDelayMs) {
+        if (partSize <= 0) {
+            throw new IllegalArgumentException(String.format("Invalid part size: %d", partSize));
+        }
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException(String.format("Invalid parallelism: %d", parallelism));
+        }
+        if (maxRetries < 0) {
+            throw new IllegalArgumentException(String.format("Invalid number of retries: %d", maxRetries));
+        }
+
+        this.partSize = partSize;
+        this.parallelism = parallelism;
+        this.maxRetries = maxRetries;
+        this.retryDelayMs = retryDelayMs;
+    }
+
+    public long getPartSize() {
+        return this.partSize;
+    }
+
+    public int getParallelism() {
+        return this.parallelism;
+    }
+
+    public int getMaxRetries() {
+        return this.maxRetries;
+    }
+
+    /**
+     * Create a downloader which downloads files as a single stream,
+     * with the same retries as the multi-part downloads.
+     * @return
+     */
+    public static MultipartDownloader createSingleStreamDownloader() {
+        return new MultipartDownloader(Long.MAX_VALUE, 1, DEFAULT_MAX_RETRIES, DEFAULT_RETRY_DELAY_MS);
+    }
+
+    /**
+     * Create a task which can be given to the SingleFlightDownloader.
+     * @param source
+     * @return
+     */
+    public DownloadTask createDownloadTask(final RangeSource source) {
+        return new DownloadTask() {
+            @Override
+            public void download(File destinationFile) throws IOException {
+                MultipartDownloader.this.download(source, destinationFile);
+            }
+        };
+    }
+
+    /**
+     * Create a task which can be given to the SingleFlightDownloader.
+     * The checksum of the file is calculated while it's downloaded.
+     * @param source
+     * @param expectedChecksum The expected checksum. Null to skip the verification.
+     * @return
+     */
+    public DownloadTask createDownloadTask(final RangeSource source, final Checksum expectedChecksum) {
+        if (expectedChecksum == null) {
+            return this.createDownloadTask(source);
+        }
+
+        return new DownloadTask() {
+            @Override
+            public void download(File destinationFile) throws IOException {
+                MessageDigest digest = expectedChecksum.createDigest();
+                MultipartDownloader.this.download(source, destinationFile, digest);
+                expectedChecksum.verify(source, digest.digest());
+            }
+        };
+    }
+
+    /**
+     * Download the source into the destination file.
+     * NOTE: The destination file is written in place. Use createDownloadTask with
+     *     the SingleFlightDownloader to get an atomic download.
+     * @param source
+     * @param destinationFile
+     * @throws IOException If a part could not be downloaded after all the retries.
+     */
+    public void download(final RangeSource source, File destinationFile) throws IOException {
+        this.download(source, destinationFile, null);
+    }
+
+    /**
+     * Download the source into the destination file, calculating its digest.
+     * @param source
+     * @param destinationFile
+     * @param digest The digest, updated with the content of the whole file. Null to skip the digest.
+     * @throws IOException If a part could not be downloaded after all the retries.
+     */
+    public void download(final RangeSource source, File destinationFile, MessageDigest digest) throws IOException {
+        long length = source.getLength();
+
+        List<long[]> parts = new ArrayList<long[]>();
+        long start = 0;
+        while (start < length) {
+            // NOTE: Avoid "start + partSize", it overflows with single stream downloads.
+            long end = length - start > this.partSize ? start + this.partSize - 1 : length - 1;
+            parts.add(new long[] { start, end });
+            start = end + 1;
+        }
+
+        LOGGER.debug(String.format("Downloading %s (%d bytes) in %d part(s)", source, length, parts.size()));
+
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(destinationFile, "rw")) {
+            randomAccessFile.setLength(length);
+            final FileChannel channel = randomAccessFile.getChannel();
+
+            if (parts.size() <= 1) {
+                for (long[] part : parts) {
+                    this.downloadPart(source, channel, digest, part[0], part[1]);
+                }
+            } else {
+                this.downloadParts(source, channel, parts);
+                if (digest != null) {
+                    MultipartDownloader.digest(channel, length, digest);
+                }
+            }
+
+            channel.force(false);
+        }
+    }
+
+    private void downloadParts(final RangeSource source, final FileChannel channel, List<long[]> parts) throws IOException {
+        final AtomicInteger threadCount = new AtomicInteger(0);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(this.parallelism, parts.size()), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, String.format("multipart-download-%d", threadCount.incrementAndGet()));
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (final long[] part : parts) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        MultipartDownloader.this.downloadPart(source, channel, null, part[0], part[1]);
+                        return null;
+                    }
+                }));
+            }
+
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    InterruptedIOException interruptedException =
+                            new InterruptedIOException(String.format("Interrupted while downloading %s", source));
+                    interruptedException.initCause(ex);
+                    throw interruptedException;
+                } catch (ExecutionException ex) {
+                    Throwable cause = ex.getCause();
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    }
+                    throw new IOException(String.format("Error occurred while downloading %s", source), cause);
+                }
+            }
+        } finally {
+            // Stop the other parts if one failed
+            executor.shutdownNow();
+        }
+    }
+
+    // The digest is only given for single part downloads, since the bytes are written in order.
+    // Bytes written again after a retry are never digested twice: retries resume from the last byte written.
+    private void downloadPart(RangeSource source, FileChannel channel, MessageDigest digest, long start, long end) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+
+        long position = start;
+        int attempt = 0;
+        while (true) {
+            try (InputStream inputStream = source.openRange(position, end)) {
+                int read;
+                while (position <= end && (read = inputStream.read(buffer)) != -1) {
+                    int length = (int) Math.min(read, end - position + 1);
+                    byteBuffer.clear();
+                    byteBuffer.limit(length);
+                    while (byteBuffer.hasRemaining()) {
+                        position += channel.write(byteBuffer, position);
+                    }
+                    if (digest != null) {
+                        digest.update(buffer, 0, length);
+                    }
+                }
+                if (position <= end) {
+                    throw new EOFException(String.format("Unexpected end of stream at byte %d, expected %d", position, end + 1));
+                }
+                return;
+
+            } catch (InterruptedIOException ex) {
+                throw ex;
+            } catch (ClosedChannelException ex) {
+                // The destination file was closed (the download was cancelled), retrying won't help
+                throw ex;
+            } catch (IOException ex) {
+                attempt++;
+                if (attempt > this.maxRetries) {
+                    throw new IOException(String.format("Could not download bytes %d-%d of %s after %d attempt(s)",
+                            start, end, source, attempt), ex);
+                }
+
+                LOGGER.warn(String.format("Error occurred while downloading bytes %d-%d of %s. Retrying from byte %d (attempt %d of %d)",
+                        start, end, source, position, attempt, this.maxRetries), ex);
+                try {
+                    Thread.sleep(this.retryDelayMs * attempt);
+                } catch (InterruptedException interruptedEx) {
+                    Thread.currentThread().interrupt();
+                    InterruptedIOException interruptedException =
+                            new InterruptedIOException(String.format("Interrupted while downloading %s", source));
+                    interruptedException.initCause(interruptedEx);
+                    throw interruptedException;
+                }
+            }
+        }
+    }
+
+    /**
+     * Digest the file, reading it sequentially from the beginning.
+     * @param channel
+     * @param length The length of the file.
+     * @param digest
+     * @throws IOException
+     */
+    private static void digest(FileChannel channel, long length, MessageDigest digest) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        long position = 0;
+        while (position < length) {
+            buffer.clear();
+            buffer.limit((int) Math.min(BUFFER_SIZE, length - position));
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException(String.format("Unexpected end of file at byte %d, expected %d", position, length));
+            }
+            buffer.flip();
+            digest.update(buffer);
+            position += read;
+        }
+    }
+}
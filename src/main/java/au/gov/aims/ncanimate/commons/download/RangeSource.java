@@ -0,0 +1,30 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ncanimate.commons.download;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Source of a file which can be read by byte ranges.
+ * Used by the MultipartDownloader to download parts of a file in parallel.
+ */
+public interface RangeSource {
+
+    /**
+     * @return The size of the file, in bytes.
+     * @throws IOException If the file doesn't exist or can't be reached.
+     */
+    long getLength() throws IOException;
+
+    /**
+     * Open a stream to read a range of bytes.
+     * @param start Index of the first byte to read.
+     * @param end Index of the last byte to read (inclusive).
+     * @return
+     * @throws IOException
+     */
+    InputStream openRange(long start, long end) throws IOException;
+}
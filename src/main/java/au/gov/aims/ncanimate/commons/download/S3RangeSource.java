@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ncanimate.commons.download;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.AmazonS3URI;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Range source for a S3 object, using ranged GET requests.
+ */
+public class S3RangeSource implements RangeSource {
+    private final AmazonS3 s3;
+    private final String bucket;
+    private final String key;
+
+    public S3RangeSource(AmazonS3 s3, AmazonS3URI s3URI) {
+        this(s3, s3URI.getBucket(), s3URI.getKey());
+    }
+
+    public S3RangeSource(AmazonS3 s3, String bucket, String key) {
+        this.s3 = s3;
+        this.bucket = bucket;
+        this.key = key;
+    }
+
+    @Override
+    public long getLength() throws IOException {
+        try {
+            ObjectMetadata metadata = this.s3.getObjectMetadata(this.bucket, this.key);
+            return metadata.getContentLength();
+        } catch (AmazonClientException ex) {
+            throw new IOException(String.format("Could not get the size of %s", this), ex);
+        }
+    }
+
+    @Override
+    public InputStream openRange(long start, long end) throws IOException {
+        try {
+            GetObjectRequest request = new GetObjectRequest(this.bucket, this.key).withRange(start, end);
+            return this.s3.getObject(request).getObjectContent();
+        } catch (AmazonClientException ex) {
+            throw new IOException(String.format("Could not request bytes %d-%d of %s", start, end, this), ex);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("s3://%s/%s", this.bucket, this.key);
+    }
+}
@@ -0,0 +1,573 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ncanimate.commons.download;
+
+import org.apache.log4j.Logger;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Host-wide cache of downloaded files, shared by all the NcAnimate processes running on the host.
+ *
+ * Each process (JVM) has its own working directory. Without a shared cache, each process
+ * downloads its own copy of the same NetCDF files. With a shared cache, the first process
+ * download the file into the cache directory, the other processes reuse it.
+ *
+ * Cache directory layout:
+ *     index.json       Index of the cached files (size, last access, references).
+ *     index.lock       Lock file, locked while the index is read or modified.
+ *     files/           Cached files.
+ *     files/*.lock     Lock files, locked while the corresponding file is downloaded.
+ *
+ * Processes coordinate using file locks (FileChannel.lock). File locks are held on behalf
+ * of the whole JVM, so threads of the same JVM are coordinated using the SingleFlightDownloader
+ * and a JVM wide monitor per cache directory.
+ * Lock files are deleted by the process holding the lock, before releasing it. A process which
+ * obtains the lock of a lock file which was deleted (or replaced) in the meantime tries again
+ * (see CacheLock.lock).
+ *
+ * Reference counting:
+ *     A process acquire a reference to a cached file before using it and release it when
+ *     it's done with it. Files which are referenced are never evicted.
+ *     References are recorded per process. References which have not been refreshed for
+ *     longer than the reference lease (the process probably crashed) are ignored.
+ *     References are refreshed when the process acquires or releases the file. A process which
+ *     keeps a reference for longer than the lease must renew it (see renew(String)).
+ *
+ * Eviction:
+ *     When the total size of the cached files exceeds the maximum size, the least recently
+ *     used files which are not referenced are deleted, until the cache fits in the maximum size.
+ *     Cached files which are hard linked in a working directory (link count greater than 1)
+ *     are not counted and not evicted: deleting them would not free any disk space.
+ */
+public class SharedInputCache {
+    private static final Logger LOGGER = Logger.getLogger(SharedInputCache.class);
+
+    public static final long DEFAULT_REFERENCE_LEASE_MS = 24L * 60 * 60 * 1000; // 24 hours
+
+    private static final String INDEX_FILENAME = "index.json";
+    private static final String INDEX_LOCK_FILENAME = "index.lock";
+    private static final String FILES_DIRNAME = "files";
+    private static final String LOCK_FILE_EXTENSION = ".lock";
+
+    // Key: Absolute path of the cache directory
+    // Value: Monitor used to coordinate the threads of this JVM
+    private static final ConcurrentHashMap<String, Object> JVM_MONITORS = new ConcurrentHashMap<String, Object>();
+
+    private final File cacheDirectory;
+    private final File filesDirectory;
+    private final File indexFile;
+    private final File indexLockFile;
+    private final long maxSize;
+    private final long referenceLeaseMs;
+    private final String processId;
+    private final Object jvmMonitor;
+
+    /**
+     * @param cacheDirectory The cache directory, shared by all the processes of the host.
+     * @param maxSize Maximum size of the cache, in bytes.
+     */
+    public SharedInputCache(File cacheDirectory, long maxSize) {
+        this(cacheDirectory, maxSize, DEFAULT_REFERENCE_LEASE_MS,
+                ManagementFactory.getRuntimeMXBean().getName());
+    }
+
+    /**
+     * @param cacheDirectory The cache directory, shared by all the processes of the host.
+     * @param maxSize Maximum size of the cache, in bytes.
+     * @param referenceLeaseMs Time after which the references of a process which didn't access the cache are ignored.
+     * @param processId ID of this process. Must be unique on the host (default: pid@hostname).
+     */
+    public SharedInputCache(File cacheDirectory, long maxSize, long referenceLeaseMs, String processId) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException(String.format("Invalid cache size: %d", maxSize));
+        }
+
+        this.cacheDirectory = cacheDirectory.getAbsoluteFile();
+        this.filesDirectory = new File(this.cacheDirectory, FILES_DIRNAME);
+        this.indexFile = new File(this.cacheDirectory, INDEX_FILENAME);
+        this.indexLockFile = new File(this.cacheDirectory, INDEX_LOCK_FILENAME);
+        this.maxSize = maxSize;
+        this.referenceLeaseMs = referenceLeaseMs;
+        this.processId = processId;
+
+        String monitorKey = this.cacheDirectory.toPath().normalize().toString();
+        JVM_MONITORS.putIfAbsent(monitorKey, new Object());
+        this.jvmMonitor = JVM_MONITORS.get(monitorKey);
+    }
+
+    public File getCacheDirectory() {
+        return this.cacheDirectory;
+    }
+
+    public long getMaxSize() {
+        return this.maxSize;
+    }
+
+    /**
+     * Get a file from the cache, downloading it if needed, and acquire a reference to it.
+     * The reference must be released (see release(String)) when the file is not used anymore.
+     * @param key Unique key of the file. It should change when the file changes (example: include its last modified).
+     * @param downloadTask Task used to download the file, if it's not in the cache.
+     * @return The cached file, or null if the download task didn't produce any file.
+     * @throws IOException
+     */
+    public File acquire(String key, DownloadTask downloadTask) throws IOException {
+        final String filename = SharedInputCache.getFilename(key);
+
+        // The file may be evicted by another process between the download and the acquisition
+        // of the reference. In that case, try again once.
+        for (int attempt=0; attempt<2; attempt++) {
+            File cachedFile = this.download(filename, downloadTask);
+            if (cachedFile == null) {
+                return null;
+            }
+
+            boolean acquired = this.updateIndex(new IndexOperation<Boolean>() {
+                @Override
+                public Boolean run(JSONObject index) {
+                    return SharedInputCache.this.addReference(index, filename, 1);
+                }
+            });
+            if (acquired) {
+                this.evict();
+                return cachedFile;
+            }
+            LOGGER.debug(String.format("The cached file %s was evicted before it could be used. Downloading it again.", cachedFile));
+        }
+
+        throw new IOException(String.format("The file %s could not be kept in the shared cache %s", key, this.cacheDirectory));
+    }
+
+    /**
+     * Release a reference acquired with acquire(String, DownloadTask).
+     * @param key The key used to acquire the file.
+     * @throws IOException
+     */
+    public void release(String key) throws IOException {
+        final String filename = SharedInputCache.getFilename(key);
+        this.updateIndex(new IndexOperation<Boolean>() {
+            @Override
+            public Boolean run(JSONObject index) {
+                return SharedInputCache.this.addReference(index, filename, -1);
+            }
+        });
+        this.evict();
+    }
+
+    /**
+     * Renew the lease of the references this process holds on a file,
+     * without changing the number of references.
+     * Used by processes which keep a file for longer than the reference lease.
+     * @param key The key used to acquire the file.
+     * @return True if the references were renewed. False if this process doesn't hold
+     *     any reference to the file, or if the file is not in the cache anymore.
+     * @throws IOException
+     */
+    public boolean renew(String key) throws IOException {
+        final String filename = SharedInputCache.getFilename(key);
+        return this.updateIndex(new IndexOperation<Boolean>() {
+            @Override
+            public Boolean run(JSONObject index) {
+                return SharedInputCache.this.addReference(index, filename, 0);
+            }
+        });
+    }
+
+    /**
+     * Delete the least recently used files which are not referenced,
+     * until the cache fits in its maximum size.
+     * @return The number of evicted files.
+     * @throws IOException
+     */
+    public int evict() throws IOException {
+        return this.updateIndex(new IndexOperation<Integer>() {
+            @Override
+            public Integer run(JSONObject index) {
+                return SharedInputCache.this.evict(index);
+            }
+        });
+    }
+
+    /**
+     * @return The total size of the cached files, as recorded in the index.
+     * @throws IOException
+     */
+    public long getSize() throws IOException {
+        return this.updateIndex(new IndexOperation<Long>() {
+            @Override
+            public Long run(JSONObject index) {
+                long size = 0;
+                for (String filename : index.keySet()) {
+                    size += index.getJSONObject(filename).optLong("size", 0);
+                }
+                return size;
+            }
+        });
+    }
+
+    /**
+     * @param key
+     * @return The number of references to the file, from all processes, including expired references.
+     * @throws IOException
+     */
+    public int getReferenceCount(String key) throws IOException {
+        final String filename = SharedInputCache.getFilename(key);
+        return this.updateIndex(new IndexOperation<Integer>() {
+            @Override
+            public Integer run(JSONObject index) {
+                JSONObject jsonEntry = index.optJSONObject(filename);
+                JSONObject jsonReferences = jsonEntry == null ? null : jsonEntry.optJSONObject("references");
+                int count = 0;
+                if (jsonReferences != null) {
+                    for (String processId : jsonReferences.keySet()) {
+                        count += jsonReferences.getJSONObject(processId).optInt("count", 0);
+                    }
+                }
+                return count;
+            }
+        });
+    }
+
+    private File download(final String filename, final DownloadTask downloadTask) throws IOException {
+        final File cachedFile = new File(this.filesDirectory, filename);
+
+        // Single-flight for the threads of this JVM.
+        // FileChannel.lock throws an OverlappingFileLockException if the JVM already holds the lock.
+        return SingleFlightDownloader.run(cachedFile, new Callable<File>() {
+            @Override
+            public File call() throws Exception {
+                return SharedInputCache.this.downloadNow(cachedFile, downloadTask);
+            }
+        });
+    }
+
+    private File downloadNow(final File cachedFile, DownloadTask downloadTask) throws IOException {
+        if (!this.filesDirectory.isDirectory() && !this.filesDirectory.mkdirs() && !this.filesDirectory.isDirectory()) {
+            throw new IOException(String.format("Could not create the shared cache directory: %s", this.filesDirectory));
+        }
+
+        File lockFile = new File(this.filesDirectory, cachedFile.getName() + LOCK_FILE_EXTENSION);
+        try (CacheLock lock = CacheLock.lock(lockFile)) {
+            // Another process may have downloaded the file while this process was waiting for the lock
+            if (!cachedFile.canRead()) {
+                LOGGER.info(String.format("[+] Downloading file into the shared cache: %s", cachedFile));
+                if (!SingleFlightDownloader.downloadAtomically(cachedFile, downloadTask)) {
+                    return null;
+                }
+            } else {
+                LOGGER.debug(String.format("Using file from the shared cache: %s", cachedFile));
+            }
+
+            // Record the file in the index (it may already be recorded)
+            final String filename = cachedFile.getName();
+            final long size = cachedFile.length();
+            this.updateIndex(new IndexOperation<Boolean>() {
+                @Override
+                public Boolean run(JSONObject index) {
+                    JSONObject jsonEntry = index.optJSONObject(filename);
+                    if (jsonEntry == null) {
+                        jsonEntry = new JSONObject();
+                        jsonEntry.put("references", new JSONObject());
+                        index.put(filename, jsonEntry);
+                    }
+                    jsonEntry.put("size", size);
+                    jsonEntry.put("lastAccess", System.currentTimeMillis());
+                    return true;
+                }
+            });
+        }
+
+        return cachedFile;
+    }
+
+    // Called with the index lock.
+    // A delta of 0 renews the references of this process.
+    private boolean addReference(JSONObject index, String filename, int delta) {
+        JSONObject jsonEntry = index.optJSONObject(filename);
+        if (jsonEntry == null) {
+            if (delta >= 0) {
+                // The file was evicted
+                return false;
+            }
+            LOGGER.warn(String.format("Reference released for a file which is not in the shared cache: %s", filename));
+            return true;
+        }
+
+        if (delta > 0 && !new File(this.filesDirectory, filename).canRead()) {
+            // The file was deleted outside of the cache
+            index.remove(filename);
+            return false;
+        }
+
+        long now = System.currentTimeMillis();
+        JSONObject jsonReferences = jsonEntry.optJSONObject("references");
+        if (jsonReferences == null) {
+            jsonReferences = new JSONObject();
+            jsonEntry.put("references", jsonReferences);
+        }
+        JSONObject jsonReference = jsonReferences.optJSONObject(this.processId);
+        int count = (jsonReference == null ? 0 : jsonReference.optInt("count", 0)) + delta;
+        if (delta == 0 && count <= 0) {
+            // Nothing to renew
+            return false;
+        }
+        if (count > 0) {
+            JSONObject newJsonReference = new JSONObject();
+            newJsonReference.put("count", count);
+            newJsonReference.put("updated", now);
+            jsonReferences.put(this.processId, newJsonReference);
+        } else {
+            if (count < 0) {
+                LOGGER.warn(String.format("Reference released more times than acquired for the cached file: %s", filename));
+            }
+            jsonReferences.remove(this.processId);
+        }
+        jsonEntry.put("lastAccess", now);
+
+        return true;
+    }
+
+    // Called with the index lock
+    private int evict(final JSONObject index) {
+        long now = System.currentTimeMillis();
+        long totalSize = 0;
+        List<String> evictableFilenames = new ArrayList<String>();
+        for (String filename : index.keySet()) {
+            JSONObject jsonEntry = index.getJSONObject(filename);
+            if (this.isLinked(filename)) {
+                continue;
+            }
+            totalSize += jsonEntry.optLong("size", 0);
+            if (!this.isReferenced(jsonEntry, now)) {
+                evictableFilenames.add(filename);
+            }
+        }
+
+        if (totalSize <= this.maxSize) {
+            return 0;
+        }
+
+        // Least recently used first
+        Collections.sort(evictableFilenames, new Comparator<String>() {
+            @Override
+            public int compare(String filename1, String filename2) {
+                return Long.compare(
+                        index.getJSONObject(filename1).optLong("lastAccess", 0),
+                        index.getJSONObject(filename2).optLong("lastAccess", 0));
+            }
+        });
+
+        int evicted = 0;
+        for (String filename : evictableFilenames) {
+            if (totalSize <= this.maxSize) {
+                break;
+            }
+
+            File cachedFile = new File(this.filesDirectory, filename);
+            if (cachedFile.exists() && !cachedFile.delete()) {
+                LOGGER.warn(String.format("Could not evict the file from the shared cache: %s", cachedFile));
+                continue;
+            }
+            LOGGER.info(String.format("[-] Evicted file from the shared cache: %s", cachedFile));
+
+            totalSize -= index.getJSONObject(filename).optLong("size", 0);
+            index.remove(filename);
+            evicted++;
+        }
+
+        if (totalSize > this.maxSize) {
+            LOGGER.warn(String.format("The shared cache %s exceeds its maximum size: %d bytes used, maximum %d bytes. All the remaining files are in use.",
+                    this.cacheDirectory, totalSize, this.maxSize));
+        }
+
+        return evicted;
+    }
+
+    /**
+     * @param filename
+     * @return True if the cached file has other hard links (example: linked in a working directory).
+     *     False if it doesn't, if it doesn't exist or if the file system doesn't support link counts.
+     */
+    private boolean isLinked(String filename) {
+        Path cachedPath = new File(this.filesDirectory, filename).toPath();
+        try {
+            Object linkCount = Files.getAttribute(cachedPath, "unix:nlink");
+            return linkCount instanceof Number && ((Number)linkCount).intValue() > 1;
+        } catch (UnsupportedOperationException | IllegalArgumentException | IOException ex) {
+            return false;
+        }
+    }
+
+    private boolean isReferenced(JSONObject jsonEntry, long now) {
+        JSONObject jsonReferences = jsonEntry.optJSONObject("references");
+        if (jsonReferences != null) {
+            for (String processId : jsonReferences.keySet()) {
+                JSONObject jsonReference = jsonReferences.getJSONObject(processId);
+                if (jsonReference.optInt("count", 0) > 0 &&
+                        now - jsonReference.optLong("updated", 0) < this.referenceLeaseMs) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Run an operation on the index, holding the index lock.
+     * The index is saved after the operation.
+     */
+    private <T> T updateIndex(IndexOperation<T> operation) throws IOException {
+        synchronized (this.jvmMonitor) {
+            if (!this.cacheDirectory.isDirectory() && !this.cacheDirectory.mkdirs() && !this.cacheDirectory.isDirectory()) {
+                throw new IOException(String.format("Could not create the shared cache directory: %s", this.cacheDirectory));
+            }
+
+            try (CacheLock lock = CacheLock.lock(this.indexLockFile)) {
+                JSONObject index = this.loadIndex();
+                String before = index.toString();
+                T result = operation.run(index);
+                if (!before.equals(index.toString())) {
+                    this.saveIndex(index);
+                }
+                return result;
+            }
+        }
+    }
+
+    private JSONObject loadIndex() throws IOException {
+        if (!this.indexFile.exists()) {
+            return new JSONObject();
+        }
+
+        String indexStr = new String(Files.readAllBytes(this.indexFile.toPath()), StandardCharsets.UTF_8);
+        if (indexStr.trim().isEmpty()) {
+            return new JSONObject();
+        }
+        try {
+            return new JSONObject(indexStr);
+        } catch (JSONException ex) {
+            // The index is always written atomically, this should not happen
+            LOGGER.error(String.format("Invalid shared cache index %s. The index is reset.", this.indexFile), ex);
+            return new JSONObject();
+        }
+    }
+
+    private void saveIndex(JSONObject index) throws IOException {
+        File temporaryFile = new File(this.cacheDirectory, String.format(".%s.%s.tmp", INDEX_FILENAME, UUID.randomUUID()));
+        try {
+            Files.write(temporaryFile.toPath(), index.toString().getBytes(StandardCharsets.UTF_8));
+            SingleFlightDownloader.moveAtomically(temporaryFile, this.indexFile);
+        } finally {
+            if (temporaryFile.exists() && !temporaryFile.delete()) {
+                LOGGER.warn(String.format("Could not delete temporary index file: %s", temporaryFile));
+            }
+        }
+    }
+
+    private static String getFilename(String key) {
+        if (key == null || key.isEmpty()) {
+            throw new IllegalArgumentException("Invalid shared cache key: " + key);
+        }
+        // Only keep characters which are safe on all file systems. Avoid clashes with lock and temporary files.
+        String filename = key.replaceAll("[^a-zA-Z0-9_\\-\\.]", "_");
+        if (filename.endsWith(LOCK_FILE_EXTENSION)) {
+            filename += "_";
+        }
+        if (filename.startsWith(".")) {
+            filename = "_" + filename;
+        }
+        return filename;
+    }
+
+    private interface IndexOperation<T> {
+        T run(JSONObject index);
+    }
+
+    /**
+     * Lock on a lock file. The lock file is deleted when the lock is released,
+     * unless the file system doesn't provide file keys (the lock file is kept).
+     */
+    private static class CacheLock implements AutoCloseable {
+        private final File lockFile;
+        private final FileChannel channel;
+        private final FileLock lock;
+        private final boolean deleteOnClose;
+
+        private CacheLock(File lockFile, FileChannel channel, FileLock lock, boolean deleteOnClose) {
+            this.lockFile = lockFile;
+            this.channel = channel;
+            this.lock = lock;
+            this.deleteOnClose = deleteOnClose;
+        }
+
+        public static CacheLock lock(File lockFile) throws IOException {
+            Path lockPath = lockFile.toPath();
+            while (true) {
+                Object fileKeyBefore = CacheLock.getFileKey(lockPath);
+                FileChannel channel = FileChannel.open(lockPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                try {
+                    FileLock lock = channel.lock();
+
+                    // The lock is only valid if the locked file is still the lock file.
+                    // It's not if the process holding the lock deleted it while this process was waiting.
+                    Object fileKeyAfter = CacheLock.getFileKey(lockPath);
+                    if (fileKeyAfter != null && fileKeyAfter.equals(fileKeyBefore)) {
+                        return new CacheLock(lockFile, channel, lock, true);
+                    }
+                    if (fileKeyAfter == null && lockFile.exists()) {
+                        // No file key on this file system. The lock file can't be deleted safely.
+                        return new CacheLock(lockFile, channel, lock, false);
+                    }
+
+                    lock.release();
+                    channel.close();
+                } catch (IOException | RuntimeException ex) {
+                    channel.close();
+                    throw ex;
+                }
+            }
+        }
+
+        private static Object getFileKey(Path path) throws IOException {
+            try {
+                return Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+            } catch (NoSuchFileException ex) {
+                return null;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if (this.deleteOnClose && this.lockFile.exists() && !this.lockFile.delete()) {
+                    LOGGER.warn(String.format("Could not delete the lock file: %s", this.lockFile));
+                }
+                this.lock.release();
+            } finally {
+                this.channel.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ncanimate.commons.download;
+
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Concurrency safe downloads.
+ *
+ * Single-flight:
+ *     Only one download per destination file can run at a time.
+ *     Threads requesting a file which is already being downloaded wait for the download
+ *     to finish and share its result (or its exception), instead of downloading it again.
+ *
+ * Atomic download:
+ *     Files are downloaded into a temporary file, in the same directory as the destination file,
+ *     then renamed. Other threads (or processes) never see a partially downloaded file.
+ */
+public class SingleFlightDownloader {
+    private static final Logger LOGGER = Logger.getLogger(SingleFlightDownloader.class);
+
+    private static final String TEMPORARY_FILE_EXTENSION = ".part";
+
+    // Key: Absolute path of the destination file
+    // Value: Download in progress
+    private static final ConcurrentHashMap<String, FutureTask<File>> IN_FLIGHT = new ConcurrentHashMap<String, FutureTask<File>>();
+
+    /**
+     * Run a task which produce the destination file, unless the same task is already running.
+     * @param destinationFile The file produced by the task. Used to identify the task.
+     * @param task The task. It's run in the calling thread.
+     * @return The value returned by the task, possibly from another thread.
+     * @throws IOException If the task failed, possibly in another thread.
+     */
+    public static File run(File destinationFile, Callable<File> task) throws IOException {
+        String key = destinationFile.getAbsoluteFile().toPath().normalize().toString();
+
+        FutureTask<File> futureTask = new FutureTask<File>(task);
+        FutureTask<File> inFlightTask = IN_FLIGHT.putIfAbsent(key, futureTask);
+        if (inFlightTask == null) {
+            try {
+                futureTask.run();
+            } finally {
+                IN_FLIGHT.remove(key, futureTask);
+            }
+            inFlightTask = futureTask;
+        } else {
+            LOGGER.debug(String.format("Waiting for the download of %s to finish.", destinationFile));
+        }
+
+        try {
+            return inFlightTask.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            InterruptedIOException interruptedException =
+                    new InterruptedIOException(String.format("Interrupted while waiting for the download of %s", destinationFile));
+            interruptedException.initCause(ex);
+            throw interruptedException;
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(String.format("Error occurred while downloading %s", destinationFile), cause);
+        }
+    }
+
+    /**
+     * Single-flight, atomic download.
+     * @param destinationFile
+     * @param downloadTask
+     * @return The destination file, or null if the download task didn't produce any file.
+     * @throws IOException
+     */
+    public static File download(final File destinationFile, final DownloadTask downloadTask) throws IOException {
+        return SingleFlightDownloader.run(destinationFile, new Callable<File>() {
+            @Override
+            public File call() throws Exception {
+                return SingleFlightDownloader.downloadAtomically(destinationFile, downloadTask) ? destinationFile : null;
+            }
+        });
+    }
+
+    /**
+     * Download a file into a temporary file, then rename it to the destination file.
+     * NOTE: This method is not single-flight. It should be called inside a task given to run(File, Callable).
+     * @param destinationFile
+     * @param downloadTask
+     * @return True if the destination file was downloaded, false if the download task didn't produce any file.
+     * @throws IOException
+     */
+    public static boolean downloadAtomically(File destinationFile, DownloadTask downloadTask) throws IOException {
+        File temporaryFile = SingleFlightDownloader.getTemporaryFile(destinationFile);
+        try {
+            downloadTask.download(temporaryFile);
+            if (!temporaryFile.exists()) {
+                return false;
+            }
+
+            SingleFlightDownloader.moveAtomically(temporaryFile, destinationFile);
+            return true;
+        } finally {
+            if (temporaryFile.exists() && !temporaryFile.delete()) {
+                LOGGER.warn(String.format("Could not delete temporary download file: %s", temporaryFile));
+            }
+        }
+    }
+
+    /**
+     * @return The number of downloads currently in progress.
+     */
+    public static int getInFlightCount() {
+        return IN_FLIGHT.size();
+    }
+
+    /**
+     * Move a file over the destination file, atomically when the file system supports it.
+     * Used to replace files which are written in a temporary file (see getTemporaryFile).
+     * @param sourceFile The file to move. It should be in the same directory as the destination file.
+     * @param destinationFile
+     * @throws IOException
+     */
+    public static void moveAtomically(File sourceFile, File destinationFile) throws IOException {
+        try {
+            Files.move(sourceFile.toPath(), destinationFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException ex) {
+            // The temporary file is in the same directory, this should not happen
+            LOGGER.warn(String.format("Atomic move not supported for %s. Using a regular move.", destinationFile));
+            Files.move(sourceFile.toPath(), destinationFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * @param destinationFile
+     * @return A unique temporary file, in the same directory as the destination file.
+     */
+    public static File getTemporaryFile(File destinationFile) {
+        // NOTE: The temporary file must be in the same directory to be renamed atomically.
+        return new File(destinationFile.getAbsoluteFile().getParentFile(),
+                String.format(".%s.%s%s", destinationFile.getName(), UUID.randomUUID(), TEMPORARY_FILE_EXTENSION));
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ncanimate.commons.download;
+
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Retry a download task which verifies the checksum of the downloaded file
+ * (see MultipartDownloader.createDownloadTask(RangeSource, Checksum)).
+ *
+ * If the file is still corrupted after the last attempt, it's moved to the quarantine directory,
+ * next to the downloaded file, for inspection. A corrupted file is never given to NcAnimate.
+ */
+public class VerifiedDownloadTask implements DownloadTask {
+    private static final Logger LOGGER = Logger.getLogger(VerifiedDownloadTask.class);
+
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+    public static final String QUARANTINE_DIRNAME = "quarantine";
+
+    private final DownloadTask downloadTask;
+    private final int maxAttempts;
+
+    public VerifiedDownloadTask(DownloadTask downloadTask) {
+        this(downloadTask, DEFAULT_MAX_ATTEMPTS);
+    }
+
+    /**
+     * @param downloadTask Download task which throws a ChecksumMismatchException when the file is corrupted.
+     * @param maxAttempts Number of times the file is downloaded before it's quarantined.
+     */
+    public VerifiedDownloadTask(DownloadTask downloadTask, int maxAttempts) {
+        if (maxAttempts <= 0) {
+            throw new IllegalArgumentException(String.format("Invalid number of attempts: %d", maxAttempts));
+        }
+        this.downloadTask = downloadTask;
+        this.maxAttempts = maxAttempts;
+    }
+
+    @Override
+    public void download(File destinationFile) throws IOException {
+        for (int attempt=1; true; attempt++) {
+            try {
+                this.downloadTask.download(destinationFile);
+                return;
+            } catch (ChecksumMismatchException ex) {
+                if (attempt >= this.maxAttempts) {
+                    VerifiedDownloadTask.quarantine(destinationFile);
+                    throw ex;
+                }
+
+                LOGGER.warn(String.format("Corrupted download. Downloading the file again (attempt %d of %d). %s",
+                        attempt + 1, this.maxAttempts, ex.getMessage()));
+                if (destinationFile.exists() && !destinationFile.delete()) {
+                    throw new IOException(String.format("Could not delete the corrupted file: %s", destinationFile), ex);
+                }
+            }
+        }
+    }
+
+    private static void quarantine(File corruptedFile) {
+        if (!corruptedFile.exists()) {
+            return;
+        }
+
+        File quarantineDirectory = new File(corruptedFile.getAbsoluteFile().getParentFile(), QUARANTINE_DIRNAME);
+        // Remove the leading dot of temporary files
+        String filename = corruptedFile.getName().startsWith(".") ? corruptedFile.getName().substring(1) : corruptedFile.getName();
+        File quarantineFile = new File(quarantineDirectory, String.format("%s.%d.corrupted", filename, System.currentTimeMillis()));
+        try {
+            Files.createDirectories(quarantineDirectory.toPath());
+            Files.move(corruptedFile.toPath(), quarantineFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            LOGGER.error(String.format("Corrupted file moved to quarantine: %s", quarantineFile));
+        } catch (IOException ex) {
+            LOGGER.error(String.format("Could not move the corrupted file %s to quarantine.", corruptedFile), ex);
+            if (!corruptedFile.delete()) {
+                LOGGER.error(String.format("Could not delete the corrupted file: %s", corruptedFile));
+            }
+        }
+    }
+}
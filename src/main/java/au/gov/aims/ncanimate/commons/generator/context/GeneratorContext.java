@@ -10,9 +10,6 @@ import au.gov.aims.ereefs.bean.metadata.TimeIncrement;
 import au.gov.aims.ereefs.bean.ncanimate.NcAnimateBboxBean;
 import au.gov.aims.ereefs.bean.ncanimate.NcAnimateCanvasBean;
 import au.gov.aims.ereefs.bean.ncanimate.NcAnimateConfigBean;
-import au.gov.aims.ereefs.bean.ncanimate.NcAnimateIdBean;
-import au.gov.aims.ereefs.bean.ncanimate.NcAnimateLayerBean;
-import au.gov.aims.ereefs.bean.ncanimate.NcAnimateNetCDFTrueColourVariableBean;
 import au.gov.aims.ereefs.bean.ncanimate.NcAnimateNetCDFVariableBean;
 import au.gov.aims.ereefs.bean.ncanimate.NcAnimatePaddingBean;
 import au.gov.aims.ereefs.bean.ncanimate.NcAnimatePanelBean;
@@ -23,6 +20,7 @@ import au.gov.aims.ereefs.bean.ncanimate.render.NcAnimateRenderMapBean;
 import au.gov.aims.ereefs.bean.ncanimate.render.NcAnimateRenderVideoBean;
 import au.gov.aims.json.JSONWrapperObject;
 import au.gov.aims.ncanimate.commons.NcAnimateUtils;
+import au.gov.aims.ncanimate.commons.template.ConfigTemplateValues;
 import au.gov.aims.ncanimate.commons.timetable.DateTimeRange;
 import org.apache.log4j.Logger;
 import org.joda.time.DateTime;
@@ -31,36 +29,58 @@ import org.json.JSONObject;
 import java.io.File;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.EnumMap;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
-
-public class GeneratorContext {
+import java.util.TreeSet;
+
+/**
+ * Context used to generate a NcAnimate product.
+ *
+ * A context can be derived using the with* methods (withRegion, withTargetHeight, withDateRange, withRenderFile).
+ * Derived contexts are independent copies which share the calculated values that are still valid
+ * (directories, canvas dimensions, etc). The values which only depends on the configuration are
+ * shared by all the contexts derived from the same context.
+ * A context must not be modified (set* methods) once it's shared between threads.
+ * Use the with* methods to get a context for a different region, frame, etc.
+ */
+public class GeneratorContext implements Cloneable {
     private static final Logger LOGGER = Logger.getLogger(GeneratorContext.class);
 
-    private static final String PRODUCT_DIR_NAME = "output/product";
     private static final String FRAME_DIR_NAME = "output/frame";
 
-    private static final String NETCDF_DIR_NAME = "input/netcdf";
-    private static final String LAYER_DIR_NAME = "input/layer";
-    private static final String PALETTE_DIR_NAME = "input/palette";
-    private static final String STYLE_DIR_NAME = "input/style"; // Layer SLD style sheets
-
     public static final String FRAME_FILENAME_PREFIX = "frame";
     public static final String VIDEO_FRAME_DIRECTORY = "videoFrames";
     public static final NcAnimateRenderMapBean.MapFormat VIDEO_FRAME_FORMAT = NcAnimateRenderMapBean.MapFormat.PNG;
 
+    private static final Set<String> JSON_KEYS = Collections.unmodifiableSet(new TreeSet<String>(Arrays.asList(
+        "ncAnimateConfig", "panel", "variableIds", "workingDirectory",
+        "renderFile", "frameDirectory", "frameFilenamePrefix", "videoFrameDirectory",
+        "outputDirectory", "outputFilenamePrefix", "outputFilename", "outputFile",
+        "dateRange", "dateFrom", "dateTo",
+        "region", "targetHeight",
+        "frameTimeIncrement", "framePeriod",
+        "netCDFDirectory", "layerDirectory", "paletteDirectory", "styleDirectory",
+        "canvasWidth", "canvasHeight", "generationDate",
+        "maxWidth", "maxHeight", "padding", "productWidth", "productHeight"
+    )));
+
     private NcAnimateConfigBean ncAnimateConfig;
     private NcAnimatePanelBean panelConfig;
 
-    private File workingDirectory;
+    // Values which only depends on the configuration, shared with derived contexts
+    private final GeneratorContextConfigState configState;
 
-    private File frameDirectory;
-    private URI s3FrameDirectory;
-    private File outputDirectory;
+    // Values calculated when needed. They are stored in volatile fields so they can be
+    // safely read by other threads, and reset when the value they depends on changes.
+    private volatile File frameDirectory;
+    private volatile URI s3FrameDirectory;
 
     private String outputFilenamePrefix; // "map" or "video"
 
@@ -72,33 +92,132 @@ public class GeneratorContext {
 
     private TimeIncrement frameTimeIncrement;
 
-    // Input files
-    private File netCDFDirectory;
-    private File layerDirectory;
-    private File paletteDirectory;
-    private File styleDirectory;
-
     // Size of the rendered images
-    private Integer canvasWidth;
-    private Integer canvasHeight;
+    private volatile CanvasDimensions canvasDimensions;
 
     // Used when the product is resized in config and/or when padding is added
-    private Integer productWidth;
-    private Integer productHeight;
-    private NcAnimatePaddingBean padding;
+    private volatile ProductDimensions productDimensions;
+
     private DateTime generationDate;
 
+    // Sections of the JSON representation of the context (see toJSON).
+    // Each section is calculated when needed and reset when a value it depends on changes.
+    // The cached JSONObjects are never modified once calculated.
+    private volatile JSONObject jsonConfigSection;
+    private volatile JSONObject jsonPanelSection;
+    private volatile JSONObject jsonPathsSection;
+    private volatile JSONObject jsonOutputSection;
+    private volatile JSONObject jsonDatesSection;
+    private volatile JSONObject jsonRegionSection;
+    private volatile JSONObject jsonDimensionsSection;
+
     public GeneratorContext(NcAnimateConfigBean ncAnimateConfig) {
         this.ncAnimateConfig = ncAnimateConfig;
+        this.configState = GeneratorContextConfigState.get(ncAnimateConfig);
         this.generationDate = new DateTime();
     }
 
+    /**
+     * Create a copy of this context for a different region.
+     * The frame directories and the dimensions are recalculated for the new region.
+     * @param region
+     * @return
+     */
+    public GeneratorContext withRegion(NcAnimateRegionBean region) {
+        GeneratorContext derivedContext = this.copy();
+        derivedContext.region = region;
+        derivedContext.resetCalculatedValues();
+        derivedContext.resetFrameDirectories();
+        derivedContext.jsonRegionSection = null;
+        derivedContext.jsonOutputSection = null;
+        return derivedContext;
+    }
+
+    /**
+     * Create a copy of this context for a different target height (depth).
+     * The dimensions are shared with this context.
+     * @param targetHeight
+     * @return
+     */
+    public GeneratorContext withTargetHeight(Double targetHeight) {
+        GeneratorContext derivedContext = this.copy();
+        derivedContext.targetHeight = targetHeight;
+        derivedContext.resetFrameDirectories();
+        derivedContext.jsonRegionSection = null;
+        derivedContext.jsonOutputSection = null;
+        return derivedContext;
+    }
+
+    /**
+     * Create a copy of this context for a different date range (frame or output file).
+     * All calculated values are shared with this context.
+     * @param dateRange
+     * @return
+     */
+    public GeneratorContext withDateRange(DateTimeRange dateRange) {
+        GeneratorContext derivedContext = this.copy();
+        derivedContext.dateRange = dateRange;
+        derivedContext.jsonDatesSection = null;
+        derivedContext.jsonOutputSection = null;
+        return derivedContext;
+    }
+
+    /**
+     * Create a copy of this context for a different render file (video, map, etc).
+     * The canvas dimensions are shared with this context, the product dimensions are recalculated.
+     * @param renderFile
+     * @return
+     */
+    public GeneratorContext withRenderFile(AbstractNcAnimateRenderFileBean renderFile) {
+        GeneratorContext derivedContext = this.copy();
+        derivedContext.renderFile = renderFile;
+        derivedContext.productDimensions = null;
+        derivedContext.jsonDimensionsSection = null;
+        derivedContext.jsonOutputSection = null;
+        return derivedContext;
+    }
+
+    /**
+     * Shallow copy of the context. Calculated values are immutable, they can be shared.
+     * Using clone ensure sub-classes are copied with their attributes.
+     * @return
+     */
+    protected GeneratorContext copy() {
+        try {
+            return (GeneratorContext) super.clone();
+        } catch (CloneNotSupportedException ex) {
+            // This should not happen, GeneratorContext implements Cloneable
+            throw new IllegalStateException("Error occurred while copying the GeneratorContext.", ex);
+        }
+    }
+
+    /**
+     * Drop the configuration states shared between the contexts of a configuration.
+     */
+    public static void clearConfigStateCache() {
+        GeneratorContextConfigState.clearCache();
+    }
+
+    // Shared with the derived contexts and the contexts of the same configuration
+    GeneratorContextConfigState getConfigState() {
+        return this.configState;
+    }
+
+    /**
+     * Values of the placeholders which only depends on the configuration of this context.
+     * @return The ConfigTemplateValues of the configuration, or null if the context has no configuration.
+     */
+    public ConfigTemplateValues getConfigTemplateValues() {
+        return this.configState.getConfigTemplateValues();
+    }
+
     public NcAnimatePanelBean getPanelConfig() {
         return panelConfig;
     }
 
     public void setPanelConfig(NcAnimatePanelBean panelConfig) {
         this.panelConfig = panelConfig;
+        this.jsonPanelSection = null;
     }
 
     public NcAnimateConfigBean getNcAnimateConfig() {
@@ -106,31 +225,29 @@ public class GeneratorContext {
     }
 
     public File getWorkingDirectory() {
-        if (this.workingDirectory == null) {
-            this.workingDirectory = this.generateWorkingDirectory();
-        }
-        return this.workingDirectory;
+        return this.configState.getWorkingDirectory();
     }
 
     public File getFrameDirectory() {
-        if (this.frameDirectory == null) {
-            this.frameDirectory = this.generateFrameDirectory();
+        File frameDirectory = this.frameDirectory;
+        if (frameDirectory == null) {
+            frameDirectory = this.generateFrameDirectory();
+            this.frameDirectory = frameDirectory;
         }
-        return this.frameDirectory;
+        return frameDirectory;
     }
 
     public URI getS3FrameDirectory() {
-        if (this.s3FrameDirectory == null) {
-            this.s3FrameDirectory = this.generateS3FrameDirectory();
+        URI s3FrameDirectory = this.s3FrameDirectory;
+        if (s3FrameDirectory == null) {
+            s3FrameDirectory = this.generateS3FrameDirectory();
+            this.s3FrameDirectory = s3FrameDirectory;
         }
-        return this.s3FrameDirectory;
+        return s3FrameDirectory;
     }
 
     public File getOutputDirectory() {
-        if (this.outputDirectory == null) {
-            this.outputDirectory = this.generateOutputDirectory();
-        }
-        return this.outputDirectory;
+        return this.configState.getOutputDirectory();
     }
 
     public String getOutputFilenamePrefix() {
@@ -139,6 +256,7 @@ public class GeneratorContext {
 
     public void setOutputFilenamePrefix(String outputFilenamePrefix) {
         this.outputFilenamePrefix = outputFilenamePrefix;
+        this.jsonOutputSection = null;
     }
 
     public DateTimeRange getDateRange() {
@@ -147,6 +265,8 @@ public class GeneratorContext {
 
     public void setDateRange(DateTimeRange dateRange) {
         this.dateRange = dateRange;
+        this.jsonDatesSection = null;
+        this.jsonOutputSection = null;
     }
 
     public AbstractNcAnimateRenderFileBean getRenderFile() {
@@ -156,6 +276,7 @@ public class GeneratorContext {
     public void setRenderFile(AbstractNcAnimateRenderFileBean renderFile) {
         this.renderFile = renderFile;
         this.resetCalculatedValues();
+        this.jsonOutputSection = null;
     }
 
     public NcAnimateRegionBean getRegion() {
@@ -165,18 +286,28 @@ public class GeneratorContext {
     public void setRegion(NcAnimateRegionBean region) {
         this.region = region;
         this.resetCalculatedValues();
+        this.resetFrameDirectories();
+        this.jsonRegionSection = null;
+        this.jsonOutputSection = null;
     }
 
     private void resetCalculatedValues() {
         // Reset all the attributes that were calculated using the renderFile
         // calculateCanvasDimensions
-        this.canvasWidth = null;
-        this.canvasHeight = null;
+        this.canvasDimensions = null;
 
         // calculateProductDimensions
-        this.padding = null;
-        this.productWidth = null;
-        this.productHeight = null;
+        this.productDimensions = null;
+
+        this.jsonDimensionsSection = null;
+    }
+
+    private void resetFrameDirectories() {
+        // Reset the directories calculated using the region and the target height
+        this.frameDirectory = null;
+        this.s3FrameDirectory = null;
+
+        this.jsonPathsSection = null;
     }
 
     public Double getTargetHeight() {
@@ -185,6 +316,10 @@ public class GeneratorContext {
 
     public void setTargetHeight(Double targetHeight) {
         this.targetHeight = targetHeight;
+        // The frame directories (and the paths section) depends on the target height
+        this.resetFrameDirectories();
+        this.jsonRegionSection = null;
+        this.jsonOutputSection = null;
     }
 
     public TimeIncrement getFrameTimeIncrement() {
@@ -193,46 +328,24 @@ public class GeneratorContext {
 
     public void setFrameTimeIncrement(TimeIncrement frameTimeIncrement) {
         this.frameTimeIncrement = frameTimeIncrement;
+        this.jsonDatesSection = null;
+        this.jsonOutputSection = null;
     }
 
     public File getNetCDFDirectory() {
-        if (this.netCDFDirectory == null) {
-            this.netCDFDirectory = new File(this.getWorkingDirectory(), NETCDF_DIR_NAME);
-            if (this.netCDFDirectory != null && !Utils.prepareDirectory(this.netCDFDirectory)) {
-                LOGGER.error(String.format("The NetCDF input directory %s could not be created.", this.netCDFDirectory));
-            }
-        }
-        return this.netCDFDirectory;
+        return this.configState.getNetCDFDirectory();
     }
 
     public File getLayerDirectory() {
-        if (this.layerDirectory == null) {
-            this.layerDirectory = new File(this.getWorkingDirectory(), LAYER_DIR_NAME);
-            if (this.layerDirectory != null && !Utils.prepareDirectory(this.layerDirectory)) {
-                LOGGER.error(String.format("The layer input directory %s could not be created.", this.layerDirectory));
-            }
-        }
-        return this.layerDirectory;
+        return this.configState.getLayerDirectory();
     }
 
     public File getPaletteDirectory() {
-        if (this.paletteDirectory == null) {
-            this.paletteDirectory = new File(this.getWorkingDirectory(), PALETTE_DIR_NAME);
-            if (this.paletteDirectory != null && !Utils.prepareDirectory(this.paletteDirectory)) {
-                LOGGER.error(String.format("The palette input directory %s could not be created.", this.paletteDirectory));
-            }
-        }
-        return this.paletteDirectory;
+        return this.configState.getPaletteDirectory();
     }
 
     public File getStyleDirectory() {
-        if (this.styleDirectory == null) {
-            this.styleDirectory = new File(this.getWorkingDirectory(), STYLE_DIR_NAME);
-            if (this.styleDirectory != null && !Utils.prepareDirectory(this.styleDirectory)) {
-                LOGGER.error(String.format("The style input directory %s could not be created.", this.styleDirectory));
-            }
-        }
-        return this.styleDirectory;
+        return this.configState.getStyleDirectory();
     }
 
 
@@ -281,10 +394,7 @@ public class GeneratorContext {
 
 
     public Integer getCanvasWidth() {
-        if (this.canvasWidth == null) {
-            this.calculateCanvasDimensions();
-        }
-        return this.canvasWidth;
+        return this.getCanvasDimensions().width;
     }
 
     public Integer getScaledCanvasWidth() {
@@ -292,10 +402,16 @@ public class GeneratorContext {
     }
 
     public Integer getCanvasHeight() {
-        if (this.canvasHeight == null) {
-            this.calculateCanvasDimensions();
+        return this.getCanvasDimensions().height;
+    }
+
+    private CanvasDimensions getCanvasDimensions() {
+        CanvasDimensions canvasDimensions = this.canvasDimensions;
+        if (canvasDimensions == null) {
+            canvasDimensions = this.calculateCanvasDimensions();
+            this.canvasDimensions = canvasDimensions;
         }
-        return this.canvasHeight;
+        return canvasDimensions;
     }
 
     public int getScaledCanvasHeight() {
@@ -303,10 +419,7 @@ public class GeneratorContext {
     }
 
     public NcAnimatePaddingBean getPadding() {
-        if (this.padding == null) {
-            this.calculateProductDimensions();
-        }
-        return this.padding;
+        return this.getProductDimensions().padding;
     }
 
     public DateTime getGenerationDate() {
@@ -358,17 +471,20 @@ public class GeneratorContext {
     }
 
     public Integer getProductWidth() {
-        if (this.productWidth == null) {
-            this.calculateProductDimensions();
-        }
-        return this.productWidth;
+        return this.getProductDimensions().width;
     }
 
     public Integer getProductHeight() {
-        if (this.productHeight == null) {
-            this.calculateProductDimensions();
+        return this.getProductDimensions().height;
+    }
+
+    private ProductDimensions getProductDimensions() {
+        ProductDimensions productDimensions = this.productDimensions;
+        if (productDimensions == null) {
+            productDimensions = this.calculateProductDimensions();
+            this.productDimensions = productDimensions;
         }
-        return this.productHeight;
+        return productDimensions;
     }
 
     public static String getFilenameDate(TimeIncrement fileTimeIncrement, DateTime fileStartDate) {
@@ -448,15 +564,6 @@ public class GeneratorContext {
         return new File(this.getOutputDirectory(), this.getOutputFilename());
     }
 
-    private File generateWorkingDirectory() {
-        NcAnimateRenderBean render = this.getNcAnimateConfig().getRender();
-        File workingDirectory = render.getWorkingDirectoryFile();
-        if (workingDirectory != null && !Utils.prepareDirectory(workingDirectory)) {
-            LOGGER.error(String.format("The working directory %s could not be created.", workingDirectory));
-        }
-        return workingDirectory;
-    }
-
     private File generateFrameDirectory() {
         File workingDirectory = this.getWorkingDirectory();
         File frameDirectory = new File(workingDirectory, FRAME_DIR_NAME);
@@ -500,19 +607,24 @@ public class GeneratorContext {
         NcAnimateConfigBean ncAnimateConfig = this.getNcAnimateConfig();
         NcAnimateRenderBean renderConf = ncAnimateConfig.getRender();
         if (renderConf != null) {
-            String frameDirectoryUriStr = NcAnimateUtils.parseString(renderConf.getFrameDirectoryUri(), this);
+            String frameDirectoryUriTemplate = renderConf.getFrameDirectoryUri();
+
+            if (frameDirectoryUriTemplate != null) {
+                // Render the URI directly in the buffer, to avoid creating intermediate strings
+                StringBuilder uriSb = new StringBuilder();
+                NcAnimateUtils.render(uriSb, frameDirectoryUriTemplate, this);
 
-            if (frameDirectoryUriStr != null) {
-                String path = this.generateFrameDirectoryPath();
-                if (!frameDirectoryUriStr.endsWith("/")) {
-                    frameDirectoryUriStr += "/";
+                int uriLength = uriSb.length();
+                if (uriLength == 0 || uriSb.charAt(uriLength - 1) != '/') {
+                    uriSb.append('/');
                 }
+                uriSb.append(this.generateFrameDirectoryPath());
 
                 try {
-                    uri = new URI(frameDirectoryUriStr + path);
+                    uri = new URI(uriSb.toString());
                 } catch (URISyntaxException ex) {
                     // This should not happen...
-                    LOGGER.error(String.format("Error occurred while creating the URI: %s%s", frameDirectoryUriStr, path), ex);
+                    LOGGER.error(String.format("Error occurred while creating the URI: %s", uriSb), ex);
                 }
             }
         }
@@ -520,30 +632,20 @@ public class GeneratorContext {
         return uri;
     }
 
-    private File generateOutputDirectory() {
-        File workingDirectory = this.getWorkingDirectory();
-        File outputDirectory = new File(workingDirectory, PRODUCT_DIR_NAME);
-        File productOutputDirectory = new File(outputDirectory, Utils.safeFilename(this.getNcAnimateConfig().getId().getValue()));
-        if (!Utils.prepareDirectory(productOutputDirectory)) {
-            LOGGER.error(String.format("The output directory %s could not be created.", productOutputDirectory));
-        }
-        return productOutputDirectory;
-    }
-
     /**
      * Calculate the canvas dimensions for specified NcAnimate configuration.
      */
-    private void calculateCanvasDimensions() {
+    private CanvasDimensions calculateCanvasDimensions() {
         NcAnimateConfigBean ncAnimateConfig = this.getNcAnimateConfig();
 
         NcAnimateCanvasBean canvasConf = ncAnimateConfig.getCanvas();
-        this.canvasWidth = 0;
-        this.canvasHeight = 0;
+        int canvasWidth = 0;
+        int canvasHeight = 0;
 
         NcAnimatePaddingBean paddingConf = canvasConf.getPadding();
         if (paddingConf != null) {
-            this.canvasWidth = NcAnimateUtils.getInt(paddingConf.getLeft()) + NcAnimateUtils.getInt(paddingConf.getRight());
-            this.canvasHeight = NcAnimateUtils.getInt(paddingConf.getTop()) + NcAnimateUtils.getInt(paddingConf.getBottom());
+            canvasWidth = NcAnimateUtils.getInt(paddingConf.getLeft()) + NcAnimateUtils.getInt(paddingConf.getRight());
+            canvasHeight = NcAnimateUtils.getInt(paddingConf.getTop()) + NcAnimateUtils.getInt(paddingConf.getBottom());
         }
         int betweenPanelPadding = NcAnimateUtils.getInt(canvasConf.getPaddingBetweenPanels());
 
@@ -572,15 +674,17 @@ public class GeneratorContext {
                         maxPanelHeight = panelHeight;
                     }
                 }
-                this.canvasWidth += panelWidth + betweenPanelPadding + leftMargin + rightMargin;
+                canvasWidth += panelWidth + betweenPanelPadding + leftMargin + rightMargin;
             }
         }
         // Remove the last "between" padding for the canvas width.
-        this.canvasWidth -= betweenPanelPadding;
-        this.canvasHeight += maxPanelHeight;
+        canvasWidth -= betweenPanelPadding;
+        canvasHeight += maxPanelHeight;
+
+        return new CanvasDimensions(canvasWidth, canvasHeight);
     }
 
-    private void calculateProductDimensions() {
+    private ProductDimensions calculateProductDimensions() {
         // Adjust canvasWidth & canvasHeight to fit width and height limitation in encoders (such as H.264 used with MP4)
         // NOTE: Division between 2 int is an integer division, which automatically crop the decimal part.
         int addedWidth = 0,
@@ -604,10 +708,10 @@ public class GeneratorContext {
                 .put("left", 0)
                 .put("right", 0);
 
-        this.productWidth = GeneratorContext.getCeilQuantisedValue(maxWidth, blockSize[0]);
-        addedWidth = this.productWidth - maxWidth;
+        int productWidth = GeneratorContext.getCeilQuantisedValue(maxWidth, blockSize[0]);
+        addedWidth = productWidth - maxWidth;
         if (addedWidth > 0) {
-            LOGGER.debug("Image width was increased by " + (this.productWidth - maxWidth) + "px to comply with H.264 restrictions.");
+            LOGGER.debug("Image width was increased by " + (productWidth - maxWidth) + "px to comply with H.264 restrictions.");
 
             int left = addedWidth / 2;
             int right = addedWidth - left;
@@ -616,10 +720,10 @@ public class GeneratorContext {
                     .put("right", right);
         }
 
-        this.productHeight = GeneratorContext.getCeilQuantisedValue(maxHeight, blockSize[1]);
-        addedHeight = this.productHeight - maxHeight;
+        int productHeight = GeneratorContext.getCeilQuantisedValue(maxHeight, blockSize[1]);
+        addedHeight = productHeight - maxHeight;
         if (addedHeight > 0) {
-            LOGGER.debug("Image height was increased by " + (this.productHeight - maxHeight) + "px to comply with H.264 restrictions.");
+            LOGGER.debug("Image height was increased by " + (productHeight - maxHeight) + "px to comply with H.264 restrictions.");
 
             int top = addedHeight / 2;
             int bottom = addedHeight - top;
@@ -628,12 +732,15 @@ public class GeneratorContext {
                     .put("bottom", bottom);
         }
 
+        NcAnimatePaddingBean padding = null;
         try {
-            this.padding = new NcAnimatePaddingBean(new JSONWrapperObject(jsonPadding));
+            padding = new NcAnimatePaddingBean(new JSONWrapperObject(jsonPadding));
         } catch(Exception ex) {
             // This should not happen
             LOGGER.error("Error occurred while creating the GeneratorContext padding object.");
         }
+
+        return new ProductDimensions(productWidth, productHeight, padding);
     }
 
     private static int getCeilQuantisedValue(int value, Integer modulus) {
@@ -665,253 +772,321 @@ public class GeneratorContext {
      * @return
      */
     public Map<NcAnimateRenderMapBean.MapFormat, FileWrapper> getFrameFileWrapperMap(DateTimeRange frameDateRange) {
-        Map<NcAnimateRenderMapBean.MapFormat, FileWrapper> frameFileMap =
-                new EnumMap<NcAnimateRenderMapBean.MapFormat, FileWrapper>(NcAnimateRenderMapBean.MapFormat.class);
-
-        NcAnimateConfigBean ncAnimateConfig = this.getNcAnimateConfig();
-        NcAnimateRenderBean renderConf = ncAnimateConfig.getRender();
+        URI s3FrameDirectory = this.getS3FrameDirectory();
+        return this.getFrameFileWrapperMap(frameDateRange, this.configState.getFrameFormats(),
+                this.getFrameDirectory(), s3FrameDirectory == null ? null : s3FrameDirectory.toString());
+    }
 
-        if (renderConf != null) {
-            Map<String, NcAnimateRenderMapBean> mapConfs = renderConf.getMaps();
-            if (mapConfs != null) {
-                for (NcAnimateRenderMapBean renderMapConf : mapConfs.values()) {
-                    if (renderMapConf != null) {
-                        this.addFrameFile(frameFileMap, frameDateRange, renderMapConf.getFormat());
-                    }
-                }
+    /**
+     * Get the frame files of a list of frames, in all expected rendered format.
+     * The frame formats and the frame directories are only calculated once.
+     * @param frameDateRanges
+     * @return
+     */
+    public SortedMap<DateTimeRange, Map<NcAnimateRenderMapBean.MapFormat, FileWrapper>> getFrameFileWrapperMaps(Collection<DateTimeRange> frameDateRanges) {
+        SortedMap<DateTimeRange, Map<NcAnimateRenderMapBean.MapFormat, FileWrapper>> frameFileMaps =
+                new TreeMap<DateTimeRange, Map<NcAnimateRenderMapBean.MapFormat, FileWrapper>>();
+
+        if (frameDateRanges != null && !frameDateRanges.isEmpty()) {
+            Set<NcAnimateRenderMapBean.MapFormat> frameFormats = this.configState.getFrameFormats();
+            File frameDirectory = this.getFrameDirectory();
+            URI s3FrameDirectory = this.getS3FrameDirectory();
+            String s3FrameDirectoryStr = s3FrameDirectory == null ? null : s3FrameDirectory.toString();
+
+            for (DateTimeRange frameDateRange : frameDateRanges) {
+                frameFileMaps.put(frameDateRange,
+                        this.getFrameFileWrapperMap(frameDateRange, frameFormats, frameDirectory, s3FrameDirectoryStr));
             }
+        }
 
-            Map<String, NcAnimateRenderVideoBean> videoConfs = renderConf.getVideos();
-            if (videoConfs != null) {
-                for (NcAnimateRenderVideoBean renderVideoConf : videoConfs.values()) {
-                    if (renderVideoConf != null) {
-                        NcAnimateRenderVideoBean.VideoFormat videoFormat = renderVideoConf.getFormat();
-                        switch(videoFormat) {
-                            case MP4:
-                            case WMV:
-                                this.addFrameFile(frameFileMap, frameDateRange, VIDEO_FRAME_FORMAT);
-                                break;
-                        }
-                    }
-                }
+        return frameFileMaps;
+    }
+
+    /**
+     * Re-create the frame directory, if it was deleted after it was requested.
+     * The frame directory is created the first time it's requested (see getFrameDirectory).
+     */
+    public void prepareFrameDirectory() {
+        File frameDirectory = this.getFrameDirectory();
+        if (!Utils.prepareDirectory(frameDirectory)) {
+            LOGGER.error(String.format("The frame output directory %s could not be created.", frameDirectory));
+        }
+    }
+
+    private Map<NcAnimateRenderMapBean.MapFormat, FileWrapper> getFrameFileWrapperMap(
+            DateTimeRange frameDateRange,
+            Set<NcAnimateRenderMapBean.MapFormat> frameFormats,
+            File frameDirectory,
+            String s3FrameDirectoryStr) {
+
+        Map<NcAnimateRenderMapBean.MapFormat, FileWrapper> frameFileMap =
+                new EnumMap<NcAnimateRenderMapBean.MapFormat, FileWrapper>(NcAnimateRenderMapBean.MapFormat.class);
+
+        if (!frameFormats.isEmpty()) {
+            String frameFilenameWithoutExtension = this.getFrameFilenameWithoutExtension(frameDateRange);
+            for (NcAnimateRenderMapBean.MapFormat format : frameFormats) {
+                frameFileMap.put(format, GeneratorContext.getFrameFileWrapper(
+                        frameFilenameWithoutExtension, format, frameDirectory, s3FrameDirectoryStr));
             }
         }
 
         return frameFileMap;
     }
 
-    private void addFrameFile(Map<NcAnimateRenderMapBean.MapFormat, FileWrapper> frameFileMap, DateTimeRange frameDateRange, NcAnimateRenderMapBean.MapFormat format) {
-        if (!frameFileMap.containsKey(format)) {
-            frameFileMap.put(format, this.getFrameFileWrapper(frameDateRange, format));
-        }
-    }
+    private static FileWrapper getFrameFileWrapper(
+            String frameFilenameWithoutExtension,
+            NcAnimateRenderMapBean.MapFormat format,
+            File frameDirectory,
+            String s3FrameDirectoryStr) {
 
-    private FileWrapper getFrameFileWrapper(DateTimeRange frameDateRange, NcAnimateRenderMapBean.MapFormat format) {
-        String frameFilenameWithoutExtension = this.getFrameFilenameWithoutExtension(frameDateRange);
         String filename = frameFilenameWithoutExtension + "." + format.getExtension();
 
-        URI s3FrameDirectory = this.getS3FrameDirectory();
         URI s3FileUri = null;
-        if (s3FrameDirectory != null) {
+        if (s3FrameDirectoryStr != null) {
             try {
-                s3FileUri = new URI(s3FrameDirectory.toString() + filename);
+                s3FileUri = new URI(s3FrameDirectoryStr + filename);
             } catch (URISyntaxException ex) {
                 // This should not happen...
-                LOGGER.error(String.format("Error occurred while creating the URI: %s%s", s3FrameDirectory, filename), ex);
+                LOGGER.error(String.format("Error occurred while creating the URI: %s%s", s3FrameDirectoryStr, filename), ex);
             }
         }
 
-        File frameDirectory = this.getFrameDirectory();
-        if (!Utils.prepareDirectory(frameDirectory)) {
-            LOGGER.error(String.format("The frame output directory %s could not be created.", frameDirectory));
-        }
-
         return new FileWrapper(
             s3FileUri,
             new File(frameDirectory, filename)
         );
     }
 
+    /**
+     * Variables used by the layers of the context panel.
+     * The map is calculated once per panel and shared between contexts, it can not be modified.
+     * @return
+     */
     public Map<String, NcAnimateNetCDFVariableBean> getPanelVariableMap() {
-        return getPanelVariableMap(this.panelConfig);
-    }
-
-    // Map:
-    //   Key: Panel ID (String)
-    //   Value: Map:
-    //     Key: Variable ID (String)
-    //     Value: NcAnimateNetCDFVariableBean
-    private Map<String, Map<String, NcAnimateNetCDFVariableBean>> getVariableMap() {
-        Map<String, Map<String, NcAnimateNetCDFVariableBean>> variableMap =
-                new HashMap<String, Map<String, NcAnimateNetCDFVariableBean>>();
-
-        for (NcAnimatePanelBean panelConf : this.ncAnimateConfig.getPanels()) {
-            NcAnimateIdBean panelId = panelConf.getId();
-            String panelIdStr = panelId == null ? null : panelId.getValue();
-            if (panelIdStr != null && !panelIdStr.isEmpty()) {
-                Map<String, NcAnimateNetCDFVariableBean> panelVariableMap = getPanelVariableMap(panelConf);
-                if (panelVariableMap != null && !panelVariableMap.isEmpty()) {
-                    variableMap.put(panelIdStr, panelVariableMap);
-                }
-            }
-        }
-        return variableMap;
-    }
-
-    private static SortedMap<String, NcAnimateNetCDFVariableBean> getPanelVariableMap(NcAnimatePanelBean panelConfig) {
-        SortedMap<String, NcAnimateNetCDFVariableBean> usedVariables =
-                new TreeMap<String, NcAnimateNetCDFVariableBean>();
-
-        if (panelConfig != null) {
-            List<NcAnimateLayerBean> layers = panelConfig.getLayers();
-            if (layers != null) {
-                for (NcAnimateLayerBean layer : layers) {
-                    NcAnimateNetCDFVariableBean variable = layer.getVariable();
-                    if (variable != null) {
-                        usedVariables.put(variable.getVariableId(), variable);
-                    }
-
-                    NcAnimateNetCDFVariableBean arrowVariable = layer.getArrowVariable();
-                    if (arrowVariable != null) {
-                        usedVariables.put(arrowVariable.getVariableId(), arrowVariable);
-                    }
-
-                    Map<String, NcAnimateNetCDFTrueColourVariableBean> trueColourVariables = layer.getTrueColourVariables();
-                    if (trueColourVariables != null) {
-                        usedVariables.putAll(trueColourVariables);
-                    }
-                }
-            }
-        }
-
-        return usedVariables;
+        return this.configState.getPanelVariableMap(this.panelConfig);
     }
 
     public String getPanelVariableIdsStr() {
-        return this.getPanelVariableIdsStr(this.getPanelVariableMap());
+        return this.configState.getPanelVariableIdsStr(this.panelConfig);
     }
 
-    private String getPanelVariableIdsStr(Map<String, NcAnimateNetCDFVariableBean> panelVariableMap) {
-        if (panelVariableMap == null || panelVariableMap.isEmpty()) {
-            return null;
-        }
-
-        return String.join(", ", panelVariableMap.keySet());
+    public String getVariableIdsStr() {
+        return this.configState.getVariableIdsStr();
     }
 
-    public String getVariableIdsStr() {
-        return this.getVariableIdsStr(this.getVariableMap());
+    /**
+     * Properties available in the JSON representation of the context (toJSON).
+     * Used to validate "${ctx...}" placeholders before rendering.
+     * Sub-classes which add properties to the JSON representation should override this method.
+     * @return
+     */
+    public Set<String> getJSONKeys() {
+        return JSON_KEYS;
     }
 
-    private String getVariableIdsStr(Map<String, Map<String, NcAnimateNetCDFVariableBean>> variableMap) {
-        if (variableMap == null || variableMap.isEmpty()) {
-            return null;
+    /**
+     * JSON representation of the context, used to resolve the "${ctx...}" placeholders.
+     * The JSON is build from cached sections (config, panel, paths, output, dates, region, dimensions).
+     * A section is only recalculated when a value it depends on is changed, so changing
+     * the date range doesn't rebuild the panel or the dimensions sections.
+     * NOTE: The returned JSONObject can be modified, but not the JSONObjects it contains.
+     * @return
+     */
+    public JSONObject toJSON() {
+        JSONObject json = new JSONObject();
+        GeneratorContext.putAll(json, this.getJSONConfigSection());
+        GeneratorContext.putAll(json, this.getJSONPanelSection());
+        GeneratorContext.putAll(json, this.getJSONPathsSection());
+        GeneratorContext.putAll(json, this.getJSONOutputSection());
+        GeneratorContext.putAll(json, this.getJSONDatesSection());
+        GeneratorContext.putAll(json, this.getJSONRegionSection());
+        GeneratorContext.putAll(json, this.getJSONDimensionsSection());
+        return json;
+    }
+
+    private static void putAll(JSONObject json, JSONObject jsonSection) {
+        for (String key : jsonSection.keySet()) {
+            json.put(key, jsonSection.get(key));
         }
+    }
 
-        SortedMap<String, NcAnimateNetCDFVariableBean> usedVariables =
-                new TreeMap<String, NcAnimateNetCDFVariableBean>();
+    private JSONObject getJSONConfigSection() {
+        JSONObject jsonSection = this.jsonConfigSection;
+        if (jsonSection == null) {
+            // Map all variables from all panels
+            String variableIdsStr = this.getVariableIdsStr();
 
-        for (Map<String, NcAnimateNetCDFVariableBean> panelVariableMap : variableMap.values()) {
-            usedVariables.putAll(panelVariableMap);
-        }
+            jsonSection = new JSONObject()
+                .put("ncAnimateConfig", this.ncAnimateConfig == null ? null : this.ncAnimateConfig.getId().getValue())
+                .put("variableIds", variableIdsStr)
+                .put("workingDirectory", this.getWorkingDirectory())
+                .put("outputDirectory", this.getOutputDirectory())
 
-        if (usedVariables.isEmpty()) {
-            return null;
-        }
+                .put("netCDFDirectory", this.getNetCDFDirectory())
+                .put("layerDirectory", this.getLayerDirectory())
+                .put("paletteDirectory", this.getPaletteDirectory())
+                .put("styleDirectory", this.getStyleDirectory())
 
-        return String.join(", ", usedVariables.keySet());
-    }
+                .put("generationDate", this.generationDate);
 
-    public JSONObject toJSON() {
-        JSONObject jsonPadding = null;
-        NcAnimatePaddingBean padding = this.getPadding();
-        if (padding != null) {
-            jsonPadding = padding.toJSON();
-            if (jsonPadding.isEmpty()) {
-                jsonPadding = null;
-            }
+            this.jsonConfigSection = jsonSection;
         }
+        return jsonSection;
+    }
 
-        JSONObject jsonPanel = null;
-        if (this.panelConfig != null) {
-            jsonPanel = new JSONObject();
+    private JSONObject getJSONPanelSection() {
+        JSONObject jsonSection = this.jsonPanelSection;
+        if (jsonSection == null) {
+            JSONObject jsonPanel = null;
+            if (this.panelConfig != null) {
+                jsonPanel = new JSONObject();
 
-            Map<String, NcAnimateNetCDFVariableBean> panelVariableMap = this.getPanelVariableMap();
-            if (panelVariableMap != null && !panelVariableMap.isEmpty()) {
-                JSONObject jsonVariableMap = new JSONObject();
-                for (Map.Entry<String, NcAnimateNetCDFVariableBean> panelVariableEntry : panelVariableMap.entrySet()) {
-                    jsonVariableMap.put(panelVariableEntry.getKey(), panelVariableEntry.getValue().toJSON());
+                Map<String, NcAnimateNetCDFVariableBean> panelVariableMap = this.getPanelVariableMap();
+                if (panelVariableMap != null && !panelVariableMap.isEmpty()) {
+                    JSONObject jsonVariableMap = new JSONObject();
+                    for (Map.Entry<String, NcAnimateNetCDFVariableBean> panelVariableEntry : panelVariableMap.entrySet()) {
+                        jsonVariableMap.put(panelVariableEntry.getKey(), panelVariableEntry.getValue().toJSON());
+                    }
+                    jsonPanel.put("variables", jsonVariableMap);
+                    jsonPanel.put("variableIds", this.getPanelVariableIdsStr());
                 }
+
                 jsonPanel.put("config", this.panelConfig.toJSON());
-                jsonPanel.put("variables", jsonVariableMap);
-                jsonPanel.put("variableIds", this.getPanelVariableIdsStr(panelVariableMap));
             }
 
-            jsonPanel.put("config", this.panelConfig.toJSON());
-        }
-
-        // Map all variables from all panels
-        String variableIdsStr = this.getVariableIdsStr();
+            jsonSection = new JSONObject()
+                .put("panel", jsonPanel);
 
-        return new JSONObject()
-            .put("ncAnimateConfig", this.ncAnimateConfig == null ? null : this.ncAnimateConfig.getId().getValue())
-            .put("panel", jsonPanel)
-            .put("variableIds", variableIdsStr)
-            .put("workingDirectory", this.getWorkingDirectory())
-
-            .put("renderFile", this.renderFile == null ? null : this.renderFile.toJSON())
-            .put("frameDirectory", this.getFrameDirectory())
-            .put("frameFilenamePrefix", FRAME_FILENAME_PREFIX)
-            .put("videoFrameDirectory", new File(this.getFrameDirectory(), VIDEO_FRAME_DIRECTORY))
+            this.jsonPanelSection = jsonSection;
+        }
+        return jsonSection;
+    }
 
-            .put("outputDirectory", this.getOutputDirectory())
-            .put("outputFilenamePrefix", this.outputFilenamePrefix) // "video" or "map"
-            .put("outputFilename", this.getOutputFilename()) // "video_gbr4_v2_temp-wind-salt-current_2019-01-14.mp4"
-            .put("outputFile", this.getOutputFile()) // "/output/directory/video_gbr4_v2_temp-wind-salt-current_2019-01-14.mp4"
+    private JSONObject getJSONPathsSection() {
+        JSONObject jsonSection = this.jsonPathsSection;
+        if (jsonSection == null) {
+            jsonSection = new JSONObject()
+                .put("frameDirectory", this.getFrameDirectory())
+                .put("frameFilenamePrefix", FRAME_FILENAME_PREFIX)
+                .put("videoFrameDirectory", new File(this.getFrameDirectory(), VIDEO_FRAME_DIRECTORY));
 
-            .put("dateRange", this.dateRange == null ? null : this.dateRange.toJSON())
+            this.jsonPathsSection = jsonSection;
+        }
+        return jsonSection;
+    }
 
-            // Used with templates
-            .put("dateFrom", this.dateRange == null ? null : this.dateRange.getStartDate())
-            .put("dateTo", this.dateRange == null ? null : this.dateRange.getEndDate())
+    private JSONObject getJSONOutputSection() {
+        JSONObject jsonSection = this.jsonOutputSection;
+        if (jsonSection == null) {
+            jsonSection = new JSONObject()
+                .put("renderFile", this.renderFile == null ? null : this.renderFile.toJSON())
+                .put("outputFilenamePrefix", this.outputFilenamePrefix) // "video" or "map"
+                .put("outputFilename", this.getOutputFilename()) // "video_gbr4_v2_temp-wind-salt-current_2019-01-14.mp4"
+                .put("outputFile", this.getOutputFile()); // "/output/directory/video_gbr4_v2_temp-wind-salt-current_2019-01-14.mp4"
 
+            this.jsonOutputSection = jsonSection;
+        }
+        return jsonSection;
+    }
 
-            .put("region", this.region == null ? null : this.region.toJSON())
-            .put("targetHeight", this.targetHeight == null ? "0" : this.targetHeight)
+    private JSONObject getJSONDatesSection() {
+        JSONObject jsonSection = this.jsonDatesSection;
+        if (jsonSection == null) {
+            jsonSection = new JSONObject()
+                .put("dateRange", this.dateRange == null ? null : this.dateRange.toJSON())
 
-            .put("frameTimeIncrement", this.frameTimeIncrement == null ? null : this.frameTimeIncrement.toJSON())
-            .put("framePeriod", NcAnimateUtils.getTimeIncrementLabel(this.frameTimeIncrement))
+                // Used with templates
+                .put("dateFrom", this.dateRange == null ? null : this.dateRange.getStartDate())
+                .put("dateTo", this.dateRange == null ? null : this.dateRange.getEndDate())
 
-            .put("netCDFDirectory", this.getNetCDFDirectory())
-            .put("layerDirectory", this.getLayerDirectory())
-            .put("paletteDirectory", this.getPaletteDirectory())
-            .put("styleDirectory", this.getStyleDirectory())
+                .put("frameTimeIncrement", this.frameTimeIncrement == null ? null : this.frameTimeIncrement.toJSON())
+                .put("framePeriod", NcAnimateUtils.getTimeIncrementLabel(this.frameTimeIncrement));
 
-            // Size of the rendered image (frame).
-            .put("canvasWidth", this.getScaledCanvasWidth())
-            .put("canvasHeight", this.getScaledCanvasHeight())
+            this.jsonDatesSection = jsonSection;
+        }
+        return jsonSection;
+    }
 
-            .put("generationDate", this.generationDate)
+    private JSONObject getJSONRegionSection() {
+        JSONObject jsonSection = this.jsonRegionSection;
+        if (jsonSection == null) {
+            jsonSection = new JSONObject()
+                .put("region", this.region == null ? null : this.region.toJSON())
+                .put("targetHeight", this.targetHeight == null ? "0" : this.targetHeight);
 
-            // NOTE: NcAnimate does some calculations, but doesn't create resized images.
-            //     The only image generated by NcAnimate is of canvasWidth x canvasHeight dimensions.
-            //     The image can be manipulated after generation using post-processing treatment software
-            //     such as ffmpeg or image magick. The following numbers are just there to help figuring
-            //     out which number should be used.
+            this.jsonRegionSection = jsonSection;
+        }
+        return jsonSection;
+    }
+
+    private JSONObject getJSONDimensionsSection() {
+        JSONObject jsonSection = this.jsonDimensionsSection;
+        if (jsonSection == null) {
+            JSONObject jsonPadding = null;
+            NcAnimatePaddingBean padding = this.getPadding();
+            if (padding != null) {
+                jsonPadding = padding.toJSON();
+                if (jsonPadding.isEmpty()) {
+                    jsonPadding = null;
+                }
+            }
 
-            // Expected resized image, as specified by the config
-            // NOTE: the config only specify one of the 2 (for example, maxWidth) and this class calculate the other.
-            .put("maxWidth", this.getScaledMaxWidth())
-            .put("maxHeight", this.getScaledMaxHeight())
-            // Padding needed to be added to the resized image in order to get the the final size (used when blockSize is specified)
-            .put("padding", jsonPadding)
-            // Final dimensions of the image, after resize and padding added. The final dimensions respect the blockSize, if specified.
-            .put("productWidth", this.getProductWidth())
-            .put("productHeight", this.getProductHeight());
+            jsonSection = new JSONObject()
+                // Size of the rendered image (frame).
+                .put("canvasWidth", this.getScaledCanvasWidth())
+                .put("canvasHeight", this.getScaledCanvasHeight())
+
+                // NOTE: NcAnimate does some calculations, but doesn't create resized images.
+                //     The only image generated by NcAnimate is of canvasWidth x canvasHeight dimensions.
+                //     The image can be manipulated after generation using post-processing treatment software
+                //     such as ffmpeg or image magick. The following numbers are just there to help figuring
+                //     out which number should be used.
+
+                // Expected resized image, as specified by the config
+                // NOTE: the config only specify one of the 2 (for example, maxWidth) and this class calculate the other.
+                .put("maxWidth", this.getScaledMaxWidth())
+                .put("maxHeight", this.getScaledMaxHeight())
+                // Padding needed to be added to the resized image in order to get the the final size (used when blockSize is specified)
+                .put("padding", jsonPadding)
+                // Final dimensions of the image, after resize and padding added. The final dimensions respect the blockSize, if specified.
+                .put("productWidth", this.getProductWidth())
+                .put("productHeight", this.getProductHeight());
+
+            this.jsonDimensionsSection = jsonSection;
+        }
+        return jsonSection;
     }
 
     @Override
     public String toString() {
         return this.toJSON().toString(4);
     }
+
+    /**
+     * Size of the rendered images. Depends on the configuration and the region.
+     */
+    private static class CanvasDimensions {
+        private final Integer width;
+        private final Integer height;
+
+        public CanvasDimensions(Integer width, Integer height) {
+            this.width = width;
+            this.height = height;
+        }
+    }
+
+    /**
+     * Size of the product, after resize and padding. Depends on the canvas dimensions and the render file.
+     */
+    private static class ProductDimensions {
+        private final Integer width;
+        private final Integer height;
+        private final NcAnimatePaddingBean padding;
+
+        public ProductDimensions(Integer width, Integer height, NcAnimatePaddingBean padding) {
+            this.width = width;
+            this.height = height;
+            this.padding = padding;
+        }
+    }
 }
@@ -0,0 +1,316 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ncanimate.commons.generator.context;
+
+import au.gov.aims.ereefs.Utils;
+import au.gov.aims.ereefs.bean.ncanimate.NcAnimateConfigBean;
+import au.gov.aims.ereefs.bean.ncanimate.NcAnimateIdBean;
+import au.gov.aims.ereefs.bean.ncanimate.NcAnimateLayerBean;
+import au.gov.aims.ereefs.bean.ncanimate.NcAnimateNetCDFTrueColourVariableBean;
+import au.gov.aims.ereefs.bean.ncanimate.NcAnimateNetCDFVariableBean;
+import au.gov.aims.ereefs.bean.ncanimate.NcAnimatePanelBean;
+import au.gov.aims.ereefs.bean.ncanimate.render.NcAnimateRenderBean;
+import au.gov.aims.ereefs.bean.ncanimate.render.NcAnimateRenderMapBean;
+import au.gov.aims.ereefs.bean.ncanimate.render.NcAnimateRenderVideoBean;
+import au.gov.aims.ncanimate.commons.template.ConfigTemplateValues;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.lang.ref.SoftReference;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+
+/**
+ * State of a GeneratorContext which only depends on the NcAnimate configuration.
+ * It's shared between a context and all the contexts derived from it (see GeneratorContext.with* methods).
+ * Values are calculated the first time they are requested. Access is synchronised,
+ * so contexts derived from the same context can be used in different threads.
+ *
+ * The state is also shared between contexts created for the same configuration instance
+ * (see GeneratorContextConfigState.get), so callers which create a new context for each
+ * output file do not recalculate it.
+ */
+class GeneratorContextConfigState {
+    private static final Logger LOGGER = Logger.getLogger(GeneratorContextConfigState.class);
+
+    private static final String PRODUCT_DIR_NAME = "output/product";
+
+    private static final String NETCDF_DIR_NAME = "input/netcdf";
+    private static final String LAYER_DIR_NAME = "input/layer";
+    private static final String PALETTE_DIR_NAME = "input/palette";
+    private static final String STYLE_DIR_NAME = "input/style"; // Layer SLD style sheets
+
+    // Key: Configuration instance. The entry is dropped when the configuration is garbage collected.
+    // Value: State of the configuration. The state references the configuration,
+    //     it is softly referenced to let the garbage collector release the configuration.
+    private static final Map<NcAnimateConfigBean, SoftReference<GeneratorContextConfigState>> CONFIG_STATES =
+            new WeakHashMap<NcAnimateConfigBean, SoftReference<GeneratorContextConfigState>>();
+
+    private final NcAnimateConfigBean ncAnimateConfig;
+
+    // Identify the version of the configuration in the ConfigTemplateValues cache.
+    // Computing the last modified timestamp iterates through all the config parts,
+    // it's done once instead of once per placeholder.
+    private final String configId;
+    private final long configLastModified;
+
+    private File workingDirectory;
+    private File outputDirectory;
+
+    // Input files
+    private File netCDFDirectory;
+    private File layerDirectory;
+    private File paletteDirectory;
+    private File styleDirectory;
+
+    // Formats in which the frames needs to be rendered
+    private Set<NcAnimateRenderMapBean.MapFormat> frameFormats;
+
+    // Variables used by each panel
+    //   Key: Panel config
+    //   Value: Map:
+    //     Key: Variable ID (String)
+    //     Value: NcAnimateNetCDFVariableBean
+    private final Map<NcAnimatePanelBean, SortedMap<String, NcAnimateNetCDFVariableBean>> panelVariableMaps;
+    private final Map<NcAnimatePanelBean, String> panelVariableIdsStrs;
+
+    // Variables used by all panels
+    private boolean variableIdsStrCalculated;
+    private String variableIdsStr;
+
+    /**
+     * Get the state shared by all the contexts of a configuration.
+     * @param ncAnimateConfig
+     * @return The state of the configuration instance. A different instance
+     *     of the configuration (i.e. a reloaded configuration) gets a new state.
+     */
+    public static GeneratorContextConfigState get(NcAnimateConfigBean ncAnimateConfig) {
+        if (ncAnimateConfig == null) {
+            return new GeneratorContextConfigState(null);
+        }
+
+        synchronized (CONFIG_STATES) {
+            SoftReference<GeneratorContextConfigState> stateRef = CONFIG_STATES.get(ncAnimateConfig);
+            GeneratorContextConfigState state = stateRef == null ? null : stateRef.get();
+
+            // The WeakHashMap compares keys using "equals". The state is only shared by the same instance.
+            if (state == null || state.ncAnimateConfig != ncAnimateConfig) {
+                state = new GeneratorContextConfigState(ncAnimateConfig);
+                CONFIG_STATES.put(ncAnimateConfig, new SoftReference<GeneratorContextConfigState>(state));
+            }
+            return state;
+        }
+    }
+
+    public static void clearCache() {
+        synchronized (CONFIG_STATES) {
+            CONFIG_STATES.clear();
+        }
+    }
+
+    private GeneratorContextConfigState(NcAnimateConfigBean ncAnimateConfig) {
+        this.ncAnimateConfig = ncAnimateConfig;
+
+        NcAnimateIdBean id = ncAnimateConfig == null ? null : ncAnimateConfig.getId();
+        this.configId = id == null ? null : id.getValue();
+        this.configLastModified = ncAnimateConfig == null ? 0 : ConfigTemplateValues.getConfigLastModified(ncAnimateConfig);
+
+        // NOTE: Panels are identified by reference. They may not have an ID.
+        this.panelVariableMaps = new IdentityHashMap<NcAnimatePanelBean, SortedMap<String, NcAnimateNetCDFVariableBean>>();
+        this.panelVariableIdsStrs = new IdentityHashMap<NcAnimatePanelBean, String>();
+        this.variableIdsStrCalculated = false;
+    }
+
+    public NcAnimateConfigBean getNcAnimateConfig() {
+        return this.ncAnimateConfig;
+    }
+
+    public ConfigTemplateValues getConfigTemplateValues() {
+        if (this.ncAnimateConfig == null) {
+            return null;
+        }
+        return ConfigTemplateValues.get(this.configId, this.configLastModified);
+    }
+
+    public synchronized File getWorkingDirectory() {
+        if (this.workingDirectory == null) {
+            NcAnimateRenderBean render = this.ncAnimateConfig.getRender();
+            this.workingDirectory = render.getWorkingDirectoryFile();
+            if (this.workingDirectory != null && !Utils.prepareDirectory(this.workingDirectory)) {
+                LOGGER.error(String.format("The working directory %s could not be created.", this.workingDirectory));
+            }
+        }
+        return this.workingDirectory;
+    }
+
+    public synchronized File getOutputDirectory() {
+        if (this.outputDirectory == null) {
+            File outputDirectory = new File(this.getWorkingDirectory(), PRODUCT_DIR_NAME);
+            this.outputDirectory = new File(outputDirectory, Utils.safeFilename(this.ncAnimateConfig.getId().getValue()));
+            if (!Utils.prepareDirectory(this.outputDirectory)) {
+                LOGGER.error(String.format("The output directory %s could not be created.", this.outputDirectory));
+            }
+        }
+        return this.outputDirectory;
+    }
+
+    public synchronized File getNetCDFDirectory() {
+        if (this.netCDFDirectory == null) {
+            this.netCDFDirectory = new File(this.getWorkingDirectory(), NETCDF_DIR_NAME);
+            if (!Utils.prepareDirectory(this.netCDFDirectory)) {
+                LOGGER.error(String.format("The NetCDF input directory %s could not be created.", this.netCDFDirectory));
+            }
+        }
+        return this.netCDFDirectory;
+    }
+
+    public synchronized File getLayerDirectory() {
+        if (this.layerDirectory == null) {
+            this.layerDirectory = new File(this.getWorkingDirectory(), LAYER_DIR_NAME);
+            if (!Utils.prepareDirectory(this.layerDirectory)) {
+                LOGGER.error(String.format("The layer input directory %s could not be created.", this.layerDirectory));
+            }
+        }
+        return this.layerDirectory;
+    }
+
+    public synchronized File getPaletteDirectory() {
+        if (this.paletteDirectory == null) {
+            this.paletteDirectory = new File(this.getWorkingDirectory(), PALETTE_DIR_NAME);
+            if (!Utils.prepareDirectory(this.paletteDirectory)) {
+                LOGGER.error(String.format("The palette input directory %s could not be created.", this.paletteDirectory));
+            }
+        }
+        return this.paletteDirectory;
+    }
+
+    public synchronized File getStyleDirectory() {
+        if (this.styleDirectory == null) {
+            this.styleDirectory = new File(this.getWorkingDirectory(), STYLE_DIR_NAME);
+            if (!Utils.prepareDirectory(this.styleDirectory)) {
+                LOGGER.error(String.format("The style input directory %s could not be created.", this.styleDirectory));
+            }
+        }
+        return this.styleDirectory;
+    }
+
+    /**
+     * Formats in which the frames needs to be rendered (svg, png, jpg, etc).
+     * The frames of a video are rendered in GeneratorContext.VIDEO_FRAME_FORMAT.
+     * @return
+     */
+    public synchronized Set<NcAnimateRenderMapBean.MapFormat> getFrameFormats() {
+        if (this.frameFormats == null) {
+            Set<NcAnimateRenderMapBean.MapFormat> frameFormats = EnumSet.noneOf(NcAnimateRenderMapBean.MapFormat.class);
+
+            NcAnimateRenderBean renderConf = this.ncAnimateConfig.getRender();
+            if (renderConf != null) {
+                Map<String, NcAnimateRenderMapBean> mapConfs = renderConf.getMaps();
+                if (mapConfs != null) {
+                    for (NcAnimateRenderMapBean renderMapConf : mapConfs.values()) {
+                        if (renderMapConf != null) {
+                            frameFormats.add(renderMapConf.getFormat());
+                        }
+                    }
+                }
+
+                Map<String, NcAnimateRenderVideoBean> videoConfs = renderConf.getVideos();
+                if (videoConfs != null) {
+                    for (NcAnimateRenderVideoBean renderVideoConf : videoConfs.values()) {
+                        if (renderVideoConf != null) {
+                            NcAnimateRenderVideoBean.VideoFormat videoFormat = renderVideoConf.getFormat();
+                            switch(videoFormat) {
+                                case MP4:
+                                case WMV:
+                                    frameFormats.add(GeneratorContext.VIDEO_FRAME_FORMAT);
+                                    break;
+                            }
+                        }
+                    }
+                }
+            }
+
+            this.frameFormats = Collections.unmodifiableSet(frameFormats);
+        }
+        return this.frameFormats;
+    }
+
+    public synchronized SortedMap<String, NcAnimateNetCDFVariableBean> getPanelVariableMap(NcAnimatePanelBean panelConfig) {
+        SortedMap<String, NcAnimateNetCDFVariableBean> panelVariableMap = this.panelVariableMaps.get(panelConfig);
+        if (panelVariableMap == null) {
+            panelVariableMap = Collections.unmodifiableSortedMap(
+                    GeneratorContextConfigState.createPanelVariableMap(panelConfig));
+            this.panelVariableMaps.put(panelConfig, panelVariableMap);
+        }
+        return panelVariableMap;
+    }
+
+    public synchronized String getPanelVariableIdsStr(NcAnimatePanelBean panelConfig) {
+        if (!this.panelVariableIdsStrs.containsKey(panelConfig)) {
+            Map<String, NcAnimateNetCDFVariableBean> panelVariableMap = this.getPanelVariableMap(panelConfig);
+            this.panelVariableIdsStrs.put(panelConfig, panelVariableMap.isEmpty() ? null :
+                    String.join(", ", panelVariableMap.keySet()));
+        }
+        return this.panelVariableIdsStrs.get(panelConfig);
+    }
+
+    public synchronized String getVariableIdsStr() {
+        if (!this.variableIdsStrCalculated) {
+            SortedMap<String, NcAnimateNetCDFVariableBean> usedVariables =
+                    new TreeMap<String, NcAnimateNetCDFVariableBean>();
+
+            List<NcAnimatePanelBean> panelConfs = this.ncAnimateConfig.getPanels();
+            if (panelConfs != null) {
+                for (NcAnimatePanelBean panelConf : panelConfs) {
+                    NcAnimateIdBean panelId = panelConf.getId();
+                    String panelIdStr = panelId == null ? null : panelId.getValue();
+                    if (panelIdStr != null && !panelIdStr.isEmpty()) {
+                        usedVariables.putAll(this.getPanelVariableMap(panelConf));
+                    }
+                }
+            }
+
+            this.variableIdsStr = usedVariables.isEmpty() ? null : String.join(", ", usedVariables.keySet());
+            this.variableIdsStrCalculated = true;
+        }
+        return this.variableIdsStr;
+    }
+
+    private static SortedMap<String, NcAnimateNetCDFVariableBean> createPanelVariableMap(NcAnimatePanelBean panelConfig) {
+        SortedMap<String, NcAnimateNetCDFVariableBean> usedVariables =
+                new TreeMap<String, NcAnimateNetCDFVariableBean>();
+
+        if (panelConfig != null) {
+            List<NcAnimateLayerBean> layers = panelConfig.getLayers();
+            if (layers != null) {
+                for (NcAnimateLayerBean layer : layers) {
+                    NcAnimateNetCDFVariableBean variable = layer.getVariable();
+                    if (variable != null) {
+                        usedVariables.put(variable.getVariableId(), variable);
+                    }
+
+                    NcAnimateNetCDFVariableBean arrowVariable = layer.getArrowVariable();
+                    if (arrowVariable != null) {
+                        usedVariables.put(arrowVariable.getVariableId(), arrowVariable);
+                    }
+
+                    Map<String, NcAnimateNetCDFTrueColourVariableBean> trueColourVariables = layer.getTrueColourVariables();
+                    if (trueColourVariables != null) {
+                        usedVariables.putAll(trueColourVariables);
+                    }
+                }
+            }
+        }
+
+        return usedVariables;
+    }
+}
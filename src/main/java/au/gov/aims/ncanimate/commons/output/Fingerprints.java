@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ncanimate.commons.output;
+
+import au.gov.aims.ereefs.bean.metadata.netcdf.NetCDFMetadataBean;
+import au.gov.aims.ereefs.bean.ncanimate.NcAnimateConfigBean;
+import au.gov.aims.ncanimate.commons.timetable.FrameTimetable;
+import au.gov.aims.ncanimate.commons.timetable.FrameTimetableMap;
+import au.gov.aims.ncanimate.commons.timetable.NetCDFMetadataFrame;
+import au.gov.aims.ncanimate.commons.timetable.NetCDFMetadataSet;
+import au.gov.aims.ncanimate.commons.timetable.TemporalMetadata;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * Content fingerprints of the inputs of a product.
+ *
+ * Fingerprints are used to detect if the content of an input file, or of the configuration,
+ * actually changed since an output file was generated. The last modified timestamp changes
+ * when an identical file is re-uploaded, or when a config part is touched.
+ *
+ * Input file fingerprint:
+ *     The checksum of the file found in its metadata.
+ *     Input files without checksum have no fingerprint (null). The content of the file is unknown,
+ *     the OutdatedOutputFileChecker compares their last modified timestamp instead.
+ * Configuration fingerprint:
+ *     A hash of the configuration JSON, with sorted keys and without last modified timestamps.
+ */
+public class Fingerprints {
+    private static final String HASH_ALGORITHM = "SHA-256";
+
+    // Keys which are ignored when calculating the configuration fingerprint.
+    // They change without changing the product.
+    private static final String[] IGNORED_CONFIG_KEYS = { "lastModified" };
+
+    /**
+     * NOTE: The time steps of a file can stay the same while its values change (re-run of a model, etc).
+     *     The temporal domain is not a fingerprint of the content of the file.
+     * @param metadata
+     * @return The checksum of the input file, or null if the metadata is null or has no checksum (unknown content).
+     */
+    public static String getInputFingerprint(NetCDFMetadataBean metadata) {
+        if (metadata == null) {
+            return null;
+        }
+
+        String checksum = metadata.getChecksum();
+        if (checksum == null || checksum.isEmpty()) {
+            return null;
+        }
+        return checksum;
+    }
+
+    /**
+     * @param inputs Frame timetables used to generate an output file
+     * @return Map of:
+     *     Key: NetCDF metadata ID
+     *     Value: Fingerprint of the input file, null if unknown
+     */
+    public static Map<String, String> getInputFingerprints(List<FrameTimetableMap> inputs) {
+        Map<String, String> inputFingerprints = new HashMap<String, String>();
+        if (inputs != null) {
+            for (FrameTimetableMap frameTimetableMap : inputs) {
+                inputFingerprints.putAll(Fingerprints.getInputFingerprints(frameTimetableMap));
+            }
+        }
+        return inputFingerprints;
+    }
+
+    /**
+     * NOTE: When the timetable was planned using temporal metadata (see TemporalMetadataLoader),
+     *     the checksum of the temporal metadata is used. The full metadata is only loaded
+     *     for input files without checksum.
+     * @param frameTimetableMap
+     * @return
+     */
+    public static Map<String, String> getInputFingerprints(FrameTimetableMap frameTimetableMap) {
+        Map<String, String> inputFingerprints = new HashMap<String, String>();
+        if (frameTimetableMap != null) {
+            for (FrameTimetable frameTimetable : frameTimetableMap.values()) {
+                for (NetCDFMetadataSet netCDFMetadataSet : frameTimetable.values()) {
+                    NetCDFMetadataFrame netCDFMetadataFrame = netCDFMetadataSet.first();
+                    String metadataId = netCDFMetadataFrame.getMetadataId();
+                    if (!inputFingerprints.containsKey(metadataId)) {
+                        TemporalMetadata temporalMetadata = netCDFMetadataFrame.getTemporalMetadata();
+                        String checksum = temporalMetadata == null ? null : temporalMetadata.getChecksum();
+                        inputFingerprints.put(metadataId, checksum != null && !checksum.isEmpty() ?
+                                checksum :
+                                Fingerprints.getInputFingerprint(netCDFMetadataFrame.getMetadata()));
+                    }
+                }
+            }
+        }
+        return inputFingerprints;
+    }
+
+    /**
+     * @param ncAnimateConfig
+     * @return The fingerprint of the normalised configuration, or null if the config is null.
+     */
+    public static String getConfigFingerprint(NcAnimateConfigBean ncAnimateConfig) {
+        if (ncAnimateConfig == null) {
+            return null;
+        }
+
+        JSONObject jsonConfig = ncAnimateConfig.toJSON();
+        if (jsonConfig == null) {
+            return null;
+        }
+
+        StringBuilder normalisedConfig = new StringBuilder();
+        Fingerprints.normalise(jsonConfig, normalisedConfig);
+
+        return HASH_ALGORITHM + ":" + Fingerprints.hash(normalisedConfig.toString());
+    }
+
+    /**
+     * Write the JSON value in a canonical form: object keys sorted, ignored keys removed.
+     * @param jsonValue
+     * @param sb
+     */
+    protected static void normalise(Object jsonValue, StringBuilder sb) {
+        if (jsonValue instanceof JSONObject) {
+            JSONObject jsonObject = (JSONObject) jsonValue;
+            SortedSet<String> keys = new TreeSet<String>(jsonObject.keySet());
+            for (String ignoredKey : IGNORED_CONFIG_KEYS) {
+                keys.remove(ignoredKey);
+            }
+
+            sb.append('{');
+            boolean first = true;
+            for (String key : keys) {
+                if (!first) {
+                    sb.append(',');
+                }
+                first = false;
+                sb.append(JSONObject.quote(key)).append(':');
+                Fingerprints.normalise(jsonObject.opt(key), sb);
+            }
+            sb.append('}');
+
+        } else if (jsonValue instanceof JSONArray) {
+            JSONArray jsonArray = (JSONArray) jsonValue;
+            sb.append('[');
+            for (int i=0; i<jsonArray.length(); i++) {
+                if (i > 0) {
+                    sb.append(',');
+                }
+                Fingerprints.normalise(jsonArray.opt(i), sb);
+            }
+            sb.append(']');
+
+        } else if (jsonValue instanceof String) {
+            sb.append(JSONObject.quote((String) jsonValue));
+
+        } else if (jsonValue == null || JSONObject.NULL.equals(jsonValue)) {
+            sb.append("null");
+
+        } else {
+            sb.append(JSONObject.valueToString(jsonValue));
+        }
+    }
+
+    private static String hash(String str) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException ex) {
+            // This should not happen, all Java platforms support SHA-256
+            throw new IllegalStateException(String.format("Unsupported hash algorithm: %s", HASH_ALGORITHM), ex);
+        }
+
+        byte[] hash = digest.digest(str.getBytes(StandardCharsets.UTF_8));
+        StringBuilder hexSb = new StringBuilder(hash.length * 2);
+        for (byte b : hash) {
+            hexSb.append(String.format("%02x", b));
+        }
+        return hexSb.toString();
+    }
+}
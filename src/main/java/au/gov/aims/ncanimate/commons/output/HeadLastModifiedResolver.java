@@ -0,0 +1,246 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ncanimate.commons.output;
+
+import au.gov.aims.aws.s3.FileWrapper;
+import au.gov.aims.aws.s3.entity.S3Client;
+import com.amazonaws.http.timers.client.ClientExecutionTimeoutException;
+import com.amazonaws.services.s3.AmazonS3URI;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.GetObjectMetadataRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import org.apache.log4j.Logger;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Find the last modified timestamp of output files, using one S3 HEAD request per file.
+ * The requests are sent in parallel, using a bounded executor.
+ *
+ * The timeout is applied to each S3 request (SDK client execution timeout), from the moment the request
+ * is sent. The time spent waiting in the executor queue is not counted.
+ * Only a file which is not found (S3 status 404) is considered as missing. Any other error
+ * (timeout, access denied, service unavailable, network error, etc) fails the check,
+ * the product can not be considered outdated (or up to date) without its last modified date.
+ */
+public class HeadLastModifiedResolver implements OutputLastModifiedResolver {
+    private static final Logger LOGGER = Logger.getLogger(HeadLastModifiedResolver.class);
+
+    // Maximum number of S3 requests sent in parallel, using the shared executor
+    public static final int DEFAULT_THREAD_COUNT = 16;
+
+    // Maximum time to wait for the response of a S3 request
+    public static final int DEFAULT_TIMEOUT_MS = 60 * 1000;
+
+    private static ThreadPoolExecutor sharedExecutor;
+    private static int sharedThreadCount = DEFAULT_THREAD_COUNT;
+
+    private final S3Client s3Client;
+    private final ExecutorService executor;
+    private final int timeoutMs;
+
+    public HeadLastModifiedResolver(S3Client s3Client) {
+        this(s3Client, HeadLastModifiedResolver.getSharedExecutor(), DEFAULT_TIMEOUT_MS);
+    }
+
+    /**
+     * @param s3Client
+     * @param executor The executor used to send the requests.
+     * @param timeoutMs Maximum duration of each S3 request, in milliseconds. 0 to disable.
+     */
+    public HeadLastModifiedResolver(S3Client s3Client, ExecutorService executor, int timeoutMs) {
+        this.s3Client = s3Client;
+        this.executor = executor;
+        this.timeoutMs = timeoutMs;
+    }
+
+    /**
+     * Executor shared by all the resolvers.
+     * The threads are daemon threads and they are terminated when they are idle,
+     * so the executor doesn't need to be shutdown.
+     * @return
+     */
+    public static synchronized ExecutorService getSharedExecutor() {
+        if (sharedExecutor == null) {
+            final AtomicInteger threadCount = new AtomicInteger(0);
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                    sharedThreadCount, sharedThreadCount,
+                    60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(),
+                    new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable runnable) {
+                            Thread thread = new Thread(runnable, String.format("s3-last-modified-%d", threadCount.incrementAndGet()));
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            executor.allowCoreThreadTimeOut(true);
+            sharedExecutor = executor;
+        }
+        return sharedExecutor;
+    }
+
+    /**
+     * Set the maximum number of S3 requests sent in parallel by the shared executor.
+     * The executor is resized if it was already created.
+     * @param threadCount
+     */
+    public static synchronized void setSharedThreadCount(int threadCount) {
+        if (threadCount <= 0) {
+            throw new IllegalArgumentException(String.format("Invalid number of threads: %d", threadCount));
+        }
+        sharedThreadCount = threadCount;
+        if (sharedExecutor != null) {
+            // The maximum pool size can't be smaller than the core pool size
+            if (threadCount > sharedExecutor.getMaximumPoolSize()) {
+                sharedExecutor.setMaximumPoolSize(threadCount);
+                sharedExecutor.setCorePoolSize(threadCount);
+            } else {
+                sharedExecutor.setCorePoolSize(threadCount);
+                sharedExecutor.setMaximumPoolSize(threadCount);
+            }
+        }
+    }
+
+    public static synchronized int getSharedThreadCount() {
+        return sharedThreadCount;
+    }
+
+    /**
+     * Shutdown the shared executor. The requests already submitted are completed.
+     * A new executor is created the next time it's needed.
+     */
+    public static synchronized void shutdownSharedExecutor() {
+        if (sharedExecutor != null) {
+            sharedExecutor.shutdown();
+            sharedExecutor = null;
+        }
+    }
+
+    /**
+     * Return a map of:
+     *     Key: File URI (String)
+     *     Value: Last modified timestamp, or null if the file doesn't exist.
+     * @param fileURIs
+     * @return
+     * @throws RuntimeException The error of the first request which failed
+     *     (ClientExecutionTimeoutException, AmazonS3Exception, etc).
+     *     The requests which are still pending are cancelled.
+     */
+    @Override
+    public Map<String, Long> getLastModified(Collection<URI> fileURIs) {
+        Map<String, Long> lastModifiedMap = new HashMap<String, Long>();
+        if (fileURIs == null || fileURIs.isEmpty()) {
+            return lastModifiedMap;
+        }
+
+        List<URI> requestedFileURIs = new ArrayList<URI>(fileURIs.size());
+        List<Future<Long>> futures = new ArrayList<Future<Long>>(fileURIs.size());
+        for (final URI fileURI : fileURIs) {
+            requestedFileURIs.add(fileURI);
+            futures.add(this.executor.submit(new Callable<Long>() {
+                @Override
+                public Long call() {
+                    return HeadLastModifiedResolver.this.requestLastModified(fileURI);
+                }
+            }));
+        }
+
+        for (int i=0; i<futures.size(); i++) {
+            URI fileURI = requestedFileURIs.get(i);
+            Future<Long> future = futures.get(i);
+
+            Long lastModified;
+            try {
+                // The request has its own timeout
+                lastModified = future.get();
+            } catch (ExecutionException ex) {
+                HeadLastModifiedResolver.cancel(futures);
+                Throwable cause = ex.getCause();
+                if (cause instanceof ClientExecutionTimeoutException) {
+                    LOGGER.error(String.format("Timeout while requesting the last modified date of: %s", fileURI));
+                } else {
+                    LOGGER.error(String.format("Error occurred while requesting the last modified date of: %s", fileURI));
+                }
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new IllegalStateException(String.format("Error occurred while requesting the last modified date of: %s", fileURI), cause);
+            } catch (InterruptedException ex) {
+                HeadLastModifiedResolver.cancel(futures);
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while requesting the last modified date of the output files.", ex);
+            }
+
+            lastModifiedMap.put(fileURI.toString(), lastModified);
+        }
+
+        return lastModifiedMap;
+    }
+
+    private static void cancel(List<Future<Long>> futures) {
+        for (Future<Long> future : futures) {
+            future.cancel(true);
+        }
+    }
+
+    /**
+     * Send the HEAD request of a single file.
+     * Files which are not on S3 are handled by the FileWrapper.
+     * @param fileURI
+     * @return The last modified timestamp, or null if the file doesn't exist.
+     * @throws ClientExecutionTimeoutException If the request didn't respond in time.
+     * @throws AmazonS3Exception If the request failed for any other reason than a missing file.
+     */
+    protected Long requestLastModified(URI fileURI) {
+        if (!"s3".equalsIgnoreCase(fileURI.getScheme())) {
+            FileWrapper fileWrapper = new FileWrapper(fileURI, null);
+            return fileWrapper.getS3LastModified(this.s3Client);
+        }
+
+        AmazonS3URI s3URI = new AmazonS3URI(fileURI);
+        GetObjectMetadataRequest request = new GetObjectMetadataRequest(s3URI.getBucket(), s3URI.getKey());
+        if (this.timeoutMs > 0) {
+            request.setSdkClientExecutionTimeout(this.timeoutMs);
+        }
+
+        ObjectMetadata metadata;
+        try {
+            metadata = this.requestObjectMetadata(request);
+        } catch (AmazonS3Exception ex) {
+            // Only "Not Found" means that the file is missing
+            if (ex.getStatusCode() == 404) {
+                return null;
+            }
+            throw ex;
+        }
+
+        Date lastModified = metadata == null ? null : metadata.getLastModified();
+        return lastModified == null ? null : lastModified.getTime();
+    }
+
+    protected ObjectMetadata requestObjectMetadata(GetObjectMetadataRequest request) {
+        return this.s3Client.getS3().getObjectMetadata(request);
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ncanimate.commons.output;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * List the files found in a local directory (URI with the "file" scheme).
+ * Used when the output files are saved on the local filesystem, and with tests.
+ */
+public class LocalFileObjectLister implements ObjectLister {
+
+    @Override
+    public boolean supports(URI prefixURI) {
+        return prefixURI != null && "file".equalsIgnoreCase(prefixURI.getScheme());
+    }
+
+    @Override
+    public Map<String, Long> list(URI prefixURI) throws IOException {
+        Map<String, Long> lastModifiedMap = new HashMap<String, Long>();
+
+        File directory = new File(prefixURI);
+        if (!directory.exists()) {
+            // Nothing as been generated yet
+            return lastModifiedMap;
+        }
+
+        File[] files = directory.listFiles();
+        if (files == null) {
+            throw new IOException(String.format("Could not list the directory: %s", directory));
+        }
+
+        String prefixURIStr = prefixURI.toString();
+        for (File file : files) {
+            if (file.isFile()) {
+                lastModifiedMap.put(prefixURIStr + file.getName(), file.lastModified());
+            }
+        }
+
+        return lastModifiedMap;
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ncanimate.commons.output;
+
+import au.gov.aims.aws.s3.entity.S3Client;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Find the last modified timestamp of output files using the OutputManifest,
+ * instead of requesting the remote storage (S3).
+ *
+ * The remote storage is only requested when:
+ * - the output file is not in the manifest,
+ * - the manifest says the output file is missing,
+ * - the manifest entry was not verified in the last verification interval.
+ *
+ * The result of the remote requests are appended to the manifest,
+ * so the next run can answer from the manifest.
+ */
+public class ManifestLastModifiedResolver implements OutputLastModifiedResolver {
+    private static final Logger LOGGER = Logger.getLogger(ManifestLastModifiedResolver.class);
+
+    // Verify the manifest entries against the remote storage once a week
+    public static final long DEFAULT_VERIFICATION_INTERVAL_MS = 7L * 24 * 60 * 60 * 1000;
+
+    private final OutputManifest manifest;
+    private final OutputLastModifiedResolver remoteResolver;
+    private final long verificationIntervalMs;
+
+    // Used for monitoring
+    private final AtomicLong manifestHitCount;
+    private final AtomicLong remoteCheckCount;
+
+    public ManifestLastModifiedResolver(OutputManifest manifest, OutputLastModifiedResolver remoteResolver) {
+        this(manifest, remoteResolver, DEFAULT_VERIFICATION_INTERVAL_MS);
+    }
+
+    /**
+     * @param manifest
+     * @param remoteResolver Resolver used to request the remote storage.
+     * @param verificationIntervalMs Maximum age of a manifest entry before it's verified against the remote storage.
+     */
+    public ManifestLastModifiedResolver(OutputManifest manifest, OutputLastModifiedResolver remoteResolver, long verificationIntervalMs) {
+        if (manifest == null) {
+            throw new IllegalArgumentException("Output manifest is null.");
+        }
+        if (remoteResolver == null) {
+            throw new IllegalArgumentException("Remote last modified resolver is null.");
+        }
+
+        this.manifest = manifest;
+        this.remoteResolver = remoteResolver;
+        this.verificationIntervalMs = verificationIntervalMs;
+        this.manifestHitCount = new AtomicLong(0);
+        this.remoteCheckCount = new AtomicLong(0);
+    }
+
+    /**
+     * Create a resolver for output files saved on S3 or on the local filesystem.
+     * Files which needs to be verified are found by listing their prefix (see PrefixListingLastModifiedResolver).
+     * @param manifest
+     * @param s3Client
+     * @return
+     */
+    public static ManifestLastModifiedResolver create(OutputManifest manifest, S3Client s3Client) {
+        return new ManifestLastModifiedResolver(manifest, PrefixListingLastModifiedResolver.create(s3Client));
+    }
+
+    @Override
+    public Map<String, Long> getLastModified(Collection<URI> fileURIs) {
+        Map<String, Long> lastModifiedMap = new HashMap<String, Long>();
+        if (fileURIs == null || fileURIs.isEmpty()) {
+            return lastModifiedMap;
+        }
+
+        long now = System.currentTimeMillis();
+        List<URI> remoteFileURIs = new ArrayList<URI>();
+        for (URI fileURI : fileURIs) {
+            OutputManifestEntry entry = this.manifest.get(fileURI);
+            if (entry != null && entry.exists() && now - entry.getVerified() < this.verificationIntervalMs) {
+                lastModifiedMap.put(fileURI.toString(), entry.getLastModified());
+            } else {
+                remoteFileURIs.add(fileURI);
+            }
+        }
+        this.manifestHitCount.addAndGet(lastModifiedMap.size());
+
+        if (!remoteFileURIs.isEmpty()) {
+            this.remoteCheckCount.addAndGet(remoteFileURIs.size());
+            Map<String, Long> remoteLastModifiedMap = this.remoteResolver.getLastModified(remoteFileURIs);
+
+            List<OutputManifestEntry> verifiedEntries = new ArrayList<OutputManifestEntry>();
+            for (URI fileURI : remoteFileURIs) {
+                String fileURIStr = fileURI.toString();
+                Long lastModified = remoteLastModifiedMap.get(fileURIStr);
+                lastModifiedMap.put(fileURIStr, lastModified);
+
+                OutputManifestEntry entry = this.manifest.get(fileURIStr);
+                if (entry != null) {
+                    if (!entry.exists() && lastModified == null) {
+                        // Still missing, no need to record it again
+                        continue;
+                    }
+                    verifiedEntries.add(entry.verified(lastModified, now));
+                } else if (lastModified != null) {
+                    // File generated before the manifest existed, or by another instance.
+                    // The input and config used to generate it are unknown.
+                    verifiedEntries.add(new OutputManifestEntry(fileURIStr, lastModified, now, null, null));
+                }
+            }
+
+            try {
+                this.manifest.appendAll(verifiedEntries);
+            } catch (IOException ex) {
+                LOGGER.warn(String.format("Could not update the output manifest %s. The files will be requested again next time.",
+                        this.manifest.getManifestFile()), ex);
+            }
+        }
+
+        return lastModifiedMap;
+    }
+
+    public long getManifestHitCount() {
+        return this.manifestHitCount.get();
+    }
+
+    public long getRemoteCheckCount() {
+        return this.remoteCheckCount.get();
+    }
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ncanimate.commons.output;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Map;
+
+/**
+ * List the files found directly under a prefix (S3 "directory", local directory, etc).
+ * Used by PrefixListingLastModifiedResolver.
+ */
+public interface ObjectLister {
+
+    /**
+     * @param prefixURI
+     * @return True if the lister can list the given URI (example: "s3" or "file" scheme)
+     */
+    boolean supports(URI prefixURI);
+
+    /**
+     * Return a map of:
+     *     Key: File URI (String), in the same form as the URIs found in the configuration.
+     *         Example: "s3://bucket/path/file.png"
+     *     Value: Last modified timestamp
+     * @param prefixURI The prefix URI, ending with a "/". Example: "s3://bucket/path/"
+     * @return
+     * @throws IOException If the prefix could not be listed.
+     */
+    Map<String, Long> list(URI prefixURI) throws IOException;
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ncanimate.commons.output;
+
+import au.gov.aims.ncanimate.commons.NcAnimateGenerateFileBean;
+import org.json.JSONObject;
+
+/**
+ * Output file which needs to be re-generated, with the reason why.
+ * See OutdatedOutputFileChecker.
+ */
+public class OutdatedOutputFile {
+    public enum Reason {
+        // One or more output file (png, svg, mp4, etc) doesn't exist
+        MISSING_OUTPUT_FILE,
+
+        // The last modified date of an input file is unknown (this should not happen)
+        MISSING_INPUT_LAST_MODIFIED,
+
+        // An input file is more recent than the output file
+        INPUT_MORE_RECENT,
+
+        // The configuration is more recent than the output file
+        CONFIG_MORE_RECENT
+    }
+
+    private final NcAnimateGenerateFileBean outputFile;
+    private final Reason reason;
+    private final String message;
+
+    public OutdatedOutputFile(NcAnimateGenerateFileBean outputFile, Reason reason, String message) {
+        this.outputFile = outputFile;
+        this.reason = reason;
+        this.message = message;
+    }
+
+    public NcAnimateGenerateFileBean getOutputFile() {
+        return this.outputFile;
+    }
+
+    public Reason getReason() {
+        return this.reason;
+    }
+
+    public String getMessage() {
+        return this.message;
+    }
+
+    public JSONObject toJSON() {
+        return new JSONObject()
+            .put("fileId", this.outputFile == null ? null : this.outputFile.getFileId())
+            .put("reason", this.reason)
+            .put("message", this.message);
+    }
+
+    @Override
+    public String toString() {
+        return this.toJSON().toString(4);
+    }
+}
@@ -0,0 +1,524 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ncanimate.commons.output;
+
+import au.gov.aims.ereefs.bean.ncanimate.AbstractNcAnimateBean;
+import au.gov.aims.ereefs.bean.ncanimate.NcAnimateConfigBean;
+import au.gov.aims.ncanimate.commons.NcAnimateGenerateFileBean;
+import au.gov.aims.ncanimate.commons.NcAnimateUtils;
+import au.gov.aims.ncanimate.commons.timetable.DateTimeRange;
+import au.gov.aims.ncanimate.commons.timetable.FrameTimetableMap;
+import au.gov.aims.ncanimate.commons.timetable.ProductTimetable;
+import org.apache.log4j.Logger;
+import org.joda.time.DateTime;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * Check if output files (png, svg, mp4, wmv, etc) are more recent than
+ * the config files and all of the input files used to generate them.
+ *
+ * The checker is meant to be used for a whole ProductTimetable:
+ * - the config last modified timestamp is read once,
+ * - the input files last modified timestamp are calculated once per FrameTimetableMap,
+ * - the output files last modified timestamp are requested with a single resolver call
+ *     (use a PrefixListingLastModifiedResolver to share the listing between products).
+ *
+ * When an OutputManifest is provided, output files which are older than their inputs
+ * are only considered outdated if the content fingerprints of the inputs or of the config
+ * changed (see Fingerprints). A re-uploaded identical file doesn't trigger a re-generation.
+ * Call recordGenerated once the outdated output files are re-generated, to record the
+ * fingerprints of the inputs used to generate them.
+ *
+ * NOTE: The input timestamps are cached per FrameTimetableMap instance.
+ *     Create a new checker if the timetable changes.
+ */
+public class OutdatedOutputFileChecker {
+    private static final Logger LOGGER = Logger.getLogger(OutdatedOutputFileChecker.class);
+
+    private final NcAnimateConfigBean ncAnimateConfig;
+    private final OutputLastModifiedResolver lastModifiedResolver;
+
+    private final AbstractNcAnimateBean lastModifiedConfigPart;
+    private final long configLastModified;
+
+    // Newest input file of each FrameTimetableMap, identified by reference
+    private final Map<FrameTimetableMap, NewestInput> newestInputCache;
+
+    // Content fingerprints, used when a manifest is available.
+    // Calculated the first time they are needed.
+    private final OutputManifest manifest;
+    private final Map<FrameTimetableMap, Map<String, String>> inputFingerprintCache;
+    private String configFingerprint;
+
+    public OutdatedOutputFileChecker(NcAnimateConfigBean ncAnimateConfig, OutputLastModifiedResolver lastModifiedResolver) {
+        this(ncAnimateConfig, lastModifiedResolver, null);
+    }
+
+    /**
+     * @param ncAnimateConfig
+     * @param lastModifiedResolver
+     * @param manifest Optional. Manifest containing the fingerprints of the inputs used to generate the output files.
+     *     When the timestamps say an output file is outdated, the fingerprints are compared
+     *     to find out if the content of the inputs actually changed.
+     */
+    public OutdatedOutputFileChecker(NcAnimateConfigBean ncAnimateConfig, OutputLastModifiedResolver lastModifiedResolver, OutputManifest manifest) {
+        this.ncAnimateConfig = ncAnimateConfig;
+        this.lastModifiedResolver = lastModifiedResolver;
+        this.manifest = manifest;
+        this.inputFingerprintCache = new IdentityHashMap<FrameTimetableMap, Map<String, String>>();
+
+        this.lastModifiedConfigPart = ncAnimateConfig.getLastModifiedConfigPart();
+        this.configLastModified = this.lastModifiedConfigPart.getLastModified();
+
+        this.newestInputCache = new IdentityHashMap<FrameTimetableMap, NewestInput>();
+    }
+
+    /**
+     * Find all the outdated output files (maps and videos) of a product.
+     * @param productTimetable
+     * @param regionId Optional. The region to check. If null, all regions are considered.
+     * @return The list of outdated output files, with the reason why they are outdated.
+     * @throws Exception
+     */
+    public List<OutdatedOutputFile> getOutdatedOutputFiles(ProductTimetable productTimetable, String regionId) throws Exception {
+        List<OutdatedOutputFile> outdatedOutputFiles = new ArrayList<OutdatedOutputFile>();
+        outdatedOutputFiles.addAll(this.getOutdatedOutputFiles(productTimetable.getMapOutputFiles(), productTimetable.getMapFrames(), regionId));
+        outdatedOutputFiles.addAll(this.getOutdatedOutputFiles(productTimetable.getVideoOutputFiles(), productTimetable.getVideoFrames(), regionId));
+        return outdatedOutputFiles;
+    }
+
+    /**
+     * Find the outdated files in a list of output files.
+     * The last modified timestamp of all the output files are requested at once.
+     * @param outputFiles
+     * @param frameMap
+     * @param regionId Optional. The region to check. If null, all regions are considered.
+     * @return The list of outdated output files, with the reason why they are outdated.
+     * @throws URISyntaxException
+     */
+    public List<OutdatedOutputFile> getOutdatedOutputFiles(
+            List<NcAnimateGenerateFileBean> outputFiles,
+            Map<DateTimeRange, List<FrameTimetableMap>> frameMap,
+            String regionId) throws URISyntaxException {
+
+        List<OutdatedOutputFile> outdatedOutputFiles = new ArrayList<OutdatedOutputFile>();
+        if (outputFiles == null || outputFiles.isEmpty()) {
+            return outdatedOutputFiles;
+        }
+
+        // Find the URI of all the output files
+        Map<NcAnimateGenerateFileBean, List<URI>> outputFileURIMap = new LinkedHashMap<NcAnimateGenerateFileBean, List<URI>>();
+        List<URI> allOutputFileURIs = new ArrayList<URI>();
+        for (NcAnimateGenerateFileBean outputFile : outputFiles) {
+            if (frameMap.get(outputFile.getDateRange()) != null) {
+                List<URI> outputFileURIs = NcAnimateUtils.getOutputFileURIs(outputFile, this.ncAnimateConfig, regionId);
+                outputFileURIMap.put(outputFile, outputFileURIs);
+                allOutputFileURIs.addAll(outputFileURIs);
+            }
+        }
+
+        // Request all the last modified timestamp at once
+        Map<String, Long> allOutputFileLastModifiedMap = this.lastModifiedResolver.getLastModified(allOutputFileURIs);
+
+        for (Map.Entry<NcAnimateGenerateFileBean, List<URI>> outputFileURIEntry : outputFileURIMap.entrySet()) {
+            NcAnimateGenerateFileBean outputFile = outputFileURIEntry.getKey();
+
+            Map<String, Long> outputFileLastModifiedMap = new HashMap<String, Long>();
+            for (URI outputFileURI : outputFileURIEntry.getValue()) {
+                String outputFileURIStr = outputFileURI.toString();
+                outputFileLastModifiedMap.put(outputFileURIStr, allOutputFileLastModifiedMap.get(outputFileURIStr));
+            }
+
+            OutdatedOutputFile outdatedOutputFile = this.check(outputFile,
+                    frameMap.get(outputFile.getDateRange()), outputFileLastModifiedMap);
+            if (outdatedOutputFile != null) {
+                outdatedOutputFiles.add(outdatedOutputFile);
+            }
+        }
+
+        return outdatedOutputFiles;
+    }
+
+    /**
+     * Check a single output file.
+     * @param outputFile
+     * @param frameMap
+     * @param regionId Optional. The region to check. If null, all regions are considered.
+     * @return The reason why the file is outdated, or null if the file is up to date.
+     * @throws URISyntaxException
+     */
+    public OutdatedOutputFile check(
+            NcAnimateGenerateFileBean outputFile,
+            Map<DateTimeRange, List<FrameTimetableMap>> frameMap,
+            String regionId) throws URISyntaxException {
+
+        List<FrameTimetableMap> productFrameTimetableMapList = frameMap.get(outputFile.getDateRange());
+        if (productFrameTimetableMapList == null) {
+            return null;
+        }
+
+        Map<String, Long> outputFileLastModifiedMap = NcAnimateUtils.getOutputFileLastModifiedMap(
+                this.lastModifiedResolver, outputFile, this.ncAnimateConfig, regionId);
+
+        return this.check(outputFile, productFrameTimetableMapList, outputFileLastModifiedMap);
+    }
+
+    private OutdatedOutputFile check(
+            NcAnimateGenerateFileBean outputFile,
+            List<FrameTimetableMap> productFrameTimetableMapList,
+            Map<String, Long> outputFileLastModifiedMap) {
+
+        // Find the oldest output file
+        List<String> missingOutputFiles = new ArrayList<String>();
+        Map.Entry<String, Long> oldestOutputFileLastModifiedEntry =
+                OutdatedOutputFileChecker.getOldestOutputFileLastModifiedEntry(outputFileLastModifiedMap, missingOutputFiles);
+        if (!missingOutputFiles.isEmpty()) {
+            return new OutdatedOutputFile(outputFile, OutdatedOutputFile.Reason.MISSING_OUTPUT_FILE,
+                    String.format("Missing output file: %s", String.join(", ", missingOutputFiles)));
+        }
+        if (oldestOutputFileLastModifiedEntry == null) {
+            // Nothing to generate? This should not happen
+            LOGGER.warn("This product generate no output file");
+            return null;
+        }
+
+        // Find the newest input file
+        // NOTE: If an input file has no lastModified, the product is considered outdated (there is no way to tell)
+        //     That should not happen.
+        NewestInput newestInput = null;
+        for (FrameTimetableMap productFrameTimetableMap : productFrameTimetableMapList) {
+            NewestInput frameTimetableNewestInput = this.getNewestInput(productFrameTimetableMap);
+            if (frameTimetableNewestInput.missingLastModifiedId != null) {
+                return new OutdatedOutputFile(outputFile, OutdatedOutputFile.Reason.MISSING_INPUT_LAST_MODIFIED,
+                        String.format("Missing input file last modified date: %s", frameTimetableNewestInput.missingLastModifiedId));
+            }
+            if (frameTimetableNewestInput.id != null &&
+                    (newestInput == null || newestInput.lastModified < frameTimetableNewestInput.lastModified)) {
+                newestInput = frameTimetableNewestInput;
+            }
+        }
+
+        // Check if the newest input file is more recent than the oldest output file
+        // NOTE: NcAnimate could produce output file without the need for input file (unlikely)
+        if (newestInput != null && newestInput.lastModified > oldestOutputFileLastModifiedEntry.getValue()) {
+            if (this.isContentUnchanged(outputFileLastModifiedMap.keySet(), productFrameTimetableMapList,
+                    oldestOutputFileLastModifiedEntry.getValue())) {
+                return null;
+            }
+            return new OutdatedOutputFile(outputFile, OutdatedOutputFile.Reason.INPUT_MORE_RECENT,
+                    String.format("Input file (%s - %s) is more recent than output file (%s - %s)",
+                            newestInput.id,
+                            new DateTime(newestInput.lastModified),
+                            oldestOutputFileLastModifiedEntry.getKey(),
+                            new DateTime(oldestOutputFileLastModifiedEntry.getValue())));
+        }
+
+        // Check if the newest config file is more recent than the oldest output file
+        if (this.configLastModified > oldestOutputFileLastModifiedEntry.getValue()) {
+            if (this.isContentUnchanged(outputFileLastModifiedMap.keySet(), productFrameTimetableMapList,
+                    oldestOutputFileLastModifiedEntry.getValue())) {
+                return null;
+            }
+            return new OutdatedOutputFile(outputFile, OutdatedOutputFile.Reason.CONFIG_MORE_RECENT,
+                    String.format("Configuration file (%s - %s) is more recent than output file (%s - %s)",
+                            this.lastModifiedConfigPart.getId(),
+                            new DateTime(this.configLastModified),
+                            oldestOutputFileLastModifiedEntry.getKey(),
+                            new DateTime(oldestOutputFileLastModifiedEntry.getValue())));
+        }
+
+        return null;
+    }
+
+    /**
+     * Find the frames of an output file which needs to be re-generated.
+     * If an input file is more recent than the output file, only the frames using
+     * that input file are returned. The other frames can be reused from the frame directory.
+     * If the output file is missing, or if the configuration is more recent than the output file,
+     * all the frames are returned.
+     * @param outputFile
+     * @param frameMap
+     * @param regionId Optional. The region to check. If null, all regions are considered.
+     * @return The date range of the frames to re-generate. Empty set if the output file is up to date.
+     * @throws URISyntaxException
+     */
+    public SortedSet<DateTimeRange> getStaleFrames(
+            NcAnimateGenerateFileBean outputFile,
+            Map<DateTimeRange, List<FrameTimetableMap>> frameMap,
+            String regionId) throws URISyntaxException {
+
+        SortedSet<DateTimeRange> staleFrames = new TreeSet<DateTimeRange>();
+
+        List<FrameTimetableMap> productFrameTimetableMapList = frameMap.get(outputFile.getDateRange());
+        if (productFrameTimetableMapList == null) {
+            return staleFrames;
+        }
+
+        Map<String, Long> outputFileLastModifiedMap = NcAnimateUtils.getOutputFileLastModifiedMap(
+                this.lastModifiedResolver, outputFile, this.ncAnimateConfig, regionId);
+
+        List<String> missingOutputFiles = new ArrayList<String>();
+        Map.Entry<String, Long> oldestOutputFileLastModifiedEntry =
+                OutdatedOutputFileChecker.getOldestOutputFileLastModifiedEntry(outputFileLastModifiedMap, missingOutputFiles);
+
+        if (!missingOutputFiles.isEmpty()) {
+            return OutdatedOutputFileChecker.getAllFrames(productFrameTimetableMapList);
+        }
+
+        if (oldestOutputFileLastModifiedEntry == null) {
+            // Nothing to generate? This should not happen
+            LOGGER.warn("This product generate no output file");
+            return staleFrames;
+        }
+
+        long outputLastModified = oldestOutputFileLastModifiedEntry.getValue();
+        boolean configModified = this.configLastModified > outputLastModified;
+        boolean inputModified = false;
+        for (FrameTimetableMap productFrameTimetableMap : productFrameTimetableMapList) {
+            // Quick check, using the cached newest input file
+            NewestInput newestInput = this.getNewestInput(productFrameTimetableMap);
+            if (newestInput.missingLastModifiedId != null || newestInput.lastModified > outputLastModified) {
+                inputModified = true;
+                break;
+            }
+        }
+        if (!configModified && !inputModified) {
+            return staleFrames;
+        }
+
+        // The timestamps moved. Find out what actually changed, using the fingerprints.
+        Set<String> changedInputIds = this.getChangedInputIds(outputFileLastModifiedMap.keySet(), productFrameTimetableMapList, outputLastModified);
+        if (changedInputIds != null) {
+            Set<String> usedInputIds = new HashSet<String>();
+            for (FrameTimetableMap productFrameTimetableMap : productFrameTimetableMapList) {
+                Map<String, SortedSet<DateTimeRange>> frameDateRangesMap = productFrameTimetableMap.getFrameDateRangesByInputId();
+                for (String changedInputId : changedInputIds) {
+                    SortedSet<DateTimeRange> frameDateRanges = frameDateRangesMap.get(changedInputId);
+                    if (frameDateRanges != null) {
+                        usedInputIds.add(changedInputId);
+                        staleFrames.addAll(frameDateRanges);
+                    }
+                }
+            }
+            if (usedInputIds.size() < changedInputIds.size()) {
+                // An input is not used anymore. The frames which were using it are unknown.
+                return OutdatedOutputFileChecker.getAllFrames(productFrameTimetableMapList);
+            }
+            return staleFrames;
+        }
+
+        // No fingerprints, use the timestamps
+        if (configModified) {
+            return OutdatedOutputFileChecker.getAllFrames(productFrameTimetableMapList);
+        }
+        for (FrameTimetableMap productFrameTimetableMap : productFrameTimetableMapList) {
+            staleFrames.addAll(productFrameTimetableMap.getStaleFrames(outputLastModified));
+        }
+
+        return staleFrames;
+    }
+
+    /**
+     * Record the files generated for an output file in the manifest (one file per region and target height),
+     * with the fingerprints of the inputs and of the configuration used to generate them.
+     * Call this method once the files are saved (uploaded). Does nothing if the checker has no manifest.
+     * @param outputFile
+     * @param frameMap
+     * @param regionId Optional. The region which was generated. If null, all regions are recorded.
+     * @param lastModified Last modified timestamp of the saved files. If unknown, use a time taken before
+     *     the files were saved: the manifest entries are corrected when they are verified against the remote storage.
+     * @throws URISyntaxException
+     * @throws IOException
+     */
+    public void recordGenerated(
+            NcAnimateGenerateFileBean outputFile,
+            Map<DateTimeRange, List<FrameTimetableMap>> frameMap,
+            String regionId,
+            long lastModified) throws URISyntaxException, IOException {
+
+        if (this.manifest == null) {
+            return;
+        }
+
+        List<FrameTimetableMap> productFrameTimetableMapList = frameMap.get(outputFile.getDateRange());
+        Map<String, String> inputFingerprints = new HashMap<String, String>();
+        if (productFrameTimetableMapList != null) {
+            for (FrameTimetableMap productFrameTimetableMap : productFrameTimetableMapList) {
+                inputFingerprints.putAll(this.getInputFingerprints(productFrameTimetableMap));
+            }
+        }
+
+        this.manifest.recordAll(NcAnimateUtils.getOutputFileURIs(outputFile, this.ncAnimateConfig, regionId),
+                lastModified, inputFingerprints, this.getConfigFingerprint());
+    }
+
+    private static SortedSet<DateTimeRange> getAllFrames(List<FrameTimetableMap> productFrameTimetableMapList) {
+        SortedSet<DateTimeRange> allFrames = new TreeSet<DateTimeRange>();
+        for (FrameTimetableMap productFrameTimetableMap : productFrameTimetableMapList) {
+            allFrames.addAll(productFrameTimetableMap.keySet());
+        }
+        return allFrames;
+    }
+
+    /**
+     * @return True if the fingerprints recorded in the manifest for all the output files
+     *     match the fingerprints of the current inputs and configuration.
+     *     Inputs without fingerprint are compared using their last modified timestamp.
+     */
+    private boolean isContentUnchanged(Collection<String> outputFileURIs, List<FrameTimetableMap> productFrameTimetableMapList, long outputLastModified) {
+        Set<String> changedInputIds = this.getChangedInputIds(outputFileURIs, productFrameTimetableMapList, outputLastModified);
+        if (changedInputIds != null && changedInputIds.isEmpty()) {
+            LOGGER.debug(String.format("Output files %s have older timestamps than their inputs, but the content of the inputs did not change.",
+                    outputFileURIs));
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Compare the fingerprints recorded in the manifest with the fingerprints of the current inputs.
+     * An input is considered changed if:
+     * - its fingerprint is different from the recorded one,
+     * - its fingerprint is unknown (no checksum) and it's more recent than the output files,
+     * - it was used to generate the output files, but it's not used anymore (deleted, replaced, etc).
+     * @param outputFileURIs
+     * @param productFrameTimetableMapList
+     * @param outputLastModified Last modified timestamp of the oldest output file.
+     * @return The ID of the input files which changed since the output files were generated.
+     *     Null if the fingerprints can't be compared (no manifest, output files generated before
+     *     fingerprints were recorded, etc) or if the configuration changed.
+     */
+    private Set<String> getChangedInputIds(Collection<String> outputFileURIs, List<FrameTimetableMap> productFrameTimetableMapList, long outputLastModified) {
+        if (this.manifest == null || outputFileURIs.isEmpty()) {
+            return null;
+        }
+
+        List<OutputManifestEntry> entries = new ArrayList<OutputManifestEntry>();
+        for (String outputFileURI : outputFileURIs) {
+            OutputManifestEntry entry = this.manifest.get(outputFileURI);
+            if (entry == null || entry.getConfigFingerprint() == null) {
+                return null;
+            }
+            entries.add(entry);
+        }
+
+        String currentConfigFingerprint = this.getConfigFingerprint();
+        Map<String, String> currentInputFingerprints = new HashMap<String, String>();
+        Map<String, Long> currentInputLastModified = new HashMap<String, Long>();
+        for (FrameTimetableMap productFrameTimetableMap : productFrameTimetableMapList) {
+            currentInputFingerprints.putAll(this.getInputFingerprints(productFrameTimetableMap));
+            currentInputLastModified.putAll(productFrameTimetableMap.getInputLastModifiedByIdMap());
+        }
+
+        Set<String> changedInputIds = new HashSet<String>();
+        for (OutputManifestEntry entry : entries) {
+            if (!entry.getConfigFingerprint().equals(currentConfigFingerprint)) {
+                return null;
+            }
+
+            Map<String, String> recordedInputFingerprints = entry.getInputFingerprints();
+            for (Map.Entry<String, String> currentInputFingerprintEntry : currentInputFingerprints.entrySet()) {
+                String inputId = currentInputFingerprintEntry.getKey();
+                String currentInputFingerprint = currentInputFingerprintEntry.getValue();
+                if (currentInputFingerprint == null) {
+                    // Unknown content, fallback to the timestamps
+                    Long inputLastModified = currentInputLastModified.get(inputId);
+                    if (inputLastModified == null || inputLastModified > outputLastModified) {
+                        changedInputIds.add(inputId);
+                    }
+                } else if (!currentInputFingerprint.equals(recordedInputFingerprints.get(inputId))) {
+                    changedInputIds.add(inputId);
+                }
+            }
+
+            // Inputs which were used to generate the output files, but are not used anymore
+            for (String recordedInputId : recordedInputFingerprints.keySet()) {
+                if (!currentInputFingerprints.containsKey(recordedInputId)) {
+                    changedInputIds.add(recordedInputId);
+                }
+            }
+        }
+
+        return changedInputIds;
+    }
+
+    private synchronized String getConfigFingerprint() {
+        if (this.configFingerprint == null) {
+            this.configFingerprint = Fingerprints.getConfigFingerprint(this.ncAnimateConfig);
+        }
+        return this.configFingerprint;
+    }
+
+    private synchronized Map<String, String> getInputFingerprints(FrameTimetableMap frameTimetableMap) {
+        Map<String, String> inputFingerprints = this.inputFingerprintCache.get(frameTimetableMap);
+        if (inputFingerprints == null) {
+            inputFingerprints = Fingerprints.getInputFingerprints(frameTimetableMap);
+            this.inputFingerprintCache.put(frameTimetableMap, inputFingerprints);
+        }
+        return inputFingerprints;
+    }
+
+    /**
+     * @param outputFileLastModifiedMap
+     * @param missingOutputFiles List in which the URI of the missing output files are added.
+     * @return The oldest output file, or null if none of the output files exist.
+     */
+    private static Map.Entry<String, Long> getOldestOutputFileLastModifiedEntry(
+            Map<String, Long> outputFileLastModifiedMap, List<String> missingOutputFiles) {
+
+        Map.Entry<String, Long> oldestOutputFileLastModifiedEntry = null;
+        for (Map.Entry<String, Long> outputFileLastModifiedEntry : outputFileLastModifiedMap.entrySet()) {
+            Long lastModified = outputFileLastModifiedEntry.getValue();
+            if (lastModified == null) {
+                missingOutputFiles.add(outputFileLastModifiedEntry.getKey());
+            } else if (oldestOutputFileLastModifiedEntry == null || oldestOutputFileLastModifiedEntry.getValue() > lastModified) {
+                oldestOutputFileLastModifiedEntry = outputFileLastModifiedEntry;
+            }
+        }
+        return oldestOutputFileLastModifiedEntry;
+    }
+
+    private synchronized NewestInput getNewestInput(FrameTimetableMap frameTimetableMap) {
+        NewestInput newestInput = this.newestInputCache.get(frameTimetableMap);
+        if (newestInput == null) {
+            newestInput = new NewestInput();
+            for (Map.Entry<String, Long> inputLastModifiedEntry : frameTimetableMap.getInputLastModifiedByIdMap().entrySet()) {
+                Long inputLastModified = inputLastModifiedEntry.getValue();
+                if (inputLastModified == null) {
+                    // This should not happen
+                    newestInput.missingLastModifiedId = inputLastModifiedEntry.getKey();
+                    break;
+                } else if (newestInput.id == null || newestInput.lastModified < inputLastModified) {
+                    newestInput.id = inputLastModifiedEntry.getKey();
+                    newestInput.lastModified = inputLastModified;
+                }
+            }
+            this.newestInputCache.put(frameTimetableMap, newestInput);
+        }
+        return newestInput;
+    }
+
+    private static class NewestInput {
+        private String id;
+        private long lastModified;
+
+        // ID of the input file which has no last modified timestamp, if any
+        private String missingLastModifiedId;
+    }
+}
@@ -0,0 +1,25 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ncanimate.commons.output;
+
+import java.net.URI;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Find the last modified timestamp of output files.
+ * Used to determine if the output files are outdated.
+ */
+public interface OutputLastModifiedResolver {
+
+    /**
+     * Return a map of:
+     *     Key: File URI (String)
+     *     Value: Last modified timestamp, or null if the file doesn't exist.
+     * @param fileURIs
+     * @return
+     */
+    Map<String, Long> getLastModified(Collection<URI> fileURIs);
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ncanimate.commons.output;
+
+import au.gov.aims.ereefs.bean.ncanimate.NcAnimateConfigBean;
+import au.gov.aims.ncanimate.commons.download.SingleFlightDownloader;
+import au.gov.aims.ncanimate.commons.timetable.FrameTimetableMap;
+import org.apache.log4j.Logger;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Local, append-only record of the output files generated by NcAnimate.
+ *
+ * The manifest is a JSON lines file. Each line is an OutputManifestEntry.
+ * When the manifest is loaded, the last entry of each output file URI wins.
+ * Lines which can't be parsed (truncated by a crash for example) are ignored.
+ *
+ * The manifest is used to find the last modified timestamp of the output files
+ * without requesting the remote storage (see ManifestLastModifiedResolver).
+ * Call compact() once in a while to remove the superseded entries.
+ *
+ * The manifest file can be shared by several processes (NcAnimate instances running on the same node).
+ * Appends and compactions are done while holding an exclusive lock on a lock file next to the manifest
+ * (manifest file name + ".lock"). The lock file is never deleted, it's reused by the next operation.
+ */
+public class OutputManifest {
+    private static final Logger LOGGER = Logger.getLogger(OutputManifest.class);
+
+    // File locks are held by the JVM, they can't be used to synchronise threads.
+    // Key: Canonical path of the manifest file
+    // Value: Object used to synchronise the threads of this JVM using that manifest
+    private static final ConcurrentMap<String, Object> MANIFEST_MONITORS = new ConcurrentHashMap<String, Object>();
+
+    private final File manifestFile;
+    private final File lockFile;
+    private final Object manifestMonitor;
+
+    // Key: Output file URI (String)
+    // Value: Last entry found for that URI
+    private final Map<String, OutputManifestEntry> entries;
+
+    // Number of lines in the manifest file, used to decide when to compact
+    private int lineCount;
+
+    public OutputManifest(File manifestFile) throws IOException {
+        if (manifestFile == null) {
+            throw new IllegalArgumentException("Output manifest file is null.");
+        }
+
+        this.manifestFile = manifestFile;
+        this.lockFile = new File(manifestFile.getPath() + ".lock");
+        this.manifestMonitor = OutputManifest.getManifestMonitor(manifestFile);
+        this.entries = new HashMap<String, OutputManifestEntry>();
+        this.lineCount = 0;
+
+        this.load();
+    }
+
+    private static Object getManifestMonitor(File manifestFile) throws IOException {
+        String manifestPath = manifestFile.getCanonicalPath();
+        Object manifestMonitor = MANIFEST_MONITORS.get(manifestPath);
+        if (manifestMonitor == null) {
+            Object newManifestMonitor = new Object();
+            manifestMonitor = MANIFEST_MONITORS.putIfAbsent(manifestPath, newManifestMonitor);
+            if (manifestMonitor == null) {
+                manifestMonitor = newManifestMonitor;
+            }
+        }
+        return manifestMonitor;
+    }
+
+    private void load() throws IOException {
+        this.entries.clear();
+        this.lineCount = 0;
+        if (!this.manifestFile.exists()) {
+            return;
+        }
+
+        int lineNumber = 0;
+        try (BufferedReader reader = Files.newBufferedReader(this.manifestFile.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (!line.isEmpty()) {
+                    this.lineCount++;
+                    try {
+                        OutputManifestEntry entry = OutputManifestEntry.parse(new JSONObject(line));
+                        this.entries.put(entry.getUri(), entry);
+                    } catch (JSONException ex) {
+                        LOGGER.warn(String.format("Invalid entry in output manifest %s, line %d. The entry is ignored.",
+                                this.manifestFile, lineNumber), ex);
+                    }
+                }
+            }
+        }
+    }
+
+    public File getManifestFile() {
+        return this.manifestFile;
+    }
+
+    public synchronized OutputManifestEntry get(String uri) {
+        return this.entries.get(uri);
+    }
+
+    public OutputManifestEntry get(URI uri) {
+        return uri == null ? null : this.get(uri.toString());
+    }
+
+    /**
+     * @return The number of output files in the manifest, including the ones recorded as missing.
+     */
+    public synchronized int size() {
+        return this.entries.size();
+    }
+
+    /**
+     * @return The number of entries in the manifest file, including superseded ones.
+     */
+    public synchronized int getLineCount() {
+        return this.lineCount;
+    }
+
+    /**
+     * Record a file generated by NcAnimate.
+     * @param fileURI URI of the output file
+     * @param lastModified Last modified timestamp of the output file
+     * @param inputs Frame timetables used to generate the output file
+     * @param ncAnimateConfig NcAnimate configuration used to generate the output file
+     * @throws IOException
+     */
+    public void record(URI fileURI, long lastModified, List<FrameTimetableMap> inputs, NcAnimateConfigBean ncAnimateConfig) throws IOException {
+        this.recordAll(Collections.singletonList(fileURI), lastModified, inputs, ncAnimateConfig);
+    }
+
+    /**
+     * Record the files generated by NcAnimate for an output file (one file per region and target height).
+     * The fingerprints are calculated once, and the entries are written in a single write operation.
+     * See OutdatedOutputFileChecker.recordGenerated.
+     * @param fileURIs URI of the output files
+     * @param lastModified Last modified timestamp of the output files
+     * @param inputs Frame timetables used to generate the output files
+     * @param ncAnimateConfig NcAnimate configuration used to generate the output files
+     * @throws IOException
+     */
+    public void recordAll(Collection<URI> fileURIs, long lastModified, List<FrameTimetableMap> inputs, NcAnimateConfigBean ncAnimateConfig) throws IOException {
+        this.recordAll(fileURIs, lastModified,
+                Fingerprints.getInputFingerprints(inputs), Fingerprints.getConfigFingerprint(ncAnimateConfig));
+    }
+
+    void recordAll(Collection<URI> fileURIs, long lastModified, Map<String, String> inputFingerprints, String configFingerprint) throws IOException {
+        if (fileURIs == null || fileURIs.isEmpty()) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        List<OutputManifestEntry> newEntries = new ArrayList<OutputManifestEntry>();
+        for (URI fileURI : fileURIs) {
+            newEntries.add(new OutputManifestEntry(fileURI.toString(), lastModified, now, inputFingerprints, configFingerprint));
+        }
+        this.appendAll(newEntries);
+    }
+
+    public void append(OutputManifestEntry entry) throws IOException {
+        this.appendAll(Collections.singletonList(entry));
+    }
+
+    /**
+     * Append entries to the manifest file.
+     * The entries are written in a single write operation, while holding the manifest lock.
+     * @param newEntries
+     * @throws IOException
+     */
+    public synchronized void appendAll(Collection<OutputManifestEntry> newEntries) throws IOException {
+        if (newEntries == null || newEntries.isEmpty()) {
+            return;
+        }
+
+        StringBuilder lines = new StringBuilder();
+        for (OutputManifestEntry entry : newEntries) {
+            lines.append(entry.toJSON().toString()).append('\n');
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+
+        this.createParentDirectory();
+        synchronized (this.manifestMonitor) {
+            try (FileChannel lockChannel = FileChannel.open(this.lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                    FileLock lock = lockChannel.lock();
+                    FileChannel channel = FileChannel.open(this.manifestFile.toPath(),
+                            StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+        }
+
+        for (OutputManifestEntry entry : newEntries) {
+            this.entries.put(entry.getUri(), entry);
+        }
+        this.lineCount += newEntries.size();
+    }
+
+    /**
+     * Rewrite the manifest file with only the last entry of each output file.
+     * The manifest file is reloaded first, to keep the entries appended by other processes.
+     * The new manifest is written in a temporary file, then moved over the old one.
+     * @throws IOException
+     */
+    public synchronized void compact() throws IOException {
+        this.createParentDirectory();
+        synchronized (this.manifestMonitor) {
+            try (FileChannel lockChannel = FileChannel.open(this.lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                    FileLock lock = lockChannel.lock()) {
+
+                this.load();
+                if (this.lineCount == this.entries.size()) {
+                    // Nothing to compact
+                    return;
+                }
+
+                // Sort the entries by URI, to make the manifest easier to read
+                SortedMap<String, OutputManifestEntry> sortedEntries = new TreeMap<String, OutputManifestEntry>(this.entries);
+
+                File tmpFile = SingleFlightDownloader.getTemporaryFile(this.manifestFile);
+                try {
+                    try (BufferedWriter writer = Files.newBufferedWriter(tmpFile.toPath(), StandardCharsets.UTF_8)) {
+                        for (OutputManifestEntry entry : sortedEntries.values()) {
+                            writer.write(entry.toJSON().toString());
+                            writer.write('\n');
+                        }
+                    }
+                    SingleFlightDownloader.moveAtomically(tmpFile, this.manifestFile);
+                } finally {
+                    if (tmpFile.exists() && !tmpFile.delete()) {
+                        LOGGER.warn(String.format("Could not delete the temporary output manifest file: %s", tmpFile));
+                    }
+                }
+
+                LOGGER.debug(String.format("Output manifest %s compacted from %d to %d entries.",
+                        this.manifestFile, this.lineCount, sortedEntries.size()));
+                this.lineCount = sortedEntries.size();
+            }
+        }
+    }
+
+    private void createParentDirectory() throws IOException {
+        File parentDirectory = this.manifestFile.getParentFile();
+        if (parentDirectory != null && !parentDirectory.exists() && !parentDirectory.mkdirs()) {
+            throw new IOException(String.format("The output manifest directory %s could not be created.", parentDirectory));
+        }
+    }
+}
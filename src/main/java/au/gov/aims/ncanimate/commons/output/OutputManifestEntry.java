@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ncanimate.commons.output;
+
+import org.json.JSONObject;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * State of an output file, as recorded in the OutputManifest.
+ * Entries are immutable. A new entry is appended to the manifest every time the state of the file changes.
+ */
+public class OutputManifestEntry {
+    private final String uri;
+
+    // Last modified timestamp of the output file, or null if the file doesn't exist (anymore)
+    private final Long lastModified;
+
+    // Timestamp of the last time the state of the output file was confirmed,
+    //   either by the generator (when the file was generated) or by checking the remote storage.
+    private final long verified;
+
+    // Key: NetCDF metadata ID
+    // Value: Fingerprint of the input file used to generate the output file
+    private final SortedMap<String, String> inputFingerprints;
+    private final String configFingerprint;
+
+    public OutputManifestEntry(String uri, Long lastModified, long verified, Map<String, String> inputFingerprints, String configFingerprint) {
+        if (uri == null) {
+            throw new IllegalArgumentException("Output manifest entry URI is null.");
+        }
+
+        this.uri = uri;
+        this.lastModified = lastModified;
+        this.verified = verified;
+        this.inputFingerprints = inputFingerprints == null ?
+                Collections.unmodifiableSortedMap(new TreeMap<String, String>()) :
+                Collections.unmodifiableSortedMap(new TreeMap<String, String>(inputFingerprints));
+        this.configFingerprint = configFingerprint;
+    }
+
+    public static OutputManifestEntry parse(JSONObject jsonEntry) {
+        if (jsonEntry == null) {
+            return null;
+        }
+
+        SortedMap<String, String> inputFingerprints = new TreeMap<String, String>();
+        JSONObject jsonInputs = jsonEntry.optJSONObject("inputs");
+        if (jsonInputs != null) {
+            for (String inputId : jsonInputs.keySet()) {
+                inputFingerprints.put(inputId, jsonInputs.optString(inputId, null));
+            }
+        }
+
+        return new OutputManifestEntry(
+                jsonEntry.getString("uri"),
+                jsonEntry.has("lastModified") ? jsonEntry.getLong("lastModified") : null,
+                jsonEntry.optLong("verified", 0),
+                inputFingerprints,
+                jsonEntry.optString("config", null));
+    }
+
+    /**
+     * Create a new entry with the same fingerprints, for a file which has been verified against the remote storage.
+     * @param lastModified The last modified timestamp found in the remote storage, or null if the file doesn't exist.
+     * @param verified
+     * @return
+     */
+    public OutputManifestEntry verified(Long lastModified, long verified) {
+        return new OutputManifestEntry(this.uri, lastModified, verified, this.inputFingerprints, this.configFingerprint);
+    }
+
+    public String getUri() {
+        return this.uri;
+    }
+
+    public Long getLastModified() {
+        return this.lastModified;
+    }
+
+    public boolean exists() {
+        return this.lastModified != null;
+    }
+
+    public long getVerified() {
+        return this.verified;
+    }
+
+    public SortedMap<String, String> getInputFingerprints() {
+        return this.inputFingerprints;
+    }
+
+    public String getConfigFingerprint() {
+        return this.configFingerprint;
+    }
+
+    public JSONObject toJSON() {
+        JSONObject json = new JSONObject()
+            .put("uri", this.uri)
+            .put("verified", this.verified);
+
+        if (this.lastModified != null) {
+            json.put("lastModified", this.lastModified.longValue());
+        }
+        if (!this.inputFingerprints.isEmpty()) {
+            json.put("inputs", new JSONObject(this.inputFingerprints));
+        }
+        if (this.configFingerprint != null) {
+            json.put("config", this.configFingerprint);
+        }
+
+        return json;
+    }
+
+    @Override
+    public String toString() {
+        return this.toJSON().toString(4);
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ncanimate.commons.output;
+
+import au.gov.aims.aws.s3.entity.S3Client;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Find the last modified timestamp of output files by listing the prefix ("directory")
+ * of the files, instead of requesting each file individually.
+ *
+ * All the output files of a product are saved under a small number of prefixes.
+ * Each prefix is listed once, the first time a file in that prefix is requested.
+ * The listing is kept in an index, used to answer the following requests.
+ * The index is never refreshed, a new resolver should be used for each outdated check run.
+ *
+ * If a prefix can't be listed, the files under that prefix are requested
+ * using the fallback resolver (if any), or are considered missing.
+ * The failure is remembered, the prefix is not listed again by this resolver
+ * (its files are sent directly to the fallback resolver).
+ */
+public class PrefixListingLastModifiedResolver implements OutputLastModifiedResolver {
+    private static final Logger LOGGER = Logger.getLogger(PrefixListingLastModifiedResolver.class);
+
+    private final List<ObjectLister> listers;
+    private final OutputLastModifiedResolver fallbackResolver;
+
+    // Key: Prefix URI (String)
+    // Value: Map:
+    //     Key: File URI (String)
+    //     Value: Last modified timestamp
+    // NOTE: Prefixes which could not be listed are not added to the index.
+    private final Map<String, Map<String, Long>> prefixIndex;
+
+    // Prefixes which could not be listed (error, no lister available, etc)
+    private final Set<String> unlistablePrefixes;
+
+    // Number of list requests, used for monitoring
+    private int listCount;
+
+    public PrefixListingLastModifiedResolver(ObjectLister ... listers) {
+        this(null, listers);
+    }
+
+    /**
+     * @param fallbackResolver Resolver used when a prefix can't be listed. Can be null.
+     * @param listers
+     */
+    public PrefixListingLastModifiedResolver(OutputLastModifiedResolver fallbackResolver, ObjectLister ... listers) {
+        this.listers = Collections.unmodifiableList(new ArrayList<ObjectLister>(Arrays.asList(listers)));
+        this.fallbackResolver = fallbackResolver;
+        this.prefixIndex = new ConcurrentHashMap<String, Map<String, Long>>();
+        this.unlistablePrefixes = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        this.listCount = 0;
+    }
+
+    /**
+     * Create a resolver for output files saved on S3 or on the local filesystem.
+     * Files in S3 prefixes which can not be listed (permission issue, etc) are requested individually.
+     * @param s3Client
+     * @return
+     */
+    public static PrefixListingLastModifiedResolver create(S3Client s3Client) {
+        List<ObjectLister> listers = new ArrayList<ObjectLister>();
+        if (s3Client != null) {
+            listers.add(new S3ObjectLister(s3Client.getS3()));
+        }
+        listers.add(new LocalFileObjectLister());
+
+        return new PrefixListingLastModifiedResolver(new HeadLastModifiedResolver(s3Client),
+                listers.toArray(new ObjectLister[listers.size()]));
+    }
+
+    @Override
+    public Map<String, Long> getLastModified(Collection<URI> fileURIs) {
+        Map<String, Long> lastModifiedMap = new HashMap<String, Long>();
+        if (fileURIs == null || fileURIs.isEmpty()) {
+            return lastModifiedMap;
+        }
+
+        List<URI> unlistedFileURIs = new ArrayList<URI>();
+        for (URI fileURI : fileURIs) {
+            String fileURIStr = fileURI.toString();
+            Map<String, Long> prefixLastModifiedMap = this.getPrefixLastModifiedMap(fileURIStr);
+            if (prefixLastModifiedMap == null) {
+                unlistedFileURIs.add(fileURI);
+            } else {
+                // NOTE: The value is null when the file doesn't exist
+                lastModifiedMap.put(fileURIStr, prefixLastModifiedMap.get(fileURIStr));
+            }
+        }
+
+        if (!unlistedFileURIs.isEmpty()) {
+            if (this.fallbackResolver == null) {
+                for (URI unlistedFileURI : unlistedFileURIs) {
+                    lastModifiedMap.put(unlistedFileURI.toString(), null);
+                }
+            } else {
+                lastModifiedMap.putAll(this.fallbackResolver.getLastModified(unlistedFileURIs));
+            }
+        }
+
+        return lastModifiedMap;
+    }
+
+    /**
+     * @return The number of list requests sent (without pagination).
+     */
+    public synchronized int getListCount() {
+        return this.listCount;
+    }
+
+    public int getIndexedPrefixCount() {
+        return this.prefixIndex.size();
+    }
+
+    public int getUnlistablePrefixCount() {
+        return this.unlistablePrefixes.size();
+    }
+
+    public void clear() {
+        this.prefixIndex.clear();
+        this.unlistablePrefixes.clear();
+    }
+
+    private Map<String, Long> getPrefixLastModifiedMap(String fileURIStr) {
+        int lastSlashIndex = fileURIStr.lastIndexOf('/');
+        if (lastSlashIndex < 0) {
+            return null;
+        }
+        String prefixURIStr = fileURIStr.substring(0, lastSlashIndex + 1);
+
+        Map<String, Long> prefixLastModifiedMap = this.prefixIndex.get(prefixURIStr);
+        if (prefixLastModifiedMap == null && !this.unlistablePrefixes.contains(prefixURIStr)) {
+            prefixLastModifiedMap = this.listPrefix(prefixURIStr);
+            if (prefixLastModifiedMap == null) {
+                this.unlistablePrefixes.add(prefixURIStr);
+            } else {
+                this.prefixIndex.put(prefixURIStr, prefixLastModifiedMap);
+            }
+        }
+
+        return prefixLastModifiedMap;
+    }
+
+    private Map<String, Long> listPrefix(String prefixURIStr) {
+        URI prefixURI;
+        try {
+            prefixURI = new URI(prefixURIStr);
+        } catch (URISyntaxException ex) {
+            LOGGER.warn(String.format("Invalid output file prefix: %s", prefixURIStr), ex);
+            return null;
+        }
+
+        for (ObjectLister lister : this.listers) {
+            if (lister.supports(prefixURI)) {
+                synchronized (this) {
+                    this.listCount++;
+                }
+                try {
+                    return lister.list(prefixURI);
+                } catch (IOException ex) {
+                    LOGGER.warn(String.format("Error occurred while listing the output file prefix: %s", prefixURIStr), ex);
+                    return null;
+                }
+            }
+        }
+
+        LOGGER.debug(String.format("No lister available for output file prefix: %s", prefixURIStr));
+        return null;
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ncanimate.commons.output;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * List the S3 objects found directly under a S3 prefix.
+ * Objects found in "sub-directories" are not listed.
+ * One list request returns up to 1000 objects.
+ */
+public class S3ObjectLister implements ObjectLister {
+    private final AmazonS3 s3;
+
+    public S3ObjectLister(AmazonS3 s3) {
+        this.s3 = s3;
+    }
+
+    @Override
+    public boolean supports(URI prefixURI) {
+        return prefixURI != null && "s3".equalsIgnoreCase(prefixURI.getScheme());
+    }
+
+    @Override
+    public Map<String, Long> list(URI prefixURI) throws IOException {
+        String bucket = prefixURI.getHost();
+        String prefix = prefixURI.getPath();
+        while (prefix.startsWith("/")) {
+            prefix = prefix.substring(1);
+        }
+
+        Map<String, Long> lastModifiedMap = new HashMap<String, Long>();
+
+        ListObjectsV2Request request = new ListObjectsV2Request()
+                .withBucketName(bucket)
+                .withPrefix(prefix)
+                .withDelimiter("/");
+
+        try {
+            ListObjectsV2Result result;
+            do {
+                result = this.s3.listObjectsV2(request);
+                for (S3ObjectSummary objectSummary : result.getObjectSummaries()) {
+                    lastModifiedMap.put(
+                        String.format("s3://%s/%s", bucket, objectSummary.getKey()),
+                        objectSummary.getLastModified() == null ? null : objectSummary.getLastModified().getTime());
+                }
+                request.setContinuationToken(result.getNextContinuationToken());
+            } while (result.isTruncated());
+        } catch (AmazonClientException ex) {
+            throw new IOException(String.format("Error occurred while listing the S3 prefix: %s", prefixURI), ex);
+        }
+
+        return lastModifiedMap;
+    }
+}
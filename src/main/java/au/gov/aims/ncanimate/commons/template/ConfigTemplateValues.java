@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ncanimate.commons.template;
+
+import au.gov.aims.ereefs.bean.ncanimate.AbstractNcAnimateBean;
+import au.gov.aims.ereefs.bean.ncanimate.NcAnimateConfigBean;
+import au.gov.aims.ereefs.bean.ncanimate.NcAnimateIdBean;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Values of the placeholders which only depends on the NcAnimate configuration
+ * (i.e. placeholders which do not start with "ctx" or "layerCtx").
+ * Those values are the same for every frame, they only need to be resolved once per configuration.
+ *
+ * The values are shared between all the GeneratorContext of a configuration.
+ * The cache holds one set of values per configuration ID. The set is identified by the last modified
+ * timestamp of the most recent config part, so a reloaded configuration replaces the values of
+ * its previous version instead of adding a new entry to the cache.
+ */
+public class ConfigTemplateValues {
+    // Key: Configuration ID
+    // Value: Values of the most recent version of the configuration
+    private static final Map<String, ConfigTemplateValues> CONFIG_VALUES_CACHE = new ConcurrentHashMap<String, ConfigTemplateValues>();
+
+    // ConcurrentHashMap doesn't accept null keys
+    private static final String NULL_CONFIG_ID = "";
+
+    private final String configId;
+    private final long lastModified;
+    private final String configKey;
+
+    // Key: raw placeholder (as found in the template)
+    private final Map<String, String> values;
+
+    // Placeholders which could not be found in the configuration
+    private final Set<String> unresolvedPlaceholders;
+
+    // Placeholders reported as invalid by the template validation (see TemplateValidator).
+    // There is no need to report them again at render time.
+    private final Set<String> reportedPlaceholders;
+
+    // Set once the configuration templates were validated
+    private volatile boolean validated;
+
+    private ConfigTemplateValues(String configId, long lastModified) {
+        this.configId = configId;
+        this.lastModified = lastModified;
+        this.configKey = configId + "@" + lastModified;
+        this.values = new ConcurrentHashMap<String, String>();
+        this.unresolvedPlaceholders = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        this.reportedPlaceholders = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        this.validated = false;
+    }
+
+    public static ConfigTemplateValues get(NcAnimateConfigBean ncAnimateConfig) {
+        if (ncAnimateConfig == null) {
+            return null;
+        }
+
+        NcAnimateIdBean id = ncAnimateConfig.getId();
+        return ConfigTemplateValues.get(id == null ? null : id.getValue(),
+                ConfigTemplateValues.getConfigLastModified(ncAnimateConfig));
+    }
+
+    /**
+     * Last modified timestamp of the configuration, used to identify its version.
+     * It iterates through all the config parts, callers should compute it once per configuration
+     * (see GeneratorContext.getConfigTemplateValues).
+     * @param ncAnimateConfig
+     * @return The last modified timestamp of the most recent config part.
+     */
+    public static long getConfigLastModified(NcAnimateConfigBean ncAnimateConfig) {
+        AbstractNcAnimateBean lastModifiedConfigPart = ncAnimateConfig.getLastModifiedConfigPart();
+        return lastModifiedConfigPart == null ?
+                ncAnimateConfig.getLastModified() : lastModifiedConfigPart.getLastModified();
+    }
+
+    /**
+     * Called for every placeholder rendered, it only does a map lookup
+     * and a timestamp comparison when the values are in cache.
+     * @param configId
+     * @param lastModified Last modified timestamp of the configuration.
+     * @return The values of the configuration. The values of a different version
+     *     of the configuration are dropped.
+     */
+    public static ConfigTemplateValues get(String configId, long lastModified) {
+        String cacheKey = configId == null ? NULL_CONFIG_ID : configId;
+
+        ConfigTemplateValues configValues = CONFIG_VALUES_CACHE.get(cacheKey);
+        while (configValues == null || configValues.lastModified != lastModified) {
+            ConfigTemplateValues newConfigValues = new ConfigTemplateValues(configId, lastModified);
+            boolean added = configValues == null ?
+                    CONFIG_VALUES_CACHE.putIfAbsent(cacheKey, newConfigValues) == null :
+                    CONFIG_VALUES_CACHE.replace(cacheKey, configValues, newConfigValues);
+
+            configValues = added ? newConfigValues : CONFIG_VALUES_CACHE.get(cacheKey);
+        }
+
+        return configValues;
+    }
+
+    public static void clearCache() {
+        CONFIG_VALUES_CACHE.clear();
+    }
+
+    /**
+     * Drop the values of a configuration.
+     * @param configId
+     */
+    public static void clearCache(String configId) {
+        CONFIG_VALUES_CACHE.remove(configId == null ? NULL_CONFIG_ID : configId);
+    }
+
+    public static int getCacheSize() {
+        return CONFIG_VALUES_CACHE.size();
+    }
+
+    public String getConfigId() {
+        return this.configId;
+    }
+
+    public long getLastModified() {
+        return this.lastModified;
+    }
+
+    /**
+     * @return The configuration ID and last modified timestamp, used in logs: "configId@lastModified"
+     */
+    public String getConfigKey() {
+        return this.configKey;
+    }
+
+    /**
+     * @param placeholder
+     * @return True if the placeholder value was already resolved (or could not be resolved).
+     */
+    public boolean isResolved(TemplatePlaceholder placeholder) {
+        String raw = placeholder.getRaw();
+        return this.values.containsKey(raw) || this.unresolvedPlaceholders.contains(raw);
+    }
+
+    /**
+     * @param placeholder
+     * @return The placeholder value, or null if it was not found in the configuration.
+     */
+    public String getValue(TemplatePlaceholder placeholder) {
+        return this.values.get(placeholder.getRaw());
+    }
+
+    public boolean isUnresolved(TemplatePlaceholder placeholder) {
+        return this.unresolvedPlaceholders.contains(placeholder.getRaw());
+    }
+
+    public void setValue(TemplatePlaceholder placeholder, String value) {
+        String raw = placeholder.getRaw();
+        if (value == null) {
+            this.unresolvedPlaceholders.add(raw);
+        } else {
+            this.values.put(raw, value);
+        }
+    }
+
+    public int size() {
+        return this.values.size();
+    }
+
+    public Set<String> getUnresolvedPlaceholders() {
+        return new TreeSet<String>(this.unresolvedPlaceholders);
+    }
+
+    public void setReported(TemplatePlaceholder placeholder) {
+        this.reportedPlaceholders.add(placeholder.getRaw());
+    }
+
+    /**
+     * @param placeholder
+     * @return True if the placeholder was reported as invalid by the template validation.
+     */
+    public boolean isReported(TemplatePlaceholder placeholder) {
+        return this.reportedPlaceholders.contains(placeholder.getRaw());
+    }
+
+    public boolean isValidated() {
+        return this.validated;
+    }
+
+    public void setValidated(boolean validated) {
+        this.validated = validated;
+    }
+}
@@ -0,0 +1,22 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ncanimate.commons.template;
+
+import au.gov.aims.ncanimate.commons.generator.context.GeneratorContext;
+
+/**
+ * Read the value of a "${ctx...}" placeholder directly from the GeneratorContext,
+ * without generating the context JSON representation.
+ * See ContextValueResolvers.
+ */
+public interface ContextValueResolver {
+
+    /**
+     * @param context The generator context
+     * @return The value, as it would be found in GeneratorContext.toJSON(),
+     *     or null if the value is not defined in the context.
+     */
+    Object resolve(GeneratorContext context);
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ncanimate.commons.template;
+
+import au.gov.aims.ereefs.bean.ncanimate.NcAnimateIdBean;
+import au.gov.aims.ereefs.bean.ncanimate.NcAnimateRegionBean;
+import au.gov.aims.ncanimate.commons.NcAnimateUtils;
+import au.gov.aims.ncanimate.commons.generator.context.GeneratorContext;
+import au.gov.aims.ncanimate.commons.timetable.DateTimeRange;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of typed resolvers for the most common "${ctx...}" placeholders.
+ * Key: path of the placeholder, without the "ctx." prefix (example: "region.id")
+ *
+ * The resolvers read the values using the GeneratorContext getters,
+ * they must return the same value as the one found in GeneratorContext.toJSON().
+ * Placeholders without resolver are resolved using the context JSON representation.
+ *
+ * NOTE: The resolver is looked up once, when the template is compiled.
+ *     Registering a resolver clears the template cache.
+ */
+public class ContextValueResolvers {
+    private static final Map<String, ContextValueResolver> RESOLVERS = new ConcurrentHashMap<String, ContextValueResolver>();
+
+    static {
+        RESOLVERS.put("ncAnimateConfig", new ContextValueResolver() {
+            @Override
+            public Object resolve(GeneratorContext context) {
+                NcAnimateIdBean id = context.getNcAnimateConfig() == null ? null : context.getNcAnimateConfig().getId();
+                return id == null ? null : id.getValue();
+            }
+        });
+
+        RESOLVERS.put("region.id", new ContextValueResolver() {
+            @Override
+            public Object resolve(GeneratorContext context) {
+                NcAnimateRegionBean region = context.getRegion();
+                NcAnimateIdBean id = region == null ? null : region.getId();
+                return id == null ? null : id.getValue();
+            }
+        });
+
+        RESOLVERS.put("targetHeight", new ContextValueResolver() {
+            @Override
+            public Object resolve(GeneratorContext context) {
+                Double targetHeight = context.getTargetHeight();
+                return targetHeight == null ? "0" : targetHeight;
+            }
+        });
+
+        RESOLVERS.put("dateFrom", new ContextValueResolver() {
+            @Override
+            public Object resolve(GeneratorContext context) {
+                DateTimeRange dateRange = context.getDateRange();
+                return dateRange == null ? null : dateRange.getStartDate();
+            }
+        });
+
+        RESOLVERS.put("dateTo", new ContextValueResolver() {
+            @Override
+            public Object resolve(GeneratorContext context) {
+                DateTimeRange dateRange = context.getDateRange();
+                return dateRange == null ? null : dateRange.getEndDate();
+            }
+        });
+
+        RESOLVERS.put("framePeriod", new ContextValueResolver() {
+            @Override
+            public Object resolve(GeneratorContext context) {
+                return NcAnimateUtils.getTimeIncrementLabel(context.getFrameTimeIncrement());
+            }
+        });
+
+        RESOLVERS.put("outputFilenamePrefix", new ContextValueResolver() {
+            @Override
+            public Object resolve(GeneratorContext context) {
+                return context.getOutputFilenamePrefix();
+            }
+        });
+
+        RESOLVERS.put("outputFilename", new ContextValueResolver() {
+            @Override
+            public Object resolve(GeneratorContext context) {
+                return context.getOutputFilename();
+            }
+        });
+    }
+
+    /**
+     * @param contextPath Path of the placeholder, without the "ctx." prefix.
+     * @return The resolver for the path, or null if the value must be found in the context JSON representation.
+     */
+    public static ContextValueResolver get(String contextPath) {
+        return contextPath == null ? null : RESOLVERS.get(contextPath);
+    }
+
+    /**
+     * Register a resolver for a context property.
+     * Used by GeneratorContext sub-classes which add properties to the context JSON representation.
+     * @param contextPath Path of the placeholder, without the "ctx." prefix.
+     * @param resolver
+     */
+    public static void register(String contextPath, ContextValueResolver resolver) {
+        if (resolver == null) {
+            RESOLVERS.remove(contextPath);
+        } else {
+            RESOLVERS.put(contextPath, resolver);
+        }
+
+        // Compiled templates have a reference to the resolvers
+        Template.clearCache();
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ncanimate.commons.template;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiled version of a string containing placeholders in the form "${path options}".
+ * The string is scanned once, the literal sections are kept as offsets in the
+ * source string and the placeholders are pre-parsed, so rendering the template
+ * can write directly into an Appendable without creating intermediate strings.
+ *
+ * Compiled templates are immutable and cached by source string.
+ * The cache is bounded: when it's full, the least recently used template is dropped.
+ */
+public class Template {
+    public static final int DEFAULT_MAX_CACHE_SIZE = 10000;
+
+    private static volatile int maxCacheSize = DEFAULT_MAX_CACHE_SIZE;
+
+    // Key: Template source string
+    // Value: Compiled template
+    // Access ordered, to drop the least recently used template
+    private static final Map<String, Template> TEMPLATE_CACHE = new LinkedHashMap<String, Template>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Template> eldest) {
+            return this.size() > Template.maxCacheSize;
+        }
+    };
+
+    private final String source;
+
+    // Short identifier of the template, used in diagnostics messages
+    private final String id;
+
+    // Literal i is the section of the source string found before placeholder i.
+    // There is always one more literal than placeholders (the last literal is the text after the last placeholder).
+    private final int[] literalStarts;
+    private final int[] literalEnds;
+    private final TemplatePlaceholder[] placeholders;
+
+    private Template(String source, int[] literalStarts, int[] literalEnds, TemplatePlaceholder[] placeholders) {
+        this.source = source;
+        this.id = String.format("%08x", source.hashCode());
+        this.literalStarts = literalStarts;
+        this.literalEnds = literalEnds;
+        this.placeholders = placeholders;
+    }
+
+    /**
+     * Return the compiled template for the given string, from cache if it was already compiled.
+     * @param source String that may contains pattern(s) in the form as "${path options}".
+     * @return The compiled template, or null if source is null.
+     */
+    public static Template compile(String source) {
+        if (source == null) {
+            return null;
+        }
+
+        Template template;
+        synchronized (TEMPLATE_CACHE) {
+            template = TEMPLATE_CACHE.get(source);
+        }
+        if (template == null) {
+            // Parsed outside of the lock. If 2 threads parse the same string, the first one is kept.
+            template = Template.parse(source);
+            synchronized (TEMPLATE_CACHE) {
+                Template previous = TEMPLATE_CACHE.get(source);
+                if (previous == null) {
+                    TEMPLATE_CACHE.put(source, template);
+                } else {
+                    template = previous;
+                }
+            }
+        }
+
+        return template;
+    }
+
+    public static boolean isCompiled(String source) {
+        if (source == null) {
+            return false;
+        }
+        synchronized (TEMPLATE_CACHE) {
+            return TEMPLATE_CACHE.containsKey(source);
+        }
+    }
+
+    public static int getCacheSize() {
+        synchronized (TEMPLATE_CACHE) {
+            return TEMPLATE_CACHE.size();
+        }
+    }
+
+    /**
+     * Set the maximum number of compiled templates kept in cache.
+     * Templates are dropped when the next template is compiled.
+     * @param maxCacheSize
+     */
+    public static void setMaxCacheSize(int maxCacheSize) {
+        if (maxCacheSize <= 0) {
+            throw new IllegalArgumentException(String.format("Invalid template cache size: %d", maxCacheSize));
+        }
+        Template.maxCacheSize = maxCacheSize;
+    }
+
+    public static int getMaxCacheSize() {
+        return Template.maxCacheSize;
+    }
+
+    public static void clearCache() {
+        synchronized (TEMPLATE_CACHE) {
+            TEMPLATE_CACHE.clear();
+        }
+    }
+
+    private static Template parse(String str) {
+        List<Integer> literalStarts = new ArrayList<Integer>();
+        List<Integer> literalEnds = new ArrayList<Integer>();
+        List<TemplatePlaceholder> placeholders = new ArrayList<TemplatePlaceholder>();
+
+        int literalStart = 0;
+        int patternStart = -1;
+
+        int strLen = str.length();
+        for (int i=0; i<strLen; i++) {
+            char ch = str.charAt(i),
+                nextCh = i+1 >= strLen ? '\0' : str.charAt(i+1);
+
+            if (patternStart < 0) {
+                if (ch == '$' && nextCh == '{') {
+                    literalStarts.add(literalStart);
+                    literalEnds.add(i);
+                    patternStart = i+2;
+                    i++;
+                }
+            } else if (ch == '}') {
+                placeholders.add(new TemplatePlaceholder(str.substring(patternStart, i)));
+                patternStart = -1;
+                literalStart = i+1;
+            }
+        }
+
+        // NOTE: An unterminated pattern at the end of the string is dropped
+        //     (same behaviour as the original state parser).
+        literalStarts.add(literalStart);
+        literalEnds.add(patternStart < 0 ? strLen : patternStart - 2);
+
+        int nbLiterals = literalStarts.size();
+        int[] literalStartArray = new int[nbLiterals];
+        int[] literalEndArray = new int[nbLiterals];
+        for (int i=0; i<nbLiterals; i++) {
+            literalStartArray[i] = literalStarts.get(i);
+            literalEndArray[i] = literalEnds.get(i);
+        }
+
+        return new Template(str, literalStartArray, literalEndArray,
+                placeholders.toArray(new TemplatePlaceholder[placeholders.size()]));
+    }
+
+    public String getSource() {
+        return this.source;
+    }
+
+    public String getId() {
+        return this.id;
+    }
+
+    public boolean hasPlaceholders() {
+        return this.placeholders.length > 0;
+    }
+
+    public int getPlaceholderCount() {
+        return this.placeholders.length;
+    }
+
+    public TemplatePlaceholder getPlaceholder(int index) {
+        return this.placeholders[index];
+    }
+
+    /**
+     * Length of all the literal sections of the template.
+     * Used to size output buffers.
+     * @return
+     */
+    public int getLiteralLength() {
+        int length = 0;
+        for (int i=0; i<this.literalStarts.length; i++) {
+            length += this.literalEnds[i] - this.literalStarts[i];
+        }
+        return length;
+    }
+
+    /**
+     * Write the literal section found before the placeholder at the given index.
+     * Use index == getPlaceholderCount() to write the text found after the last placeholder.
+     * @param out
+     * @param index
+     */
+    public void appendLiteral(Appendable out, int index) throws IOException {
+        int start = this.literalStarts[index];
+        int end = this.literalEnds[index];
+        if (end > start) {
+            out.append(this.source, start, end);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return this.source;
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ncanimate.commons.template;
+
+import org.apache.log4j.Logger;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Rate limited, deduplicated diagnostics for template placeholders that can not be substituted.
+ *
+ * Each missing variable is identified by the configuration ID, the template ID (see Template.getId())
+ * and the placeholder path. It is logged the first time it's found, subsequent occurrences
+ * are only counted. A summary of the suppressed occurrences is logged at most once per
+ * summary interval, so a missing variable storm only costs a few map lookups.
+ */
+public class TemplateDiagnostics {
+    private static final Logger LOGGER = Logger.getLogger(TemplateDiagnostics.class);
+
+    // Maximum number of distinct missing variables tracked.
+    // Missing variables found after that limit are only counted in the totals.
+    private static final int MAX_TRACKED_ENTRIES = 1000;
+
+    private static final long DEFAULT_SUMMARY_INTERVAL_MS = 60 * 1000;
+
+    private static final ConcurrentHashMap<MissingVariableKey, AtomicLong> MISSING_VARIABLE_COUNTS = new ConcurrentHashMap<MissingVariableKey, AtomicLong>();
+    private static final ConcurrentHashMap<String, AtomicLong> UNRESOLVED_TEXT_COUNTS = new ConcurrentHashMap<String, AtomicLong>();
+
+    private static final AtomicLong MISSING_VARIABLE_TOTAL = new AtomicLong(0);
+    private static final AtomicLong UNRESOLVED_TEXT_TOTAL = new AtomicLong(0);
+    private static final AtomicLong SUPPRESSED_TOTAL = new AtomicLong(0);
+
+    private static final AtomicLong LAST_SUMMARY = new AtomicLong(System.currentTimeMillis());
+    private static final AtomicLong SUPPRESSED_SINCE_LAST_SUMMARY = new AtomicLong(0);
+
+    private static volatile long summaryIntervalMs = DEFAULT_SUMMARY_INTERVAL_MS;
+
+    /**
+     * Record a placeholder that could not be substituted.
+     * @param configId The NcAnimate configuration ID
+     * @param template The template containing the placeholder
+     * @param placeholder The placeholder that could not be substituted
+     * @param reported True if the placeholder was already reported (by the template validation for example).
+     *     The occurrence is counted but never logged.
+     */
+    public static void missingVariable(String configId, Template template, TemplatePlaceholder placeholder, boolean reported) {
+        MISSING_VARIABLE_TOTAL.incrementAndGet();
+
+        // Composite key, no string is built for occurrences of a variable already counted
+        MissingVariableKey key = new MissingVariableKey(configId, template.getId(), placeholder.getPath());
+        boolean firstOccurrence = TemplateDiagnostics.increment(MISSING_VARIABLE_COUNTS, key);
+
+        if (firstOccurrence && !reported) {
+            LOGGER.warn(String.format("Configuration %s, template %s: Variable %s not found in: \"%s\".",
+                    configId, template.getId(), placeholder, template.getSource()));
+        } else {
+            TemplateDiagnostics.suppressed();
+        }
+    }
+
+    /**
+     * Record a list of texts for which none of the texts could be fully substituted.
+     * @param configId The NcAnimate configuration ID
+     * @param templates The templates of the texts
+     */
+    public static void unresolvedTexts(String configId, Template ... templates) {
+        UNRESOLVED_TEXT_TOTAL.incrementAndGet();
+
+        StringBuilder templateIds = new StringBuilder();
+        for (Template template : templates) {
+            if (templateIds.length() > 0) {
+                templateIds.append(", ");
+            }
+            templateIds.append(template == null ? null : template.getId());
+        }
+
+        String key = String.format("%s [%s]", configId, templateIds);
+        boolean firstOccurrence = TemplateDiagnostics.increment(UNRESOLVED_TEXT_COUNTS, key);
+
+        if (firstOccurrence) {
+            LOGGER.warn(String.format("Configuration %s: All texts contains variable(s) that could not be substituted. Templates: [%s]",
+                    configId, templateIds));
+        } else {
+            TemplateDiagnostics.suppressed();
+        }
+    }
+
+    /**
+     * @return Number of placeholders which could not be substituted since the last reset.
+     */
+    public static long getMissingVariableCount() {
+        return MISSING_VARIABLE_TOTAL.get();
+    }
+
+    /**
+     * @return Number of texts which could not be substituted since the last reset.
+     */
+    public static long getUnresolvedTextCount() {
+        return UNRESOLVED_TEXT_TOTAL.get();
+    }
+
+    /**
+     * @return Number of occurrences which were counted but not logged since the last reset.
+     */
+    public static long getSuppressedCount() {
+        return SUPPRESSED_TOTAL.get();
+    }
+
+    /**
+     * @return Number of occurrences of each missing variable, in the form
+     *     "configId templateId placeholderPath" => count
+     */
+    public static SortedMap<String, Long> getMissingVariables() {
+        SortedMap<String, Long> missingVariables = new TreeMap<String, Long>();
+        for (Map.Entry<MissingVariableKey, AtomicLong> missingVariableEntry : MISSING_VARIABLE_COUNTS.entrySet()) {
+            missingVariables.put(missingVariableEntry.getKey().toString(), missingVariableEntry.getValue().get());
+        }
+        return missingVariables;
+    }
+
+    public static void setSummaryInterval(long summaryIntervalMs) {
+        TemplateDiagnostics.summaryIntervalMs = summaryIntervalMs;
+    }
+
+    public static void reset() {
+        MISSING_VARIABLE_COUNTS.clear();
+        UNRESOLVED_TEXT_COUNTS.clear();
+        MISSING_VARIABLE_TOTAL.set(0);
+        UNRESOLVED_TEXT_TOTAL.set(0);
+        SUPPRESSED_TOTAL.set(0);
+        SUPPRESSED_SINCE_LAST_SUMMARY.set(0);
+        LAST_SUMMARY.set(System.currentTimeMillis());
+    }
+
+    /**
+     * @return True if it's the first occurrence of the key.
+     */
+    private static <K> boolean increment(ConcurrentHashMap<K, AtomicLong> counts, K key) {
+        AtomicLong count = counts.get(key);
+        if (count == null) {
+            if (counts.size() >= MAX_TRACKED_ENTRIES) {
+                // Too many distinct entries, stop tracking new ones
+                return false;
+            }
+            count = new AtomicLong(0);
+            AtomicLong previous = counts.putIfAbsent(key, count);
+            if (previous != null) {
+                count = previous;
+            }
+        }
+        return count.incrementAndGet() == 1;
+    }
+
+    private static void suppressed() {
+        SUPPRESSED_TOTAL.incrementAndGet();
+        long suppressedCount = SUPPRESSED_SINCE_LAST_SUMMARY.incrementAndGet();
+
+        long now = System.currentTimeMillis();
+        long lastSummary = LAST_SUMMARY.get();
+        if (now - lastSummary >= summaryIntervalMs && LAST_SUMMARY.compareAndSet(lastSummary, now)) {
+            SUPPRESSED_SINCE_LAST_SUMMARY.addAndGet(-suppressedCount);
+            LOGGER.warn(String.format("%d unresolved template variable occurrence(s) not logged in the last %d seconds (%d distinct missing variable(s), %d total occurrence(s)).",
+                    suppressedCount, (now - lastSummary) / 1000, MISSING_VARIABLE_COUNTS.size(), MISSING_VARIABLE_TOTAL.get()));
+        }
+    }
+
+    private static class MissingVariableKey {
+        private final String configId;
+        private final String templateId;
+        private final String path;
+        private final int hashCode;
+
+        public MissingVariableKey(String configId, String templateId, String path) {
+            this.configId = configId;
+            this.templateId = templateId;
+            this.path = path;
+
+            int hash = configId == null ? 0 : configId.hashCode();
+            hash = 31 * hash + (templateId == null ? 0 : templateId.hashCode());
+            this.hashCode = 31 * hash + (path == null ? 0 : path.hashCode());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof MissingVariableKey)) {
+                return false;
+            }
+            MissingVariableKey other = (MissingVariableKey) o;
+            return this.hashCode == other.hashCode &&
+                    Objects.equals(this.configId, other.configId) &&
+                    Objects.equals(this.templateId, other.templateId) &&
+                    Objects.equals(this.path, other.path);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hashCode;
+        }
+
+        // Format of the keys returned by getMissingVariables
+        @Override
+        public String toString() {
+            return this.configId + " " + this.templateId + " " + this.path;
+        }
+    }
+}
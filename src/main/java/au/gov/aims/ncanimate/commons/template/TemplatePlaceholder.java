@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ncanimate.commons.template;
+
+import java.io.IOException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Pre-parsed placeholder found in a template.
+ * Example: "${ctx.dateFrom yyyy-MM-dd}"
+ *     raw: "ctx.dateFrom yyyy-MM-dd"
+ *     path: "ctx.dateFrom"
+ *     options: "yyyy-MM-dd"
+ *     pathParts: [ "ctx", "dateFrom" ]
+ */
+public class TemplatePlaceholder {
+    private static final Pattern ARRAY_PATTERN = Pattern.compile("(.+)\\[(.+)\\]");
+
+    private final String raw;
+    private final String path;
+    private final String options;
+    private final String[] pathParts;
+
+    // Array property for each path part (example: "panels[temp]" => [ "panels", "temp" ]), null if the part is not an array property
+    private final String[][] arrayProperties;
+
+    // Typed resolver for common context placeholders (see ContextValueResolvers), null if there is none
+    private final ContextValueResolver contextValueResolver;
+
+    public TemplatePlaceholder(String raw) {
+        this.raw = raw;
+
+        String[] strSections = raw.trim().split(" ");
+        this.path = strSections[0].trim();
+        this.options = strSections.length > 1 ? strSections[1].trim() : null;
+
+        String[] rawPathParts = this.path.split("\\.");
+        this.pathParts = new String[rawPathParts.length];
+        this.arrayProperties = new String[rawPathParts.length][];
+        for (int i=0; i<rawPathParts.length; i++) {
+            this.pathParts[i] = rawPathParts[i].trim();
+            this.arrayProperties[i] = TemplatePlaceholder.parseArrayProperty(this.pathParts[i]);
+        }
+
+        this.contextValueResolver = this.isContextPlaceholder() && this.pathParts.length > 1 ?
+                ContextValueResolvers.get(this.path.substring(this.path.indexOf('.') + 1)) : null;
+    }
+
+    public static String[] parseArrayProperty(String propertyStr) {
+        if (propertyStr == null) {
+            return null;
+        }
+
+        Matcher arrayMatcher = ARRAY_PATTERN.matcher(propertyStr);
+        if (arrayMatcher.find()) {
+            return new String[] { arrayMatcher.group(1), arrayMatcher.group(2) };
+        }
+
+        return null;
+    }
+
+    /**
+     * The placeholder as written in the template, without the "${" and "}".
+     * @return
+     */
+    public String getRaw() {
+        return this.raw;
+    }
+
+    public String getPath() {
+        return this.path;
+    }
+
+    public String getOptions() {
+        return this.options;
+    }
+
+    public int getPathPartCount() {
+        return this.pathParts.length;
+    }
+
+    public String getPathPart(int index) {
+        return this.pathParts[index];
+    }
+
+    public String getFirstPathPart() {
+        return this.pathParts[0];
+    }
+
+    /**
+     * @return True if the placeholder refers to the generator context ("${ctx...}").
+     */
+    public boolean isContextPlaceholder() {
+        return "ctx".equalsIgnoreCase(this.pathParts[0]);
+    }
+
+    /**
+     * @return True if the placeholder refers to a layer context ("${layerCtx...}").
+     */
+    public boolean isLayerContextPlaceholder() {
+        return "layerCtx".equalsIgnoreCase(this.pathParts[0]);
+    }
+
+    /**
+     * @return True if the placeholder value only depends on the NcAnimate configuration.
+     *     Those values can be resolved once per configuration.
+     */
+    public boolean isConfigPlaceholder() {
+        return !this.isContextPlaceholder() && !this.isLayerContextPlaceholder();
+    }
+
+    /**
+     * @return The typed resolver for the context placeholder,
+     *     or null if the value must be found in the context JSON representation.
+     */
+    public ContextValueResolver getContextValueResolver() {
+        return this.contextValueResolver;
+    }
+
+    /**
+     * @param index
+     * @return The array property of the path part at the given index ([ property, index ]),
+     *     or null if the path part is not an array property.
+     */
+    public String[] getArrayProperty(int index) {
+        return this.arrayProperties[index];
+    }
+
+    /**
+     * Write the placeholder as it was found in the template.
+     * Used when the placeholder can not be substituted.
+     * @param out
+     */
+    public void appendUnresolved(Appendable out) throws IOException {
+        out.append("${").append(this.raw).append('}');
+    }
+
+    @Override
+    public String toString() {
+        return "${" + this.raw + "}";
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ncanimate.commons.template;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Result of the validation of the templates found in a NcAnimate configuration.
+ * See TemplateValidator.
+ */
+public class TemplateValidationReport {
+    private final String configKey;
+    private int templateCount;
+    private int placeholderCount;
+
+    // Key: location of the template in the configuration (example: "panels[0].title.text[0]")
+    // Value: placeholders that can not be resolved, with the reason
+    private final SortedMap<String, SortedMap<String, String>> invalidPlaceholders;
+
+    public TemplateValidationReport(String configKey) {
+        this.configKey = configKey;
+        this.templateCount = 0;
+        this.placeholderCount = 0;
+        this.invalidPlaceholders = new TreeMap<String, SortedMap<String, String>>();
+    }
+
+    public String getConfigKey() {
+        return this.configKey;
+    }
+
+    public int getTemplateCount() {
+        return this.templateCount;
+    }
+
+    public int getPlaceholderCount() {
+        return this.placeholderCount;
+    }
+
+    protected void addTemplate(Template template) {
+        this.templateCount++;
+        this.placeholderCount += template.getPlaceholderCount();
+    }
+
+    protected void addInvalidPlaceholder(String location, TemplatePlaceholder placeholder, String reason) {
+        SortedMap<String, String> locationPlaceholders = this.invalidPlaceholders.get(location);
+        if (locationPlaceholders == null) {
+            locationPlaceholders = new TreeMap<String, String>();
+            this.invalidPlaceholders.put(location, locationPlaceholders);
+        }
+        locationPlaceholders.put(placeholder.toString(), reason);
+    }
+
+    public boolean isValid() {
+        return this.invalidPlaceholders.isEmpty();
+    }
+
+    public SortedMap<String, SortedMap<String, String>> getInvalidPlaceholders() {
+        return this.invalidPlaceholders;
+    }
+
+    /**
+     * @return The set of invalid placeholders, regardless of where they are used.
+     */
+    public Set<String> getInvalidPlaceholderSet() {
+        Set<String> placeholderSet = new TreeSet<String>();
+        for (SortedMap<String, String> locationPlaceholders : this.invalidPlaceholders.values()) {
+            placeholderSet.addAll(locationPlaceholders.keySet());
+        }
+        return placeholderSet;
+    }
+
+    public JSONObject toJSON() {
+        JSONObject jsonInvalidPlaceholders = new JSONObject();
+        for (Map.Entry<String, SortedMap<String, String>> invalidPlaceholderEntry : this.invalidPlaceholders.entrySet()) {
+            JSONArray jsonLocationPlaceholders = new JSONArray();
+            for (Map.Entry<String, String> placeholderEntry : invalidPlaceholderEntry.getValue().entrySet()) {
+                jsonLocationPlaceholders.put(new JSONObject()
+                    .put("placeholder", placeholderEntry.getKey())
+                    .put("reason", placeholderEntry.getValue()));
+            }
+            jsonInvalidPlaceholders.put(invalidPlaceholderEntry.getKey(), jsonLocationPlaceholders);
+        }
+
+        return new JSONObject()
+            .put("config", this.configKey)
+            .put("valid", this.isValid())
+            .put("templateCount", this.templateCount)
+            .put("placeholderCount", this.placeholderCount)
+            .put("invalidPlaceholders", jsonInvalidPlaceholders);
+    }
+
+    @Override
+    public String toString() {
+        return this.toJSON().toString(4);
+    }
+}
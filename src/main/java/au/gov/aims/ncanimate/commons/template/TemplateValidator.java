@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ncanimate.commons.template;
+
+import au.gov.aims.ereefs.bean.ncanimate.NcAnimateConfigBean;
+import au.gov.aims.ereefs.bean.ncanimate.NcAnimateLayerBean;
+import au.gov.aims.ncanimate.commons.NcAnimateUtils;
+import au.gov.aims.ncanimate.commons.generator.context.GeneratorContext;
+import org.apache.log4j.Logger;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Pre-flight validation of the templates found in a NcAnimate configuration
+ * (texts, titles, legends, directoryUri, render file URI, etc).
+ *
+ * Every string value of the configuration containing a placeholder is:
+ * - compiled into the template cache,
+ * - resolved once if it only depends on the configuration (see ConfigTemplateValues),
+ * - checked against the context properties ("${ctx...}") and the configuration layers ("${layerCtx...}").
+ *
+ * Invalid placeholders are reported once, with their location in the configuration,
+ * instead of being reported every time a frame is rendered.
+ */
+public class TemplateValidator {
+    private static final Logger LOGGER = Logger.getLogger(TemplateValidator.class);
+
+    /**
+     * Validate all the templates found in the configuration of the context.
+     * @param context Context used to resolve the placeholders. Only its configuration
+     *     and its list of properties (GeneratorContext.getJSONKeys()) are used,
+     *     so it doesn't need to be fully initialised.
+     * @return The validation report, or null if the context has no configuration.
+     */
+    public static TemplateValidationReport validate(GeneratorContext context) {
+        if (context == null) {
+            return null;
+        }
+
+        NcAnimateConfigBean ncAnimateConfig = context.getNcAnimateConfig();
+        ConfigTemplateValues configValues = ConfigTemplateValues.get(ncAnimateConfig);
+        if (configValues == null) {
+            return null;
+        }
+
+        TemplateValidationReport report = new TemplateValidationReport(configValues.getConfigKey());
+        JSONObject jsonConfig = ncAnimateConfig.toJSON();
+        if (jsonConfig != null) {
+            Map<String, NcAnimateLayerBean> layerMap = NcAnimateUtils.getLayers(ncAnimateConfig);
+            TemplateValidator.validateJSON(report, null, jsonConfig, context, layerMap, configValues);
+        }
+        configValues.setValidated(true);
+
+        if (report.isValid()) {
+            LOGGER.info(String.format("Configuration %s: %d template(s) validated, %d placeholder(s).",
+                    report.getConfigKey(), report.getTemplateCount(), report.getPlaceholderCount()));
+        } else {
+            LOGGER.warn(String.format("Configuration %s contains invalid template placeholder(s):%n%s",
+                    report.getConfigKey(), report.toJSON().getJSONObject("invalidPlaceholders").toString(4)));
+        }
+
+        return report;
+    }
+
+    private static void validateJSON(
+            TemplateValidationReport report,
+            String location,
+            Object jsonValue,
+            GeneratorContext context,
+            Map<String, NcAnimateLayerBean> layerMap,
+            ConfigTemplateValues configValues) {
+
+        if (jsonValue instanceof JSONObject) {
+            JSONObject jsonObject = (JSONObject) jsonValue;
+            for (String key : jsonObject.keySet()) {
+                TemplateValidator.validateJSON(report,
+                        location == null ? key : location + "." + key,
+                        jsonObject.opt(key), context, layerMap, configValues);
+            }
+
+        } else if (jsonValue instanceof JSONArray) {
+            JSONArray jsonArray = (JSONArray) jsonValue;
+            for (int i=0; i<jsonArray.length(); i++) {
+                TemplateValidator.validateJSON(report,
+                        String.format("%s[%d]", location, i),
+                        jsonArray.opt(i), context, layerMap, configValues);
+            }
+
+        } else if (jsonValue instanceof String) {
+            String str = (String) jsonValue;
+            if (str.contains("${")) {
+                TemplateValidator.validateTemplate(report, location, str, context, layerMap, configValues);
+            }
+        }
+    }
+
+    private static void validateTemplate(
+            TemplateValidationReport report,
+            String location,
+            String str,
+            GeneratorContext context,
+            Map<String, NcAnimateLayerBean> layerMap,
+            ConfigTemplateValues configValues) {
+
+        Template template = Template.compile(str);
+        report.addTemplate(template);
+
+        int nbPlaceholders = template.getPlaceholderCount();
+        for (int i=0; i<nbPlaceholders; i++) {
+            TemplatePlaceholder placeholder = template.getPlaceholder(i);
+            String reason = TemplateValidator.getInvalidReason(placeholder, context, layerMap);
+            if (reason != null) {
+                report.addInvalidPlaceholder(location, placeholder, reason);
+                configValues.setReported(placeholder);
+            }
+        }
+    }
+
+    /**
+     * @param placeholder
+     * @param context
+     * @param layerMap
+     * @return The reason why the placeholder can not be resolved, or null if the placeholder is valid.
+     */
+    private static String getInvalidReason(TemplatePlaceholder placeholder, GeneratorContext context, Map<String, NcAnimateLayerBean> layerMap) {
+        if (placeholder.isContextPlaceholder()) {
+            if (placeholder.getPathPartCount() < 2) {
+                return "Missing context property";
+            }
+            String property = TemplateValidator.getPropertyName(placeholder, 1);
+            Set<String> contextKeys = context.getJSONKeys();
+            if (contextKeys != null && !contextKeys.contains(property)) {
+                return String.format("Unknown context property: %s", property);
+            }
+            return null;
+        }
+
+        if (placeholder.isLayerContextPlaceholder()) {
+            if (placeholder.getPathPartCount() < 3) {
+                return "Missing layer ID or layer context property";
+            }
+            String layerId = placeholder.getPathPart(1);
+            if (layerMap == null || !layerMap.containsKey(layerId)) {
+                return String.format("Unknown layer: %s", layerId);
+            }
+            return null;
+        }
+
+        // Static configuration value, resolved once and cached for the rendering
+        if (NcAnimateUtils.resolvePlaceholder(placeholder, context, null) == null) {
+            return "Not found in the configuration";
+        }
+        return null;
+    }
+
+    private static String getPropertyName(TemplatePlaceholder placeholder, int index) {
+        String[] arrayProperty = placeholder.getArrayProperty(index);
+        return arrayProperty == null ? placeholder.getPathPart(index) : arrayProperty[0];
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ncanimate.commons.timetable;
+
+import au.gov.aims.ereefs.bean.ncanimate.NcAnimateConfigBean;
+import au.gov.aims.ereefs.bean.ncanimate.NcAnimateLayerBean;
+import au.gov.aims.ereefs.bean.ncanimate.NcAnimatePanelBean;
+import au.gov.aims.ereefs.bean.ncanimate.NcAnimateRegionBean;
+import au.gov.aims.ncanimate.commons.NcAnimateGenerateFileBean;
+import org.apache.log4j.Logger;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Estimate the cost of generating the output files of a ProductTimetable, without rendering anything.
+ * Used to decide how many workers are needed, and which products should be split.
+ *
+ * The estimated time is a rough approximation:
+ *     layer renders x seconds per layer render + input megabytes x seconds per input megabyte
+ * The default values should be calibrated with the run times of real products.
+ *
+ * NOTE: The output files are listed using the ProductTimetable (see getVideoOutputFiles).
+ *     When the ProductTimetable is planned from a snapshot file without database (see TemporalMetadataSnapshot),
+ *     the dry run doesn't access the database.
+ */
+public class DryRunPlanner {
+    private static final Logger LOGGER = Logger.getLogger(DryRunPlanner.class);
+
+    public static final double DEFAULT_SECONDS_PER_LAYER_RENDER = 0.2;
+    public static final double DEFAULT_SECONDS_PER_INPUT_MEGABYTE = 0.05;
+
+    private static final double BYTES_PER_MEGABYTE = 1024 * 1024;
+
+    private final ProductTimetable productTimetable;
+    private final NcAnimateConfigBean ncAnimateConfig;
+
+    // Key: NetCDF metadata ID
+    // Value: Size of the NetCDF file, in bytes
+    private Map<String, Long> inputFileSizes;
+
+    private double secondsPerLayerRender;
+    private double secondsPerInputMegabyte;
+
+    public DryRunPlanner(ProductTimetable productTimetable) {
+        this.productTimetable = productTimetable;
+        this.ncAnimateConfig = productTimetable.getNcAnimateConfig();
+        this.inputFileSizes = new HashMap<String, Long>();
+        this.secondsPerLayerRender = DEFAULT_SECONDS_PER_LAYER_RENDER;
+        this.secondsPerInputMegabyte = DEFAULT_SECONDS_PER_INPUT_MEGABYTE;
+    }
+
+    /**
+     * The size of the input files is not part of the NetCDF metadata.
+     * Input files with unknown size are counted in OutputFileEstimate.getUnknownInputSizeCount().
+     * @param inputFileSizes Map of:
+     *     Key: NetCDF metadata ID
+     *     Value: Size of the NetCDF file, in bytes
+     */
+    public void setInputFileSizes(Map<String, Long> inputFileSizes) {
+        this.inputFileSizes = inputFileSizes == null ? new HashMap<String, Long>() : inputFileSizes;
+    }
+
+    public void setSecondsPerLayerRender(double secondsPerLayerRender) {
+        this.secondsPerLayerRender = secondsPerLayerRender;
+    }
+
+    public void setSecondsPerInputMegabyte(double secondsPerInputMegabyte) {
+        this.secondsPerInputMegabyte = secondsPerInputMegabyte;
+    }
+
+    /**
+     * @return The estimates of all the output files, most expensive first.
+     * @throws Exception
+     */
+    public List<OutputFileEstimate> estimate() throws Exception {
+        List<OutputFileEstimate> estimates = new ArrayList<OutputFileEstimate>();
+
+        for (NcAnimateGenerateFileBean videoOutputFile : this.productTimetable.getVideoOutputFiles()) {
+            estimates.add(this.estimate(videoOutputFile, "video", this.productTimetable.getVideoFrames().get(videoOutputFile.getDateRange())));
+        }
+        for (NcAnimateGenerateFileBean mapOutputFile : this.productTimetable.getMapOutputFiles()) {
+            estimates.add(this.estimate(mapOutputFile, "map", this.productTimetable.getMapFrames().get(mapOutputFile.getDateRange())));
+        }
+
+        Collections.sort(estimates);
+        return estimates;
+    }
+
+    /**
+     * @param outputFile
+     * @param outputType "video" or "map"
+     * @param frameTimetableMaps The frames of the output file.
+     * @return
+     */
+    public OutputFileEstimate estimate(NcAnimateGenerateFileBean outputFile, String outputType, List<FrameTimetableMap> frameTimetableMaps) {
+        int frameCount = 0;
+        int netCDFLayerFrameCount = 0;
+        Set<String> inputIds = new HashSet<String>();
+
+        if (frameTimetableMaps != null) {
+            for (FrameTimetableMap frameTimetableMap : frameTimetableMaps) {
+                frameCount += frameTimetableMap.size();
+                for (FrameTimetable frameTimetable : frameTimetableMap.values()) {
+                    for (NetCDFMetadataSet netCDFMetadataSet : frameTimetable.values()) {
+                        // The first file of the set is the one used to render the layer (see Fingerprints.getInputFingerprints)
+                        if (!netCDFMetadataSet.isEmpty()) {
+                            netCDFLayerFrameCount++;
+                            inputIds.add(netCDFMetadataSet.first().getMetadataId());
+                        }
+                    }
+                }
+            }
+        }
+
+        long inputBytes = 0;
+        int unknownInputSizeCount = 0;
+        for (String inputId : inputIds) {
+            Long inputFileSize = this.inputFileSizes.get(inputId);
+            if (inputFileSize == null) {
+                unknownInputSizeCount++;
+            } else {
+                inputBytes += inputFileSize;
+            }
+        }
+
+        int layersPerFrame = this.getLayersPerFrame();
+        int regionCount = this.getRegionCount();
+        int targetHeightCount = this.getTargetHeightCount();
+
+        long renderCount = (long) frameCount * layersPerFrame * regionCount * targetHeightCount;
+        double estimatedSeconds = renderCount * this.secondsPerLayerRender +
+                inputBytes / BYTES_PER_MEGABYTE * this.secondsPerInputMegabyte;
+
+        return new OutputFileEstimate(outputFile, outputType,
+                frameCount, layersPerFrame, netCDFLayerFrameCount,
+                inputIds, inputBytes, unknownInputSizeCount,
+                regionCount, targetHeightCount,
+                renderCount, estimatedSeconds);
+    }
+
+    /**
+     * @return A report of the estimates, most expensive output files first, with the totals.
+     * @throws Exception
+     */
+    public JSONObject getReport() throws Exception {
+        List<OutputFileEstimate> estimates = this.estimate();
+
+        JSONArray jsonEstimates = new JSONArray();
+        long totalRenderCount = 0, totalInputBytes = 0;
+        double totalEstimatedSeconds = 0;
+        Set<String> inputIds = new HashSet<String>();
+        for (OutputFileEstimate estimate : estimates) {
+            jsonEstimates.put(estimate.toJSON());
+            totalRenderCount += estimate.getRenderCount();
+            totalEstimatedSeconds += estimate.getEstimatedSeconds();
+            inputIds.addAll(estimate.getInputIds());
+        }
+        for (String inputId : inputIds) {
+            Long inputFileSize = this.inputFileSizes.get(inputId);
+            if (inputFileSize != null) {
+                totalInputBytes += inputFileSize;
+            }
+        }
+
+        JSONObject report = new JSONObject();
+        report.put("productId", this.ncAnimateConfig.getId().getValue());
+        report.put("outputFileCount", estimates.size());
+        // Input files used by several output files are counted once
+        report.put("inputCount", inputIds.size());
+        report.put("inputBytes", totalInputBytes);
+        report.put("renderCount", totalRenderCount);
+        report.put("estimatedSeconds", totalEstimatedSeconds);
+        report.put("outputFiles", jsonEstimates);
+
+        LOGGER.info(String.format("Dry run of product %s: %d output file(s), %d layer render(s), %d input file(s), estimated %.0f seconds",
+                this.ncAnimateConfig.getId().getValue(), estimates.size(), totalRenderCount, inputIds.size(), totalEstimatedSeconds));
+
+        return report;
+    }
+
+    // Layers rendered in each frame, for all panels
+    private int getLayersPerFrame() {
+        int layerCount = 0;
+        List<NcAnimatePanelBean> panels = this.ncAnimateConfig.getPanels();
+        if (panels != null) {
+            for (NcAnimatePanelBean panel : panels) {
+                List<NcAnimateLayerBean> layers = panel.getLayers();
+                if (layers != null) {
+                    layerCount += layers.size();
+                }
+            }
+        }
+        return layerCount;
+    }
+
+    private int getRegionCount() {
+        Map<String, NcAnimateRegionBean> regions = this.ncAnimateConfig.getRegions();
+        return regions == null ? 0 : regions.size();
+    }
+
+    // Same as NcAnimateUtils.getOutputFileURIs: no target height means one "null" target height
+    private int getTargetHeightCount() {
+        List<Double> targetHeights = this.ncAnimateConfig.getTargetHeights();
+        return targetHeights == null || targetHeights.isEmpty() ? 1 : targetHeights.size();
+    }
+}
@@ -5,6 +5,7 @@
 package au.gov.aims.ncanimate.commons.timetable;
 
 import au.gov.aims.ereefs.bean.metadata.TimeIncrement;
+import au.gov.aims.ereefs.bean.metadata.TimeIncrementUnit;
 import au.gov.aims.ereefs.bean.metadata.netcdf.NetCDFMetadataBean;
 import au.gov.aims.ereefs.bean.metadata.netcdf.TemporalDomainBean;
 import au.gov.aims.ereefs.bean.metadata.netcdf.VariableMetadataBean;
@@ -20,13 +21,19 @@ import au.gov.aims.ereefs.helper.MetadataHelper;
 import au.gov.aims.ereefs.helper.NcAnimateConfigHelper;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
+import org.joda.time.Period;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.SortedSet;
 import java.util.TreeMap;
+import java.util.TreeSet;
 
 /**
  * Map of timetable per panel's NetCDF layer.
@@ -45,17 +52,87 @@ import java.util.TreeMap;
 public class FrameTimetableMap extends TreeMap<DateTimeRange, FrameTimetable> {
     private DatabaseClient dbClient;
     private DateTimeRange coveredDateRange;
+    private Map<String, Map<String, TemporalMetadata>> temporalMetadataMap;
+
+    // Used to index the temporal metadata (see addTemporalMetadata)
+    private DateTimeZone timezone;
+    private FrameIndex frameIndex;
+    private List<TemporalLayer> temporalLayers;
 
     public FrameTimetableMap(NcAnimateConfigBean ncAnimateConfig, DateTimeRange coveredDateRange, DatabaseClient dbClient) throws Exception {
+        this(ncAnimateConfig, coveredDateRange, dbClient, null);
+    }
+
+    /**
+     * @param ncAnimateConfig
+     * @param coveredDateRange
+     * @param dbClient
+     * @param temporalMetadataMap The temporal metadata of the input files (see TemporalMetadataLoader),
+     *     or null to use the full NetCDF metadata.
+     * @throws Exception
+     */
+    public FrameTimetableMap(
+            NcAnimateConfigBean ncAnimateConfig,
+            DateTimeRange coveredDateRange,
+            DatabaseClient dbClient,
+            Map<String, Map<String, TemporalMetadata>> temporalMetadataMap) throws Exception {
+        this(ncAnimateConfig, coveredDateRange, dbClient, temporalMetadataMap, temporalMetadataMap != null);
+    }
+
+    private FrameTimetableMap(
+            NcAnimateConfigBean ncAnimateConfig,
+            DateTimeRange coveredDateRange,
+            DatabaseClient dbClient,
+            Map<String, Map<String, TemporalMetadata>> temporalMetadataMap,
+            boolean temporal) throws Exception {
         super();
 
         this.coveredDateRange = coveredDateRange;
         this.dbClient = dbClient;
+        this.temporalMetadataMap = temporalMetadataMap;
+
+        this.initTimetableMap(ncAnimateConfig, temporal);
+    }
+
+    /**
+     * Create a FrameTimetableMap by streaming the temporal metadata of the input files from the database.
+     * The metadata documents are read one at a time from the database cursor and indexed
+     * in the timetable frames. Only the temporal metadata of the files used by a frame is kept in memory.
+     * @param ncAnimateConfig
+     * @param coveredDateRange
+     * @param dbClient
+     * @param temporalMetadataSource The database (TemporalMetadataLoader) or a snapshot file (TemporalMetadataSnapshot).
+     * @return
+     * @throws Exception
+     */
+    public static FrameTimetableMap create(
+            NcAnimateConfigBean ncAnimateConfig,
+            DateTimeRange coveredDateRange,
+            DatabaseClient dbClient,
+            TemporalMetadataSource temporalMetadataSource) throws Exception {
+
+        final FrameTimetableMap frameTimetableMap = FrameTimetableMap.createEmpty(ncAnimateConfig, coveredDateRange, dbClient);
+        temporalMetadataSource.stream(TemporalMetadataLoader.getVariableIdMap(ncAnimateConfig), true, new TemporalMetadataHandler() {
+            @Override
+            public void handle(TemporalMetadata temporalMetadata) {
+                frameTimetableMap.addTemporalMetadata(temporalMetadata);
+            }
+        });
+        return frameTimetableMap;
+    }
 
-        this.initTimetableMap(ncAnimateConfig);
+    /**
+     * Create a FrameTimetableMap with empty frames, filled with addTemporalMetadata.
+     * Used to fill several FrameTimetableMap with a single pass over the temporal metadata (see ProductTimetable).
+     */
+    static FrameTimetableMap createEmpty(
+            NcAnimateConfigBean ncAnimateConfig,
+            DateTimeRange coveredDateRange,
+            DatabaseClient dbClient) throws Exception {
+        return new FrameTimetableMap(ncAnimateConfig, coveredDateRange, dbClient, null, true);
     }
 
-    private void initTimetableMap(NcAnimateConfigBean ncAnimateConfig) throws Exception {
+    private void initTimetableMap(NcAnimateConfigBean ncAnimateConfig, boolean temporal) throws Exception {
         NcAnimateRenderBean render = ncAnimateConfig.getRender();
         if (render != null) {
             DateTimeZone timezone = render.getDateTimeZone();
@@ -79,7 +156,21 @@ public class FrameTimetableMap extends TreeMap<DateTimeRange, FrameTimetable> {
 
             // Fill the FrameTimetables with links to available data
             List<NcAnimatePanelBean> panels = ncAnimateConfig.getPanels();
-            if (panels != null) {
+            if (temporal) {
+                this.initTemporalIndex(panels, timezone);
+
+                if (this.temporalMetadataMap != null) {
+                    for (TemporalLayer temporalLayer : this.temporalLayers) {
+                        Map<String, TemporalMetadata> definitionMetadataMap = this.temporalMetadataMap.get(temporalLayer.definitionId);
+                        if (definitionMetadataMap != null) {
+                            for (TemporalMetadata fileMetadata : definitionMetadataMap.values()) {
+                                this.indexTemporalMetadata(temporalLayer, fileMetadata);
+                            }
+                        }
+                    }
+                }
+
+            } else if (panels != null) {
 
                 Map<String, Map<String, NetCDFMetadataBean>> netCDFMetadataMap =
                     NcAnimateConfigHelper.getValidNetCDFMetadataMap(
@@ -153,6 +244,128 @@ public class FrameTimetableMap extends TreeMap<DateTimeRange, FrameTimetable> {
         }
     }
 
+    private void initTemporalIndex(List<NcAnimatePanelBean> panels, DateTimeZone timezone) {
+        this.timezone = timezone;
+        this.frameIndex = new FrameIndex(this);
+        this.temporalLayers = new ArrayList<TemporalLayer>();
+        if (panels != null) {
+            for (NcAnimatePanelBean panel : panels) {
+                List<NcAnimateLayerBean> layers = panel.getLayers();
+                if (layers != null) {
+                    for (NcAnimateLayerBean layer : layers) {
+                        NcAnimateInputBean input = layer.getInput();
+                        if (input != null) {
+                            this.temporalLayers.add(new TemporalLayer(layer, input));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Add the time values of an input file to the timetable frames.
+     * Used to fill the timetable while streaming the temporal metadata from the database.
+     * The temporal metadata is only referenced by the timetable if at least one of its time values is used.
+     * @param fileMetadata
+     */
+    void addTemporalMetadata(TemporalMetadata fileMetadata) {
+        if (fileMetadata != null && this.temporalLayers != null) {
+            for (TemporalLayer temporalLayer : this.temporalLayers) {
+                if (temporalLayer.definitionId.equals(fileMetadata.getDefinitionId())) {
+                    this.indexTemporalMetadata(temporalLayer, fileMetadata);
+                }
+            }
+        }
+    }
+
+    /**
+     * Same as parseInput, using the temporal metadata of the input files.
+     * The full metadata is not loaded.
+     *
+     * The time values are read from the TimeAxis as milliseconds and compared with the
+     * frame end dates using primitives. A DateTime (in the render timezone) is only created
+     * for the time values which are added to the timetable.
+     * @param temporalLayer
+     * @param fileMetadata
+     */
+    private void indexTemporalMetadata(TemporalLayer temporalLayer, TemporalMetadata fileMetadata) {
+        VariableTemporalDomain temporalDomain = fileMetadata == null ? null : fileMetadata.getVariableTemporalDomain(temporalLayer.variableId);
+        if (temporalDomain == null) {
+            return;
+        }
+
+        TimeAxis timeAxis = temporalDomain.getTimeAxis();
+        if (timeAxis.isEmpty()) {
+            return;
+        }
+
+        String layerId = temporalLayer.layerId;
+        Period inputFilePeriod = temporalLayer.inputFilePeriod;
+        long inputFileDuration = temporalLayer.inputFileDuration;
+
+        if (inputFilePeriod != null) {
+            // Quick check, to skip files which are outside of the timetable
+            int firstFrameIdx = this.frameIndex.getFirstIndexEndingAfter(timeAxis.getMin());
+            if (firstFrameIdx >= this.frameIndex.size() ||
+                    this.frameIndex.getEndMillis(firstFrameIdx) > this.getInputFileEnd(timeAxis.getMax(), inputFilePeriod, inputFileDuration)) {
+                return;
+            }
+        }
+
+        int timeAxisSize = timeAxis.size();
+        for (int i=0; i<timeAxisSize; i++) {
+            long time = timeAxis.get(i);
+
+            if (inputFilePeriod == null) {
+                NetCDFMetadataFrame netCDFMetadataFrame = new NetCDFMetadataFrame(new DateTime(time, this.timezone), fileMetadata, temporalDomain);
+                for (FrameTimetable frameTimetable : this.values()) {
+                    frameTimetable.add(layerId, netCDFMetadataFrame);
+                }
+            } else {
+                long inputFileEnd = this.getInputFileEnd(time, inputFilePeriod, inputFileDuration);
+
+                // Same as fitLast: the end date of the timetable frame is in the input file frame
+                NetCDFMetadataFrame netCDFMetadataFrame = null;
+                for (int frameIdx = this.frameIndex.getFirstIndexEndingAfter(time);
+                        frameIdx < this.frameIndex.size() && this.frameIndex.getEndMillis(frameIdx) <= inputFileEnd;
+                        frameIdx++) {
+                    if (netCDFMetadataFrame == null) {
+                        netCDFMetadataFrame = new NetCDFMetadataFrame(new DateTime(time, this.timezone), fileMetadata, temporalDomain);
+                    }
+                    this.frameIndex.getFrameTimetable(frameIdx).add(layerId, netCDFMetadataFrame);
+                }
+            }
+        }
+    }
+
+    private long getInputFileEnd(long time, Period inputFilePeriod, long inputFileDuration) {
+        return inputFileDuration >= 0 ?
+                time + inputFileDuration :
+                new DateTime(time, this.timezone).plus(inputFilePeriod).getMillis();
+    }
+
+    private static Period getPeriod(TimeIncrement timeIncrement) {
+        if (timeIncrement == null) {
+            return null;
+        }
+        TimeIncrementUnit unit = timeIncrement.getUnit();
+        if (unit == null || TimeIncrementUnit.ETERNITY.equals(unit)) {
+            return null;
+        }
+        return timeIncrement.getPeriod();
+    }
+
+    private static long getFixedDuration(Period period) {
+        if (period == null ||
+                period.getYears() != 0 || period.getMonths() != 0 ||
+                period.getWeeks() != 0 || period.getDays() != 0) {
+            // Days are not always 24 hours long (daylight saving)
+            return -1;
+        }
+        return period.toStandardDuration().getMillis();
+    }
+
     // Put the netCDFMetadataFrame (file metadata + frame date) in the appropriate Timetable frame (date range)
     // Match first date
     // Select the frame from the input file that contains the video frame start date
@@ -211,6 +424,11 @@ public class FrameTimetableMap extends TreeMap<DateTimeRange, FrameTimetable> {
         return inputLastModifiedEntry;
     }
 
+    /**
+     * NOTE: This method loads the full metadata of the input files.
+     *     Use getInputLastModifiedByIdMap when the metadata is not needed.
+     * @return
+     */
     public Map<NetCDFMetadataBean, Long> getInputLastModifiedMap() {
         Map<NetCDFMetadataBean, Long> inputLastModifiedMap = new HashMap<NetCDFMetadataBean, Long>();
 
@@ -228,6 +446,86 @@ public class FrameTimetableMap extends TreeMap<DateTimeRange, FrameTimetable> {
         return inputLastModifiedMap;
     }
 
+    /**
+     * Same as getInputLastModifiedMap, with the input files identified by their metadata ID.
+     * The metadata ID is much cheaper to hash than the metadata bean, and it doesn't load the full metadata.
+     * @return Map of:
+     *     Key: NetCDF metadata ID
+     *     Value: Last modified timestamp of the input file
+     */
+    public Map<String, Long> getInputLastModifiedByIdMap() {
+        Map<String, Long> inputLastModifiedMap = new HashMap<String, Long>();
+
+        for (FrameTimetable frameTimetable : this.values()) {
+            for (NetCDFMetadataSet netCDFMetadataSet : frameTimetable.values()) {
+                NetCDFMetadataFrame netCDFMetadataFrame = netCDFMetadataSet.first();
+                String metadataId = netCDFMetadataFrame.getMetadataId();
+                if (!inputLastModifiedMap.containsKey(metadataId)) {
+                    inputLastModifiedMap.put(metadataId, netCDFMetadataFrame.getLastModified());
+                }
+            }
+        }
+
+        return inputLastModifiedMap;
+    }
+
+    /**
+     * Inverted index of the timetable: frames which are generated using each input file.
+     * Only the input file used to render the frame (the first of each NetCDFMetadataSet) is considered,
+     * same as getInputLastModifiedMap.
+     * @return Map of:
+     *     Key: NetCDF metadata ID
+     *     Value: Date range of the frames which are using the input file
+     */
+    public Map<String, SortedSet<DateTimeRange>> getFrameDateRangesByInputId() {
+        Map<String, SortedSet<DateTimeRange>> frameDateRangesMap = new HashMap<String, SortedSet<DateTimeRange>>();
+
+        for (Map.Entry<DateTimeRange, FrameTimetable> frameTimetableEntry : this.entrySet()) {
+            DateTimeRange frameDateRange = frameTimetableEntry.getKey();
+            for (NetCDFMetadataSet netCDFMetadataSet : frameTimetableEntry.getValue().values()) {
+                NetCDFMetadataFrame netCDFMetadataFrame = netCDFMetadataSet.first();
+                String metadataId = netCDFMetadataFrame.getMetadataId();
+
+                SortedSet<DateTimeRange> frameDateRanges = frameDateRangesMap.get(metadataId);
+                if (frameDateRanges == null) {
+                    frameDateRanges = new TreeSet<DateTimeRange>();
+                    frameDateRangesMap.put(metadataId, frameDateRanges);
+                }
+                frameDateRanges.add(frameDateRange);
+            }
+        }
+
+        return frameDateRangesMap;
+    }
+
+    /**
+     * Find the frames which needs to be re-generated because one of their input file
+     * was modified after the reference timestamp.
+     * Input files without last modified timestamp are considered modified.
+     * @param referenceLastModified Last modified timestamp of the output file (or frame) generated from this timetable.
+     * @return The date range of the stale frames. Empty set if all frames are up to date.
+     */
+    public SortedSet<DateTimeRange> getStaleFrames(long referenceLastModified) {
+        SortedSet<DateTimeRange> staleFrames = new TreeSet<DateTimeRange>();
+
+        Map<String, Long> inputLastModifiedMap = this.getInputLastModifiedByIdMap();
+        Map<String, SortedSet<DateTimeRange>> frameDateRangesMap = null;
+        for (Map.Entry<String, Long> inputLastModifiedEntry : inputLastModifiedMap.entrySet()) {
+            Long inputLastModified = inputLastModifiedEntry.getValue();
+            if (inputLastModified == null || inputLastModified > referenceLastModified) {
+                if (frameDateRangesMap == null) {
+                    frameDateRangesMap = this.getFrameDateRangesByInputId();
+                }
+                SortedSet<DateTimeRange> frameDateRanges = frameDateRangesMap.get(inputLastModifiedEntry.getKey());
+                if (frameDateRanges != null) {
+                    staleFrames.addAll(frameDateRanges);
+                }
+            }
+        }
+
+        return staleFrames;
+    }
+
     public JSONObject toJSON() {
         JSONObject json = new JSONObject();
 
@@ -250,4 +548,92 @@ public class FrameTimetableMap extends TreeMap<DateTimeRange, FrameTimetable> {
     public String toString() {
         return this.toJSON().toString(4);
     }
+
+    /**
+     * Layer using the temporal metadata, with the values needed to index the input files.
+     */
+    private static class TemporalLayer {
+        private final String layerId;
+        private final String definitionId;
+        private final String variableId;
+
+        // Null when the input file frames cover all time (see DateTimeRange.getDateTimeRange)
+        private final Period inputFilePeriod;
+        // Length of the input file frames in milliseconds, or -1 if it depends on the date (days, months, etc)
+        private final long inputFileDuration;
+
+        public TemporalLayer(NcAnimateLayerBean layer, NcAnimateInputBean input) {
+            NcAnimateNetCDFVariableBean variable = NcAnimateConfigHelper.getMostSignificantVariable(layer);
+
+            this.layerId = layer.getId().getValue();
+            this.definitionId = input.getId().getValue();
+            this.variableId = variable == null ? null : variable.getVariableId();
+            this.inputFilePeriod = FrameTimetableMap.getPeriod(input.getTimeIncrement());
+            this.inputFileDuration = FrameTimetableMap.getFixedDuration(this.inputFilePeriod);
+        }
+    }
+
+    /**
+     * Timetable frames sorted by end date, with the end dates as milliseconds.
+     * Used to find the frames matching an input time value with a binary search
+     * instead of iterating through every frames.
+     */
+    private static class FrameIndex {
+        private final long[] endMillis;
+        private final FrameTimetable[] frameTimetables;
+
+        public FrameIndex(Map<DateTimeRange, FrameTimetable> frameTimetableMap) {
+            int size = frameTimetableMap.size();
+            List<Map.Entry<DateTimeRange, FrameTimetable>> entries = new ArrayList<Map.Entry<DateTimeRange, FrameTimetable>>(frameTimetableMap.entrySet());
+            Collections.sort(entries, new Comparator<Map.Entry<DateTimeRange, FrameTimetable>>() {
+                @Override
+                public int compare(Map.Entry<DateTimeRange, FrameTimetable> o1, Map.Entry<DateTimeRange, FrameTimetable> o2) {
+                    return Long.compare(FrameIndex.getEndMillis(o1.getKey()), FrameIndex.getEndMillis(o2.getKey()));
+                }
+            });
+
+            this.endMillis = new long[size];
+            this.frameTimetables = new FrameTimetable[size];
+            for (int i=0; i<size; i++) {
+                Map.Entry<DateTimeRange, FrameTimetable> entry = entries.get(i);
+                this.endMillis[i] = FrameIndex.getEndMillis(entry.getKey());
+                this.frameTimetables[i] = entry.getValue();
+            }
+        }
+
+        // ALL_TIME has no end date. It only matches input files covering all time.
+        private static long getEndMillis(DateTimeRange dateTimeRange) {
+            DateTime endDate = dateTimeRange.getEndDate();
+            return endDate == null ? Long.MAX_VALUE : endDate.getMillis();
+        }
+
+        public int size() {
+            return this.endMillis.length;
+        }
+
+        public long getEndMillis(int index) {
+            return this.endMillis[index];
+        }
+
+        public FrameTimetable getFrameTimetable(int index) {
+            return this.frameTimetables[index];
+        }
+
+        /**
+         * @param millis
+         * @return The index of the first frame ending after millis, or size() if there is none.
+         */
+        public int getFirstIndexEndingAfter(long millis) {
+            int low = 0, high = this.endMillis.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (this.endMillis[mid] <= millis) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
 }
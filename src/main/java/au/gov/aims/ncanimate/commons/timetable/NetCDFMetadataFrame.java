@@ -12,11 +12,21 @@ import org.json.JSONObject;
 
 import java.util.Map;
 
+/**
+ * A frame of a NetCDF file (file metadata + frame date).
+ *
+ * The frame is created either from the full NetCDF metadata, or from the lightweight
+ * temporal metadata used to plan the timetables (see TemporalMetadata).
+ * In the later case, the full metadata is only loaded when getMetadata() is called.
+ */
 public class NetCDFMetadataFrame implements Comparable<NetCDFMetadataFrame> {
     private DateTime frameDateTime;
     private NetCDFMetadataBean metadata;
     private VariableMetadataBean mostSignificantVariableMetadata;
 
+    private TemporalMetadata temporalMetadata;
+    private VariableTemporalDomain mostSignificantVariableTemporalDomain;
+
     public NetCDFMetadataFrame(DateTime frameDateTime, NetCDFMetadataBean metadata, String mostSignificantVariableId) {
         this.frameDateTime = frameDateTime;
         this.metadata = metadata;
@@ -35,40 +45,103 @@ public class NetCDFMetadataFrame implements Comparable<NetCDFMetadataFrame> {
         this.mostSignificantVariableMetadata = mostSignificantVariableMetadata;
     }
 
+    public NetCDFMetadataFrame(DateTime frameDateTime, TemporalMetadata temporalMetadata, VariableTemporalDomain mostSignificantVariableTemporalDomain) {
+        this.frameDateTime = frameDateTime;
+        this.temporalMetadata = temporalMetadata;
+        this.mostSignificantVariableTemporalDomain = mostSignificantVariableTemporalDomain;
+    }
+
     public DateTime getFrameDateTime() {
         return this.frameDateTime;
     }
 
+    /**
+     * NOTE: If the frame was created from temporal metadata,
+     *     the full metadata is loaded the first time this method is called.
+     * @return The full metadata of the NetCDF file.
+     */
     public NetCDFMetadataBean getMetadata() {
+        if (this.metadata == null && this.temporalMetadata != null) {
+            return this.temporalMetadata.getMetadata();
+        }
         return this.metadata;
     }
 
+    /**
+     * @return The temporal metadata, or null if the frame was created from the full metadata.
+     */
+    public TemporalMetadata getTemporalMetadata() {
+        return this.temporalMetadata;
+    }
+
+    /**
+     * Same as getMetadata().getId(), without loading the full metadata.
+     * @return
+     */
+    public String getMetadataId() {
+        if (this.temporalMetadata != null) {
+            return this.temporalMetadata.getId();
+        }
+        return this.metadata == null ? null : this.metadata.getId();
+    }
+
+    /**
+     * Same as getMetadata().getLastModified(), without loading the full metadata.
+     * @return
+     */
+    public long getLastModified() {
+        if (this.temporalMetadata != null) {
+            return this.temporalMetadata.getLastModified();
+        }
+        return this.metadata == null ? 0 : this.metadata.getLastModified();
+    }
+
+    // The object identifying the NetCDF file. Same instance for all the frames of a file.
+    private Object getMetadataSource() {
+        return this.temporalMetadata != null ? this.temporalMetadata : this.metadata;
+    }
+
+    // The object identifying the temporal domain of the most significant variable
+    private Object getTemporalDomain() {
+        if (this.temporalMetadata != null) {
+            return this.mostSignificantVariableTemporalDomain;
+        }
+        return this.mostSignificantVariableMetadata == null ? null : this.mostSignificantVariableMetadata.getTemporalDomainBean();
+    }
+
+    private static DateTime getMinDate(Object temporalDomain) {
+        if (temporalDomain instanceof VariableTemporalDomain) {
+            return ((VariableTemporalDomain) temporalDomain).getMinDate();
+        }
+        return ((TemporalDomainBean) temporalDomain).getMinDate();
+    }
+
+    private static DateTime getMaxDate(Object temporalDomain) {
+        if (temporalDomain instanceof VariableTemporalDomain) {
+            return ((VariableTemporalDomain) temporalDomain).getMaxDate();
+        }
+        return ((TemporalDomainBean) temporalDomain).getMaxDate();
+    }
+
     @Override
     public int compareTo(NetCDFMetadataFrame o) {
         // Same instance or both null
-        if (this.metadata == o.metadata) {
+        Object metadata1 = this.getMetadataSource();
+        Object metadata2 = o.getMetadataSource();
+        if (metadata1 == metadata2) {
             return 0;
         }
 
         // Move null at the end
-        if (this.metadata == null) {
+        if (metadata1 == null) {
             return 1;
         }
-        if (o.metadata == null) {
+        if (metadata2 == null) {
             return -1;
         }
 
-        TemporalDomainBean tempDomain1 = null;
-        VariableMetadataBean variable1 = this.mostSignificantVariableMetadata;
-        if (variable1 != null) {
-            tempDomain1 = variable1.getTemporalDomainBean();
-        }
-
-        TemporalDomainBean tempDomain2 = null;
-        VariableMetadataBean variable2 = o.mostSignificantVariableMetadata;
-        if (variable2 != null) {
-            tempDomain2 = variable2.getTemporalDomainBean();
-        }
+        Object tempDomain1 = this.getTemporalDomain();
+        Object tempDomain2 = o.getTemporalDomain();
 
         // Same instance or both null
         // Can't return 0, they are not the same metadata, they just have the same temporal domain
@@ -84,8 +157,8 @@ public class NetCDFMetadataFrame implements Comparable<NetCDFMetadataFrame> {
             return -1;
         }
 
-        DateTime maxDate1 = tempDomain1.getMaxDate();
-        DateTime maxDate2 = tempDomain2.getMaxDate();
+        DateTime maxDate1 = NetCDFMetadataFrame.getMaxDate(tempDomain1);
+        DateTime maxDate2 = NetCDFMetadataFrame.getMaxDate(tempDomain2);
 
         if (maxDate1 != null && maxDate2 != null) {
             int cmp = maxDate1.compareTo(maxDate2);
@@ -97,8 +170,8 @@ public class NetCDFMetadataFrame implements Comparable<NetCDFMetadataFrame> {
             }
         }
 
-        DateTime minDate1 = tempDomain1.getMinDate();
-        DateTime minDate2 = tempDomain2.getMinDate();
+        DateTime minDate1 = NetCDFMetadataFrame.getMinDate(tempDomain1);
+        DateTime minDate2 = NetCDFMetadataFrame.getMinDate(tempDomain2);
 
         if (minDate1 != null && minDate2 != null) {
             int cmp = minDate1.compareTo(minDate2);
@@ -119,7 +192,7 @@ public class NetCDFMetadataFrame implements Comparable<NetCDFMetadataFrame> {
         JSONObject json = new JSONObject();
 
         json.put("frameDateTime", frameDateTime);
-        json.put("metadata", metadata.getId());
+        json.put("metadata", this.getMetadataId());
 
         return json;
     }
@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ncanimate.commons.timetable;
+
+import au.gov.aims.ncanimate.commons.NcAnimateGenerateFileBean;
+import org.json.JSONObject;
+
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * Estimated cost of generating an output file (video or map), see DryRunPlanner.
+ */
+public class OutputFileEstimate implements Comparable<OutputFileEstimate> {
+    private final NcAnimateGenerateFileBean generateFile;
+    private final String outputType; // "video" or "map"
+
+    private final int frameCount;
+    private final int layersPerFrame;
+    private final int netCDFLayerFrameCount;
+
+    // Key: NetCDF metadata ID
+    private final Set<String> inputIds;
+    private final long inputBytes;
+    private final int unknownInputSizeCount;
+
+    private final int regionCount;
+    private final int targetHeightCount;
+
+    private final long renderCount;
+    private final double estimatedSeconds;
+
+    public OutputFileEstimate(
+            NcAnimateGenerateFileBean generateFile,
+            String outputType,
+            int frameCount,
+            int layersPerFrame,
+            int netCDFLayerFrameCount,
+            Set<String> inputIds,
+            long inputBytes,
+            int unknownInputSizeCount,
+            int regionCount,
+            int targetHeightCount,
+            long renderCount,
+            double estimatedSeconds) {
+
+        this.generateFile = generateFile;
+        this.outputType = outputType;
+        this.frameCount = frameCount;
+        this.layersPerFrame = layersPerFrame;
+        this.netCDFLayerFrameCount = netCDFLayerFrameCount;
+        this.inputIds = inputIds == null ? Collections.<String>emptySet() : Collections.unmodifiableSet(inputIds);
+        this.inputBytes = inputBytes;
+        this.unknownInputSizeCount = unknownInputSizeCount;
+        this.regionCount = regionCount;
+        this.targetHeightCount = targetHeightCount;
+        this.renderCount = renderCount;
+        this.estimatedSeconds = estimatedSeconds;
+    }
+
+    public NcAnimateGenerateFileBean getGenerateFile() {
+        return this.generateFile;
+    }
+
+    public String getOutputType() {
+        return this.outputType;
+    }
+
+    /**
+     * @return Number of frames rendered for the output file, for each region and target height.
+     */
+    public int getFrameCount() {
+        return this.frameCount;
+    }
+
+    /**
+     * @return Number of layers rendered in each frame, for all panels (including static layers).
+     */
+    public int getLayersPerFrame() {
+        return this.layersPerFrame;
+    }
+
+    /**
+     * @return Number of NetCDF layers with data, summed over all the frames.
+     */
+    public int getNetCDFLayerFrameCount() {
+        return this.netCDFLayerFrameCount;
+    }
+
+    public Set<String> getInputIds() {
+        return this.inputIds;
+    }
+
+    public int getInputCount() {
+        return this.inputIds.size();
+    }
+
+    /**
+     * @return Sum of the size of the input files, in bytes.
+     *     Input files with unknown size are not counted (see getUnknownInputSizeCount).
+     */
+    public long getInputBytes() {
+        return this.inputBytes;
+    }
+
+    public int getUnknownInputSizeCount() {
+        return this.unknownInputSizeCount;
+    }
+
+    public int getRegionCount() {
+        return this.regionCount;
+    }
+
+    public int getTargetHeightCount() {
+        return this.targetHeightCount;
+    }
+
+    /**
+     * @return Number of layer renders: frames x layers per frame x regions x target heights.
+     */
+    public long getRenderCount() {
+        return this.renderCount;
+    }
+
+    public double getEstimatedSeconds() {
+        return this.estimatedSeconds;
+    }
+
+    /**
+     * Most expensive output files first.
+     * @param o
+     * @return
+     */
+    @Override
+    public int compareTo(OutputFileEstimate o) {
+        if (this == o) {
+            return 0;
+        }
+        if (o == null) {
+            return -1;
+        }
+
+        int cmp = Double.compare(o.estimatedSeconds, this.estimatedSeconds);
+        if (cmp != 0) {
+            return cmp;
+        }
+
+        String thisId = this.generateFile == null ? null : this.generateFile.getFileId();
+        String otherId = o.generateFile == null ? null : o.generateFile.getFileId();
+        if (thisId == null) {
+            return otherId == null ? 0 : 1;
+        }
+        return otherId == null ? -1 : thisId.compareTo(otherId);
+    }
+
+    public JSONObject toJSON() {
+        JSONObject json = new JSONObject();
+
+        if (this.generateFile != null) {
+            json.put("definitionId", this.generateFile.getDefinitionId());
+            json.put("fileId", this.generateFile.getFileId());
+            DateTimeRange dateRange = this.generateFile.getDateRange();
+            if (dateRange != null) {
+                json.put("dateRange", dateRange.toJSON());
+            }
+        }
+        json.put("outputType", this.outputType);
+        json.put("frameCount", this.frameCount);
+        json.put("layersPerFrame", this.layersPerFrame);
+        json.put("netCDFLayerFrameCount", this.netCDFLayerFrameCount);
+        json.put("inputCount", this.getInputCount());
+        json.put("inputBytes", this.inputBytes);
+        json.put("unknownInputSizeCount", this.unknownInputSizeCount);
+        json.put("regionCount", this.regionCount);
+        json.put("targetHeightCount", this.targetHeightCount);
+        json.put("renderCount", this.renderCount);
+        json.put("estimatedSeconds", this.estimatedSeconds);
+
+        return json;
+    }
+
+    @Override
+    public String toString() {
+        return this.toJSON().toString(4);
+    }
+}
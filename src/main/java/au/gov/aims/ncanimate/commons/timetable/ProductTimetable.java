@@ -36,6 +36,7 @@ import java.net.URI;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -63,6 +64,9 @@ public class ProductTimetable {
     private DatabaseClient dbClient;
     private NcAnimateConfigBean ncAnimateConfig;
 
+    // Source used to stream the temporal metadata of the input files, or null to use the full NetCDF metadata
+    private TemporalMetadataSource temporalMetadataSource;
+
     private TimeIncrement mapTimeIncrement;
     private TreeMap<DateTimeRange, List<FrameTimetableMap>> mapFrames;
 
@@ -70,15 +74,40 @@ public class ProductTimetable {
     private TreeMap<DateTimeRange, List<FrameTimetableMap>> videoFrames;
 
     public ProductTimetable(NcAnimateConfigBean ncAnimateConfig, DatabaseClient dbClient) throws Exception {
+        this(ncAnimateConfig, dbClient, null);
+    }
+
+    /**
+     * Plan the product timetable using the temporal metadata of the input files.
+     * The full metadata of an input file is only loaded when a frame using it is rendered
+     * (see NetCDFMetadataFrame.getMetadata()).
+     *
+     * The temporal metadata is streamed twice: once to find the date range
+     * of the input files (without the time values), and once to fill all the frame timetables.
+     * Input files which are not used by any frame are not kept in memory.
+     * @param ncAnimateConfig
+     * @param dbClient
+     * @param temporalMetadataSource The source of the temporal metadata: the database (TemporalMetadataLoader)
+     *     or a snapshot file (TemporalMetadataSnapshot), or null to use the full NetCDF metadata.
+     *     When planning from a snapshot file, the dbClient can be null. The existing output files
+     *     are not looked up in the database; every output file is returned as a file to generate.
+     * @throws Exception
+     */
+    public ProductTimetable(NcAnimateConfigBean ncAnimateConfig, DatabaseClient dbClient, TemporalMetadataSource temporalMetadataSource) throws Exception {
         this.mapFrames = new TreeMap<DateTimeRange, List<FrameTimetableMap>>();
         this.videoFrames = new TreeMap<DateTimeRange, List<FrameTimetableMap>>();
 
         this.dbClient = dbClient;
         this.ncAnimateConfig = ncAnimateConfig;
+        this.temporalMetadataSource = temporalMetadataSource;
 
         this.init();
     }
 
+    public NcAnimateConfigBean getNcAnimateConfig() {
+        return this.ncAnimateConfig;
+    }
+
     public TimeIncrement getMapTimeIncrement() {
         return this.mapTimeIncrement;
     }
@@ -195,13 +224,13 @@ public class ProductTimetable {
 
                         if (isMapEternity) {
                             DateTimeRange mapFileDateTimeRange = DateTimeRange.ALL_TIME;
-                            this.addMapFrameTimetable(mapFileDateTimeRange, new FrameTimetableMap(this.ncAnimateConfig, mapFileDateTimeRange, this.dbClient), focusLayerIdSet);
+                            this.addMapFrameTimetable(mapFileDateTimeRange, this.createFrameTimetableMap(mapFileDateTimeRange), focusLayerIdSet);
                         } else {
                             DateTimeRange mapFileDateTimeRange = DateTimeRange.create(startDate, this.nextDateTime(startDate, endDate, this.mapTimeIncrement));
 
                             do {
                                 if (firstDate.compareTo(mapFileDateTimeRange.getEndDate()) < 0) {
-                                    this.addMapFrameTimetable(mapFileDateTimeRange, new FrameTimetableMap(this.ncAnimateConfig, mapFileDateTimeRange, this.dbClient), focusLayerIdSet);
+                                    this.addMapFrameTimetable(mapFileDateTimeRange, this.createFrameTimetableMap(mapFileDateTimeRange), focusLayerIdSet);
                                 }
 
                                 mapFileDateTimeRange = mapFileDateTimeRange.next(this.mapTimeIncrement);
@@ -217,7 +246,7 @@ public class ProductTimetable {
 
                         if (isVideoEternity) {
                             DateTimeRange videoFileDateTimeRange = DateTimeRange.ALL_TIME;
-                            this.addVideoFrameTimetable(videoFileDateTimeRange, new FrameTimetableMap(this.ncAnimateConfig, videoFileDateTimeRange, this.dbClient), focusLayerIdSet);
+                            this.addVideoFrameTimetable(videoFileDateTimeRange, this.createFrameTimetableMap(videoFileDateTimeRange), focusLayerIdSet);
                         } else {
                             DateTimeRange videoFileDateTimeRange = DateTimeRange.create(startDate, this.nextDateTime(startDate, endDate, this.videoTimeIncrement));
                             do {
@@ -234,7 +263,7 @@ public class ProductTimetable {
 
                                     DateTimeRange fixedVideoFileDateTimeRange = DateTimeRange.create(fixedStartDate, fixedEndDate);
 
-                                    this.addVideoFrameTimetable(fixedVideoFileDateTimeRange, new FrameTimetableMap(this.ncAnimateConfig, fixedVideoFileDateTimeRange, this.dbClient), focusLayerIdSet);
+                                    this.addVideoFrameTimetable(fixedVideoFileDateTimeRange, this.createFrameTimetableMap(fixedVideoFileDateTimeRange), focusLayerIdSet);
                                 }
 
                                 videoFileDateTimeRange = videoFileDateTimeRange.next(this.videoTimeIncrement);
@@ -244,11 +273,69 @@ public class ProductTimetable {
                             } while (videoFileDateTimeRange.getStartDate().compareTo(endDate) < 0);
                         }
                     }
+
+                    if (this.temporalMetadataSource != null) {
+                        this.fillTemporalFrameTimetables(focusLayerIdSet);
+                    }
                 }
             }
         }
     }
 
+    private FrameTimetableMap createFrameTimetableMap(DateTimeRange coveredDateRange) throws Exception {
+        if (this.temporalMetadataSource != null) {
+            // Filled later, see fillTemporalFrameTimetables
+            return FrameTimetableMap.createEmpty(this.ncAnimateConfig, coveredDateRange, this.dbClient);
+        }
+        return new FrameTimetableMap(this.ncAnimateConfig, coveredDateRange, this.dbClient);
+    }
+
+    /**
+     * Fill all the frame timetables with a single pass over the temporal metadata of the input files,
+     * then remove the ones which doesn't contain data.
+     * @param focusLayerIdSet
+     * @throws Exception
+     */
+    private void fillTemporalFrameTimetables(Set<String> focusLayerIdSet) throws Exception {
+        final List<FrameTimetableMap> frameTimetableMaps = new ArrayList<FrameTimetableMap>();
+        for (List<FrameTimetableMap> mapFrameTimetableList : this.mapFrames.values()) {
+            frameTimetableMaps.addAll(mapFrameTimetableList);
+        }
+        for (List<FrameTimetableMap> videoFrameTimetableList : this.videoFrames.values()) {
+            frameTimetableMaps.addAll(videoFrameTimetableList);
+        }
+
+        if (!frameTimetableMaps.isEmpty()) {
+            this.temporalMetadataSource.stream(TemporalMetadataLoader.getVariableIdMap(this.ncAnimateConfig), true, new TemporalMetadataHandler() {
+                @Override
+                public void handle(TemporalMetadata temporalMetadata) {
+                    for (FrameTimetableMap frameTimetableMap : frameTimetableMaps) {
+                        frameTimetableMap.addTemporalMetadata(temporalMetadata);
+                    }
+                }
+            });
+        }
+
+        this.removeRejectedFrameTimetables(this.mapFrames, focusLayerIdSet);
+        this.removeRejectedFrameTimetables(this.videoFrames, focusLayerIdSet);
+    }
+
+    private void removeRejectedFrameTimetables(Map<DateTimeRange, List<FrameTimetableMap>> productFrames, Set<String> focusLayerIdSet) {
+        Iterator<List<FrameTimetableMap>> productFramesIterator = productFrames.values().iterator();
+        while (productFramesIterator.hasNext()) {
+            List<FrameTimetableMap> frameTimetableList = productFramesIterator.next();
+            Iterator<FrameTimetableMap> frameTimetableIterator = frameTimetableList.iterator();
+            while (frameTimetableIterator.hasNext()) {
+                if (!this.acceptProductFrameTimetable(frameTimetableIterator.next(), focusLayerIdSet)) {
+                    frameTimetableIterator.remove();
+                }
+            }
+            if (frameTimetableList.isEmpty()) {
+                productFramesIterator.remove();
+            }
+        }
+    }
+
     private DateTime nextDateTime(DateTime startDate, DateTime endDate, TimeIncrement timeIncrement) {
         DateTime nextDate = startDate == null ? null : startDate.plus(timeIncrement.getPeriod());
 
@@ -265,7 +352,8 @@ public class ProductTimetable {
 
     private void addMapFrameTimetable(DateTimeRange mapFileDateTimeRange, FrameTimetableMap mapFrameTimetable, Set<String> focusLayerIdSet) {
         // Ignore maps that doesn't contains data
-        if (this.acceptProductFrameTimetable(mapFrameTimetable, focusLayerIdSet)) {
+        // NOTE: With the temporal metadata, the frame timetables are still empty, see fillTemporalFrameTimetables
+        if (this.temporalMetadataSource != null || this.acceptProductFrameTimetable(mapFrameTimetable, focusLayerIdSet)) {
             List<FrameTimetableMap> mapFrameTimetableList = this.mapFrames.get(mapFileDateTimeRange);
             if (mapFrameTimetableList == null) {
                 mapFrameTimetableList = new ArrayList<FrameTimetableMap>();
@@ -278,7 +366,8 @@ public class ProductTimetable {
 
     private void addVideoFrameTimetable(DateTimeRange videoFileDateTimeRange, FrameTimetableMap videoFrameTimetable, Set<String> focusLayerIdSet) {
         // Ignore videos that has no frame containing data
-        if (this.acceptProductFrameTimetable(videoFrameTimetable, focusLayerIdSet)) {
+        // NOTE: With the temporal metadata, the frame timetables are still empty, see fillTemporalFrameTimetables
+        if (this.temporalMetadataSource != null || this.acceptProductFrameTimetable(videoFrameTimetable, focusLayerIdSet)) {
             List<FrameTimetableMap> videoFrameTimetableList = this.videoFrames.get(videoFileDateTimeRange);
             if (videoFrameTimetableList == null) {
                 videoFrameTimetableList = new ArrayList<FrameTimetableMap>();
@@ -316,6 +405,10 @@ public class ProductTimetable {
      * @return
      */
     private DateTimeRange getInputDateTimeRange(Set<String> focusDefinitionIdSet) throws Exception {
+        if (this.temporalMetadataSource != null) {
+            return this.getTemporalInputDateTimeRange(focusDefinitionIdSet);
+        }
+
         DateTime absoluteMinDate = null, absoluteMaxDate = null;
         Map<String, Map<String, NetCDFMetadataBean>> netCDFMetadataMap =
                 NcAnimateConfigHelper.getValidNetCDFMetadataMap(this.ncAnimateConfig, new MetadataHelper(this.dbClient, CacheStrategy.DISK));
@@ -361,6 +454,44 @@ public class ProductTimetable {
         return null;
     }
 
+    /**
+     * Same as getInputDateTimeRange, using the temporal metadata of the input files.
+     * NOTE: The temporal metadata only contains the most significant variable of each layer.
+     * @return
+     */
+    private DateTimeRange getTemporalInputDateTimeRange(Set<String> focusDefinitionIdSet) throws Exception {
+        // Check if the metadata should be considered (aka is used by focus layers)
+        Map<String, Set<String>> variableIdMap = TemporalMetadataLoader.getVariableIdMap(this.ncAnimateConfig);
+        if (!focusDefinitionIdSet.isEmpty()) {
+            variableIdMap.keySet().retainAll(focusDefinitionIdSet);
+        }
+
+        // Only the min and max dates are needed, the time values are not loaded
+        final DateTime[] absoluteDates = new DateTime[2];
+        this.temporalMetadataSource.stream(variableIdMap, false, new TemporalMetadataHandler() {
+            @Override
+            public void handle(TemporalMetadata metadata) {
+                for (VariableTemporalDomain temporalDomain : metadata.getVariableTemporalDomainMap().values()) {
+                    DateTime minDate = temporalDomain.getMinDate();
+                    DateTime maxDate = temporalDomain.getMaxDate();
+
+                    if (minDate != null && (absoluteDates[0] == null || absoluteDates[0].compareTo(minDate) > 0)) {
+                        absoluteDates[0] = minDate;
+                    }
+                    if (maxDate != null && (absoluteDates[1] == null || absoluteDates[1].compareTo(maxDate) < 0)) {
+                        absoluteDates[1] = maxDate;
+                    }
+                }
+            }
+        });
+        DateTime absoluteMinDate = absoluteDates[0], absoluteMaxDate = absoluteDates[1];
+
+        if (absoluteMinDate != null && absoluteMaxDate != null) {
+            return DateTimeRange.create(absoluteMinDate, absoluteMaxDate);
+        }
+        return null;
+    }
+
     /**
      * Get a list of output files that will be generated from the list of frames
      * @return
@@ -416,7 +547,8 @@ public class ProductTimetable {
                 fileIdPrefix = "";
             }
 
-            MetadataHelper metadataHelper = new MetadataHelper(this.dbClient, CacheStrategy.DISK);
+            // No database when planning from a snapshot file (see TemporalMetadataSnapshot)
+            MetadataHelper metadataHelper = this.dbClient == null ? null : new MetadataHelper(this.dbClient, CacheStrategy.DISK);
 
             GeneratorContext context = new GeneratorContext(this.ncAnimateConfig);
 
@@ -481,7 +613,7 @@ public class ProductTimetable {
             definitionId = this.ncAnimateConfig.getId().getValue();
         }
 
-        NcAnimateOutputFileMetadataBean outputFile = metadataHelper.getNcAnimateProductMetadata(definitionId, fileId);
+        NcAnimateOutputFileMetadataBean outputFile = metadataHelper == null ? null : metadataHelper.getNcAnimateProductMetadata(definitionId, fileId);
         DateTime startDate = dateRange.getStartDate();
         DateTime endDate = dateRange.getEndDate();
 
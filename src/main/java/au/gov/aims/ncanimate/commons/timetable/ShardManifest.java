@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ncanimate.commons.timetable;
+
+import au.gov.aims.ncanimate.commons.NcAnimateGenerateFileBean;
+import au.gov.aims.ncanimate.commons.download.SingleFlightDownloader;
+import org.apache.log4j.Logger;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Assignment of the output files to the shards (worker nodes), created by the ShardPartitioner.
+ * Each worker loads the manifest and only generates the output files of its shard.
+ *
+ * JSON format (the output files of a shard are sorted by key):
+ * {
+ *     "shardCount": 2,
+ *     "shards": [
+ *         {
+ *             "index": 0,
+ *             "estimatedSeconds": 1234.5,
+ *             "outputFiles": [
+ *                 { "key": "gbr4_v2_temp-wind-salt-current/gbr4_v2_temp-wind-salt-current_video_yearly_2010", "estimatedSeconds": 1234.5 }
+ *             ]
+ *         },
+ *         ...
+ *     ]
+ * }
+ */
+public class ShardManifest {
+    private static final Logger LOGGER = Logger.getLogger(ShardManifest.class);
+
+    private final int shardCount;
+
+    // Index: Shard index
+    // Key: Output file key (see getOutputFileKey)
+    // Value: Estimated seconds
+    private final List<SortedMap<String, Double>> shards;
+    private final double[] shardCosts;
+
+    // Key: Output file key
+    // Value: Shard index
+    private final Map<String, Integer> shardIndexMap;
+
+    public ShardManifest(int shardCount) {
+        if (shardCount <= 0) {
+            throw new IllegalArgumentException(String.format("Invalid number of shards: %d", shardCount));
+        }
+        this.shardCount = shardCount;
+        this.shards = new ArrayList<SortedMap<String, Double>>(shardCount);
+        for (int i=0; i<shardCount; i++) {
+            this.shards.add(new TreeMap<String, Double>());
+        }
+        this.shardCosts = new double[shardCount];
+        this.shardIndexMap = new HashMap<String, Integer>();
+    }
+
+    /**
+     * @param generateFile
+     * @return The key identifying the output file in the manifest: definitionId/fileId
+     */
+    public static String getOutputFileKey(NcAnimateGenerateFileBean generateFile) {
+        return generateFile.getDefinitionId() + "/" + generateFile.getFileId();
+    }
+
+    public static ShardManifest load(File manifestFile) throws IOException {
+        String content = new String(Files.readAllBytes(manifestFile.toPath()), StandardCharsets.UTF_8);
+        return ShardManifest.parse(new JSONObject(content));
+    }
+
+    public static ShardManifest parse(JSONObject json) {
+        ShardManifest manifest = new ShardManifest(json.getInt("shardCount"));
+
+        JSONArray jsonShards = json.optJSONArray("shards");
+        if (jsonShards != null) {
+            for (int i=0; i<jsonShards.length(); i++) {
+                JSONObject jsonShard = jsonShards.getJSONObject(i);
+                int shardIndex = jsonShard.getInt("index");
+                JSONArray jsonOutputFiles = jsonShard.optJSONArray("outputFiles");
+                if (jsonOutputFiles != null) {
+                    for (int j=0; j<jsonOutputFiles.length(); j++) {
+                        JSONObject jsonOutputFile = jsonOutputFiles.getJSONObject(j);
+                        manifest.add(shardIndex, jsonOutputFile.getString("key"), jsonOutputFile.optDouble("estimatedSeconds", 0));
+                    }
+                }
+            }
+        }
+
+        return manifest;
+    }
+
+    void add(int shardIndex, OutputFileEstimate estimate) {
+        this.add(shardIndex, ShardManifest.getOutputFileKey(estimate.getGenerateFile()), estimate.getEstimatedSeconds());
+    }
+
+    private void add(int shardIndex, String key, double estimatedSeconds) {
+        if (shardIndex < 0 || shardIndex >= this.shardCount) {
+            throw new IllegalArgumentException(String.format("Invalid shard index %d. Number of shards: %d", shardIndex, this.shardCount));
+        }
+        Integer previousShardIndex = this.shardIndexMap.get(key);
+        if (previousShardIndex != null) {
+            throw new IllegalArgumentException(String.format("Output file %s is already assigned to shard %d", key, previousShardIndex));
+        }
+
+        this.shards.get(shardIndex).put(key, estimatedSeconds);
+        this.shardCosts[shardIndex] += estimatedSeconds;
+        this.shardIndexMap.put(key, shardIndex);
+    }
+
+    // Lowest total cost, lowest index first
+    int getLeastLoadedShardIndex() {
+        int leastLoadedIndex = 0;
+        for (int i=1; i<this.shardCount; i++) {
+            if (this.shardCosts[i] < this.shardCosts[leastLoadedIndex]) {
+                leastLoadedIndex = i;
+            }
+        }
+        return leastLoadedIndex;
+    }
+
+    public int getShardCount() {
+        return this.shardCount;
+    }
+
+    public double getShardCost(int shardIndex) {
+        return this.shardCosts[shardIndex];
+    }
+
+    /**
+     * @param shardIndex
+     * @return The keys of the output files of the shard, sorted.
+     */
+    public List<String> getOutputFileKeys(int shardIndex) {
+        return Collections.unmodifiableList(new ArrayList<String>(this.shards.get(shardIndex).keySet()));
+    }
+
+    /**
+     * @param generateFile
+     * @return The index of the shard of the output file, or null if the output file is not in the manifest.
+     */
+    public Integer getShardIndex(NcAnimateGenerateFileBean generateFile) {
+        return this.shardIndexMap.get(ShardManifest.getOutputFileKey(generateFile));
+    }
+
+    /**
+     * @param shardIndex
+     * @param generateFile
+     * @return True if the output file should be generated by the worker of the shard.
+     */
+    public boolean isAssigned(int shardIndex, NcAnimateGenerateFileBean generateFile) {
+        Integer outputFileShardIndex = this.getShardIndex(generateFile);
+        return outputFileShardIndex != null && outputFileShardIndex == shardIndex;
+    }
+
+    /**
+     * Write the manifest in a temporary file, then move it over the manifest file.
+     * @param manifestFile
+     * @throws IOException
+     */
+    public void save(File manifestFile) throws IOException {
+        File tmpFile = SingleFlightDownloader.getTemporaryFile(manifestFile);
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(tmpFile.toPath(), StandardCharsets.UTF_8)) {
+                writer.write(this.toJSON().toString(4));
+            }
+            SingleFlightDownloader.moveAtomically(tmpFile, manifestFile);
+        } finally {
+            if (tmpFile.exists() && !tmpFile.delete()) {
+                LOGGER.warn(String.format("Could not delete the temporary shard manifest file: %s", tmpFile));
+            }
+        }
+    }
+
+    public JSONObject toJSON() {
+        JSONArray jsonShards = new JSONArray();
+        for (int i=0; i<this.shardCount; i++) {
+            JSONArray jsonOutputFiles = new JSONArray();
+            for (Map.Entry<String, Double> outputFileEntry : this.shards.get(i).entrySet()) {
+                jsonOutputFiles.put(new JSONObject()
+                        .put("key", outputFileEntry.getKey())
+                        .put("estimatedSeconds", outputFileEntry.getValue()));
+            }
+
+            jsonShards.put(new JSONObject()
+                    .put("index", i)
+                    .put("estimatedSeconds", this.shardCosts[i])
+                    .put("outputFiles", jsonOutputFiles));
+        }
+
+        return new JSONObject()
+                .put("shardCount", this.shardCount)
+                .put("shards", jsonShards);
+    }
+
+    String getShardCostsString() {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i=0; i<this.shardCount; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(String.format(Locale.ENGLISH, "%.1f", this.shardCosts[i]));
+        }
+        return sb.append("]").toString();
+    }
+
+    @Override
+    public String toString() {
+        return this.toJSON().toString(4);
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ncanimate.commons.timetable;
+
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Assign output files to N shards (worker nodes), using the estimates of the DryRunPlanner.
+ *
+ * 1. Output files sharing input files are grouped together (union-find on the input file IDs),
+ *     so each input file is downloaded by as few workers as possible.
+ * 2. The groups are assigned to the shards, most expensive group first,
+ *     each group going to the shard with the lowest total cost (longest processing time first).
+ *
+ * A group which costs more than a shard should (total cost / number of shards) can't be balanced.
+ * It's split into chunks costing about as much as a shard should. Each chunk contains consecutive
+ * output files (in key order, which is usually chronological), so output files sharing input files
+ * with their neighbours stay together and most input files are only downloaded by one or two workers.
+ *
+ * The result only depends on the estimates (not on their order), so every worker computing the
+ * partition gets the same manifest.
+ */
+public class ShardPartitioner {
+    private static final Logger LOGGER = Logger.getLogger(ShardPartitioner.class);
+
+    private ShardPartitioner() {}
+
+    /**
+     * @param estimates Estimates of the output files. Each output file (definition ID and file ID) must only have one estimate.
+     * @param shardCount
+     * @return
+     * @throws IllegalArgumentException If the number of shards is invalid, or if an output file has more than one estimate.
+     */
+    public static ShardManifest partition(List<OutputFileEstimate> estimates, int shardCount) {
+        if (shardCount <= 0) {
+            throw new IllegalArgumentException(String.format("Invalid number of shards: %d", shardCount));
+        }
+
+        // Sort the output files by key, to make the partition independent of the order of the estimates
+        List<OutputFileEstimate> sortedEstimates = new ArrayList<OutputFileEstimate>();
+        Map<String, OutputFileEstimate> estimateMap = new TreeMap<String, OutputFileEstimate>();
+        if (estimates != null) {
+            for (OutputFileEstimate estimate : estimates) {
+                if (estimate != null && estimate.getGenerateFile() != null) {
+                    String key = ShardManifest.getOutputFileKey(estimate.getGenerateFile());
+                    if (estimateMap.put(key, estimate) != null) {
+                        // The partition would depend on which duplicate comes last
+                        throw new IllegalArgumentException(String.format("Duplicate estimate for output file: %s", key));
+                    }
+                }
+            }
+        }
+        sortedEstimates.addAll(estimateMap.values());
+
+        // Group the output files sharing input files
+        int[] parents = new int[sortedEstimates.size()];
+        for (int i=0; i<parents.length; i++) {
+            parents[i] = i;
+        }
+        // Key: Input ID
+        // Value: Index of the first output file using it
+        Map<String, Integer> inputOwners = new HashMap<String, Integer>();
+        for (int i=0; i<sortedEstimates.size(); i++) {
+            for (String inputId : sortedEstimates.get(i).getInputIds()) {
+                Integer owner = inputOwners.get(inputId);
+                if (owner == null) {
+                    inputOwners.put(inputId, i);
+                } else {
+                    ShardPartitioner.union(parents, owner, i);
+                }
+            }
+        }
+
+        // Key: Index of the root of the group (its first output file)
+        // Value: Output files of the group, in key order
+        Map<Integer, Group> groupMap = new TreeMap<Integer, Group>();
+        double totalCost = 0;
+        for (int i=0; i<sortedEstimates.size(); i++) {
+            int root = ShardPartitioner.find(parents, i);
+            Group group = groupMap.get(root);
+            if (group == null) {
+                group = new Group();
+                groupMap.put(root, group);
+            }
+            group.add(sortedEstimates.get(i));
+            totalCost += sortedEstimates.get(i).getEstimatedSeconds();
+        }
+
+        // Split the groups which can't fit in a shard
+        double shardTargetCost = totalCost / shardCount;
+        List<Group> groups = new ArrayList<Group>();
+        int splitGroupCount = 0;
+        for (Group group : groupMap.values()) {
+            if (shardCount > 1 && group.estimates.size() > 1 && group.cost > shardTargetCost) {
+                splitGroupCount++;
+                groups.addAll(ShardPartitioner.split(group, shardTargetCost));
+            } else {
+                groups.add(group);
+            }
+        }
+
+        // Longest processing time first. Ties are broken using the order of the output file keys.
+        Collections.sort(groups, new Comparator<Group>() {
+            @Override
+            public int compare(Group o1, Group o2) {
+                int cmp = Double.compare(o2.cost, o1.cost);
+                if (cmp != 0) {
+                    return cmp;
+                }
+                return o1.getFirstKey().compareTo(o2.getFirstKey());
+            }
+        });
+
+        ShardManifest manifest = new ShardManifest(shardCount);
+        for (Group group : groups) {
+            int shardIndex = manifest.getLeastLoadedShardIndex();
+            for (OutputFileEstimate estimate : group.estimates) {
+                manifest.add(shardIndex, estimate);
+            }
+        }
+
+        LOGGER.info(String.format("%d output file(s) in %d group(s) assigned to %d shard(s). %d group(s) split. Estimated cost per shard: %s",
+                sortedEstimates.size(), groupMap.size(), shardCount, splitGroupCount, manifest.getShardCostsString()));
+
+        return manifest;
+    }
+
+    /**
+     * Split a group into chunks of consecutive output files, each costing about the target cost.
+     * A chunk is closed when adding the next output file would bring it further from the target cost.
+     * @param group
+     * @param targetCost
+     * @return
+     */
+    private static List<Group> split(Group group, double targetCost) {
+        List<Group> chunks = new ArrayList<Group>();
+        Group chunk = new Group();
+        for (OutputFileEstimate estimate : group.estimates) {
+            double cost = estimate.getEstimatedSeconds();
+            if (!chunk.estimates.isEmpty() && chunk.cost + cost - targetCost > targetCost - chunk.cost) {
+                chunks.add(chunk);
+                chunk = new Group();
+            }
+            chunk.add(estimate);
+        }
+        if (!chunk.estimates.isEmpty()) {
+            chunks.add(chunk);
+        }
+        return chunks;
+    }
+
+    private static int find(int[] parents, int index) {
+        int root = index;
+        while (parents[root] != root) {
+            root = parents[root];
+        }
+        // Path compression
+        while (parents[index] != root) {
+            int next = parents[index];
+            parents[index] = root;
+            index = next;
+        }
+        return root;
+    }
+
+    // The smallest index becomes the root, so the groups are ordered by their first output file
+    private static void union(int[] parents, int index1, int index2) {
+        int root1 = ShardPartitioner.find(parents, index1);
+        int root2 = ShardPartitioner.find(parents, index2);
+        if (root1 < root2) {
+            parents[root2] = root1;
+        } else if (root2 < root1) {
+            parents[root1] = root2;
+        }
+    }
+
+    private static class Group {
+        private final List<OutputFileEstimate> estimates;
+        private double cost;
+
+        public Group() {
+            this.estimates = new ArrayList<OutputFileEstimate>();
+            this.cost = 0;
+        }
+
+        public void add(OutputFileEstimate estimate) {
+            this.estimates.add(estimate);
+            this.cost += estimate.getEstimatedSeconds();
+        }
+
+        public String getFirstKey() {
+            return ShardManifest.getOutputFileKey(this.estimates.get(0).getGenerateFile());
+        }
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ncanimate.commons.timetable;
+
+import au.gov.aims.ereefs.bean.metadata.netcdf.NetCDFMetadataBean;
+import au.gov.aims.ereefs.helper.MetadataHelper;
+import org.bson.Document;
+import org.joda.time.DateTime;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Lightweight metadata of a NetCDF file, containing only what the timetables need:
+ * the last modified timestamp, the checksum and the temporal domain of the variables used by the product.
+ *
+ * The full NetCDFMetadataBean (with all the variables, attributes and spatial domains)
+ * is loaded when it's first requested (see getMetadata()), typically when a frame is rendered.
+ * It's loaded once per file, and shared by all the frames using the file.
+ */
+public class TemporalMetadata {
+    // Same parser as DateTime.parse(String)
+    private static final DateTimeFormatter ISO_DATE_TIME_PARSER = ISODateTimeFormat.dateTimeParser().withOffsetParsed();
+
+    private final String id;
+    private final String definitionId;
+    private final String datasetId;
+    private final long lastModified;
+    private final String checksum;
+
+    // Key: Variable ID
+    private final Map<String, VariableTemporalDomain> variableTemporalDomainMap;
+
+    private final MetadataHelper metadataHelper;
+    private NetCDFMetadataBean metadata;
+
+    public TemporalMetadata(
+            String id,
+            String definitionId,
+            String datasetId,
+            long lastModified,
+            String checksum,
+            Map<String, VariableTemporalDomain> variableTemporalDomainMap,
+            MetadataHelper metadataHelper) {
+
+        this.id = id;
+        this.definitionId = definitionId;
+        this.datasetId = datasetId;
+        this.lastModified = lastModified;
+        this.checksum = checksum;
+        this.variableTemporalDomainMap = variableTemporalDomainMap == null ?
+                Collections.<String, VariableTemporalDomain>emptyMap() :
+                Collections.unmodifiableMap(variableTemporalDomainMap);
+        this.metadataHelper = metadataHelper;
+    }
+
+    /**
+     * Parse a NetCDF metadata document, as returned by a projection query (see TemporalMetadataLoader).
+     * Fields which are missing from the projection are ignored.
+     * @param document
+     * @param metadataHelper Used to load the full metadata. Can be null if the full metadata is never needed.
+     * @return
+     */
+    public static TemporalMetadata parse(Document document, MetadataHelper metadataHelper) {
+        return TemporalMetadata.parse(document, null, metadataHelper);
+    }
+
+    /**
+     * @param document
+     * @param variableIds IDs of the variables to keep. Null to keep all the variables found in the document.
+     * @param metadataHelper Used to load the full metadata. Can be null if the full metadata is never needed.
+     * @return
+     */
+    public static TemporalMetadata parse(Document document, Set<String> variableIds, MetadataHelper metadataHelper) {
+        if (document == null) {
+            return null;
+        }
+
+        Map<String, VariableTemporalDomain> variableTemporalDomainMap = new HashMap<String, VariableTemporalDomain>();
+        Object variablesObj = document.get("variables");
+        if (variablesObj instanceof Document) {
+            Document variables = (Document) variablesObj;
+            for (Map.Entry<String, Object> variableEntry : variables.entrySet()) {
+                if (variableIds != null && !variableIds.contains(variableEntry.getKey())) {
+                    continue;
+                }
+                Object variableObj = variableEntry.getValue();
+                Object temporalDomainObj = variableObj instanceof Document ? ((Document) variableObj).get("temporalDomain") : null;
+                if (temporalDomainObj instanceof Document) {
+                    Document temporalDomain = (Document) temporalDomainObj;
+
+                    TimeAxis timeAxis = null;
+                    Object timeValuesObj = temporalDomain.get("timeValues");
+                    if (timeValuesObj instanceof List) {
+                        List<?> timeValueObjs = (List<?>) timeValuesObj;
+                        long[] timeValues = new long[timeValueObjs.size()];
+                        int size = 0;
+                        for (Object timeValueObj : timeValueObjs) {
+                            Long timeValue = TemporalMetadata.parseMillis(timeValueObj);
+                            if (timeValue != null) {
+                                timeValues[size++] = timeValue;
+                            }
+                        }
+                        timeAxis = TimeAxis.create(size == timeValues.length ? timeValues : Arrays.copyOf(timeValues, size));
+                    }
+
+                    variableTemporalDomainMap.put(variableEntry.getKey(), new VariableTemporalDomain(
+                            TemporalMetadata.parseDateTime(temporalDomain.get("minDate")),
+                            TemporalMetadata.parseDateTime(temporalDomain.get("maxDate")),
+                            timeAxis));
+                }
+            }
+        }
+
+        DateTime lastModified = TemporalMetadata.parseDateTime(document.get("lastModified"));
+
+        return new TemporalMetadata(
+                document.getString("_id"),
+                document.getString("definitionId"),
+                document.getString("datasetId"),
+                lastModified == null ? 0 : lastModified.getMillis(),
+                document.getString("checksum"),
+                variableTemporalDomainMap,
+                metadataHelper);
+    }
+
+    private static DateTime parseDateTime(Object dateObj) {
+        if (dateObj == null) {
+            return null;
+        }
+        if (dateObj instanceof Date) {
+            return new DateTime(dateObj);
+        }
+        if (dateObj instanceof Number) {
+            return new DateTime(((Number) dateObj).longValue());
+        }
+        String dateStr = dateObj.toString();
+        return dateStr.isEmpty() ? null : DateTime.parse(dateStr);
+    }
+
+    // Same as parseDateTime, without creating a DateTime object
+    private static Long parseMillis(Object dateObj) {
+        if (dateObj == null) {
+            return null;
+        }
+        if (dateObj instanceof Date) {
+            return ((Date) dateObj).getTime();
+        }
+        if (dateObj instanceof Number) {
+            return ((Number) dateObj).longValue();
+        }
+        String dateStr = dateObj.toString();
+        return dateStr.isEmpty() ? null : ISO_DATE_TIME_PARSER.parseMillis(dateStr);
+    }
+
+    public String getId() {
+        return this.id;
+    }
+
+    public String getDefinitionId() {
+        return this.definitionId;
+    }
+
+    public String getDatasetId() {
+        return this.datasetId;
+    }
+
+    public long getLastModified() {
+        return this.lastModified;
+    }
+
+    public String getChecksum() {
+        return this.checksum;
+    }
+
+    public Map<String, VariableTemporalDomain> getVariableTemporalDomainMap() {
+        return this.variableTemporalDomainMap;
+    }
+
+    public VariableTemporalDomain getVariableTemporalDomain(String variableId) {
+        return variableId == null ? null : this.variableTemporalDomainMap.get(variableId);
+    }
+
+    /**
+     * @return True if the full metadata was already loaded.
+     */
+    public synchronized boolean isMetadataLoaded() {
+        return this.metadata != null;
+    }
+
+    /**
+     * Load the full metadata of the NetCDF file, if it's not already loaded.
+     * @return The full metadata.
+     * @throws IllegalStateException If the metadata could not be loaded.
+     */
+    public synchronized NetCDFMetadataBean getMetadata() {
+        if (this.metadata == null) {
+            if (this.metadataHelper == null) {
+                throw new IllegalStateException(String.format("Can not load the metadata of %s, no metadata helper.", this.id));
+            }
+
+            try {
+                this.metadata = this.metadataHelper.getNetCDFMetadata(this.definitionId, this.datasetId);
+            } catch (Exception ex) {
+                throw new IllegalStateException(String.format("Error occurred while loading the metadata of %s", this.id), ex);
+            }
+            if (this.metadata == null) {
+                throw new IllegalStateException(String.format("The metadata of %s could not be found", this.id));
+            }
+        }
+        return this.metadata;
+    }
+
+    @Override
+    public String toString() {
+        return this.id;
+    }
+}
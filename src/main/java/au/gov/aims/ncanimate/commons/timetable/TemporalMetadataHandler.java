@@ -0,0 +1,13 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ncanimate.commons.timetable;
+
+/**
+ * Called for each input file found by the TemporalMetadataLoader, while iterating through the database cursor.
+ * See TemporalMetadataLoader.stream.
+ */
+public interface TemporalMetadataHandler {
+    void handle(TemporalMetadata temporalMetadata) throws Exception;
+}
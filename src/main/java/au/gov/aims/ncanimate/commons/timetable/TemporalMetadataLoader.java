@@ -0,0 +1,253 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ncanimate.commons.timetable;
+
+import au.gov.aims.ereefs.bean.metadata.netcdf.NetCDFMetadataBean;
+import au.gov.aims.ereefs.bean.ncanimate.NcAnimateConfigBean;
+import au.gov.aims.ereefs.bean.ncanimate.NcAnimateIdBean;
+import au.gov.aims.ereefs.bean.ncanimate.NcAnimateInputBean;
+import au.gov.aims.ereefs.bean.ncanimate.NcAnimateLayerBean;
+import au.gov.aims.ereefs.bean.ncanimate.NcAnimateNetCDFVariableBean;
+import au.gov.aims.ereefs.database.CacheStrategy;
+import au.gov.aims.ereefs.database.DatabaseClient;
+import au.gov.aims.ereefs.helper.MetadataHelper;
+import au.gov.aims.ereefs.helper.NcAnimateConfigHelper;
+import au.gov.aims.ncanimate.commons.NcAnimateUtils;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import org.apache.log4j.Logger;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Load the NetCDF metadata needed to plan the timetables of a product (see TemporalMetadata).
+ *
+ * The metadata of large NetCDF files (GBR1) contains every variables, attributes and spatial domains.
+ * This loader asks MongoDB only for the fields used by the timetables: the last modified timestamp,
+ * the checksum and the temporal domain of the variables used by the product layers.
+ */
+public class TemporalMetadataLoader implements TemporalMetadataSource {
+    private static final Logger LOGGER = Logger.getLogger(TemporalMetadataLoader.class);
+
+    // Name of the collection used by the ereefs-database MetadataManager for the NetCDF metadata.
+    // The MetadataManager doesn't expose it. ProductTimetableTest.testTemporalMetadataLoader
+    // fails if it doesn't match the collection used by the MetadataManager.
+    public static final String METADATA_COLLECTION = "metadata";
+
+    // Number of metadata documents fetched from the database at once
+    private static final int STREAM_BATCH_SIZE = 100;
+
+    private final MongoCollection<Document> metadataCollection;
+    private final MetadataHelper metadataHelper;
+
+    /**
+     * @param metadataCollection The MongoDB collection containing the NetCDF metadata.
+     * @param metadataHelper Used to load the full metadata, when needed.
+     */
+    public TemporalMetadataLoader(MongoCollection<Document> metadataCollection, MetadataHelper metadataHelper) {
+        this.metadataCollection = metadataCollection;
+        this.metadataHelper = metadataHelper;
+    }
+
+    public static TemporalMetadataLoader create(DatabaseClient dbClient) {
+        return TemporalMetadataLoader.create(dbClient, METADATA_COLLECTION);
+    }
+
+    /**
+     * @param dbClient
+     * @param metadataCollectionName Name of the collection containing the NetCDF metadata,
+     *     if the MetadataManager is configured to use a different collection.
+     * @return
+     */
+    public static TemporalMetadataLoader create(DatabaseClient dbClient, String metadataCollectionName) {
+        return new TemporalMetadataLoader(
+                dbClient.getMongoDatabase().getCollection(metadataCollectionName),
+                new MetadataHelper(dbClient, CacheStrategy.DISK));
+    }
+
+    /**
+     * Load the temporal metadata of the valid NetCDF files used by a product.
+     * Lightweight equivalent of NcAnimateConfigHelper.getValidNetCDFMetadataMap.
+     * @param ncAnimateConfig
+     * @return Map of:
+     *     Key: Input definition ID
+     *     Value: Map of:
+     *         Key: Dataset ID
+     *         Value: Temporal metadata of the NetCDF file
+     */
+    public Map<String, Map<String, TemporalMetadata>> load(NcAnimateConfigBean ncAnimateConfig) {
+        return this.load(TemporalMetadataLoader.getVariableIdMap(ncAnimateConfig));
+    }
+
+    /**
+     * @param variableIdMap Map of:
+     *     Key: Input definition ID
+     *     Value: IDs of the variables for which the temporal domain is needed
+     * @return Map of:
+     *     Key: Input definition ID
+     *     Value: Map of:
+     *         Key: Dataset ID
+     *         Value: Temporal metadata of the NetCDF file
+     */
+    public Map<String, Map<String, TemporalMetadata>> load(Map<String, Set<String>> variableIdMap) {
+        final Map<String, Map<String, TemporalMetadata>> temporalMetadataMap = new HashMap<String, Map<String, TemporalMetadata>>();
+        if (variableIdMap == null || variableIdMap.isEmpty()) {
+            return temporalMetadataMap;
+        }
+
+        for (String definitionId : variableIdMap.keySet()) {
+            temporalMetadataMap.put(definitionId, new TreeMap<String, TemporalMetadata>());
+        }
+
+        try {
+            this.stream(variableIdMap, true, new TemporalMetadataHandler() {
+                @Override
+                public void handle(TemporalMetadata temporalMetadata) {
+                    temporalMetadataMap.get(temporalMetadata.getDefinitionId()).put(temporalMetadata.getDatasetId(), temporalMetadata);
+                }
+            });
+        } catch (RuntimeException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            // This should not happen, the handler doesn't throw checked exceptions
+            throw new IllegalStateException("Error occurred while loading the temporal metadata", ex);
+        }
+
+        return temporalMetadataMap;
+    }
+
+    /**
+     * Stream the temporal metadata of the valid NetCDF files used by a product.
+     * The metadata documents are parsed one at a time, as they are read from the database cursor,
+     * and given to the handler. Nothing is kept in memory by the loader,
+     * so the memory used doesn't depend on the number of files.
+     * @param variableIdMap Map of:
+     *     Key: Input definition ID
+     *     Value: IDs of the variables for which the temporal domain is needed
+     * @param handler Called for each NetCDF file.
+     * @return The number of NetCDF files streamed.
+     * @throws Exception If the handler throws an exception. The stream stops at the first exception.
+     */
+    public int stream(Map<String, Set<String>> variableIdMap, TemporalMetadataHandler handler) throws Exception {
+        return this.stream(variableIdMap, true, handler);
+    }
+
+    /**
+     * @param variableIdMap
+     * @param includeTimeValues False to only get the min and max dates of the temporal domains.
+     *     The list of time values is the largest part of the temporal metadata.
+     * @param handler
+     * @return The number of NetCDF files streamed.
+     * @throws Exception
+     */
+    @Override
+    public int stream(Map<String, Set<String>> variableIdMap, boolean includeTimeValues, TemporalMetadataHandler handler) throws Exception {
+        if (variableIdMap == null || variableIdMap.isEmpty()) {
+            return 0;
+        }
+
+        // One query for all the definitions. The projection contains the variables of all the definitions,
+        // the variables which are not in a file are simply missing from the result.
+        // The variables of other definitions are removed when the result is parsed.
+        Set<String> variableIds = new HashSet<String>();
+        for (Set<String> definitionVariableIds : variableIdMap.values()) {
+            if (definitionVariableIds != null) {
+                variableIds.addAll(definitionVariableIds);
+            }
+        }
+
+        List<String> fields = new ArrayList<String>();
+        fields.add("_id");
+        fields.add("definitionId");
+        fields.add("datasetId");
+        fields.add("lastModified");
+        fields.add("checksum");
+        for (String variableId : variableIds) {
+            if (variableId.contains(".") || variableId.startsWith("$")) {
+                // This should not happen, MongoDB field names can't contain those characters
+                LOGGER.warn(String.format("Invalid variable ID: %s", variableId));
+                continue;
+            }
+            String temporalDomainField = String.format("variables.%s.temporalDomain", variableId);
+            fields.add(temporalDomainField + ".minDate");
+            fields.add(temporalDomainField + ".maxDate");
+            if (includeTimeValues) {
+                fields.add(temporalDomainField + ".timeValues");
+            }
+        }
+
+        Bson filter = Filters.and(
+                Filters.in("definitionId", variableIdMap.keySet()),
+                Filters.eq("status", NetCDFMetadataBean.Status.VALID.name()));
+
+        // Sorted by ID (indexed) so the files are always streamed in the same order
+        int count = 0;
+        try (MongoCursor<Document> cursor = this.metadataCollection.find(filter)
+                .projection(Projections.include(fields))
+                .sort(Sorts.ascending("_id"))
+                .batchSize(STREAM_BATCH_SIZE)
+                .iterator()) {
+
+            while (cursor.hasNext()) {
+                Document document = cursor.next();
+                String definitionId = document.getString("definitionId");
+                if (variableIdMap.containsKey(definitionId)) {
+                    // Only keep the variables used with this definition
+                    handler.handle(TemporalMetadata.parse(document, variableIdMap.get(definitionId), this.metadataHelper));
+                    count++;
+                }
+            }
+        }
+
+        LOGGER.debug(String.format("Streamed the temporal metadata of %d NetCDF file(s) for %d input definition(s)",
+                count, variableIdMap.size()));
+
+        return count;
+    }
+
+    /**
+     * @param ncAnimateConfig
+     * @return Map of:
+     *     Key: Input definition ID
+     *     Value: IDs of the most significant variable of each layer using the input definition
+     */
+    public static Map<String, Set<String>> getVariableIdMap(NcAnimateConfigBean ncAnimateConfig) {
+        Map<String, Set<String>> variableIdMap = new HashMap<String, Set<String>>();
+
+        Map<String, NcAnimateLayerBean> layerMap = NcAnimateUtils.getLayers(ncAnimateConfig);
+        if (layerMap != null) {
+            for (NcAnimateLayerBean layer : layerMap.values()) {
+                NcAnimateInputBean input = layer == null ? null : layer.getInput();
+                NcAnimateIdBean inputId = input == null ? null : input.getId();
+                if (inputId != null) {
+                    Set<String> variableIds = variableIdMap.get(inputId.getValue());
+                    if (variableIds == null) {
+                        variableIds = new HashSet<String>();
+                        variableIdMap.put(inputId.getValue(), variableIds);
+                    }
+
+                    NcAnimateNetCDFVariableBean variable = NcAnimateConfigHelper.getMostSignificantVariable(layer);
+                    String variableId = variable == null ? null : variable.getVariableId();
+                    if (variableId != null && !variableId.isEmpty()) {
+                        variableIds.add(variableId);
+                    }
+                }
+            }
+        }
+
+        return variableIdMap;
+    }
+}
@@ -0,0 +1,388 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ncanimate.commons.timetable;
+
+import au.gov.aims.ereefs.bean.ncanimate.NcAnimateConfigBean;
+import au.gov.aims.ereefs.helper.MetadataHelper;
+import au.gov.aims.ncanimate.commons.download.SingleFlightDownloader;
+import org.apache.log4j.Logger;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Local snapshot of the temporal metadata used to plan the timetables of a product.
+ * Used to plan without database access (CI, dry runs, benchmarks).
+ *
+ * Create the snapshot with export(), using a TemporalMetadataLoader as source.
+ * The snapshot can then be given to the ProductTimetable instead of the TemporalMetadataLoader.
+ * The snapshot is tied to the product (NcAnimate config) it was exported for. A snapshot created
+ * with the config ID of the product refuses to stream a snapshot exported for another product.
+ *
+ * The snapshot file is a compact binary file (big endian), read using a memory mapped buffer:
+ *     Header:
+ *         int     Magic number "NCTM"
+ *         int     Format version
+ *         string  NcAnimate config ID (product ID)
+ *         long    Export time (milliseconds since epoch)
+ *     Records, one per NetCDF file:
+ *         byte    1 (record marker)
+ *         string  ID, definition ID, dataset ID
+ *         long    Last modified
+ *         string  Checksum
+ *         int     Number of variables, followed by the variables:
+ *             string  Variable ID
+ *             long    Min date, max date (Long.MIN_VALUE if null)
+ *             byte    0 for regular time axis, 1 for irregular
+ *             Regular:   long start, long step, int size
+ *             Irregular: int size, long[size] time values
+ *     Footer:
+ *         byte    0 (end marker)
+ *         int     Number of records
+ *
+ * Strings are written as an int length (-1 for null) followed by the UTF-8 bytes.
+ */
+public class TemporalMetadataSnapshot implements TemporalMetadataSource {
+    private static final Logger LOGGER = Logger.getLogger(TemporalMetadataSnapshot.class);
+
+    private static final int MAGIC = 0x4E43544D; // "NCTM"
+    private static final int VERSION = 2;
+
+    private static final byte RECORD_MARKER = 1;
+    private static final byte END_MARKER = 0;
+
+    private static final byte REGULAR_AXIS = 0;
+    private static final byte IRREGULAR_AXIS = 1;
+
+    private static final long NULL_DATE = Long.MIN_VALUE;
+
+    private final File snapshotFile;
+    private final String configId;
+    private final MetadataHelper metadataHelper;
+
+    public TemporalMetadataSnapshot(File snapshotFile) {
+        this(snapshotFile, (String)null, null);
+    }
+
+    /**
+     * @param snapshotFile
+     * @param ncAnimateConfig The product planned using the snapshot.
+     *     The snapshot must have been exported for the same product.
+     * @param metadataHelper Used to load the full metadata of the input files, when a frame is rendered.
+     *     Can be null when the snapshot is only used to plan.
+     */
+    public TemporalMetadataSnapshot(File snapshotFile, NcAnimateConfigBean ncAnimateConfig, MetadataHelper metadataHelper) {
+        this(snapshotFile, ncAnimateConfig == null ? null : ncAnimateConfig.getId().getValue(), metadataHelper);
+    }
+
+    /**
+     * @param snapshotFile
+     * @param configId ID of the product planned using the snapshot,
+     *     or null to accept a snapshot exported for any product.
+     * @param metadataHelper Used to load the full metadata of the input files, when a frame is rendered.
+     *     Can be null when the snapshot is only used to plan.
+     */
+    public TemporalMetadataSnapshot(File snapshotFile, String configId, MetadataHelper metadataHelper) {
+        this.snapshotFile = snapshotFile;
+        this.configId = configId;
+        this.metadataHelper = metadataHelper;
+    }
+
+    public File getSnapshotFile() {
+        return this.snapshotFile;
+    }
+
+    public String getConfigId() {
+        return this.configId;
+    }
+
+    /**
+     * Read the header of the snapshot file.
+     * @return The header: the ID of the product the snapshot was exported for, and the export time.
+     * @throws IOException If the file is not a valid snapshot file, or if it was exported for another product.
+     */
+    public Header readHeader() throws IOException {
+        try (FileChannel channel = FileChannel.open(this.snapshotFile.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), Integer.MAX_VALUE));
+            try {
+                return this.readHeader(buffer);
+            } catch (BufferUnderflowException ex) {
+                throw new IOException(String.format("Truncated snapshot file: %s", this.snapshotFile), ex);
+            }
+        }
+    }
+
+    /**
+     * Write the temporal metadata of the NetCDF files used by a product in a snapshot file.
+     * @param source The source of the temporal metadata, usually a TemporalMetadataLoader.
+     * @param ncAnimateConfig
+     * @param snapshotFile
+     * @return The number of NetCDF files written in the snapshot.
+     * @throws Exception
+     */
+    public static int export(TemporalMetadataSource source, NcAnimateConfigBean ncAnimateConfig, File snapshotFile) throws Exception {
+        return TemporalMetadataSnapshot.export(source, ncAnimateConfig.getId().getValue(),
+                TemporalMetadataLoader.getVariableIdMap(ncAnimateConfig), snapshotFile);
+    }
+
+    /**
+     * @param source
+     * @param configId ID of the product the snapshot is exported for.
+     * @param variableIdMap Map of:
+     *     Key: Input definition ID
+     *     Value: IDs of the variables for which the temporal domain is needed
+     * @param snapshotFile
+     * @return The number of NetCDF files written in the snapshot.
+     * @throws Exception
+     */
+    public static int export(TemporalMetadataSource source, String configId, Map<String, Set<String>> variableIdMap, File snapshotFile) throws Exception {
+        // The snapshot is written in a temporary file, then moved, so an interrupted export never leaves a truncated snapshot
+        File tmpFile = SingleFlightDownloader.getTemporaryFile(snapshotFile);
+        int count;
+        try {
+            try (final DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+                output.writeInt(MAGIC);
+                output.writeInt(VERSION);
+                TemporalMetadataSnapshot.writeString(output, configId);
+                output.writeLong(System.currentTimeMillis());
+
+                count = source.stream(variableIdMap, true, new TemporalMetadataHandler() {
+                    @Override
+                    public void handle(TemporalMetadata temporalMetadata) throws IOException {
+                        TemporalMetadataSnapshot.writeRecord(output, temporalMetadata);
+                    }
+                });
+
+                output.writeByte(END_MARKER);
+                output.writeInt(count);
+            }
+
+            SingleFlightDownloader.moveAtomically(tmpFile, snapshotFile);
+        } finally {
+            if (tmpFile.exists() && !tmpFile.delete()) {
+                LOGGER.warn(String.format("Could not delete the temporary snapshot file: %s", tmpFile));
+            }
+        }
+
+        LOGGER.info(String.format("Temporal metadata of %d NetCDF file(s) exported to %s (%d bytes)",
+                count, snapshotFile, snapshotFile.length()));
+
+        return count;
+    }
+
+    @Override
+    public int stream(Map<String, Set<String>> variableIdMap, boolean includeTimeValues, TemporalMetadataHandler handler) throws Exception {
+        if (variableIdMap == null || variableIdMap.isEmpty()) {
+            return 0;
+        }
+
+        int count = 0;
+        try (FileChannel channel = FileChannel.open(this.snapshotFile.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(String.format("Snapshot file %s is too large: %d bytes", this.snapshotFile, size));
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+            try {
+                Header header = this.readHeader(buffer);
+                LOGGER.debug(String.format("Streaming snapshot %s of product %s, exported on %s",
+                        this.snapshotFile, header.getConfigId(), header.getExportTime()));
+
+                int recordCount = 0;
+                byte marker;
+                while ((marker = buffer.get()) == RECORD_MARKER) {
+                    recordCount++;
+                    TemporalMetadata temporalMetadata = this.readRecord(buffer, variableIdMap, includeTimeValues);
+                    if (temporalMetadata != null) {
+                        handler.handle(temporalMetadata);
+                        count++;
+                    }
+                }
+
+                if (marker != END_MARKER || buffer.getInt() != recordCount) {
+                    throw new IOException(String.format("Corrupted snapshot file: %s", this.snapshotFile));
+                }
+            } catch (BufferUnderflowException ex) {
+                throw new IOException(String.format("Truncated snapshot file: %s", this.snapshotFile), ex);
+            }
+        }
+
+        LOGGER.debug(String.format("Streamed the temporal metadata of %d NetCDF file(s) from snapshot %s",
+                count, this.snapshotFile));
+
+        return count;
+    }
+
+    private Header readHeader(MappedByteBuffer buffer) throws IOException {
+        if (buffer.getInt() != MAGIC) {
+            throw new IOException(String.format("Invalid snapshot file: %s", this.snapshotFile));
+        }
+        int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IOException(String.format("Unsupported snapshot file version %d: %s", version, this.snapshotFile));
+        }
+
+        String snapshotConfigId = TemporalMetadataSnapshot.readString(buffer);
+        long exportTime = buffer.getLong();
+        if (this.configId != null && !this.configId.equals(snapshotConfigId)) {
+            throw new IOException(String.format("The snapshot file %s was exported for the product %s, not %s",
+                    this.snapshotFile, snapshotConfigId, this.configId));
+        }
+
+        return new Header(snapshotConfigId, new DateTime(exportTime, DateTimeZone.UTC));
+    }
+
+    private static void writeRecord(DataOutputStream output, TemporalMetadata temporalMetadata) throws IOException {
+        output.writeByte(RECORD_MARKER);
+        TemporalMetadataSnapshot.writeString(output, temporalMetadata.getId());
+        TemporalMetadataSnapshot.writeString(output, temporalMetadata.getDefinitionId());
+        TemporalMetadataSnapshot.writeString(output, temporalMetadata.getDatasetId());
+        output.writeLong(temporalMetadata.getLastModified());
+        TemporalMetadataSnapshot.writeString(output, temporalMetadata.getChecksum());
+
+        Map<String, VariableTemporalDomain> variableTemporalDomainMap = temporalMetadata.getVariableTemporalDomainMap();
+        output.writeInt(variableTemporalDomainMap.size());
+        for (Map.Entry<String, VariableTemporalDomain> variableEntry : variableTemporalDomainMap.entrySet()) {
+            VariableTemporalDomain temporalDomain = variableEntry.getValue();
+            TemporalMetadataSnapshot.writeString(output, variableEntry.getKey());
+            output.writeLong(temporalDomain.getMinDate() == null ? NULL_DATE : temporalDomain.getMinDate().getMillis());
+            output.writeLong(temporalDomain.getMaxDate() == null ? NULL_DATE : temporalDomain.getMaxDate().getMillis());
+
+            TimeAxis timeAxis = temporalDomain.getTimeAxis();
+            if (timeAxis.isRegular()) {
+                output.writeByte(REGULAR_AXIS);
+                output.writeLong(timeAxis.getStart());
+                output.writeLong(timeAxis.getStep());
+                output.writeInt(timeAxis.size());
+            } else {
+                output.writeByte(IRREGULAR_AXIS);
+                output.writeInt(timeAxis.size());
+                for (int i=0; i<timeAxis.size(); i++) {
+                    output.writeLong(timeAxis.get(i));
+                }
+            }
+        }
+    }
+
+    // Return null if the record is not for one of the requested input definitions
+    private TemporalMetadata readRecord(MappedByteBuffer buffer, Map<String, Set<String>> variableIdMap, boolean includeTimeValues) {
+        String id = TemporalMetadataSnapshot.readString(buffer);
+        String definitionId = TemporalMetadataSnapshot.readString(buffer);
+        String datasetId = TemporalMetadataSnapshot.readString(buffer);
+        long lastModified = buffer.getLong();
+        String checksum = TemporalMetadataSnapshot.readString(buffer);
+
+        boolean selected = variableIdMap.containsKey(definitionId);
+        Set<String> variableIds = variableIdMap.get(definitionId);
+
+        Map<String, VariableTemporalDomain> variableTemporalDomainMap = new HashMap<String, VariableTemporalDomain>();
+        int variableCount = buffer.getInt();
+        for (int i=0; i<variableCount; i++) {
+            String variableId = TemporalMetadataSnapshot.readString(buffer);
+            long minDate = buffer.getLong();
+            long maxDate = buffer.getLong();
+
+            // The variables which are not requested are skipped, without reading their time values
+            boolean variableSelected = selected && (variableIds == null || variableIds.contains(variableId));
+            TimeAxis timeAxis = TemporalMetadataSnapshot.readTimeAxis(buffer, variableSelected && includeTimeValues);
+
+            if (variableSelected) {
+                variableTemporalDomainMap.put(variableId, new VariableTemporalDomain(
+                        minDate == NULL_DATE ? null : new DateTime(minDate, DateTimeZone.UTC),
+                        maxDate == NULL_DATE ? null : new DateTime(maxDate, DateTimeZone.UTC),
+                        timeAxis));
+            }
+        }
+
+        if (!selected) {
+            return null;
+        }
+
+        return new TemporalMetadata(id, definitionId, datasetId, lastModified, checksum,
+                variableTemporalDomainMap, this.metadataHelper);
+    }
+
+    // Return an empty time axis if the time values are not needed
+    private static TimeAxis readTimeAxis(MappedByteBuffer buffer, boolean read) {
+        byte axisType = buffer.get();
+        if (axisType == REGULAR_AXIS) {
+            long start = buffer.getLong();
+            long step = buffer.getLong();
+            int size = buffer.getInt();
+            return read ? TimeAxis.createRegular(start, step, size) : TimeAxis.EMPTY;
+        }
+
+        int size = buffer.getInt();
+        if (size < 0 || buffer.remaining() < size * 8L) {
+            throw new BufferUnderflowException();
+        }
+        if (!read) {
+            buffer.position(buffer.position() + size * 8);
+            return TimeAxis.EMPTY;
+        }
+        long[] values = new long[size];
+        buffer.asLongBuffer().get(values);
+        buffer.position(buffer.position() + size * 8);
+        return TimeAxis.create(values);
+    }
+
+    private static void writeString(DataOutputStream output, String str) throws IOException {
+        if (str == null) {
+            output.writeInt(-1);
+        } else {
+            byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+            output.writeInt(bytes.length);
+            output.write(bytes);
+        }
+    }
+
+    private static String readString(MappedByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public static class Header {
+        private final String configId;
+        private final DateTime exportTime;
+
+        public Header(String configId, DateTime exportTime) {
+            this.configId = configId;
+            this.exportTime = exportTime;
+        }
+
+        /**
+         * @return The ID of the product the snapshot was exported for. Null if it was exported without product.
+         */
+        public String getConfigId() {
+            return this.configId;
+        }
+
+        public DateTime getExportTime() {
+            return this.exportTime;
+        }
+    }
+}
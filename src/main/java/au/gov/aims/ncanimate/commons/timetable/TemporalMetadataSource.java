@@ -0,0 +1,28 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ncanimate.commons.timetable;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Source of the temporal metadata used to plan the timetables.
+ * The metadata is either streamed from the database (TemporalMetadataLoader)
+ * or from a local snapshot file (TemporalMetadataSnapshot).
+ */
+public interface TemporalMetadataSource {
+
+    /**
+     * Stream the temporal metadata of the valid NetCDF files of some input definitions.
+     * @param variableIdMap Map of:
+     *     Key: Input definition ID
+     *     Value: IDs of the variables for which the temporal domain is needed
+     * @param includeTimeValues False to only get the min and max dates of the temporal domains.
+     * @param handler Called for each NetCDF file.
+     * @return The number of NetCDF files streamed.
+     * @throws Exception If the metadata can not be read, or if the handler throws an exception.
+     */
+    int stream(Map<String, Set<String>> variableIdMap, boolean includeTimeValues, TemporalMetadataHandler handler) throws Exception;
+}
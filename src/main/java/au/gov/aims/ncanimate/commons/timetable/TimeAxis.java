@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ncanimate.commons.timetable;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compact representation of the time values of a NetCDF variable, in milliseconds since epoch (UTC).
+ *
+ * Regular axis (constant time step, most NetCDF files):
+ *     Stored as start + step + size.
+ * Irregular axis:
+ *     Stored as an array of milliseconds.
+ *
+ * The time values are not converted to DateTime (or to a timezone) until needed.
+ */
+public class TimeAxis {
+    public static final TimeAxis EMPTY = new TimeAxis(0, 0, 0, null);
+
+    private final long start;
+    private final long step;
+    private final int size;
+
+    // Null for regular axis
+    private final long[] values;
+
+    private final long min;
+    private final long max;
+
+    private TimeAxis(long start, long step, int size, long[] values) {
+        this.start = start;
+        this.step = step;
+        this.size = size;
+        this.values = values;
+
+        long min = Long.MAX_VALUE, max = Long.MIN_VALUE;
+        if (values == null) {
+            if (size > 0) {
+                long last = start + step * (size - 1);
+                min = Math.min(start, last);
+                max = Math.max(start, last);
+            }
+        } else {
+            for (long value : values) {
+                if (value < min) {
+                    min = value;
+                }
+                if (value > max) {
+                    max = value;
+                }
+            }
+        }
+        this.min = min;
+        this.max = max;
+    }
+
+    /**
+     * @param start The first time value, in milliseconds.
+     * @param step The time between two values, in milliseconds.
+     * @param size Number of values.
+     * @return
+     */
+    public static TimeAxis createRegular(long start, long step, int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException(String.format("Invalid time axis size: %d", size));
+        }
+        return size == 0 ? EMPTY : new TimeAxis(start, step, size, null);
+    }
+
+    /**
+     * Create a time axis from time values.
+     * The regular representation is used if the values have a constant time step.
+     * @param millis The time values, in milliseconds. The array is not copied, it must not be modified.
+     * @return
+     */
+    public static TimeAxis create(long[] millis) {
+        if (millis == null || millis.length == 0) {
+            return EMPTY;
+        }
+        if (millis.length == 1) {
+            return new TimeAxis(millis[0], 0, 1, null);
+        }
+
+        long step = millis[1] - millis[0];
+        for (int i=2; i<millis.length; i++) {
+            if (millis[i] - millis[i-1] != step) {
+                return new TimeAxis(0, 0, millis.length, millis);
+            }
+        }
+        return new TimeAxis(millis[0], step, millis.length, null);
+    }
+
+    public static TimeAxis create(List<DateTime> dateTimes) {
+        if (dateTimes == null || dateTimes.isEmpty()) {
+            return EMPTY;
+        }
+
+        long[] millis = new long[dateTimes.size()];
+        int size = 0;
+        for (DateTime dateTime : dateTimes) {
+            if (dateTime != null) {
+                millis[size++] = dateTime.getMillis();
+            }
+        }
+        return TimeAxis.create(size == millis.length ? millis : Arrays.copyOf(millis, size));
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    public boolean isRegular() {
+        return this.values == null;
+    }
+
+    // Only meaningful for regular axis (see TemporalMetadataSnapshot)
+    long getStart() {
+        return this.start;
+    }
+
+    // Only meaningful for regular axis (see TemporalMetadataSnapshot)
+    long getStep() {
+        return this.step;
+    }
+
+    /**
+     * @param index
+     * @return The time value at the index, in milliseconds.
+     */
+    public long get(int index) {
+        if (index < 0 || index >= this.size) {
+            throw new IndexOutOfBoundsException(String.format("Index: %d, size: %d", index, this.size));
+        }
+        return this.values == null ? this.start + this.step * index : this.values[index];
+    }
+
+    /**
+     * @return The smallest time value, in milliseconds, or Long.MAX_VALUE if the axis is empty.
+     */
+    public long getMin() {
+        return this.min;
+    }
+
+    /**
+     * @return The largest time value, in milliseconds, or Long.MIN_VALUE if the axis is empty.
+     */
+    public long getMax() {
+        return this.max;
+    }
+
+    /**
+     * @param timezone
+     * @return The time values, as DateTime in the given timezone.
+     *     NOTE: This allocates a DateTime per value. Prefer get(int) when possible.
+     */
+    public List<DateTime> toDateTimes(DateTimeZone timezone) {
+        List<DateTime> dateTimes = new ArrayList<DateTime>(this.size);
+        for (int i=0; i<this.size; i++) {
+            dateTimes.add(new DateTime(this.get(i), timezone));
+        }
+        return dateTimes;
+    }
+
+    @Override
+    public String toString() {
+        if (this.values == null) {
+            return String.format("TimeAxis[start: %d, step: %d, size: %d]", this.start, this.step, this.size);
+        }
+        return String.format("TimeAxis[irregular, size: %d]", this.size);
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ncanimate.commons.timetable;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Temporal domain of a NetCDF variable, as used by the timetables.
+ * Lightweight equivalent of the TemporalDomainBean (see TemporalMetadata).
+ *
+ * The time values are stored as a TimeAxis. Hourly files over a decade have hundreds of thousands
+ * of time values, they are only converted to DateTime when requested with getTimeValues().
+ */
+public class VariableTemporalDomain {
+    private final DateTime minDate;
+    private final DateTime maxDate;
+    private final TimeAxis timeAxis;
+
+    private List<DateTime> timeValues;
+
+    public VariableTemporalDomain(DateTime minDate, DateTime maxDate, List<DateTime> timeValues) {
+        this(minDate, maxDate, TimeAxis.create(timeValues));
+    }
+
+    public VariableTemporalDomain(DateTime minDate, DateTime maxDate, TimeAxis timeAxis) {
+        this.minDate = minDate;
+        this.maxDate = maxDate;
+        this.timeAxis = timeAxis == null ? TimeAxis.EMPTY : timeAxis;
+    }
+
+    public DateTime getMinDate() {
+        return this.minDate;
+    }
+
+    public DateTime getMaxDate() {
+        return this.maxDate;
+    }
+
+    public TimeAxis getTimeAxis() {
+        return this.timeAxis;
+    }
+
+    /**
+     * @return The time values, in UTC.
+     *     NOTE: The list is created on the first call. Use getTimeAxis() to iterate through the time values.
+     */
+    public synchronized List<DateTime> getTimeValues() {
+        if (this.timeValues == null) {
+            this.timeValues = Collections.unmodifiableList(this.timeAxis.toDateTimes(DateTimeZone.UTC));
+        }
+        return this.timeValues;
+    }
+}
@@ -4,6 +4,7 @@
  */
 package au.gov.aims.ncanimate.commons;
 
+import au.gov.aims.ereefs.bean.metadata.netcdf.NetCDFMetadataBean;
 import au.gov.aims.ereefs.bean.ncanimate.NcAnimateConfigBean;
 import au.gov.aims.ereefs.bean.ncanimate.NcAnimateRegionBean;
 import au.gov.aims.ereefs.bean.ncanimate.render.NcAnimateRenderBean;
@@ -11,6 +12,8 @@ import au.gov.aims.ereefs.bean.ncanimate.render.NcAnimateRenderMapBean;
 import au.gov.aims.ereefs.bean.ncanimate.render.NcAnimateRenderVideoBean;
 import au.gov.aims.ereefs.database.CacheStrategy;
 import au.gov.aims.ereefs.helper.NcAnimateConfigHelper;
+import au.gov.aims.ncanimate.commons.download.LocalFileIngester;
+import au.gov.aims.ncanimate.commons.download.LocalFileStrategy;
 import au.gov.aims.ncanimate.commons.generator.context.GeneratorContext;
 import au.gov.aims.ncanimate.commons.generator.context.LayerContext;
 import au.gov.aims.ncanimate.commons.timetable.DateTimeRange;
@@ -22,15 +25,25 @@ import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 import org.junit.Assert;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import java.io.File;
+import java.net.URL;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CyclicBarrier;
 
 public class NcAnimateUtilsTest extends DatabaseTestBase {
 
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     @Before
     public void insertData() throws Exception {
         super.populateDatabase();
@@ -226,6 +239,47 @@ public class NcAnimateUtilsTest extends DatabaseTestBase {
         }
     }
 
+    @Test
+    public void testRender() throws Exception {
+        NcAnimateConfigHelper configHelper = new NcAnimateConfigHelper(this.getDatabaseClient(), CacheStrategy.DISK);
+        NcAnimateConfigBean ncAnimateConfig = configHelper.getNcAnimateConfig("gbr4_v2_temp-wind-salt-current");
+        DateTimeZone timezone = NcAnimateUtils.getTimezone(ncAnimateConfig);
+        Assert.assertNotNull("NcAnimate configuration not found", ncAnimateConfig);
+
+        DateTimeRange dateRange = DateTimeRange.create(
+                new DateTime(2010, 5, 1, 0, 0, timezone),
+                new DateTime(2010, 5, 3, 0, 0, timezone));
+
+        Map<String, NcAnimateRegionBean> regions = ncAnimateConfig.getRegions();
+        Assert.assertFalse("NcAnimate configuration contains no region", regions == null || regions.isEmpty());
+
+        GeneratorContext context = new GeneratorContext(ncAnimateConfig);
+        context.setDateRange(dateRange);
+        context.setRegion(regions.get("qld"));
+        context.setTargetHeight(2.55);
+
+        // The same buffer is reused between calls
+        StringBuilder sb = new StringBuilder();
+
+        Assert.assertTrue(NcAnimateUtils.render(sb, "Region ID: ${ctx.region.id} height: ${ctx.targetHeight %.1f}m", context));
+        Assert.assertEquals("Region ID: qld height: 2.6m", sb.toString());
+
+        sb.setLength(0);
+        Assert.assertFalse(NcAnimateUtils.render(sb, "${ctx.dateFrom yyyy-MM-dd} ${ignore.me}", context));
+        Assert.assertEquals("2010-05-01 ${ignore.me}", sb.toString());
+
+        {
+            List<String> patterns = new ArrayList<String>();
+            patterns.add("Region ID: ${ctx.region.id} ${ignore.me}");
+            patterns.add("Region ID: ${ctx.region.id}");
+
+            sb.setLength(0);
+            Assert.assertTrue(NcAnimateUtils.render(sb, patterns, context, null));
+            Assert.assertEquals("Region ID: qld", sb.toString());
+            Assert.assertEquals(NcAnimateUtils.parseString(patterns, context), sb.toString());
+        }
+    }
+
     @Test
     public void testParseStringWithLayerCtx() throws Exception {
         this.insertFakePartialGBR4NetCDFFile();
@@ -352,4 +406,79 @@ public class NcAnimateUtilsTest extends DatabaseTestBase {
             Assert.assertEquals(expected, NcAnimateUtils.parseString(pattern, context));
         }
     }
+
+    /**
+     * Two threads downloading two files of the same definition at the same time.
+     * Only one file per definition is kept in the working directory,
+     * but a file must not be deleted while another thread is using it.
+     * @throws Exception
+     */
+    @Test
+    public void testDownloadInputFilesOfSameDefinition() throws Exception {
+        final String definitionId = "downloads/concurrent";
+        LocalFileIngester.setStrategies(definitionId, LocalFileStrategy.TRANSFER);
+        try {
+            URL netCDFFileUrl = NcAnimateUtilsTest.class.getClassLoader().getResource("netcdf/gbr4_v2_2010-09-01_00h00-02h00.nc");
+            final File netCDFFile = new File(netCDFFileUrl.getFile());
+            File sourceDirectory = this.temporaryFolder.newFolder("source");
+            File workingDirectory = this.temporaryFolder.newFolder("working");
+
+            final NetCDFMetadataBean[] inputMetadatas = new NetCDFMetadataBean[2];
+            final File[] inputFiles = new File[2];
+            for (int i=0; i<2; i++) {
+                String datasetId = String.format("gbr4_v2_%d.nc", i);
+                File sourceFile = new File(sourceDirectory, datasetId);
+                Files.copy(netCDFFile.toPath(), sourceFile.toPath());
+                inputMetadatas[i] = NetCDFMetadataBean.create(definitionId, datasetId, sourceFile.toURI(), sourceFile, sourceFile.lastModified());
+                inputFiles[i] = NcAnimateUtils.getInputFile(workingDirectory, inputMetadatas[i]);
+            }
+
+            final CyclicBarrier startBarrier = new CyclicBarrier(2);
+            final CyclicBarrier downloadedBarrier = new CyclicBarrier(2);
+            final boolean[] readable = new boolean[2];
+            final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+            List<Thread> threads = new ArrayList<Thread>();
+            for (int i=0; i<2; i++) {
+                final int index = i;
+                Thread thread = new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            startBarrier.await();
+                            File usedInputFile = NcAnimateUtils.downloadInputFile(null, null, inputFiles[index], inputMetadatas[index]);
+                            downloadedBarrier.await();
+
+                            // Both files are downloaded, the other thread replaced (or is about to replace) this thread's file
+                            readable[index] = usedInputFile.canRead() && usedInputFile.length() == netCDFFile.length();
+                            NcAnimateUtils.releaseInputFiles();
+                        } catch (Throwable ex) {
+                            errors.add(ex);
+                        }
+                    }
+                };
+                threads.add(thread);
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+
+            Assert.assertTrue(String.format("Errors occurred while downloading the input files: %s", errors), errors.isEmpty());
+            Assert.assertTrue("The first input file was deleted while it was used", readable[0]);
+            Assert.assertTrue("The second input file was deleted while it was used", readable[1]);
+            Assert.assertTrue("Only one input file per definition should be kept once they are released",
+                    inputFiles[0].exists() ^ inputFiles[1].exists());
+
+            // Single thread: the previous file of the definition is deleted when the next one is downloaded
+            File firstInputFile = NcAnimateUtils.downloadInputFile(null, null, inputFiles[0], inputMetadatas[0]);
+            Assert.assertEquals(inputFiles[0], firstInputFile);
+            File secondInputFile = NcAnimateUtils.downloadInputFile(null, null, inputFiles[1], inputMetadatas[1]);
+            Assert.assertEquals(inputFiles[1], secondInputFile);
+            Assert.assertFalse("The previous input file should be deleted", inputFiles[0].exists());
+            Assert.assertTrue(inputFiles[1].canRead());
+        } finally {
+            LocalFileIngester.setStrategies(definitionId);
+            NcAnimateUtils.clearCache();
+        }
+    }
 }
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ncanimate.commons.download;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+public class LocalFileIngesterTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testStrategies() throws Exception {
+        File sourceFile = this.temporaryFolder.newFile("gbr4_v2_2019-01.nc");
+        Files.write(sourceFile.toPath(), "NetCDF data".getBytes(StandardCharsets.UTF_8));
+        File workingDirectory = this.temporaryFolder.newFolder("working");
+
+        File linkedFile = LocalFileIngester.ingest(sourceFile, new File(workingDirectory, "linked.nc"),
+                Collections.singletonList(LocalFileStrategy.HARD_LINK));
+        Assert.assertEquals(new File(workingDirectory, "linked.nc"), linkedFile);
+        Assert.assertEquals("NetCDF data", new String(Files.readAllBytes(linkedFile.toPath()), StandardCharsets.UTF_8));
+
+        File transferredFile = LocalFileIngester.ingest(sourceFile, new File(workingDirectory, "transferred.nc"),
+                Collections.singletonList(LocalFileStrategy.TRANSFER));
+        Assert.assertEquals(new File(workingDirectory, "transferred.nc"), transferredFile);
+        Assert.assertEquals("NetCDF data", new String(Files.readAllBytes(transferredFile.toPath()), StandardCharsets.UTF_8));
+
+        File inPlaceFile = LocalFileIngester.ingest(sourceFile, new File(workingDirectory, "in-place.nc"),
+                Collections.singletonList(LocalFileStrategy.IN_PLACE));
+        Assert.assertEquals(sourceFile, inPlaceFile);
+        Assert.assertFalse(new File(workingDirectory, "in-place.nc").exists());
+    }
+
+    @Test
+    public void testFallback() throws Exception {
+        File sourceFile = this.temporaryFolder.newFile("gbr4_v2_2019-01.nc");
+        Files.write(sourceFile.toPath(), "NetCDF data".getBytes(StandardCharsets.UTF_8));
+
+        // The destination directory doesn't exist, the hard link and the copy fail
+        File destinationFile = new File(this.temporaryFolder.getRoot(), "missing/gbr4_v2_2019-01.nc");
+        File usedFile = LocalFileIngester.ingest(sourceFile, destinationFile, LocalFileIngester.LINK_OR_COPY_STRATEGIES);
+        Assert.assertEquals(sourceFile, usedFile);
+
+        // The default strategies never use the source file in place
+        try {
+            LocalFileIngester.ingest(sourceFile, destinationFile, LocalFileIngester.DEFAULT_STRATEGIES);
+            Assert.fail("IOException expected");
+        } catch (IOException ex) {
+            // Expected
+        }
+
+        try {
+            LocalFileIngester.ingest(sourceFile, destinationFile,
+                    Arrays.asList(LocalFileStrategy.HARD_LINK, LocalFileStrategy.TRANSFER));
+            Assert.fail("IOException expected");
+        } catch (IOException ex) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testDefinitionStrategies() {
+        Assert.assertEquals("Local files should be copied by default",
+                Collections.singletonList(LocalFileStrategy.TRANSFER), LocalFileIngester.DEFAULT_STRATEGIES);
+
+        LocalFileIngester.setStrategies("downloads__ereefs__gbr1_2-0", LocalFileStrategy.IN_PLACE);
+        LocalFileIngester.setStrategies("downloads__ereefs__gbr4_bgc", LocalFileIngester.LINK_OR_COPY_STRATEGIES);
+        try {
+            Assert.assertEquals(Collections.singletonList(LocalFileStrategy.IN_PLACE),
+                    LocalFileIngester.getStrategies("downloads__ereefs__gbr1_2-0"));
+            Assert.assertEquals(LocalFileIngester.LINK_OR_COPY_STRATEGIES,
+                    LocalFileIngester.getStrategies("downloads__ereefs__gbr4_bgc"));
+            Assert.assertEquals(LocalFileIngester.DEFAULT_STRATEGIES,
+                    LocalFileIngester.getStrategies("downloads__ereefs__gbr4_v2"));
+        } finally {
+            LocalFileIngester.setStrategies("downloads__ereefs__gbr1_2-0");
+            LocalFileIngester.setStrategies("downloads__ereefs__gbr4_bgc");
+        }
+        Assert.assertEquals(LocalFileIngester.DEFAULT_STRATEGIES,
+                LocalFileIngester.getStrategies("downloads__ereefs__gbr1_2-0"));
+    }
+}
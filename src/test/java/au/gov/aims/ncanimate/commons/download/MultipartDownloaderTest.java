@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ncanimate.commons.download;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class MultipartDownloaderTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testMultipartDownload() throws Exception {
+        File sourceFile = this.createSourceFile("source.nc", 1000003);
+        File destinationFile = new File(this.temporaryFolder.getRoot(), "destination.nc");
+
+        MultipartDownloader downloader = new MultipartDownloader(100000, 4, 0, 0);
+        downloader.download(new LocalFileRangeSource(sourceFile), destinationFile);
+
+        Assert.assertArrayEquals(Files.readAllBytes(sourceFile.toPath()), Files.readAllBytes(destinationFile.toPath()));
+    }
+
+    @Test
+    public void testRetryFailedParts() throws Exception {
+        File sourceFile = this.createSourceFile("source.nc", 500000);
+        File destinationFile = new File(this.temporaryFolder.getRoot(), "destination.nc");
+
+        // The first request of each part fails after sending a few bytes.
+        // The retry resumes from the last byte received, so it doesn't start at a part boundary.
+        final AtomicInteger requestCount = new AtomicInteger(0);
+        final LocalFileRangeSource localSource = new LocalFileRangeSource(sourceFile);
+        RangeSource flakySource = new RangeSource() {
+            @Override
+            public long getLength() throws IOException {
+                return localSource.getLength();
+            }
+
+            @Override
+            public InputStream openRange(long start, long end) throws IOException {
+                requestCount.incrementAndGet();
+                InputStream inputStream = localSource.openRange(start, end);
+                if (start % 100000 != 0) {
+                    return inputStream;
+                }
+                return new FilterInputStream(inputStream) {
+                    private int bytesRead = 0;
+
+                    @Override
+                    public int read(byte[] buffer, int offset, int length) throws IOException {
+                        if (this.bytesRead > 1000) {
+                            throw new IOException("Connection reset");
+                        }
+                        int read = super.read(buffer, offset, Math.min(length, 500));
+                        this.bytesRead += read;
+                        return read;
+                    }
+                };
+            }
+        };
+
+        MultipartDownloader downloader = new MultipartDownloader(100000, 3, 2, 0);
+        downloader.download(flakySource, destinationFile);
+
+        Assert.assertArrayEquals(Files.readAllBytes(sourceFile.toPath()), Files.readAllBytes(destinationFile.toPath()));
+        Assert.assertEquals("Each part should be requested twice", 10, requestCount.get());
+    }
+
+    @Test(expected = IOException.class)
+    public void testFailedPart() throws Exception {
+        File sourceFile = this.createSourceFile("source.nc", 300000);
+        File destinationFile = new File(this.temporaryFolder.getRoot(), "destination.nc");
+
+        final LocalFileRangeSource localSource = new LocalFileRangeSource(sourceFile);
+        RangeSource failingSource = new RangeSource() {
+            @Override
+            public long getLength() throws IOException {
+                return localSource.getLength();
+            }
+
+            @Override
+            public InputStream openRange(long start, long end) throws IOException {
+                if (start >= 200000) {
+                    throw new IOException("Access denied");
+                }
+                return localSource.openRange(start, end);
+            }
+        };
+
+        new MultipartDownloader(100000, 3, 1, 0).download(failingSource, destinationFile);
+    }
+
+    @Test
+    public void testChecksum() throws Exception {
+        File sourceFile = this.createSourceFile("source.nc", 1000003);
+        Checksum checksum = Checksum.parse("MD5:" + Checksum.toHex(
+                MessageDigest.getInstance("MD5").digest(Files.readAllBytes(sourceFile.toPath()))));
+        Assert.assertNotNull(checksum);
+
+        // Parts are written out of order
+        File multipartFile = new File(this.temporaryFolder.getRoot(), "multipart.nc");
+        new MultipartDownloader(100000, 4, 0, 0).createDownloadTask(new LocalFileRangeSource(sourceFile), checksum).download(multipartFile);
+        Assert.assertArrayEquals(Files.readAllBytes(sourceFile.toPath()), Files.readAllBytes(multipartFile.toPath()));
+
+        File singleStreamFile = new File(this.temporaryFolder.getRoot(), "single.nc");
+        MultipartDownloader.createSingleStreamDownloader().createDownloadTask(new LocalFileRangeSource(sourceFile), checksum).download(singleStreamFile);
+        Assert.assertArrayEquals(Files.readAllBytes(sourceFile.toPath()), Files.readAllBytes(singleStreamFile.toPath()));
+
+        Checksum wrongChecksum = Checksum.parse("md5:0123456789abcdef0123456789abcdef");
+        try {
+            new MultipartDownloader(100000, 4, 0, 0).createDownloadTask(new LocalFileRangeSource(sourceFile), wrongChecksum)
+                    .download(new File(this.temporaryFolder.getRoot(), "wrong.nc"));
+            Assert.fail("ChecksumMismatchException expected");
+        } catch (ChecksumMismatchException ex) {
+            Assert.assertEquals(checksum.getValue(), ex.getActual());
+        }
+
+        Assert.assertNull("Fingerprints are not checksums", Checksum.parse("TEMPORAL-SHA-256:" + checksum.getValue()));
+    }
+
+    @Test
+    public void testCorruptedDownload() throws Exception {
+        File sourceFile = this.createSourceFile("source.nc", 300000);
+        Checksum checksum = Checksum.parse(Checksum.toHex(
+                MessageDigest.getInstance("SHA-256").digest(Files.readAllBytes(sourceFile.toPath()))));
+        Assert.assertEquals("SHA-256", checksum.getAlgorithm());
+
+        // The source sends corrupted bytes for the first few requests
+        final AtomicInteger corruptedRequests = new AtomicInteger(1);
+        final LocalFileRangeSource localSource = new LocalFileRangeSource(sourceFile);
+        RangeSource corruptingSource = new RangeSource() {
+            @Override
+            public long getLength() throws IOException {
+                return localSource.getLength();
+            }
+
+            @Override
+            public InputStream openRange(long start, long end) throws IOException {
+                InputStream inputStream = localSource.openRange(start, end);
+                if (corruptedRequests.getAndDecrement() <= 0) {
+                    return inputStream;
+                }
+                return new FilterInputStream(inputStream) {
+                    @Override
+                    public int read(byte[] buffer, int offset, int length) throws IOException {
+                        int read = super.read(buffer, offset, length);
+                        if (read > 0) {
+                            buffer[offset] = (byte) ~buffer[offset];
+                        }
+                        return read;
+                    }
+                };
+            }
+        };
+
+        DownloadTask downloadTask = new VerifiedDownloadTask(
+                MultipartDownloader.createSingleStreamDownloader().createDownloadTask(corruptingSource, checksum), 2);
+
+        // The first attempt is corrupted, the second attempt succeed
+        File destinationFile = new File(this.temporaryFolder.getRoot(), "destination.nc");
+        Assert.assertTrue(SingleFlightDownloader.downloadAtomically(destinationFile, downloadTask));
+        Assert.assertArrayEquals(Files.readAllBytes(sourceFile.toPath()), Files.readAllBytes(destinationFile.toPath()));
+
+        // All the attempts are corrupted, the file is quarantined
+        corruptedRequests.set(2);
+        File corruptedFile = new File(this.temporaryFolder.getRoot(), "corrupted.nc");
+        try {
+            SingleFlightDownloader.downloadAtomically(corruptedFile, downloadTask);
+            Assert.fail("ChecksumMismatchException expected");
+        } catch (ChecksumMismatchException ex) {
+            // Expected
+        }
+        Assert.assertFalse(corruptedFile.exists());
+        File quarantineDirectory = new File(this.temporaryFolder.getRoot(), VerifiedDownloadTask.QUARANTINE_DIRNAME);
+        Assert.assertEquals(1, quarantineDirectory.listFiles().length);
+    }
+
+    private File createSourceFile(String filename, int size) throws IOException {
+        byte[] data = new byte[size];
+        new Random(42).nextBytes(data);
+        File sourceFile = this.temporaryFolder.newFile(filename);
+        Files.write(sourceFile.toPath(), data);
+        return sourceFile;
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ncanimate.commons.download;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SharedInputCacheTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testSharedDownload() throws Exception {
+        File cacheDirectory = this.temporaryFolder.newFolder("cache");
+        final AtomicInteger downloadCount = new AtomicInteger(0);
+        final DownloadTask downloadTask = new DownloadTask() {
+            @Override
+            public void download(File temporaryFile) throws IOException {
+                downloadCount.incrementAndGet();
+                Files.write(temporaryFile.toPath(), "NetCDF data".getBytes(StandardCharsets.UTF_8));
+            }
+        };
+
+        // Simulate 2 processes sharing the same cache directory
+        final SharedInputCache process1Cache = new SharedInputCache(cacheDirectory, 1024, SharedInputCache.DEFAULT_REFERENCE_LEASE_MS, "1@localhost");
+        final SharedInputCache process2Cache = new SharedInputCache(cacheDirectory, 1024, SharedInputCache.DEFAULT_REFERENCE_LEASE_MS, "2@localhost");
+        final String key = "downloads__ereefs__gbr4_v2/gbr4_simple_2019-01.nc_1546300800000";
+
+        int nbThreads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(nbThreads);
+        try {
+            List<Future<File>> futures = new ArrayList<Future<File>>();
+            for (int i=0; i<nbThreads; i++) {
+                final SharedInputCache cache = i % 2 == 0 ? process1Cache : process2Cache;
+                futures.add(executor.submit(new Callable<File>() {
+                    @Override
+                    public File call() throws Exception {
+                        return cache.acquire(key, downloadTask);
+                    }
+                }));
+            }
+
+            File cachedFile = null;
+            for (Future<File> future : futures) {
+                File file = future.get(10, TimeUnit.SECONDS);
+                Assert.assertNotNull(file);
+                if (cachedFile == null) {
+                    cachedFile = file;
+                }
+                Assert.assertEquals(cachedFile, file);
+            }
+            Assert.assertEquals("NetCDF data", new String(Files.readAllBytes(cachedFile.toPath()), StandardCharsets.UTF_8));
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Assert.assertEquals("The file should be downloaded once", 1, downloadCount.get());
+        Assert.assertEquals(nbThreads, process1Cache.getReferenceCount(key));
+        Assert.assertEquals("NetCDF data".length(), process2Cache.getSize());
+
+        // The lock files are deleted once the locks are released
+        Assert.assertFalse("The index lock file was not deleted", new File(cacheDirectory, "index.lock").exists());
+        File[] cachedFiles = new File(cacheDirectory, "files").listFiles();
+        Assert.assertNotNull(cachedFiles);
+        Assert.assertEquals("The download lock file was not deleted", 1, cachedFiles.length);
+
+        for (int i=0; i<nbThreads; i++) {
+            (i % 2 == 0 ? process1Cache : process2Cache).release(key);
+        }
+        Assert.assertEquals(0, process1Cache.getReferenceCount(key));
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        File cacheDirectory = this.temporaryFolder.newFolder("cache");
+        SharedInputCache cache = new SharedInputCache(cacheDirectory, 10, SharedInputCache.DEFAULT_REFERENCE_LEASE_MS, "1@localhost");
+
+        File file1 = cache.acquire("file1", new ContentDownloadTask("123456"));
+        File file2 = cache.acquire("file2", new ContentDownloadTask("abcdef"));
+
+        // Both files are referenced, the cache is allowed to exceed its maximum size
+        Assert.assertTrue(file1.exists());
+        Assert.assertTrue(file2.exists());
+        Assert.assertEquals(12, cache.getSize());
+
+        // The least recently used file which is not referenced is evicted
+        cache.release("file1");
+        Assert.assertFalse("The released file should be evicted", file1.exists());
+        Assert.assertTrue(file2.exists());
+        Assert.assertEquals(6, cache.getSize());
+
+        // The file is downloaded again when needed
+        File newFile1 = cache.acquire("file1", new ContentDownloadTask("123456"));
+        Assert.assertEquals(file1, newFile1);
+        Assert.assertTrue(newFile1.exists());
+
+        // References of a process which stopped accessing the cache are ignored
+        SharedInputCache expiredLeaseCache = new SharedInputCache(cacheDirectory, 1, 0, "2@localhost");
+        Assert.assertEquals(2, expiredLeaseCache.evict());
+        Assert.assertEquals(0, expiredLeaseCache.getSize());
+    }
+
+    @Test
+    public void testRenewReference() throws Exception {
+        File cacheDirectory = this.temporaryFolder.newFolder("cache");
+        SharedInputCache cache = new SharedInputCache(cacheDirectory, 10, 1000, "1@localhost");
+
+        File file1 = cache.acquire("file1", new ContentDownloadTask("123456"));
+        File file2 = cache.acquire("file2", new ContentDownloadTask("abcdef"));
+        Assert.assertFalse("A file which is not referenced can not be renewed", cache.renew("file3"));
+
+        // Only the reference of file1 is renewed before the end of the lease
+        Thread.sleep(600);
+        Assert.assertTrue(cache.renew("file1"));
+        Thread.sleep(600);
+
+        Assert.assertEquals(1, cache.evict());
+        Assert.assertTrue("The renewed file should not be evicted", file1.exists());
+        Assert.assertFalse("The file with an expired lease should be evicted", file2.exists());
+        Assert.assertEquals("The reference count should not change when renewed", 1, cache.getReferenceCount("file1"));
+
+        cache.release("file1");
+        Assert.assertFalse(cache.renew("file1"));
+    }
+
+    @Test
+    public void testLinkedFileNotEvicted() throws Exception {
+        File cacheDirectory = this.temporaryFolder.newFolder("cache");
+        File workingDirectory = this.temporaryFolder.newFolder("working");
+        SharedInputCache cache = new SharedInputCache(cacheDirectory, 10, SharedInputCache.DEFAULT_REFERENCE_LEASE_MS, "1@localhost");
+
+        File file1 = cache.acquire("file1", new ContentDownloadTask("123456"));
+        File linkedFile1 = new File(workingDirectory, "file1");
+        try {
+            Files.createLink(linkedFile1.toPath(), file1.toPath());
+        } catch (UnsupportedOperationException ex) {
+            Assume.assumeNoException("Hard links are not supported", ex);
+        }
+        cache.release("file1");
+
+        // The linked file doesn't use any disk space in the cache, it's not counted
+        File file2 = cache.acquire("file2", new ContentDownloadTask("abcdef"));
+        cache.release("file2");
+        Assert.assertTrue("The linked file should not be evicted", file1.exists());
+        Assert.assertTrue(file2.exists());
+
+        // Once the link is deleted, the file is counted again
+        Assert.assertTrue(linkedFile1.delete());
+        Assert.assertEquals(1, cache.evict());
+        Assert.assertFalse("The least recently used file should be evicted", file1.exists());
+        Assert.assertTrue(file2.exists());
+    }
+
+    private static class ContentDownloadTask implements DownloadTask {
+        private final String content;
+
+        public ContentDownloadTask(String content) {
+            this.content = content;
+        }
+
+        @Override
+        public void download(File temporaryFile) throws IOException {
+            Files.write(temporaryFile.toPath(), this.content.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ncanimate.commons.download;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SingleFlightDownloaderTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testConcurrentDownloads() throws Exception {
+        final File destinationFile = new File(this.temporaryFolder.getRoot(), "gbr4_v2_2019-01.nc");
+        final AtomicInteger downloadCount = new AtomicInteger(0);
+        final CountDownLatch downloadStarted = new CountDownLatch(1);
+        final CountDownLatch releaseDownload = new CountDownLatch(1);
+
+        final DownloadTask downloadTask = new DownloadTask() {
+            @Override
+            public void download(File temporaryFile) throws IOException {
+                downloadCount.incrementAndGet();
+                Assert.assertFalse("The download should not write directly to the destination file",
+                        temporaryFile.equals(destinationFile));
+                Files.write(temporaryFile.toPath(), "NetCDF data".getBytes(StandardCharsets.UTF_8));
+                downloadStarted.countDown();
+                try {
+                    releaseDownload.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException ex) {
+                    throw new IOException(ex);
+                }
+            }
+        };
+
+        int nbThreads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(nbThreads);
+        try {
+            List<Future<File>> futures = new ArrayList<Future<File>>();
+            futures.add(executor.submit(new DownloadCallable(destinationFile, downloadTask)));
+            Assert.assertTrue(downloadStarted.await(10, TimeUnit.SECONDS));
+
+            for (int i=1; i<nbThreads; i++) {
+                futures.add(executor.submit(new DownloadCallable(destinationFile, downloadTask)));
+            }
+
+            // Give the other threads some time to join the download in progress
+            Thread.sleep(200);
+            Assert.assertFalse("The destination file should not exist before the download is finished", destinationFile.exists());
+            releaseDownload.countDown();
+
+            for (Future<File> future : futures) {
+                Assert.assertEquals(destinationFile, future.get(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Assert.assertEquals("The file should be downloaded once", 1, downloadCount.get());
+        Assert.assertEquals("NetCDF data", new String(Files.readAllBytes(destinationFile.toPath()), StandardCharsets.UTF_8));
+        Assert.assertEquals("Temporary files should be deleted", 1, this.temporaryFolder.getRoot().listFiles().length);
+        Assert.assertEquals(0, SingleFlightDownloader.getInFlightCount());
+    }
+
+    @Test
+    public void testFailedDownload() throws Exception {
+        File destinationFile = new File(this.temporaryFolder.getRoot(), "gbr4_v2_2019-02.nc");
+
+        try {
+            SingleFlightDownloader.download(destinationFile, new DownloadTask() {
+                @Override
+                public void download(File temporaryFile) throws IOException {
+                    Files.write(temporaryFile.toPath(), "Partial".getBytes(StandardCharsets.UTF_8));
+                    throw new IOException("Connection reset");
+                }
+            });
+            Assert.fail("IOException expected");
+        } catch (IOException ex) {
+            Assert.assertEquals("Connection reset", ex.getMessage());
+        }
+
+        Assert.assertFalse(destinationFile.exists());
+        Assert.assertEquals("Temporary files should be deleted", 0, this.temporaryFolder.getRoot().listFiles().length);
+
+        // Missing source file
+        File missingFile = SingleFlightDownloader.download(destinationFile, new DownloadTask() {
+            @Override
+            public void download(File temporaryFile) {}
+        });
+        Assert.assertNull(missingFile);
+    }
+
+    private static class DownloadCallable implements Callable<File> {
+        private final File destinationFile;
+        private final DownloadTask downloadTask;
+
+        public DownloadCallable(File destinationFile, DownloadTask downloadTask) {
+            this.destinationFile = destinationFile;
+            this.downloadTask = downloadTask;
+        }
+
+        @Override
+        public File call() throws Exception {
+            return SingleFlightDownloader.download(this.destinationFile, this.downloadTask);
+        }
+    }
+}
@@ -0,0 +1,368 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ncanimate.commons.generator.context;
+
+import au.gov.aims.aws.s3.FileWrapper;
+import au.gov.aims.ereefs.Utils;
+import au.gov.aims.ereefs.bean.ncanimate.NcAnimateConfigBean;
+import au.gov.aims.ereefs.bean.ncanimate.NcAnimateNetCDFVariableBean;
+import au.gov.aims.ereefs.bean.ncanimate.NcAnimatePanelBean;
+import au.gov.aims.ereefs.bean.ncanimate.NcAnimateRegionBean;
+import au.gov.aims.ereefs.bean.ncanimate.render.NcAnimateRenderMapBean;
+import au.gov.aims.ereefs.database.CacheStrategy;
+import au.gov.aims.ereefs.helper.NcAnimateConfigHelper;
+import au.gov.aims.ncanimate.commons.DatabaseTestBase;
+import au.gov.aims.ncanimate.commons.NcAnimateUtils;
+import au.gov.aims.ncanimate.commons.timetable.DateTimeRange;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeSet;
+
+public class GeneratorContextTest extends DatabaseTestBase {
+    private NcAnimateConfigBean ncAnimateConfig;
+    private DateTimeZone timezone;
+
+    @Before
+    public void insertData() throws Exception {
+        super.populateDatabase();
+
+        NcAnimateConfigHelper configHelper = new NcAnimateConfigHelper(this.getDatabaseClient(), CacheStrategy.DISK);
+        this.ncAnimateConfig = configHelper.getNcAnimateConfig("gbr4_v2_temp-wind-salt-current");
+        Assert.assertNotNull("NcAnimate configuration not found", this.ncAnimateConfig);
+        this.timezone = NcAnimateUtils.getTimezone(this.ncAnimateConfig);
+    }
+
+    private GeneratorContext createContext() {
+        GeneratorContext context = new GeneratorContext(this.ncAnimateConfig);
+        context.setRegion(this.ncAnimateConfig.getRegions().get("qld"));
+        context.setTargetHeight(-1.5);
+        context.setOutputFilenamePrefix("video");
+        context.setDateRange(DateTimeRange.create(
+                new DateTime(2010, 1, 1, 0, 0, this.timezone),
+                new DateTime(2011, 1, 1, 0, 0, this.timezone)));
+        return context;
+    }
+
+    @Test
+    public void testWithRegion() throws Exception {
+        GeneratorContext context = this.createContext();
+        NcAnimateRegionBean regionBrisbane = this.ncAnimateConfig.getRegions().get("brisbane");
+
+        File frameDirectory = context.getFrameDirectory();
+        int canvasHeight = context.getCanvasHeight();
+        JSONObject jsonContext = context.toJSON();
+
+        GeneratorContext derivedContext = context.withRegion(regionBrisbane);
+
+        // The derived context is calculated for the new region
+        Assert.assertSame(regionBrisbane, derivedContext.getRegion());
+        Assert.assertNotEquals("The frame directory was not recalculated", frameDirectory, derivedContext.getFrameDirectory());
+        Assert.assertTrue(derivedContext.getFrameDirectory().getPath().contains("brisbane"));
+        Assert.assertNotEquals("The canvas dimensions were not recalculated", canvasHeight, (int)derivedContext.getCanvasHeight());
+
+        JSONObject jsonDerivedContext = derivedContext.toJSON();
+        Assert.assertEquals("brisbane", NcAnimateUtils.parseString("${ctx.region.id}", derivedContext));
+        Assert.assertEquals(derivedContext.getFrameDirectory(), jsonDerivedContext.get("frameDirectory"));
+        Assert.assertEquals((int)derivedContext.getScaledCanvasHeight(), jsonDerivedContext.getInt("canvasHeight"));
+        Assert.assertTrue(jsonDerivedContext.getString("outputFilename").contains("brisbane"));
+
+        // The parent context is not modified
+        Assert.assertSame(this.ncAnimateConfig.getRegions().get("qld"), context.getRegion());
+        Assert.assertEquals(frameDirectory, context.getFrameDirectory());
+        Assert.assertEquals(canvasHeight, (int)context.getCanvasHeight());
+        Assert.assertEquals(jsonContext.toString(), context.toJSON().toString());
+    }
+
+    @Test
+    public void testWithTargetHeight() throws Exception {
+        GeneratorContext context = this.createContext();
+
+        File frameDirectory = context.getFrameDirectory();
+        int canvasHeight = context.getCanvasHeight();
+        JSONObject jsonContext = context.toJSON();
+
+        GeneratorContext derivedContext = context.withTargetHeight(-12.75);
+
+        Assert.assertEquals(-12.75, derivedContext.getTargetHeight(), 0.0001);
+        Assert.assertNotEquals("The frame directory was not recalculated", frameDirectory, derivedContext.getFrameDirectory());
+        Assert.assertNotEquals(context.generateFrameDirectoryPath(), derivedContext.generateFrameDirectoryPath());
+        // The canvas doesn't depend on the target height
+        Assert.assertEquals(canvasHeight, (int)derivedContext.getCanvasHeight());
+
+        JSONObject jsonDerivedContext = derivedContext.toJSON();
+        Assert.assertEquals(-12.75, jsonDerivedContext.getDouble("targetHeight"), 0.0001);
+        Assert.assertEquals(derivedContext.getFrameDirectory(), jsonDerivedContext.get("frameDirectory"));
+        Assert.assertNotEquals(jsonContext.getString("outputFilename"), jsonDerivedContext.getString("outputFilename"));
+
+        // The parent context is not modified
+        Assert.assertEquals(-1.5, context.getTargetHeight(), 0.0001);
+        Assert.assertEquals(frameDirectory, context.getFrameDirectory());
+        Assert.assertEquals(jsonContext.toString(), context.toJSON().toString());
+    }
+
+    @Test
+    public void testWithDateRange() throws Exception {
+        GeneratorContext context = this.createContext();
+
+        File frameDirectory = context.getFrameDirectory();
+        JSONObject jsonContext = context.toJSON();
+
+        DateTimeRange dateRange = DateTimeRange.create(
+                new DateTime(2012, 1, 1, 0, 0, this.timezone),
+                new DateTime(2013, 1, 1, 0, 0, this.timezone));
+        GeneratorContext derivedContext = context.withDateRange(dateRange);
+
+        // The frame directory doesn't depend on the date range, it's shared with the parent
+        Assert.assertSame(frameDirectory, derivedContext.getFrameDirectory());
+
+        JSONObject jsonDerivedContext = derivedContext.toJSON();
+        Assert.assertEquals(dateRange.getStartDate(), jsonDerivedContext.get("dateFrom"));
+        Assert.assertEquals(dateRange.getEndDate(), jsonDerivedContext.get("dateTo"));
+        Assert.assertTrue(jsonDerivedContext.getString("outputFilename").contains("2012"));
+
+        // The parent context is not modified
+        Assert.assertEquals(jsonContext.toString(), context.toJSON().toString());
+        Assert.assertTrue(context.toJSON().getString("outputFilename").contains("2010"));
+    }
+
+    @Test
+    public void testWithRenderFile() throws Exception {
+        GeneratorContext context = this.createContext();
+        context.setRenderFile(this.ncAnimateConfig.getRender().getVideos().get("mp4Video"));
+
+        int canvasWidth = context.getCanvasWidth();
+        int productWidth = context.getProductWidth();
+        JSONObject jsonContext = context.toJSON();
+
+        GeneratorContext derivedContext = context.withRenderFile(this.ncAnimateConfig.getRender().getVideos().get("wmvVideo"));
+
+        // The canvas doesn't depend on the render file. The product dimensions does (maxWidth, blockSize).
+        Assert.assertEquals(canvasWidth, (int)derivedContext.getCanvasWidth());
+        Assert.assertEquals("The product dimensions were not recalculated", 1280, (int)derivedContext.getProductWidth());
+
+        JSONObject jsonDerivedContext = derivedContext.toJSON();
+        Assert.assertEquals(1280, jsonDerivedContext.getInt("productWidth"));
+        Assert.assertNotEquals(jsonContext.getString("outputFilename"), jsonDerivedContext.getString("outputFilename"));
+
+        // The parent context is not modified
+        Assert.assertEquals(productWidth, (int)context.getProductWidth());
+        Assert.assertEquals(jsonContext.toString(), context.toJSON().toString());
+    }
+
+    @Test
+    public void testToJSONAfterSetters() throws Exception {
+        GeneratorContext context = this.createContext();
+        JSONObject jsonContext = context.toJSON();
+
+        // Region: region, frame directory, dimensions and output sections
+        context.setRegion(this.ncAnimateConfig.getRegions().get("brisbane"));
+        JSONObject jsonRegionContext = context.toJSON();
+        Assert.assertEquals("brisbane", NcAnimateUtils.parseString("${ctx.region.id}", context));
+        Assert.assertNotEquals(jsonContext.get("region").toString(), jsonRegionContext.get("region").toString());
+        Assert.assertNotEquals(jsonContext.get("frameDirectory"), jsonRegionContext.get("frameDirectory"));
+        Assert.assertNotEquals(jsonContext.getInt("canvasHeight"), jsonRegionContext.getInt("canvasHeight"));
+        Assert.assertTrue(jsonRegionContext.getString("outputFilename").contains("brisbane"));
+
+        // Target height: region, paths and output sections
+        context.setTargetHeight(-12.75);
+        JSONObject jsonTargetHeightContext = context.toJSON();
+        Assert.assertEquals(-12.75, jsonTargetHeightContext.getDouble("targetHeight"), 0.0001);
+        Assert.assertEquals("The paths section was not recalculated",
+                context.getFrameDirectory(), jsonTargetHeightContext.get("frameDirectory"));
+        Assert.assertNotEquals(jsonRegionContext.get("frameDirectory"), jsonTargetHeightContext.get("frameDirectory"));
+        Assert.assertEquals(new File(context.getFrameDirectory(), GeneratorContext.VIDEO_FRAME_DIRECTORY),
+                jsonTargetHeightContext.get("videoFrameDirectory"));
+        Assert.assertNotEquals(jsonRegionContext.getString("outputFilename"), jsonTargetHeightContext.getString("outputFilename"));
+
+        // Date range: dates and output sections
+        DateTimeRange dateRange = DateTimeRange.create(
+                new DateTime(2012, 1, 1, 0, 0, this.timezone),
+                new DateTime(2013, 1, 1, 0, 0, this.timezone));
+        context.setDateRange(dateRange);
+        JSONObject jsonDateRangeContext = context.toJSON();
+        Assert.assertEquals(dateRange.getStartDate(), jsonDateRangeContext.get("dateFrom"));
+        Assert.assertTrue(jsonDateRangeContext.getString("outputFilename").contains("2012"));
+
+        // Frame time increment: dates section
+        context.setFrameTimeIncrement(this.ncAnimateConfig.getFrameTimeIncrement());
+        Assert.assertEquals(NcAnimateUtils.getTimeIncrementLabel(this.ncAnimateConfig.getFrameTimeIncrement()),
+                context.toJSON().opt("framePeriod"));
+
+        // Output filename prefix: output section
+        context.setOutputFilenamePrefix("map");
+        Assert.assertTrue(context.toJSON().getString("outputFilename").startsWith("map"));
+
+        // Panel: panel section
+        context.setPanelConfig(this.ncAnimateConfig.getPanels().get(0));
+        JSONObject jsonPanel = context.toJSON().getJSONObject("panel");
+        Assert.assertEquals(context.getPanelVariableIdsStr(), jsonPanel.getString("variableIds"));
+
+        // Render file: dimensions and output sections
+        context.setRenderFile(this.ncAnimateConfig.getRender().getVideos().get("wmvVideo"));
+        JSONObject jsonRenderFileContext = context.toJSON();
+        Assert.assertEquals(1280, jsonRenderFileContext.getInt("productWidth"));
+        Assert.assertNotNull(jsonRenderFileContext.opt("renderFile"));
+
+        // Nothing changed, the sections are reused
+        Assert.assertEquals(jsonRenderFileContext.toString(), context.toJSON().toString());
+    }
+
+    @Test
+    public void testFrameFiles() throws Exception {
+        GeneratorContext context = this.createContext();
+
+        DateTimeRange frameDateRange = DateTimeRange.create(
+                new DateTime(2010, 1, 1, 0, 0, this.timezone),
+                new DateTime(2010, 1, 2, 0, 0, this.timezone));
+        DateTimeRange nextFrameDateRange = DateTimeRange.create(
+                new DateTime(2010, 1, 2, 0, 0, this.timezone),
+                new DateTime(2010, 1, 3, 0, 0, this.timezone));
+
+        // The frame formats only depends on the configuration: map formats, plus PNG for the videos
+        Set<NcAnimateRenderMapBean.MapFormat> frameFormats = context.getConfigState().getFrameFormats();
+        Assert.assertEquals(EnumSet.of(NcAnimateRenderMapBean.MapFormat.SVG, NcAnimateRenderMapBean.MapFormat.PNG), frameFormats);
+        Assert.assertSame("The frame formats were not cached", frameFormats, context.getConfigState().getFrameFormats());
+        Assert.assertSame("The frame formats are not shared with the derived contexts",
+                frameFormats, context.withRegion(this.ncAnimateConfig.getRegions().get("brisbane")).getConfigState().getFrameFormats());
+
+        // Same frame: same files
+        Map<NcAnimateRenderMapBean.MapFormat, FileWrapper> frameFileMap = context.getFrameFileWrapperMap(frameDateRange);
+        Assert.assertEquals(frameFormats, frameFileMap.keySet());
+        Map<NcAnimateRenderMapBean.MapFormat, FileWrapper> sameFrameFileMap = context.getFrameFileWrapperMap(frameDateRange);
+        for (NcAnimateRenderMapBean.MapFormat format : frameFormats) {
+            Assert.assertEquals(frameFileMap.get(format).getFile(), sameFrameFileMap.get(format).getFile());
+        }
+
+        // Each format has its own file, in the frame directory
+        File svgFile = frameFileMap.get(NcAnimateRenderMapBean.MapFormat.SVG).getFile();
+        File pngFile = frameFileMap.get(NcAnimateRenderMapBean.MapFormat.PNG).getFile();
+        Assert.assertNotEquals(svgFile, pngFile);
+        Assert.assertEquals(context.getFrameDirectory(), svgFile.getParentFile());
+        Assert.assertEquals(context.getFrameDirectory(), pngFile.getParentFile());
+        Assert.assertTrue(svgFile.getName().endsWith("." + NcAnimateRenderMapBean.MapFormat.SVG.getExtension()));
+
+        // Different date range: different files, same directory
+        Map<NcAnimateRenderMapBean.MapFormat, FileWrapper> nextFrameFileMap = context.getFrameFileWrapperMap(nextFrameDateRange);
+        File nextSvgFile = nextFrameFileMap.get(NcAnimateRenderMapBean.MapFormat.SVG).getFile();
+        Assert.assertNotEquals(svgFile, nextSvgFile);
+        Assert.assertEquals(svgFile.getParentFile(), nextSvgFile.getParentFile());
+
+        // Different region: different directory
+        GeneratorContext brisbaneContext = context.withRegion(this.ncAnimateConfig.getRegions().get("brisbane"));
+        File brisbaneSvgFile = brisbaneContext.getFrameFileWrapperMap(frameDateRange).get(NcAnimateRenderMapBean.MapFormat.SVG).getFile();
+        Assert.assertEquals(svgFile.getName(), brisbaneSvgFile.getName());
+        Assert.assertNotEquals(svgFile.getParentFile(), brisbaneSvgFile.getParentFile());
+
+        // Frame files of a list of frames
+        SortedMap<DateTimeRange, Map<NcAnimateRenderMapBean.MapFormat, FileWrapper>> frameFileMaps =
+                context.getFrameFileWrapperMaps(Arrays.asList(frameDateRange, nextFrameDateRange));
+        Assert.assertEquals(2, frameFileMaps.size());
+        Assert.assertEquals(svgFile, frameFileMaps.get(frameDateRange).get(NcAnimateRenderMapBean.MapFormat.SVG).getFile());
+        Assert.assertEquals(nextSvgFile, frameFileMaps.get(nextFrameDateRange).get(NcAnimateRenderMapBean.MapFormat.SVG).getFile());
+    }
+
+    /**
+     * The list of keys used to validate the templates (getJSONKeys) must match
+     * the keys of the JSON representation of the context.
+     */
+    @Test
+    public void testJSONKeys() throws Exception {
+        GeneratorContext context = this.createContext();
+        context.setPanelConfig(this.ncAnimateConfig.getPanels().get(0));
+        context.setRenderFile(this.ncAnimateConfig.getRender().getVideos().get("mp4Video"));
+        context.setFrameTimeIncrement(this.ncAnimateConfig.getFrameTimeIncrement());
+
+        Set<String> jsonKeys = context.toJSON().keySet();
+        Set<String> expectedKeys = context.getJSONKeys();
+
+        Set<String> undeclaredKeys = new TreeSet<String>(jsonKeys);
+        undeclaredKeys.removeAll(expectedKeys);
+        Assert.assertTrue(String.format("Keys missing from getJSONKeys: %s", undeclaredKeys), undeclaredKeys.isEmpty());
+
+        Set<String> missingKeys = new TreeSet<String>(expectedKeys);
+        missingKeys.removeAll(jsonKeys);
+        Assert.assertTrue(String.format("Keys missing from toJSON: %s", missingKeys), missingKeys.isEmpty());
+    }
+
+    @Test
+    public void testConfigStateSharedByConfig() throws Exception {
+        GeneratorContext context = new GeneratorContext(this.ncAnimateConfig);
+        GeneratorContext otherContext = new GeneratorContext(this.ncAnimateConfig);
+
+        Assert.assertNotSame(context, otherContext);
+        Assert.assertSame("The config state is not shared between the contexts of a configuration",
+                context.getConfigState(), otherContext.getConfigState());
+        Assert.assertSame(context.getOutputDirectory(), otherContext.getOutputDirectory());
+    }
+
+    @Test
+    public void testPrepareFrameDirectory() throws Exception {
+        GeneratorContext context = this.createContext();
+
+        File frameDirectory = context.getFrameDirectory();
+        Assert.assertTrue("The frame directory was not created", frameDirectory.isDirectory());
+
+        Utils.deleteDirectory(frameDirectory);
+        Assert.assertFalse(frameDirectory.exists());
+
+        context.prepareFrameDirectory();
+        Assert.assertTrue("The frame directory was not re-created", frameDirectory.isDirectory());
+        Assert.assertSame(frameDirectory, context.getFrameDirectory());
+    }
+
+    @Test
+    public void testPanelVariableMaps() throws Exception {
+        GeneratorContext context = this.createContext();
+        NcAnimatePanelBean tempPanel = this.ncAnimateConfig.getPanels().get(0);
+        NcAnimatePanelBean saltPanel = this.ncAnimateConfig.getPanels().get(1);
+
+        context.setPanelConfig(tempPanel);
+        Map<String, NcAnimateNetCDFVariableBean> tempVariableMap = context.getPanelVariableMap();
+        Assert.assertFalse("No variable found for the panel", tempVariableMap.isEmpty());
+
+        // Same panel: same map, shared with the derived contexts
+        Assert.assertSame("The panel variable map was not cached", tempVariableMap, context.getPanelVariableMap());
+        GeneratorContext derivedContext = context.withRegion(this.ncAnimateConfig.getRegions().get("brisbane"));
+        Assert.assertSame("The panel variable map is not shared with the derived contexts",
+                tempVariableMap, derivedContext.getPanelVariableMap());
+        Assert.assertSame(context.getPanelVariableIdsStr(), derivedContext.getPanelVariableIdsStr());
+
+        // Different panel: different map
+        derivedContext.setPanelConfig(saltPanel);
+        Map<String, NcAnimateNetCDFVariableBean> saltVariableMap = derivedContext.getPanelVariableMap();
+        Assert.assertNotSame(tempVariableMap, saltVariableMap);
+        Assert.assertNotEquals(tempVariableMap.keySet(), saltVariableMap.keySet());
+        Assert.assertSame(saltVariableMap, context.getConfigState().getPanelVariableMap(saltPanel));
+
+        // The variables of all the panels
+        String variableIdsStr = context.getVariableIdsStr();
+        Assert.assertSame("The variable IDs were not cached", variableIdsStr, derivedContext.getVariableIdsStr());
+        for (String variableId : tempVariableMap.keySet()) {
+            Assert.assertTrue(String.format("Missing variable %s", variableId), variableIdsStr.contains(variableId));
+        }
+        for (String variableId : saltVariableMap.keySet()) {
+            Assert.assertTrue(String.format("Missing variable %s", variableId), variableIdsStr.contains(variableId));
+        }
+
+        // The cached maps are shared, they can not be modified
+        try {
+            tempVariableMap.clear();
+            Assert.fail("The cached panel variable map can be modified");
+        } catch (UnsupportedOperationException ex) {
+            // Expected
+        }
+    }
+}
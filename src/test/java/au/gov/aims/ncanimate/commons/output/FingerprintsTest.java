@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ncanimate.commons.output;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FingerprintsTest {
+
+    @Test
+    public void testNormalise() {
+        JSONObject jsonConfig = new JSONObject()
+            .put("_id", "gbr4_v2_temp-wind-salt-current")
+            .put("lastModified", 1546300800000L)
+            .put("panels", new JSONArray()
+                .put(new JSONObject()
+                    .put("title", "Temperature")
+                    .put("lastModified", 1546300800000L)
+                    .put("layers", new JSONArray().put("temp").put("wind"))));
+
+        JSONObject touchedJsonConfig = new JSONObject()
+            .put("panels", new JSONArray()
+                .put(new JSONObject()
+                    .put("layers", new JSONArray().put("temp").put("wind"))
+                    .put("lastModified", 1577836800000L)
+                    .put("title", "Temperature")))
+            .put("lastModified", 1577836800000L)
+            .put("_id", "gbr4_v2_temp-wind-salt-current");
+
+        StringBuilder normalised = new StringBuilder();
+        Fingerprints.normalise(jsonConfig, normalised);
+        Assert.assertEquals("{\"_id\":\"gbr4_v2_temp-wind-salt-current\",\"panels\":[{\"layers\":[\"temp\",\"wind\"],\"title\":\"Temperature\"}]}",
+                normalised.toString());
+
+        StringBuilder touchedNormalised = new StringBuilder();
+        Fingerprints.normalise(touchedJsonConfig, touchedNormalised);
+        Assert.assertEquals("Key order and last modified timestamps should not change the normalised config",
+                normalised.toString(), touchedNormalised.toString());
+
+        // Layer order matters
+        JSONObject modifiedJsonConfig = new JSONObject(jsonConfig.toString());
+        modifiedJsonConfig.getJSONArray("panels").getJSONObject(0).put("layers", new JSONArray().put("wind").put("temp"));
+        StringBuilder modifiedNormalised = new StringBuilder();
+        Fingerprints.normalise(modifiedJsonConfig, modifiedNormalised);
+        Assert.assertNotEquals(normalised.toString(), modifiedNormalised.toString());
+    }
+}
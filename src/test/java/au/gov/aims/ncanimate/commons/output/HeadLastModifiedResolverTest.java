@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ncanimate.commons.output;
+
+import com.amazonaws.http.timers.client.ClientExecutionTimeoutException;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.GetObjectMetadataRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+
+public class HeadLastModifiedResolverTest {
+
+    @After
+    public void resetSharedExecutor() {
+        HeadLastModifiedResolver.shutdownSharedExecutor();
+        HeadLastModifiedResolver.setSharedThreadCount(HeadLastModifiedResolver.DEFAULT_THREAD_COUNT);
+    }
+
+    @Test
+    public void testQueuedRequests() throws Exception {
+        List<URI> fileURIs = new ArrayList<URI>();
+        for (int i=0; i<6; i++) {
+            fileURIs.add(new URI(String.format("s3://bucket/products/video_%d.mp4", i)));
+        }
+
+        // A single thread, each request takes 100ms: the last request is sent 500ms after the first one.
+        // The timeout (200ms) only applies to the requests, the requests waiting in the queue should not time out.
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            HeadLastModifiedResolver resolver = new HeadLastModifiedResolver(null, executor, 200) {
+                @Override
+                protected Long requestLastModified(URI fileURI) {
+                    try {
+                        Thread.sleep(100);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return 1000L;
+                }
+            };
+
+            Map<String, Long> lastModifiedMap = resolver.getLastModified(fileURIs);
+            Assert.assertEquals(6, lastModifiedMap.size());
+            for (URI fileURI : fileURIs) {
+                Assert.assertEquals(String.format("The queued request %s timed out", fileURI),
+                        Long.valueOf(1000L), lastModifiedMap.get(fileURI.toString()));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testRequestTimeout() throws Exception {
+        final URI slowFileURI = new URI("s3://bucket/products/slow.mp4");
+        final URI fileURI = new URI("s3://bucket/products/video.mp4");
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            HeadLastModifiedResolver resolver = new HeadLastModifiedResolver(null, executor, 200) {
+                @Override
+                protected Long requestLastModified(URI requestedFileURI) {
+                    if (slowFileURI.equals(requestedFileURI)) {
+                        // Thrown by the S3 client when the request takes longer than the timeout
+                        throw new ClientExecutionTimeoutException();
+                    }
+                    return 1000L;
+                }
+            };
+
+            List<URI> fileURIs = new ArrayList<URI>();
+            fileURIs.add(fileURI);
+            fileURIs.add(slowFileURI);
+
+            try {
+                resolver.getLastModified(fileURIs);
+                Assert.fail("A request which timed out should fail the check");
+            } catch (ClientExecutionTimeoutException ex) {
+                // Expected
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testMissingFile() throws Exception {
+        final URI missingFileURI = new URI("s3://bucket/products/missing.mp4");
+        final URI fileURI = new URI("s3://bucket/products/video.mp4");
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            HeadLastModifiedResolver resolver = new HeadLastModifiedResolver(null, executor, 200) {
+                @Override
+                protected ObjectMetadata requestObjectMetadata(GetObjectMetadataRequest request) {
+                    if (request.getKey().endsWith("missing.mp4")) {
+                        throw HeadLastModifiedResolverTest.createS3Exception(404);
+                    }
+                    ObjectMetadata metadata = new ObjectMetadata();
+                    metadata.setLastModified(new Date(1000L));
+                    return metadata;
+                }
+            };
+
+            List<URI> fileURIs = new ArrayList<URI>();
+            fileURIs.add(missingFileURI);
+            fileURIs.add(fileURI);
+
+            Map<String, Long> lastModifiedMap = resolver.getLastModified(fileURIs);
+            Assert.assertEquals(2, lastModifiedMap.size());
+            Assert.assertTrue(lastModifiedMap.containsKey(missingFileURI.toString()));
+            Assert.assertNull("A file which is not found should be considered as missing",
+                    lastModifiedMap.get(missingFileURI.toString()));
+            Assert.assertEquals(Long.valueOf(1000L), lastModifiedMap.get(fileURI.toString()));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testRequestError() throws Exception {
+        final URI fileURI = new URI("s3://bucket/products/video.mp4");
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            for (final int statusCode : new int[]{ 403, 500, 503 }) {
+                HeadLastModifiedResolver resolver = new HeadLastModifiedResolver(null, executor, 200) {
+                    @Override
+                    protected ObjectMetadata requestObjectMetadata(GetObjectMetadataRequest request) {
+                        throw HeadLastModifiedResolverTest.createS3Exception(statusCode);
+                    }
+                };
+
+                try {
+                    resolver.getLastModified(Collections.singletonList(fileURI));
+                    Assert.fail(String.format("A request which failed with status %d should fail the check", statusCode));
+                } catch (AmazonS3Exception ex) {
+                    Assert.assertEquals(statusCode, ex.getStatusCode());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static AmazonS3Exception createS3Exception(int statusCode) {
+        AmazonS3Exception exception = new AmazonS3Exception(String.format("Status %d", statusCode));
+        exception.setStatusCode(statusCode);
+        return exception;
+    }
+
+    @Test
+    public void testSharedExecutor() throws Exception {
+        HeadLastModifiedResolver.setSharedThreadCount(4);
+        ThreadPoolExecutor executor = (ThreadPoolExecutor) HeadLastModifiedResolver.getSharedExecutor();
+        Assert.assertEquals(4, executor.getMaximumPoolSize());
+        Assert.assertSame(executor, HeadLastModifiedResolver.getSharedExecutor());
+
+        // Resized
+        HeadLastModifiedResolver.setSharedThreadCount(8);
+        Assert.assertEquals(8, executor.getMaximumPoolSize());
+        Assert.assertEquals(8, executor.getCorePoolSize());
+        HeadLastModifiedResolver.setSharedThreadCount(2);
+        Assert.assertEquals(2, executor.getMaximumPoolSize());
+        Assert.assertEquals(2, executor.getCorePoolSize());
+
+        // Closed, a new executor is created when needed
+        HeadLastModifiedResolver.shutdownSharedExecutor();
+        Assert.assertTrue(executor.isShutdown());
+        ExecutorService newExecutor = HeadLastModifiedResolver.getSharedExecutor();
+        Assert.assertNotSame(executor, newExecutor);
+        Assert.assertFalse(newExecutor.isShutdown());
+    }
+}
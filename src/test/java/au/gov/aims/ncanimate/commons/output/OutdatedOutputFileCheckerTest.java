@@ -0,0 +1,419 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ncanimate.commons.output;
+
+import au.gov.aims.ereefs.bean.metadata.netcdf.NetCDFMetadataBean;
+import au.gov.aims.ereefs.bean.ncanimate.NcAnimateConfigBean;
+import au.gov.aims.ereefs.database.CacheStrategy;
+import au.gov.aims.ereefs.database.manager.MetadataManager;
+import au.gov.aims.ereefs.helper.NcAnimateConfigHelper;
+import au.gov.aims.ncanimate.commons.DatabaseTestBase;
+import au.gov.aims.ncanimate.commons.NcAnimateGenerateFileBean;
+import au.gov.aims.ncanimate.commons.NcAnimateUtils;
+import au.gov.aims.ncanimate.commons.timetable.DateTimeRange;
+import au.gov.aims.ncanimate.commons.timetable.FrameTimetableMap;
+import au.gov.aims.ncanimate.commons.timetable.ProductTimetable;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+public class OutdatedOutputFileCheckerTest extends DatabaseTestBase {
+    // The input file is older than the configuration (2019-08-15),
+    //   so the output files can be newer than the input but older than the config.
+    private static final long INPUT_LAST_MODIFIED = new DateTime(2019, 1, 1, 0, 0, DateTimeZone.UTC).getMillis();
+    private static final String INPUT_CHECKSUM = "MD5:5f238185be1919bfb3ad928b29802aa8";
+    private static final long ONE_HOUR = 60 * 60 * 1000;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private NcAnimateConfigBean config;
+    private ProductTimetable productTimetable;
+    private long configLastModified;
+
+    // Fake remote storage
+    // Key: Output file URI
+    // Value: Last modified timestamp
+    private Map<String, Long> storage;
+
+    @Before
+    public void insertData() throws Exception {
+        super.populateDatabase();
+        this.storage = new HashMap<String, Long>();
+    }
+
+    /**
+     * Insert the input file and plan the product.
+     * @param inputChecksum Checksum of the input file, null for an input file without checksum.
+     * @throws Exception
+     */
+    private void init(String inputChecksum) throws Exception {
+        this.insertInputFile(INPUT_LAST_MODIFIED, inputChecksum);
+
+        NcAnimateConfigHelper configHelper = new NcAnimateConfigHelper(this.getDatabaseClient(), CacheStrategy.DISK);
+        this.config = configHelper.getNcAnimateConfig("gbr4_v2_temp-wind-salt-current");
+        this.productTimetable = new ProductTimetable(this.config, this.getDatabaseClient());
+        this.configLastModified = this.config.getLastModifiedConfigPart().getLastModified();
+
+        Assert.assertTrue("The input file must be older than the configuration", INPUT_LAST_MODIFIED < this.configLastModified);
+    }
+
+    @Test
+    public void testMissingOutputFile() throws Exception {
+        this.init(INPUT_CHECKSUM);
+        NcAnimateGenerateFileBean videoFile = this.getVideoFile();
+        List<URI> outputFileURIs = NcAnimateUtils.getOutputFileURIs(videoFile, this.config, null);
+        this.setOutputLastModified(outputFileURIs.subList(1, outputFileURIs.size()), this.configLastModified + ONE_HOUR);
+
+        OutdatedOutputFileChecker checker = new OutdatedOutputFileChecker(this.config, this.createListingResolver());
+        OutdatedOutputFile outdatedOutputFile = checker.check(videoFile, this.productTimetable.getVideoFrames(), null);
+        Assert.assertNotNull("The output file should be outdated", outdatedOutputFile);
+        Assert.assertEquals(OutdatedOutputFile.Reason.MISSING_OUTPUT_FILE, outdatedOutputFile.getReason());
+        Assert.assertTrue(outdatedOutputFile.getMessage().contains(outputFileURIs.get(0).toString()));
+
+        Assert.assertEquals("All the frames should be re-generated", this.getAllFrames(videoFile),
+                checker.getStaleFrames(videoFile, this.productTimetable.getVideoFrames(), null));
+    }
+
+    @Test
+    public void testUpToDate() throws Exception {
+        this.init(INPUT_CHECKSUM);
+        this.setOutputLastModified(this.getAllOutputFileURIs(), this.configLastModified + ONE_HOUR);
+
+        PrefixListingLastModifiedResolver resolver = this.createListingResolver();
+        OutdatedOutputFileChecker checker = new OutdatedOutputFileChecker(this.config, resolver);
+        Assert.assertTrue("No output file should be outdated",
+                checker.getOutdatedOutputFiles(this.productTimetable, null).isEmpty());
+        Assert.assertTrue("Output files should be found by listing their prefix", resolver.getListCount() > 0);
+
+        NcAnimateGenerateFileBean videoFile = this.getVideoFile();
+        Assert.assertNull(checker.check(videoFile, this.productTimetable.getVideoFrames(), null));
+        Assert.assertTrue(checker.getStaleFrames(videoFile, this.productTimetable.getVideoFrames(), null).isEmpty());
+    }
+
+    @Test
+    public void testInputMoreRecent() throws Exception {
+        this.init(INPUT_CHECKSUM);
+        NcAnimateGenerateFileBean videoFile = this.getVideoFile();
+        this.setOutputLastModified(NcAnimateUtils.getOutputFileURIs(videoFile, this.config, null), INPUT_LAST_MODIFIED - ONE_HOUR);
+
+        OutdatedOutputFileChecker checker = new OutdatedOutputFileChecker(this.config, this.createListingResolver());
+        OutdatedOutputFile outdatedOutputFile = checker.check(videoFile, this.productTimetable.getVideoFrames(), null);
+        Assert.assertNotNull("The output file should be outdated", outdatedOutputFile);
+        Assert.assertEquals(OutdatedOutputFile.Reason.INPUT_MORE_RECENT, outdatedOutputFile.getReason());
+
+        // The video only uses one input file, all its frames are stale
+        Assert.assertEquals(this.getAllFrames(videoFile),
+                checker.getStaleFrames(videoFile, this.productTimetable.getVideoFrames(), null));
+    }
+
+    @Test
+    public void testConfigMoreRecent() throws Exception {
+        this.init(INPUT_CHECKSUM);
+        NcAnimateGenerateFileBean videoFile = this.getVideoFile();
+        this.setOutputLastModified(NcAnimateUtils.getOutputFileURIs(videoFile, this.config, null), INPUT_LAST_MODIFIED + ONE_HOUR);
+
+        OutdatedOutputFileChecker checker = new OutdatedOutputFileChecker(this.config, this.createListingResolver());
+        OutdatedOutputFile outdatedOutputFile = checker.check(videoFile, this.productTimetable.getVideoFrames(), null);
+        Assert.assertNotNull("The output file should be outdated", outdatedOutputFile);
+        Assert.assertEquals(OutdatedOutputFile.Reason.CONFIG_MORE_RECENT, outdatedOutputFile.getReason());
+
+        Assert.assertEquals(this.getAllFrames(videoFile),
+                checker.getStaleFrames(videoFile, this.productTimetable.getVideoFrames(), null));
+    }
+
+    @Test
+    public void testManifestResolver() throws Exception {
+        this.init(INPUT_CHECKSUM);
+        List<URI> outputFileURIs = this.getAllOutputFileURIs();
+        this.setOutputLastModified(outputFileURIs, this.configLastModified + ONE_HOUR);
+
+        OutputManifest manifest = new OutputManifest(this.temporaryFolder.newFile("output.jsonl"));
+        ManifestLastModifiedResolver resolver = new ManifestLastModifiedResolver(manifest, this.createListingResolver());
+
+        Assert.assertTrue(new OutdatedOutputFileChecker(this.config, resolver, manifest)
+                .getOutdatedOutputFiles(this.productTimetable, null).isEmpty());
+        Assert.assertEquals("The first check should request the remote storage",
+                outputFileURIs.size(), resolver.getRemoteCheckCount());
+        Assert.assertEquals("The output files should be recorded in the manifest", outputFileURIs.size(), manifest.size());
+
+        // Second run: the remote storage changed, but the manifest entries were verified recently
+        this.storage.clear();
+        Assert.assertTrue(new OutdatedOutputFileChecker(this.config, resolver, manifest)
+                .getOutdatedOutputFiles(this.productTimetable, null).isEmpty());
+        Assert.assertEquals(outputFileURIs.size(), resolver.getManifestHitCount());
+        Assert.assertEquals(outputFileURIs.size(), resolver.getRemoteCheckCount());
+
+        // Unverified entries are requested again, the missing output files are found
+        ManifestLastModifiedResolver verifyingResolver = new ManifestLastModifiedResolver(manifest, this.createListingResolver(), 0);
+        NcAnimateGenerateFileBean videoFile = this.getVideoFile();
+        OutdatedOutputFile outdatedOutputFile = new OutdatedOutputFileChecker(this.config, verifyingResolver, manifest)
+                .check(videoFile, this.productTimetable.getVideoFrames(), null);
+        Assert.assertNotNull("The output file should be outdated", outdatedOutputFile);
+        Assert.assertEquals(OutdatedOutputFile.Reason.MISSING_OUTPUT_FILE, outdatedOutputFile.getReason());
+    }
+
+    @Test
+    public void testFingerprintUnchanged() throws Exception {
+        this.init(INPUT_CHECKSUM);
+        NcAnimateGenerateFileBean videoFile = this.getVideoFile();
+        List<URI> outputFileURIs = NcAnimateUtils.getOutputFileURIs(videoFile, this.config, null);
+        this.setOutputLastModified(outputFileURIs, INPUT_LAST_MODIFIED - ONE_HOUR);
+
+        // The timestamps say the output file is outdated, the fingerprints say the inputs are the same
+        OutputManifest manifest = new OutputManifest(new File(this.temporaryFolder.getRoot(), "output.jsonl"));
+        List<FrameTimetableMap> inputs = this.productTimetable.getVideoFrames().get(videoFile.getDateRange());
+        for (URI outputFileURI : outputFileURIs) {
+            manifest.record(outputFileURI, INPUT_LAST_MODIFIED - ONE_HOUR, inputs, this.config);
+        }
+
+        OutdatedOutputFileChecker checker = new OutdatedOutputFileChecker(this.config, this.createListingResolver(), manifest);
+        Assert.assertNull("The output file should not be outdated",
+                checker.check(videoFile, this.productTimetable.getVideoFrames(), null));
+        Assert.assertTrue(checker.getStaleFrames(videoFile, this.productTimetable.getVideoFrames(), null).isEmpty());
+    }
+
+    @Test
+    public void testFingerprintChanged() throws Exception {
+        this.init(INPUT_CHECKSUM);
+        NcAnimateGenerateFileBean videoFile = this.getVideoFile();
+        List<URI> outputFileURIs = NcAnimateUtils.getOutputFileURIs(videoFile, this.config, null);
+        this.setOutputLastModified(outputFileURIs, INPUT_LAST_MODIFIED - ONE_HOUR);
+
+        List<FrameTimetableMap> inputs = this.productTimetable.getVideoFrames().get(videoFile.getDateRange());
+        Map<String, String> changedInputFingerprints = new HashMap<String, String>();
+        for (String inputId : Fingerprints.getInputFingerprints(inputs).keySet()) {
+            changedInputFingerprints.put(inputId, "MD5:00000000000000000000000000000000");
+        }
+
+        OutputManifest manifest = new OutputManifest(new File(this.temporaryFolder.getRoot(), "output.jsonl"));
+        String configFingerprint = Fingerprints.getConfigFingerprint(this.config);
+        for (URI outputFileURI : outputFileURIs) {
+            manifest.append(new OutputManifestEntry(outputFileURI.toString(), INPUT_LAST_MODIFIED - ONE_HOUR,
+                    System.currentTimeMillis(), changedInputFingerprints, configFingerprint));
+        }
+
+        OutdatedOutputFileChecker checker = new OutdatedOutputFileChecker(this.config, this.createListingResolver(), manifest);
+        OutdatedOutputFile outdatedOutputFile = checker.check(videoFile, this.productTimetable.getVideoFrames(), null);
+        Assert.assertNotNull("The output file should be outdated", outdatedOutputFile);
+        Assert.assertEquals(OutdatedOutputFile.Reason.INPUT_MORE_RECENT, outdatedOutputFile.getReason());
+
+        Assert.assertEquals("The frames using the changed input should be re-generated", this.getAllFrames(videoFile),
+                checker.getStaleFrames(videoFile, this.productTimetable.getVideoFrames(), null));
+    }
+
+    @Test
+    public void testConfigFingerprint() throws Exception {
+        this.init(INPUT_CHECKSUM);
+        NcAnimateGenerateFileBean videoFile = this.getVideoFile();
+        List<URI> outputFileURIs = NcAnimateUtils.getOutputFileURIs(videoFile, this.config, null);
+        this.setOutputLastModified(outputFileURIs, INPUT_LAST_MODIFIED + ONE_HOUR);
+
+        List<FrameTimetableMap> inputs = this.productTimetable.getVideoFrames().get(videoFile.getDateRange());
+        Map<String, String> inputFingerprints = Fingerprints.getInputFingerprints(inputs);
+
+        // The config part was touched, but the config didn't change
+        OutputManifest manifest = new OutputManifest(new File(this.temporaryFolder.getRoot(), "output.jsonl"));
+        for (URI outputFileURI : outputFileURIs) {
+            manifest.append(new OutputManifestEntry(outputFileURI.toString(), INPUT_LAST_MODIFIED + ONE_HOUR,
+                    System.currentTimeMillis(), inputFingerprints, Fingerprints.getConfigFingerprint(this.config)));
+        }
+        OutdatedOutputFileChecker checker = new OutdatedOutputFileChecker(this.config, this.createListingResolver(), manifest);
+        Assert.assertNull("The output file should not be outdated",
+                checker.check(videoFile, this.productTimetable.getVideoFrames(), null));
+
+        // The config changed
+        OutputManifest changedConfigManifest = new OutputManifest(new File(this.temporaryFolder.getRoot(), "changed.jsonl"));
+        for (URI outputFileURI : outputFileURIs) {
+            changedConfigManifest.append(new OutputManifestEntry(outputFileURI.toString(), INPUT_LAST_MODIFIED + ONE_HOUR,
+                    System.currentTimeMillis(), inputFingerprints, "SHA-256:previous-config"));
+        }
+        OutdatedOutputFileChecker changedConfigChecker = new OutdatedOutputFileChecker(this.config, this.createListingResolver(), changedConfigManifest);
+        OutdatedOutputFile outdatedOutputFile = changedConfigChecker.check(videoFile, this.productTimetable.getVideoFrames(), null);
+        Assert.assertNotNull("The output file should be outdated", outdatedOutputFile);
+        Assert.assertEquals(OutdatedOutputFile.Reason.CONFIG_MORE_RECENT, outdatedOutputFile.getReason());
+        Assert.assertEquals(this.getAllFrames(videoFile),
+                changedConfigChecker.getStaleFrames(videoFile, this.productTimetable.getVideoFrames(), null));
+    }
+
+    @Test
+    public void testRecordGenerated() throws Exception {
+        this.init(INPUT_CHECKSUM);
+        NcAnimateGenerateFileBean videoFile = this.getVideoFile();
+        List<URI> outputFileURIs = NcAnimateUtils.getOutputFileURIs(videoFile, this.config, null);
+
+        File manifestFile = new File(this.temporaryFolder.getRoot(), "output.jsonl");
+        OutputManifest manifest = new OutputManifest(manifestFile);
+        OutdatedOutputFileChecker checker = new OutdatedOutputFileChecker(this.config, this.createListingResolver(), manifest);
+        OutdatedOutputFile outdatedOutputFile = checker.check(videoFile, this.productTimetable.getVideoFrames(), null);
+        Assert.assertNotNull("The output file should be outdated", outdatedOutputFile);
+        Assert.assertEquals(OutdatedOutputFile.Reason.MISSING_OUTPUT_FILE, outdatedOutputFile.getReason());
+
+        // Generate the output file, then record it
+        this.setOutputLastModified(outputFileURIs, INPUT_LAST_MODIFIED - ONE_HOUR);
+        checker.recordGenerated(videoFile, this.productTimetable.getVideoFrames(), null, INPUT_LAST_MODIFIED - ONE_HOUR);
+
+        OutputManifest reloadedManifest = new OutputManifest(manifestFile);
+        Assert.assertEquals(outputFileURIs.size(), reloadedManifest.size());
+        OutputManifestEntry entry = reloadedManifest.get(outputFileURIs.get(0));
+        Assert.assertEquals(Long.valueOf(INPUT_LAST_MODIFIED - ONE_HOUR), entry.getLastModified());
+        Assert.assertEquals(Fingerprints.getConfigFingerprint(this.config), entry.getConfigFingerprint());
+
+        // The timestamps say the output file is outdated, the recorded fingerprints say it's not
+        Assert.assertNull(new OutdatedOutputFileChecker(this.config, this.createListingResolver(), reloadedManifest)
+                .check(videoFile, this.productTimetable.getVideoFrames(), null));
+    }
+
+    @Test
+    public void testFingerprintMissingChecksum() throws Exception {
+        this.init(null);
+
+        NcAnimateGenerateFileBean videoFile = this.getVideoFile();
+        List<URI> outputFileURIs = NcAnimateUtils.getOutputFileURIs(videoFile, this.config, null);
+        List<FrameTimetableMap> inputs = this.productTimetable.getVideoFrames().get(videoFile.getDateRange());
+        for (String inputFingerprint : Fingerprints.getInputFingerprints(inputs).values()) {
+            Assert.assertNull("Input file without checksum should have no fingerprint", inputFingerprint);
+        }
+
+        // The config part was touched after the output files were generated, the input is older than the output files.
+        this.setOutputLastModified(outputFileURIs, INPUT_LAST_MODIFIED + ONE_HOUR);
+        OutputManifest manifest = new OutputManifest(new File(this.temporaryFolder.getRoot(), "output.jsonl"));
+        manifest.recordAll(outputFileURIs, INPUT_LAST_MODIFIED + ONE_HOUR, inputs, this.config);
+
+        OutdatedOutputFileChecker checker = new OutdatedOutputFileChecker(this.config, this.createListingResolver(), manifest);
+        Assert.assertNull("The output file should not be outdated",
+                checker.check(videoFile, this.productTimetable.getVideoFrames(), null));
+        Assert.assertTrue(checker.getStaleFrames(videoFile, this.productTimetable.getVideoFrames(), null).isEmpty());
+
+        // The input is more recent than the output files. Its content is unknown, the timestamps are used.
+        this.setOutputLastModified(outputFileURIs, INPUT_LAST_MODIFIED - ONE_HOUR);
+        OutputManifest olderManifest = new OutputManifest(new File(this.temporaryFolder.getRoot(), "older.jsonl"));
+        olderManifest.recordAll(outputFileURIs, INPUT_LAST_MODIFIED - ONE_HOUR, inputs, this.config);
+
+        OutdatedOutputFileChecker olderChecker = new OutdatedOutputFileChecker(this.config, this.createListingResolver(), olderManifest);
+        OutdatedOutputFile outdatedOutputFile = olderChecker.check(videoFile, this.productTimetable.getVideoFrames(), null);
+        Assert.assertNotNull("The output file should be outdated", outdatedOutputFile);
+        Assert.assertEquals(OutdatedOutputFile.Reason.INPUT_MORE_RECENT, outdatedOutputFile.getReason());
+        Assert.assertEquals(this.getAllFrames(videoFile),
+                olderChecker.getStaleFrames(videoFile, this.productTimetable.getVideoFrames(), null));
+    }
+
+    @Test
+    public void testFingerprintRemovedInput() throws Exception {
+        this.init(INPUT_CHECKSUM);
+
+        NcAnimateGenerateFileBean videoFile = this.getVideoFile();
+        List<URI> outputFileURIs = NcAnimateUtils.getOutputFileURIs(videoFile, this.config, null);
+        this.setOutputLastModified(outputFileURIs, INPUT_LAST_MODIFIED - ONE_HOUR);
+
+        // The output files were generated using an input file which has since been deleted
+        List<FrameTimetableMap> inputs = this.productTimetable.getVideoFrames().get(videoFile.getDateRange());
+        Map<String, String> recordedInputFingerprints = Fingerprints.getInputFingerprints(inputs);
+        recordedInputFingerprints.put("downloads/gbr4_v2/gbr4_v2_2010-09-01_02h00-04h00.nc", "MD5:11111111111111111111111111111111");
+
+        OutputManifest manifest = new OutputManifest(new File(this.temporaryFolder.getRoot(), "output.jsonl"));
+        for (URI outputFileURI : outputFileURIs) {
+            manifest.append(new OutputManifestEntry(outputFileURI.toString(), INPUT_LAST_MODIFIED - ONE_HOUR,
+                    System.currentTimeMillis(), recordedInputFingerprints, Fingerprints.getConfigFingerprint(this.config)));
+        }
+
+        OutdatedOutputFileChecker checker = new OutdatedOutputFileChecker(this.config, this.createListingResolver(), manifest);
+        OutdatedOutputFile outdatedOutputFile = checker.check(videoFile, this.productTimetable.getVideoFrames(), null);
+        Assert.assertNotNull("The output file should be outdated", outdatedOutputFile);
+        Assert.assertEquals(OutdatedOutputFile.Reason.INPUT_MORE_RECENT, outdatedOutputFile.getReason());
+        Assert.assertEquals("The frames which were using the removed input are unknown", this.getAllFrames(videoFile),
+                checker.getStaleFrames(videoFile, this.productTimetable.getVideoFrames(), null));
+    }
+
+    private void insertInputFile(long lastModified, String checksum) throws Exception {
+        URL netCDFFileUrl = OutdatedOutputFileCheckerTest.class.getClassLoader().getResource("netcdf/gbr4_v2_2010-09-01_00h00-02h00.nc");
+        File netCDFFile = new File(netCDFFileUrl.getFile());
+
+        String definitionId = "downloads/gbr4_v2";
+        String datasetId = "gbr4_v2_2010-09-01_00h00-02h00.nc";
+        URI fileURI = new File("/tmp/netcdfFiles/gbr4_v2_2010-09-01_00h00-02h00.nc").toURI();
+
+        NetCDFMetadataBean metadata = NetCDFMetadataBean.create(definitionId, datasetId, fileURI, netCDFFile, lastModified);
+        JSONObject jsonMetadata = metadata.toJSON();
+        jsonMetadata.remove("checksum");
+        if (checksum != null) {
+            jsonMetadata.put("checksum", checksum);
+        }
+
+        MetadataManager metadataManager = new MetadataManager(this.getDatabaseClient(), CacheStrategy.DISK);
+        metadataManager.save(jsonMetadata);
+    }
+
+    private NcAnimateGenerateFileBean getVideoFile() throws Exception {
+        List<NcAnimateGenerateFileBean> videoFiles = this.productTimetable.getVideoOutputFiles();
+        Assert.assertFalse("No video output file", videoFiles.isEmpty());
+        return videoFiles.get(0);
+    }
+
+    private SortedSet<DateTimeRange> getAllFrames(NcAnimateGenerateFileBean videoFile) {
+        SortedSet<DateTimeRange> allFrames = new TreeSet<DateTimeRange>();
+        for (FrameTimetableMap frameTimetableMap : this.productTimetable.getVideoFrames().get(videoFile.getDateRange())) {
+            allFrames.addAll(frameTimetableMap.keySet());
+        }
+        Assert.assertFalse("The video has no frame", allFrames.isEmpty());
+        return allFrames;
+    }
+
+    private List<URI> getAllOutputFileURIs() throws Exception {
+        List<URI> outputFileURIs = new ArrayList<URI>();
+        for (NcAnimateGenerateFileBean videoFile : this.productTimetable.getVideoOutputFiles()) {
+            outputFileURIs.addAll(NcAnimateUtils.getOutputFileURIs(videoFile, this.config, null));
+        }
+        for (NcAnimateGenerateFileBean mapFile : this.productTimetable.getMapOutputFiles()) {
+            outputFileURIs.addAll(NcAnimateUtils.getOutputFileURIs(mapFile, this.config, null));
+        }
+        return outputFileURIs;
+    }
+
+    private void setOutputLastModified(List<URI> outputFileURIs, long lastModified) {
+        for (URI outputFileURI : outputFileURIs) {
+            this.storage.put(outputFileURI.toString(), lastModified);
+        }
+    }
+
+    // Resolver listing the fake remote storage
+    private PrefixListingLastModifiedResolver createListingResolver() {
+        return new PrefixListingLastModifiedResolver(new ObjectLister() {
+            @Override
+            public boolean supports(URI prefixURI) {
+                return true;
+            }
+
+            @Override
+            public Map<String, Long> list(URI prefixURI) throws IOException {
+                String prefix = prefixURI.toString();
+                Map<String, Long> lastModifiedMap = new HashMap<String, Long>();
+                for (Map.Entry<String, Long> storageEntry : OutdatedOutputFileCheckerTest.this.storage.entrySet()) {
+                    String fileURI = storageEntry.getKey();
+                    if (fileURI.startsWith(prefix) && fileURI.indexOf('/', prefix.length()) < 0) {
+                        lastModifiedMap.put(fileURI, storageEntry.getValue());
+                    }
+                }
+                return lastModifiedMap;
+            }
+        });
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ncanimate.commons.output;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+public class OutputManifestTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testAppendAndLoad() throws Exception {
+        File manifestFile = new File(this.temporaryFolder.getRoot(), "manifest/output.jsonl");
+
+        Map<String, String> inputFingerprints = new HashMap<String, String>();
+        inputFingerprints.put("downloads__ereefs__gbr4_v2/gbr4_simple_2019-01.nc", "1546300800000");
+
+        OutputManifest manifest = new OutputManifest(manifestFile);
+        manifest.append(new OutputManifestEntry("s3://bucket/products/video_2019-01.mp4", 1000L, 1000L, inputFingerprints, "config@10"));
+        manifest.append(new OutputManifestEntry("s3://bucket/products/video_2019-02.mp4", 2000L, 2000L, null, null));
+        manifest.append(new OutputManifestEntry("s3://bucket/products/video_2019-01.mp4", 3000L, 3000L, inputFingerprints, "config@20"));
+
+        // Simulate a crash in the middle of a write
+        try (FileWriter writer = new FileWriter(manifestFile, true)) {
+            writer.write("{\"uri\":\"s3://bucket/products/video_2019-03.mp4\",\"lastMod");
+        }
+
+        OutputManifest reloadedManifest = new OutputManifest(manifestFile);
+        Assert.assertEquals(2, reloadedManifest.size());
+        Assert.assertEquals(4, reloadedManifest.getLineCount());
+
+        OutputManifestEntry entry = reloadedManifest.get(new URI("s3://bucket/products/video_2019-01.mp4"));
+        Assert.assertEquals(Long.valueOf(3000L), entry.getLastModified());
+        Assert.assertEquals("config@20", entry.getConfigFingerprint());
+        Assert.assertEquals("1546300800000", entry.getInputFingerprints().get("downloads__ereefs__gbr4_v2/gbr4_simple_2019-01.nc"));
+
+        reloadedManifest.compact();
+        Assert.assertEquals(2, reloadedManifest.getLineCount());
+
+        OutputManifest compactedManifest = new OutputManifest(manifestFile);
+        Assert.assertEquals(2, compactedManifest.size());
+        Assert.assertEquals(2, compactedManifest.getLineCount());
+        Assert.assertEquals(Long.valueOf(2000L), compactedManifest.get("s3://bucket/products/video_2019-02.mp4").getLastModified());
+    }
+
+    @Test
+    public void testManifestLastModifiedResolver() throws Exception {
+        final long now = System.currentTimeMillis();
+        final List<URI> remoteRequests = new ArrayList<URI>();
+        OutputLastModifiedResolver remoteResolver = new OutputLastModifiedResolver() {
+            @Override
+            public Map<String, Long> getLastModified(Collection<URI> fileURIs) {
+                Map<String, Long> lastModifiedMap = new HashMap<String, Long>();
+                for (URI fileURI : fileURIs) {
+                    remoteRequests.add(fileURI);
+                    lastModifiedMap.put(fileURI.toString(), fileURI.toString().endsWith("missing.mp4") ? null : now - 10);
+                }
+                return lastModifiedMap;
+            }
+        };
+
+        File manifestFile = new File(this.temporaryFolder.getRoot(), "output.jsonl");
+        OutputManifest manifest = new OutputManifest(manifestFile);
+        manifest.append(new OutputManifestEntry("s3://bucket/recent.mp4", 100L, now, null, null));
+        manifest.append(new OutputManifestEntry("s3://bucket/old.mp4", 200L, now - 60000, null, null));
+        manifest.append(new OutputManifestEntry("s3://bucket/missing.mp4", null, now, null, null));
+
+        List<URI> fileURIs = new ArrayList<URI>();
+        fileURIs.add(new URI("s3://bucket/recent.mp4"));
+        fileURIs.add(new URI("s3://bucket/old.mp4"));
+        fileURIs.add(new URI("s3://bucket/missing.mp4"));
+        fileURIs.add(new URI("s3://bucket/unknown.mp4"));
+
+        ManifestLastModifiedResolver resolver = new ManifestLastModifiedResolver(manifest, remoteResolver, 30000);
+        Map<String, Long> lastModifiedMap = resolver.getLastModified(fileURIs);
+
+        Assert.assertEquals(4, lastModifiedMap.size());
+        Assert.assertEquals(Long.valueOf(100L), lastModifiedMap.get("s3://bucket/recent.mp4"));
+        Assert.assertEquals(Long.valueOf(now - 10), lastModifiedMap.get("s3://bucket/old.mp4"));
+        Assert.assertNull(lastModifiedMap.get("s3://bucket/missing.mp4"));
+        Assert.assertEquals(Long.valueOf(now - 10), lastModifiedMap.get("s3://bucket/unknown.mp4"));
+
+        Assert.assertEquals("Only the unverified, missing and unknown files should be requested", 3, remoteRequests.size());
+        Assert.assertEquals(1, resolver.getManifestHitCount());
+
+        // The verified files are recorded in the manifest
+        remoteRequests.clear();
+        ManifestLastModifiedResolver nextResolver = new ManifestLastModifiedResolver(new OutputManifest(manifestFile), remoteResolver, 30000);
+        nextResolver.getLastModified(fileURIs);
+        Assert.assertEquals(1, remoteRequests.size());
+        Assert.assertEquals("s3://bucket/missing.mp4", remoteRequests.get(0).toString());
+    }
+
+    @Test
+    public void testSharedManifest() throws Exception {
+        final File manifestFile = new File(this.temporaryFolder.getRoot(), "output.jsonl");
+        final int writerCount = 4;
+        final int entriesPerWriter = 200;
+
+        // Each writer has its own manifest instance, like NcAnimate instances sharing a node
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final List<Exception> errors = new ArrayList<Exception>();
+        List<Thread> writers = new ArrayList<Thread>();
+        for (int i=0; i<writerCount; i++) {
+            final int writerIndex = i;
+            Thread writer = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        OutputManifest manifest = new OutputManifest(manifestFile);
+                        startLatch.await();
+                        for (int j=0; j<entriesPerWriter; j++) {
+                            manifest.record(new URI(String.format("s3://bucket/products/%d/video_%d.mp4", writerIndex, j)), j, null, null);
+                            if (j == entriesPerWriter / 2) {
+                                manifest.compact();
+                            }
+                        }
+                    } catch (Exception ex) {
+                        synchronized (errors) {
+                            errors.add(ex);
+                        }
+                    }
+                }
+            };
+            writers.add(writer);
+            writer.start();
+        }
+        startLatch.countDown();
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        Assert.assertTrue(String.format("Errors occurred while writing the manifest: %s", errors), errors.isEmpty());
+
+        OutputManifest reloadedManifest = new OutputManifest(manifestFile);
+        Assert.assertEquals("Entries were lost or corrupted", writerCount * entriesPerWriter, reloadedManifest.size());
+        Assert.assertEquals(Long.valueOf(entriesPerWriter - 1),
+                reloadedManifest.get("s3://bucket/products/3/video_" + (entriesPerWriter - 1) + ".mp4").getLastModified());
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ncanimate.commons.output;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class PrefixListingLastModifiedResolverTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testLocalFilesystem() throws Exception {
+        File regionDirectory = this.temporaryFolder.newFolder("products", "qld");
+        File existingFile = new File(regionDirectory, "video_2019-01.mp4");
+        Assert.assertTrue(existingFile.createNewFile());
+        Assert.assertTrue(existingFile.setLastModified(1546300800000L));
+
+        File otherRegionDirectory = this.temporaryFolder.newFolder("products", "brisbane");
+
+        String regionPrefix = regionDirectory.toURI().toString();
+        List<URI> fileURIs = new ArrayList<URI>();
+        fileURIs.add(new URI(regionPrefix + "video_2019-01.mp4"));
+        fileURIs.add(new URI(regionPrefix + "video_2019-02.mp4"));
+        fileURIs.add(new URI(otherRegionDirectory.toURI().toString() + "video_2019-01.mp4"));
+        fileURIs.add(new URI(new File(this.temporaryFolder.getRoot(), "missing/video_2019-01.mp4").toURI().toString()));
+
+        PrefixListingLastModifiedResolver resolver = new PrefixListingLastModifiedResolver(new LocalFileObjectLister());
+        Map<String, Long> lastModifiedMap = resolver.getLastModified(fileURIs);
+
+        Assert.assertEquals(4, lastModifiedMap.size());
+        Assert.assertEquals(Long.valueOf(1546300800000L), lastModifiedMap.get(regionPrefix + "video_2019-01.mp4"));
+        Assert.assertTrue(lastModifiedMap.containsKey(regionPrefix + "video_2019-02.mp4"));
+        Assert.assertNull(lastModifiedMap.get(regionPrefix + "video_2019-02.mp4"));
+
+        Assert.assertEquals("Each prefix should be listed once", 3, resolver.getListCount());
+
+        // Second request is answered from the index
+        resolver.getLastModified(fileURIs);
+        Assert.assertEquals(3, resolver.getListCount());
+    }
+
+    @Test
+    public void testFallback() throws Exception {
+        final List<URI> listRequests = new ArrayList<URI>();
+        ObjectLister failingLister = new ObjectLister() {
+            @Override
+            public boolean supports(URI prefixURI) {
+                return "s3".equals(prefixURI.getScheme());
+            }
+
+            @Override
+            public Map<String, Long> list(URI prefixURI) throws IOException {
+                listRequests.add(prefixURI);
+                throw new IOException("Access denied");
+            }
+        };
+
+        final List<URI> fallbackRequests = new ArrayList<URI>();
+        OutputLastModifiedResolver fallbackResolver = new OutputLastModifiedResolver() {
+            @Override
+            public Map<String, Long> getLastModified(Collection<URI> fileURIs) {
+                Map<String, Long> lastModifiedMap = new HashMap<String, Long>();
+                for (URI fileURI : fileURIs) {
+                    fallbackRequests.add(fileURI);
+                    lastModifiedMap.put(fileURI.toString(), 1000L);
+                }
+                return lastModifiedMap;
+            }
+        };
+
+        List<URI> fileURIs = new ArrayList<URI>();
+        fileURIs.add(new URI("s3://bucket/products/qld/map_2019-01-01.png"));
+        fileURIs.add(new URI("s3://bucket/products/qld/map_2019-01-02.png"));
+        fileURIs.add(new URI("s3://bucket/products/qld/map_2019-01-03.png"));
+
+        PrefixListingLastModifiedResolver resolver = new PrefixListingLastModifiedResolver(fallbackResolver, failingLister);
+        Map<String, Long> lastModifiedMap = resolver.getLastModified(fileURIs);
+
+        Assert.assertEquals("The failed prefix should only be listed once", 1, listRequests.size());
+        Assert.assertEquals("Each file should be requested once using the fallback", 3, fallbackRequests.size());
+        Assert.assertEquals(3, lastModifiedMap.size());
+        Assert.assertEquals(Long.valueOf(1000L), lastModifiedMap.get("s3://bucket/products/qld/map_2019-01-01.png"));
+        Assert.assertEquals("Prefixes which could not be listed should not be indexed", 0, resolver.getIndexedPrefixCount());
+        Assert.assertEquals(1, resolver.getUnlistablePrefixCount());
+
+        // The failure is remembered, the next request goes directly to the fallback
+        resolver.getLastModified(fileURIs);
+        Assert.assertEquals(1, listRequests.size());
+        Assert.assertEquals(1, resolver.getListCount());
+        Assert.assertEquals(6, fallbackRequests.size());
+    }
+}
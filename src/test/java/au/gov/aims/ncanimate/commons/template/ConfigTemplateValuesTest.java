@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ncanimate.commons.template;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ConfigTemplateValuesTest {
+
+    @Before
+    @After
+    public void clearCache() {
+        ConfigTemplateValues.clearCache();
+    }
+
+    @Test
+    public void testCache() throws Exception {
+        ConfigTemplateValues configValues = ConfigTemplateValues.get("products__ncanimate__test", 1000);
+        Assert.assertEquals("products__ncanimate__test@1000", configValues.getConfigKey());
+        Assert.assertSame("The values of the configuration were not cached",
+                configValues, ConfigTemplateValues.get("products__ncanimate__test", 1000));
+
+        ConfigTemplateValues otherConfigValues = ConfigTemplateValues.get("products__ncanimate__other", 1000);
+        Assert.assertNotSame(configValues, otherConfigValues);
+        Assert.assertEquals(2, ConfigTemplateValues.getCacheSize());
+
+        ConfigTemplateValues.clearCache("products__ncanimate__other");
+        Assert.assertEquals(1, ConfigTemplateValues.getCacheSize());
+        Assert.assertSame(configValues, ConfigTemplateValues.get("products__ncanimate__test", 1000));
+    }
+
+    @Test
+    public void testReloadedConfig() throws Exception {
+        TemplatePlaceholder placeholder = Template.compile("${regions.qld.label}").getPlaceholder(0);
+
+        ConfigTemplateValues configValues = ConfigTemplateValues.get("products__ncanimate__test", 1000);
+        configValues.setValue(placeholder, "Queensland");
+
+        // The configuration was modified
+        ConfigTemplateValues reloadedConfigValues = ConfigTemplateValues.get("products__ncanimate__test", 2000);
+        Assert.assertNotSame("The values of the modified configuration were not reset", configValues, reloadedConfigValues);
+        Assert.assertFalse(reloadedConfigValues.isResolved(placeholder));
+        Assert.assertEquals("The values of the previous version of the configuration were not dropped",
+                1, ConfigTemplateValues.getCacheSize());
+    }
+
+    @Test
+    public void testValues() throws Exception {
+        Template template = Template.compile("${id} ${regions.unknown.label}");
+        TemplatePlaceholder idPlaceholder = template.getPlaceholder(0);
+        TemplatePlaceholder unknownPlaceholder = template.getPlaceholder(1);
+
+        ConfigTemplateValues configValues = ConfigTemplateValues.get(null, 0);
+        Assert.assertFalse(configValues.isResolved(idPlaceholder));
+
+        configValues.setValue(idPlaceholder, "products__ncanimate__test");
+        configValues.setValue(unknownPlaceholder, null);
+
+        Assert.assertTrue(configValues.isResolved(idPlaceholder));
+        Assert.assertEquals("products__ncanimate__test", configValues.getValue(idPlaceholder));
+
+        Assert.assertTrue("Placeholders which can not be resolved should not be resolved again",
+                configValues.isResolved(unknownPlaceholder));
+        Assert.assertTrue(configValues.isUnresolved(unknownPlaceholder));
+        Assert.assertNull(configValues.getValue(unknownPlaceholder));
+        Assert.assertEquals(1, configValues.size());
+        Assert.assertEquals(1, configValues.getUnresolvedPlaceholders().size());
+
+        Assert.assertFalse(configValues.isReported(unknownPlaceholder));
+        configValues.setReported(unknownPlaceholder);
+        Assert.assertTrue(configValues.isReported(unknownPlaceholder));
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ncanimate.commons.template;
+
+import au.gov.aims.ncanimate.commons.NcAnimateUtils;
+import au.gov.aims.ncanimate.commons.generator.context.GeneratorContext;
+import au.gov.aims.ncanimate.commons.timetable.DateTimeRange;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TemplateTest {
+
+    @Test
+    public void testCompile() throws Exception {
+        Template template = Template.compile("Region ID: ${ctx.region.id} date: ${ ctx.dateFrom yyyy-MM-dd }!");
+
+        Assert.assertEquals("Wrong number of placeholders", 2, template.getPlaceholderCount());
+
+        TemplatePlaceholder regionPlaceholder = template.getPlaceholder(0);
+        Assert.assertEquals("ctx.region.id", regionPlaceholder.getRaw());
+        Assert.assertEquals("ctx.region.id", regionPlaceholder.getPath());
+        Assert.assertNull(regionPlaceholder.getOptions());
+        Assert.assertEquals(3, regionPlaceholder.getPathPartCount());
+        Assert.assertEquals("ctx", regionPlaceholder.getFirstPathPart());
+        Assert.assertEquals("id", regionPlaceholder.getPathPart(2));
+
+        TemplatePlaceholder datePlaceholder = template.getPlaceholder(1);
+        Assert.assertEquals(" ctx.dateFrom yyyy-MM-dd ", datePlaceholder.getRaw());
+        Assert.assertEquals("ctx.dateFrom", datePlaceholder.getPath());
+        Assert.assertEquals("yyyy-MM-dd", datePlaceholder.getOptions());
+
+        StringBuilder sb = new StringBuilder();
+        template.appendLiteral(sb, 0);
+        sb.append('|');
+        template.appendLiteral(sb, 1);
+        sb.append('|');
+        template.appendLiteral(sb, 2);
+        Assert.assertEquals("Region ID: | date: |!", sb.toString());
+
+        Assert.assertSame("The compiled template was not cached", template,
+                Template.compile("Region ID: ${ctx.region.id} date: ${ ctx.dateFrom yyyy-MM-dd }!"));
+    }
+
+    @Test
+    public void testCacheBound() throws Exception {
+        Template.clearCache();
+        Template.setMaxCacheSize(3);
+        try {
+            Template first = Template.compile("${ctx.region.id} 1");
+            Template.compile("${ctx.region.id} 2");
+            Template.compile("${ctx.region.id} 3");
+
+            // Use the first template, so the second one becomes the least recently used
+            Assert.assertSame(first, Template.compile("${ctx.region.id} 1"));
+            Template.compile("${ctx.region.id} 4");
+
+            Assert.assertEquals("The cache is not bounded", 3, Template.getCacheSize());
+            Assert.assertTrue("The most recently used template was dropped", Template.isCompiled("${ctx.region.id} 1"));
+            Assert.assertFalse("The least recently used template was not dropped", Template.isCompiled("${ctx.region.id} 2"));
+            Assert.assertTrue(Template.isCompiled("${ctx.region.id} 3"));
+            Assert.assertTrue(Template.isCompiled("${ctx.region.id} 4"));
+        } finally {
+            Template.setMaxCacheSize(Template.DEFAULT_MAX_CACHE_SIZE);
+            Template.clearCache();
+        }
+    }
+
+    @Test
+    public void testArrayProperty() throws Exception {
+        Template template = Template.compile("${panels[temp].layers[ereefs-model_gbr4-v2].input.licence}");
+        TemplatePlaceholder placeholder = template.getPlaceholder(0);
+
+        Assert.assertArrayEquals(new String[] { "panels", "temp" }, placeholder.getArrayProperty(0));
+        Assert.assertArrayEquals(new String[] { "layers", "ereefs-model_gbr4-v2" }, placeholder.getArrayProperty(1));
+        Assert.assertNull(placeholder.getArrayProperty(2));
+    }
+
+    @Test
+    public void testUnterminatedPlaceholder() throws Exception {
+        // Unterminated placeholders are dropped, like the original state parser
+        Template template = Template.compile("Text ${ctx.region.id");
+
+        Assert.assertEquals(0, template.getPlaceholderCount());
+
+        StringBuilder sb = new StringBuilder();
+        template.appendLiteral(sb, 0);
+        Assert.assertEquals("Text ", sb.toString());
+    }
+
+    @Test
+    public void testDiagnostics() throws Exception {
+        TemplateDiagnostics.reset();
+
+        Template template = Template.compile("Depth ${ctx.targetHeight} ${ctx.unknown}");
+        TemplatePlaceholder unknownPlaceholder = template.getPlaceholder(1);
+        for (int i=0; i<1000; i++) {
+            TemplateDiagnostics.missingVariable("products__ncanimate__test", template, unknownPlaceholder, false);
+        }
+
+        Assert.assertEquals(1000, TemplateDiagnostics.getMissingVariableCount());
+        Assert.assertEquals("Only the first occurrence should be logged", 999, TemplateDiagnostics.getSuppressedCount());
+        Assert.assertEquals(1, TemplateDiagnostics.getMissingVariables().size());
+        Assert.assertEquals(Long.valueOf(1000),
+                TemplateDiagnostics.getMissingVariables().get("products__ncanimate__test " + template.getId() + " ctx.unknown"));
+
+        TemplateDiagnostics.reset();
+        Assert.assertEquals(0, TemplateDiagnostics.getMissingVariableCount());
+    }
+
+    @Test
+    public void testContextValueResolvers() throws Exception {
+        Template template = Template.compile("${ctx.targetHeight %.1f}m ${ctx.dateFrom yyyy-MM-dd} ${ctx.canvasWidth}");
+        Assert.assertNotNull(template.getPlaceholder(0).getContextValueResolver());
+        Assert.assertNotNull(template.getPlaceholder(1).getContextValueResolver());
+        Assert.assertNull("Uncommon context values should be resolved using the context JSON",
+                template.getPlaceholder(2).getContextValueResolver());
+
+        GeneratorContext context = new GeneratorContext(null);
+        Assert.assertEquals("0", NcAnimateUtils.parseString("${ctx.targetHeight}", context));
+
+        context.setTargetHeight(-1.5);
+        context.setDateRange(DateTimeRange.create(
+                new DateTime(2019, 1, 14, 0, 0, DateTimeZone.UTC),
+                new DateTime(2019, 1, 15, 0, 0, DateTimeZone.UTC)));
+
+        Assert.assertEquals("-1.5m 2019-01-14", NcAnimateUtils.parseString("${ctx.targetHeight %.1f}m ${ctx.dateFrom yyyy-MM-dd}", context));
+        Assert.assertEquals("Missing region", "${ctx.region.id}", NcAnimateUtils.parseString("${ctx.region.id}", context));
+    }
+}
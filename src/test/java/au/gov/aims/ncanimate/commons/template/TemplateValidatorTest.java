@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ncanimate.commons.template;
+
+import au.gov.aims.ereefs.bean.ncanimate.NcAnimateConfigBean;
+import au.gov.aims.ereefs.database.CacheStrategy;
+import au.gov.aims.ereefs.helper.NcAnimateConfigHelper;
+import au.gov.aims.ncanimate.commons.DatabaseTestBase;
+import au.gov.aims.ncanimate.commons.generator.context.GeneratorContext;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.SortedMap;
+
+public class TemplateValidatorTest extends DatabaseTestBase {
+
+    @Before
+    public void insertData() throws Exception {
+        super.populateDatabase();
+        ConfigTemplateValues.clearCache();
+    }
+
+    @After
+    public void clearCache() {
+        ConfigTemplateValues.clearCache();
+    }
+
+    @Test
+    public void testValidate() throws Exception {
+        NcAnimateConfigHelper configHelper = new NcAnimateConfigHelper(this.getDatabaseClient(), CacheStrategy.DISK);
+        NcAnimateConfigBean ncAnimateConfig = configHelper.getNcAnimateConfig("gbr4_v2_temp-wind-salt-current");
+        Assert.assertNotNull("NcAnimate configuration not found", ncAnimateConfig);
+
+        GeneratorContext context = new GeneratorContext(ncAnimateConfig);
+        TemplateValidationReport report = TemplateValidator.validate(context);
+
+        Assert.assertNotNull(report);
+        Assert.assertTrue(String.format("Unexpected invalid placeholders: %s", report), report.isValid());
+        Assert.assertTrue("No template found in the configuration", report.getTemplateCount() > 0);
+        Assert.assertTrue(report.getPlaceholderCount() >= report.getTemplateCount());
+
+        ConfigTemplateValues configValues = ConfigTemplateValues.get(ncAnimateConfig);
+        Assert.assertEquals(configValues.getConfigKey(), report.getConfigKey());
+        Assert.assertTrue("The configuration was not flagged as validated", configValues.isValidated());
+
+        // Static configuration values are resolved during the validation
+        TemplatePlaceholder idPlaceholder = Template.compile("${id}").getPlaceholder(0);
+        Assert.assertTrue("The configuration placeholder was not resolved", configValues.isResolved(idPlaceholder));
+        Assert.assertEquals("gbr4_v2_temp-wind-salt-current", configValues.getValue(idPlaceholder));
+    }
+
+    @Test
+    public void testValidateWithoutConfig() throws Exception {
+        Assert.assertNull(TemplateValidator.validate(null));
+        Assert.assertNull(TemplateValidator.validate(new GeneratorContext(null)));
+    }
+
+    @Test
+    public void testReport() throws Exception {
+        TemplateValidationReport report = new TemplateValidationReport("products__ncanimate__test@1000");
+        Assert.assertTrue(report.isValid());
+
+        Template template = Template.compile("${ctx.unknown} ${layerCtx.unknownLayer.date} ${ctx.targetHeight}");
+        report.addTemplate(template);
+        report.addTemplate(Template.compile("${ctx.region.id}"));
+        report.addInvalidPlaceholder("panels[0].title.text", template.getPlaceholder(0), "Unknown context property: unknown");
+        report.addInvalidPlaceholder("panels[0].title.text", template.getPlaceholder(1), "Unknown layer: unknownLayer");
+        report.addInvalidPlaceholder("canvas.texts.title.text", template.getPlaceholder(0), "Unknown context property: unknown");
+
+        Assert.assertFalse(report.isValid());
+        Assert.assertEquals(2, report.getTemplateCount());
+        Assert.assertEquals(4, report.getPlaceholderCount());
+
+        SortedMap<String, SortedMap<String, String>> invalidPlaceholders = report.getInvalidPlaceholders();
+        Assert.assertEquals(2, invalidPlaceholders.size());
+        Assert.assertEquals(2, invalidPlaceholders.get("panels[0].title.text").size());
+        Assert.assertEquals("Placeholders used in several locations should be listed once",
+                2, report.getInvalidPlaceholderSet().size());
+
+        JSONObject jsonReport = report.toJSON();
+        Assert.assertEquals("products__ncanimate__test@1000", jsonReport.getString("config"));
+        Assert.assertFalse(jsonReport.getBoolean("valid"));
+        Assert.assertEquals(2, jsonReport.getJSONObject("invalidPlaceholders").getJSONArray("panels[0].title.text").length());
+    }
+}
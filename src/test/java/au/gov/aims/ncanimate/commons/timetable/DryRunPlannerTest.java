@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ncanimate.commons.timetable;
+
+import au.gov.aims.ereefs.bean.ncanimate.NcAnimateConfigBean;
+import au.gov.aims.ereefs.database.CacheStrategy;
+import au.gov.aims.ereefs.helper.NcAnimateConfigHelper;
+import au.gov.aims.ncanimate.commons.DatabaseTestBase;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class DryRunPlannerTest extends DatabaseTestBase {
+
+    @Before
+    public void insertData() throws Exception {
+        super.populateDatabase();
+    }
+
+    @Test
+    public void testEstimate() throws Exception {
+        this.insertFakePartialGBR4NetCDFFile();
+
+        NcAnimateConfigHelper configHelper = new NcAnimateConfigHelper(this.getDatabaseClient(), CacheStrategy.DISK);
+        NcAnimateConfigBean config = configHelper.getNcAnimateConfig("gbr4_v2_temp-wind-salt-current");
+
+        ProductTimetable productTimetable = new ProductTimetable(config, this.getDatabaseClient());
+        DryRunPlanner planner = new DryRunPlanner(productTimetable);
+
+        List<OutputFileEstimate> estimates = planner.estimate();
+        // 1 video and 2 maps (see ProductTimetableTest)
+        Assert.assertEquals("Wrong number of output file estimates", 3, estimates.size());
+
+        OutputFileEstimate videoEstimate = null;
+        for (OutputFileEstimate estimate : estimates) {
+            if ("video".equals(estimate.getOutputType())) {
+                videoEstimate = estimate;
+            }
+        }
+        Assert.assertNotNull("Video estimate not found", videoEstimate);
+        Assert.assertEquals("Wrong number of video frames", 2, videoEstimate.getFrameCount());
+        Assert.assertEquals("Wrong number of regions", 9, videoEstimate.getRegionCount());
+        Assert.assertEquals("Wrong number of target heights", 3, videoEstimate.getTargetHeightCount());
+        Assert.assertTrue("The video should use input files", videoEstimate.getInputCount() > 0);
+        Assert.assertEquals("The size of the input files is unknown",
+                videoEstimate.getInputCount(), videoEstimate.getUnknownInputSizeCount());
+        Assert.assertEquals(2L * videoEstimate.getLayersPerFrame() * 9 * 3, videoEstimate.getRenderCount());
+
+        // Sorted by estimated cost, most expensive first
+        for (int i=1; i<estimates.size(); i++) {
+            Assert.assertTrue("Estimates are not sorted",
+                    estimates.get(i-1).getEstimatedSeconds() >= estimates.get(i).getEstimatedSeconds());
+        }
+
+        // Input sizes are added to the estimate
+        Map<String, Long> inputFileSizes = new HashMap<String, Long>();
+        for (String inputId : videoEstimate.getInputIds()) {
+            inputFileSizes.put(inputId, 10L * 1024 * 1024);
+        }
+        planner.setInputFileSizes(inputFileSizes);
+        JSONObject report = planner.getReport();
+        Assert.assertEquals(3, report.getInt("outputFileCount"));
+        Assert.assertEquals(videoEstimate.getInputCount() * 10L * 1024 * 1024, report.getLong("inputBytes"));
+        Assert.assertEquals(3, report.getJSONArray("outputFiles").length());
+    }
+}
@@ -17,6 +17,8 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
 
 public class FrameTimetableMapTest extends DatabaseTestBase {
 
@@ -205,4 +207,53 @@ public class FrameTimetableMapTest extends DatabaseTestBase {
         Assert.assertEquals("Wrong number of frame timetables", 120, timetableMap.size());
         Assert.assertEquals("Some frame timetables are missing", 8, frameTimetableFound);
     }
+
+    @Test
+    public void testStaleFrames() throws Exception {
+        super.insertFakeHourlyHourlyData(30);
+        super.insertFakePartialGBR4NetCDFFile();
+
+        NcAnimateConfigHelper configHelper = new NcAnimateConfigHelper(this.getDatabaseClient(), CacheStrategy.DISK);
+        NcAnimateConfigBean config = configHelper.getNcAnimateConfig("gbr4_v2_temp-wind-salt-current");
+        DateTimeZone timezone = NcAnimateUtils.getTimezone(config);
+
+        DateTime firstDate = new DateTime(2010, 9, 1, 0, 0, 0, 0, timezone);
+        DateTime lastDate = new DateTime(2010, 9, 6, 0, 0, 0, 0, timezone);
+
+        FrameTimetableMap timetableMap = new FrameTimetableMap(config, DateTimeRange.create(firstDate, lastDate), this.getDatabaseClient());
+
+        DateTimeRange firstFrame = DateTimeRange.create(firstDate, new DateTime(2010, 9, 1, 1, 0, 0, 0, timezone));
+        String inputId = "downloads/gbr4_v2/gbr4_v2_2010-09-01_00h00-02h00_nc";
+
+        Map<String, SortedSet<DateTimeRange>> frameDateRangesMap = timetableMap.getFrameDateRangesByInputId();
+        SortedSet<DateTimeRange> inputFrames = frameDateRangesMap.get(inputId);
+        Assert.assertNotNull(String.format("Input file %s is not used by any frame", inputId), inputFrames);
+        Assert.assertTrue(String.format("Input file %s should be used by frame [%s]", inputId, firstFrame),
+                inputFrames.contains(firstFrame));
+
+        // Everything is up to date
+        Assert.assertTrue("No frame should be stale", timetableMap.getStaleFrames(Long.MAX_VALUE).isEmpty());
+
+        // Every frame with data is stale
+        SortedSet<DateTimeRange> framesWithData = new TreeSet<DateTimeRange>();
+        for (Map.Entry<DateTimeRange, FrameTimetable> timetableEntry : timetableMap.entrySet()) {
+            if (!timetableEntry.getValue().isEmpty()) {
+                framesWithData.add(timetableEntry.getKey());
+            }
+        }
+        Assert.assertEquals("Wrong stale frames", framesWithData, timetableMap.getStaleFrames(Long.MIN_VALUE));
+
+        // Only the frames using an input file more recent than the reference are stale
+        Map<String, Long> inputLastModifiedMap = timetableMap.getInputLastModifiedByIdMap();
+        long referenceLastModified = inputLastModifiedMap.get(inputId) - 1;
+        SortedSet<DateTimeRange> expectedStaleFrames = new TreeSet<DateTimeRange>();
+        for (Map.Entry<String, Long> inputLastModifiedEntry : inputLastModifiedMap.entrySet()) {
+            if (inputLastModifiedEntry.getValue() > referenceLastModified) {
+                expectedStaleFrames.addAll(frameDateRangesMap.get(inputLastModifiedEntry.getKey()));
+            }
+        }
+        SortedSet<DateTimeRange> staleFrames = timetableMap.getStaleFrames(referenceLastModified);
+        Assert.assertTrue(String.format("Frame [%s] should be stale", firstFrame), staleFrames.contains(firstFrame));
+        Assert.assertEquals("Wrong stale frames", expectedStaleFrames, staleFrames);
+    }
 }
@@ -6,9 +6,11 @@ package au.gov.aims.ncanimate.commons.timetable;
 
 import au.gov.aims.ereefs.bean.metadata.TimeIncrement;
 import au.gov.aims.ereefs.bean.metadata.TimeIncrementUnit;
+import au.gov.aims.ereefs.bean.metadata.netcdf.NetCDFMetadataBean;
 import au.gov.aims.ereefs.bean.ncanimate.NcAnimateConfigBean;
 import au.gov.aims.ereefs.bean.ncanimate.render.AbstractNcAnimateRenderFileBean;
 import au.gov.aims.ereefs.database.CacheStrategy;
+import au.gov.aims.ereefs.helper.MetadataHelper;
 import au.gov.aims.ereefs.helper.NcAnimateConfigHelper;
 import au.gov.aims.ncanimate.commons.DatabaseTestBase;
 import au.gov.aims.ncanimate.commons.NcAnimateGenerateFileBean;
@@ -78,6 +80,42 @@ public class ProductTimetableTest extends DatabaseTestBase {
         }
     }
 
+    /**
+     * The ProductTimetable planned using the temporal metadata (TemporalMetadataLoader)
+     * must be the same as the one planned using the full NetCDF metadata (getValidNetCDFMetadataMap).
+     * @throws Exception
+     */
+    @Test
+    public void testTemporalMetadataLoader() throws Exception {
+        this.insertFakePartialGBR4NetCDFFile();
+        super.insertFakeHourlyHourlyData(30);
+
+        NcAnimateConfigHelper configHelper = new NcAnimateConfigHelper(this.getDatabaseClient(), CacheStrategy.DISK);
+        NcAnimateConfigBean config = configHelper.getNcAnimateConfig("gbr4_v2_temp-wind-salt-current");
+
+        // Same input files
+        Map<String, Map<String, NetCDFMetadataBean>> validMetadataMap =
+                NcAnimateConfigHelper.getValidNetCDFMetadataMap(config, new MetadataHelper(this.getDatabaseClient(), CacheStrategy.DISK));
+        TemporalMetadataLoader loader = TemporalMetadataLoader.create(this.getDatabaseClient());
+        Map<String, Map<String, TemporalMetadata>> temporalMetadataMap = loader.load(config);
+
+        Assert.assertEquals("Wrong input definitions", validMetadataMap.keySet(), temporalMetadataMap.keySet());
+        for (Map.Entry<String, Map<String, NetCDFMetadataBean>> validMetadataEntry : validMetadataMap.entrySet()) {
+            String definitionId = validMetadataEntry.getKey();
+            Assert.assertFalse(String.format("No input file found for %s", definitionId), validMetadataEntry.getValue().isEmpty());
+            Assert.assertEquals(String.format("Wrong input files for %s", definitionId),
+                    validMetadataEntry.getValue().keySet(), temporalMetadataMap.get(definitionId).keySet());
+        }
+
+        // Same frames
+        ProductTimetable expectedProductTimetable = new ProductTimetable(config, this.getDatabaseClient());
+        ProductTimetable productTimetable = new ProductTimetable(config, this.getDatabaseClient(), loader);
+
+        Assert.assertFalse("No video frames", expectedProductTimetable.getVideoFrames().isEmpty());
+        Assert.assertEquals("The product timetable planned using the temporal metadata is different",
+                expectedProductTimetable.toString(), productTimetable.toString());
+    }
+
     @Test
     public void testGetOutputFilesYearly() throws Exception {
         super.insertFakeHourlyHourlyData(30);
@@ -911,6 +949,60 @@ public class ProductTimetableTest extends DatabaseTestBase {
         Assert.assertEquals("Some videos are missing", 5, found);
     }
 
+    /**
+     * The ProductTimetable streamed in two passes (see TemporalMetadataLoader.stream)
+     * must have the same video and map frames as the ProductTimetable built from the full NetCDF metadata.
+     * The input files have gaps, and 2 input definitions covering different date ranges.
+     * @throws Exception
+     */
+    @Test
+    public void testStreamedTimetable() throws Exception {
+        DateTimeZone qldTimezone = DateTimeZone.forID("Australia/Brisbane");
+        this.insertFakeMonthlyHourlyData("downloads/gbr4_v2", "gbr4_v2", new DateTime(2010, 1, 1, 0, 0, qldTimezone), 4);
+        this.insertFakeMonthlyHourlyData("downloads/gbr4_v2", "gbr4_v2", new DateTime(2010, 8, 1, 0, 0, qldTimezone), 1);
+        this.insertFakeMonthlyHourlyData("downloads/gbr1_2-0", "gbr1_2-0", new DateTime(2010, 3, 1, 0, 0, qldTimezone), 4);
+        this.insertFakeMonthlyHourlyData("downloads/gbr1_2-0", "gbr1_2-0", new DateTime(2010, 9, 1, 0, 0, qldTimezone), 1);
+        this.insertFakePartialGBR4NetCDFFile();
+
+        NcAnimateConfigHelper configHelper = new NcAnimateConfigHelper(this.getDatabaseClient(), CacheStrategy.DISK);
+        TemporalMetadataLoader loader = TemporalMetadataLoader.create(this.getDatabaseClient());
+        int mapFrameCount = 0;
+        for (String productId : new String[] {
+                "gbr4_gbr1_temp-wind-salt-current_without-focus",
+                "gbr4_gbr1_temp-wind-salt-current_with-focus",
+                "gbr4_v2_temp-wind-salt-current" }) {
+
+            NcAnimateConfigBean config = configHelper.getNcAnimateConfig(productId);
+
+            ProductTimetable expectedProductTimetable = new ProductTimetable(config, this.getDatabaseClient());
+            ProductTimetable productTimetable = new ProductTimetable(config, this.getDatabaseClient(), loader);
+
+            Assert.assertFalse(String.format("No video frames for %s", productId), expectedProductTimetable.getVideoFrames().isEmpty());
+            this.assertSameFrames(String.format("Video frames of %s", productId),
+                    expectedProductTimetable.getVideoFrames(), productTimetable.getVideoFrames());
+            this.assertSameFrames(String.format("Map frames of %s", productId),
+                    expectedProductTimetable.getMapFrames(), productTimetable.getMapFrames());
+            mapFrameCount += expectedProductTimetable.getMapFrames().size();
+        }
+        Assert.assertTrue("No map frames", mapFrameCount > 0);
+    }
+
+    private void assertSameFrames(String message, Map<DateTimeRange, List<FrameTimetableMap>> expectedFrames, Map<DateTimeRange, List<FrameTimetableMap>> frames) {
+        Assert.assertEquals(String.format("%s: Wrong date ranges", message), expectedFrames.keySet(), frames.keySet());
+        for (Map.Entry<DateTimeRange, List<FrameTimetableMap>> expectedFramesEntry : expectedFrames.entrySet()) {
+            DateTimeRange dateRange = expectedFramesEntry.getKey();
+            List<FrameTimetableMap> expectedFrameTimetableMaps = expectedFramesEntry.getValue();
+            List<FrameTimetableMap> frameTimetableMaps = frames.get(dateRange);
+
+            Assert.assertEquals(String.format("%s: Wrong number of timetables for %s", message, dateRange),
+                    expectedFrameTimetableMaps.size(), frameTimetableMaps.size());
+            for (int i=0; i<expectedFrameTimetableMaps.size(); i++) {
+                Assert.assertEquals(String.format("%s: Wrong frames for %s", message, dateRange),
+                        expectedFrameTimetableMaps.get(i).toString(), frameTimetableMaps.get(i).toString());
+            }
+        }
+    }
+
     private void testVideoFrames(DateTimeRange videoTimeRange, List<FrameTimetableMap> videoFrames, String ... expectedSources) {
         Set<String> expectedSourceSet = new HashSet<String>();
         Collections.addAll(expectedSourceSet, expectedSources);
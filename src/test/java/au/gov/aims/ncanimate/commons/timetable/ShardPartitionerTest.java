@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ncanimate.commons.timetable;
+
+import au.gov.aims.ncanimate.commons.NcAnimateGenerateFileBean;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class ShardPartitionerTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testPartition() throws Exception {
+        List<OutputFileEstimate> estimates = new ArrayList<OutputFileEstimate>();
+        // The 2 maps of September share the same input file, they must be on the same shard
+        estimates.add(this.createEstimate("product_map_monthly_2010-09_a", 30, "gbr4_2010-09.nc"));
+        estimates.add(this.createEstimate("product_map_monthly_2010-09_b", 30, "gbr4_2010-09.nc"));
+        estimates.add(this.createEstimate("product_map_monthly_2010-10", 50, "gbr4_2010-10.nc"));
+        estimates.add(this.createEstimate("product_map_monthly_2010-11", 40, "gbr4_2010-11.nc"));
+        estimates.add(this.createEstimate("product_map_monthly_2010-12", 20, "gbr4_2010-12.nc"));
+
+        ShardManifest manifest = ShardPartitioner.partition(estimates, 2);
+        Assert.assertEquals(2, manifest.getShardCount());
+
+        // Groups, most expensive first: 2010-09 (60), 2010-10 (50), 2010-11 (40), 2010-12 (20)
+        //   Shard 0: 2010-09 (60) + 2010-12 (20) = 80
+        //   Shard 1: 2010-10 (50) + 2010-11 (40) = 90
+        Assert.assertEquals(80, manifest.getShardCost(0), 0.001);
+        Assert.assertEquals(90, manifest.getShardCost(1), 0.001);
+        Assert.assertEquals(Arrays.asList(
+                "product/product_map_monthly_2010-09_a",
+                "product/product_map_monthly_2010-09_b",
+                "product/product_map_monthly_2010-12"), manifest.getOutputFileKeys(0));
+        Assert.assertTrue(manifest.isAssigned(1, estimates.get(2).getGenerateFile()));
+        Assert.assertFalse(manifest.isAssigned(0, estimates.get(2).getGenerateFile()));
+
+        // The partition doesn't depend on the order of the estimates
+        List<OutputFileEstimate> shuffledEstimates = new ArrayList<OutputFileEstimate>(estimates);
+        Collections.reverse(shuffledEstimates);
+        Assert.assertEquals(manifest.toJSON().toString(), ShardPartitioner.partition(shuffledEstimates, 2).toJSON().toString());
+
+        // Workers load the manifest from a file
+        File manifestFile = new File(this.tempFolder.getRoot(), "shards.json");
+        manifest.save(manifestFile);
+        ShardManifest loadedManifest = ShardManifest.load(manifestFile);
+        Assert.assertEquals(manifest.getOutputFileKeys(1), loadedManifest.getOutputFileKeys(1));
+        Assert.assertEquals(Integer.valueOf(0), loadedManifest.getShardIndex(estimates.get(4).getGenerateFile()));
+    }
+
+    @Test
+    public void testSplitOversizedGroup() throws Exception {
+        // All the output files use the same input file. Keeping them together would leave shards idle.
+        List<OutputFileEstimate> estimates = new ArrayList<OutputFileEstimate>();
+        for (int i=0; i<4; i++) {
+            estimates.add(this.createEstimate("product_video_" + i, 10, "gbr4_all.nc"));
+        }
+
+        ShardManifest manifest = ShardPartitioner.partition(estimates, 2);
+        Assert.assertEquals(20, manifest.getShardCost(0), 0.001);
+        Assert.assertEquals(20, manifest.getShardCost(1), 0.001);
+
+        // The group is split in chunks of consecutive output files
+        Assert.assertEquals(Arrays.asList("product/product_video_0", "product/product_video_1"), manifest.getOutputFileKeys(0));
+        Assert.assertEquals(Arrays.asList("product/product_video_2", "product/product_video_3"), manifest.getOutputFileKeys(1));
+
+        // Each video shares an input file with the next one (daily videos using hourly files overlapping midnight),
+        // so they all end up in the same group.
+        List<OutputFileEstimate> chainedEstimates = new ArrayList<OutputFileEstimate>();
+        for (int i=0; i<12; i++) {
+            chainedEstimates.add(this.createEstimate(String.format("product_video_%02d", i), 10,
+                    String.format("gbr4_%02d.nc", i), String.format("gbr4_%02d.nc", i + 1)));
+        }
+
+        ShardManifest chainedManifest = ShardPartitioner.partition(chainedEstimates, 3);
+        Map<String, Set<Integer>> inputShards = new HashMap<String, Set<Integer>>();
+        for (int shardIndex=0; shardIndex<3; shardIndex++) {
+            Assert.assertEquals(40, chainedManifest.getShardCost(shardIndex), 0.001);
+            List<String> keys = chainedManifest.getOutputFileKeys(shardIndex);
+            Assert.assertEquals(4, keys.size());
+
+            for (OutputFileEstimate estimate : chainedEstimates) {
+                if (chainedManifest.isAssigned(shardIndex, estimate.getGenerateFile())) {
+                    for (String inputId : estimate.getInputIds()) {
+                        Set<Integer> shards = inputShards.get(inputId);
+                        if (shards == null) {
+                            shards = new HashSet<Integer>();
+                            inputShards.put(inputId, shards);
+                        }
+                        shards.add(shardIndex);
+                    }
+                }
+            }
+        }
+
+        // Only the input files at the boundary of 2 chunks are used by more than one shard
+        int sharedInputCount = 0;
+        for (Map.Entry<String, Set<Integer>> inputShardsEntry : inputShards.entrySet()) {
+            Assert.assertTrue(String.format("Input %s used by too many shards", inputShardsEntry.getKey()),
+                    inputShardsEntry.getValue().size() <= 2);
+            if (inputShardsEntry.getValue().size() > 1) {
+                sharedInputCount++;
+            }
+        }
+        Assert.assertEquals(2, sharedInputCount);
+    }
+
+    @Test
+    public void testDuplicateEstimate() throws Exception {
+        List<OutputFileEstimate> estimates = new ArrayList<OutputFileEstimate>();
+        estimates.add(this.createEstimate("product_map_monthly_2010-09", 30, "gbr4_2010-09.nc"));
+        estimates.add(this.createEstimate("product_map_monthly_2010-10", 50, "gbr4_2010-10.nc"));
+        estimates.add(this.createEstimate("product_map_monthly_2010-09", 10, "gbr4_2010-09.nc"));
+
+        try {
+            ShardPartitioner.partition(estimates, 2);
+            Assert.fail("Duplicate estimates should be rejected");
+        } catch (IllegalArgumentException ex) {
+            Assert.assertTrue(ex.getMessage().contains("product/product_map_monthly_2010-09"));
+        }
+    }
+
+    private OutputFileEstimate createEstimate(String fileId, double estimatedSeconds, String ... inputIds) throws Exception {
+        NcAnimateGenerateFileBean generateFile = new NcAnimateGenerateFileBean(
+                "product", new URI("file:///tmp/product"), fileId, null, DateTimeRange.ALL_TIME);
+
+        return new OutputFileEstimate(generateFile, "map", 1, 1, 1,
+                new HashSet<String>(Arrays.asList(inputIds)), 0, inputIds.length, 1, 1, 1, estimatedSeconds);
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ncanimate.commons.timetable;
+
+import com.mongodb.MongoClient;
+import com.mongodb.ServerAddress;
+import com.mongodb.client.MongoCollection;
+import de.bwaldvogel.mongo.MongoServer;
+import de.bwaldvogel.mongo.backend.memory.MemoryBackend;
+import org.bson.Document;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.Set;
+
+public class TemporalMetadataLoaderTest {
+    private MongoServer server;
+    private MongoClient mongoClient;
+    private MongoCollection<Document> metadataCollection;
+
+    @Before
+    public void init() throws Exception {
+        this.server = new MongoServer(new MemoryBackend());
+        InetSocketAddress serverAddress = this.server.bind();
+        this.mongoClient = new MongoClient(new ServerAddress(serverAddress));
+        this.metadataCollection = this.mongoClient.getDatabase("testdb").getCollection(TemporalMetadataLoader.METADATA_COLLECTION);
+
+        Document metadata = this.loadMetadataDocument("netcdf/gbr4_v2_2010-09-01_00h00-02h00.nc.json");
+        this.metadataCollection.insertOne(metadata);
+
+        Document corruptedMetadata = this.loadMetadataDocument("netcdf/gbr4_v2_2010-09-01_00h00-02h00.nc.json");
+        corruptedMetadata.put("_id", "downloads/gbr4_v2/corrupted.nc");
+        corruptedMetadata.put("datasetId", "corrupted.nc");
+        corruptedMetadata.put("status", "CORRUPTED");
+        this.metadataCollection.insertOne(corruptedMetadata);
+    }
+
+    @After
+    public void shutdown() {
+        if (this.mongoClient != null) {
+            this.mongoClient.close();
+        }
+        if (this.server != null) {
+            this.server.shutdown();
+        }
+    }
+
+    @Test
+    public void testLoad() throws Exception {
+        Map<String, Set<String>> variableIdMap = new HashMap<String, Set<String>>();
+        variableIdMap.put("downloads/gbr4_v2", new HashSet<String>(Arrays.asList("temp", "wspeed_u:wspeed_v-mag", "missing")));
+        variableIdMap.put("downloads/noaa_wave", new HashSet<String>(Arrays.asList("salt")));
+
+        TemporalMetadataLoader loader = new TemporalMetadataLoader(this.metadataCollection, null);
+        Map<String, Map<String, TemporalMetadata>> temporalMetadataMap = loader.load(variableIdMap);
+
+        Assert.assertEquals(2, temporalMetadataMap.size());
+        Assert.assertTrue("No file expected for the wave definition", temporalMetadataMap.get("downloads/noaa_wave").isEmpty());
+
+        Map<String, TemporalMetadata> gbr4MetadataMap = temporalMetadataMap.get("downloads/gbr4_v2");
+        Assert.assertEquals("Only valid files should be loaded", 1, gbr4MetadataMap.size());
+
+        TemporalMetadata temporalMetadata = gbr4MetadataMap.get("gbr4_v2_2010-09-01_00h00-02h00.nc");
+        Assert.assertNotNull(temporalMetadata);
+        Assert.assertEquals("downloads/gbr4_v2/gbr4_v2_2010-09-01_00h00-02h00.nc", temporalMetadata.getId());
+        Assert.assertEquals("MD5:5f238185be1919bfb3ad928b29802aa8", temporalMetadata.getChecksum());
+        Assert.assertEquals(new DateTime(2019, 12, 20, 12, 18, 33, DateTimeZone.forOffsetHours(10)).getMillis(), temporalMetadata.getLastModified());
+
+        // Only the requested variables of the definition are loaded (salt is used by another definition)
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("temp", "wspeed_u:wspeed_v-mag")),
+                temporalMetadata.getVariableTemporalDomainMap().keySet());
+
+        VariableTemporalDomain tempTemporalDomain = temporalMetadata.getVariableTemporalDomain("temp");
+        Assert.assertEquals(new DateTime(2010, 8, 31, 14, 0, DateTimeZone.UTC).getMillis(), tempTemporalDomain.getMinDate().getMillis());
+        Assert.assertEquals(new DateTime(2010, 8, 31, 15, 0, DateTimeZone.UTC).getMillis(), tempTemporalDomain.getMaxDate().getMillis());
+        Assert.assertEquals(2, tempTemporalDomain.getTimeValues().size());
+        Assert.assertTrue("Hourly time values should be stored as a regular axis", tempTemporalDomain.getTimeAxis().isRegular());
+        Assert.assertEquals(tempTemporalDomain.getMaxDate().getMillis(), tempTemporalDomain.getTimeAxis().get(1));
+
+        Assert.assertFalse(temporalMetadata.isMetadataLoaded());
+    }
+
+    @Test
+    public void testLazyFrame() throws Exception {
+        Map<String, Set<String>> variableIdMap = new HashMap<String, Set<String>>();
+        variableIdMap.put("downloads/gbr4_v2", new HashSet<String>(Arrays.asList("temp")));
+        TemporalMetadata temporalMetadata = new TemporalMetadataLoader(this.metadataCollection, null)
+                .load(variableIdMap).get("downloads/gbr4_v2").get("gbr4_v2_2010-09-01_00h00-02h00.nc");
+
+        VariableTemporalDomain temporalDomain = temporalMetadata.getVariableTemporalDomain("temp");
+        NetCDFMetadataFrame frame1 = new NetCDFMetadataFrame(temporalDomain.getTimeValues().get(0), temporalMetadata, temporalDomain);
+        NetCDFMetadataFrame frame2 = new NetCDFMetadataFrame(temporalDomain.getTimeValues().get(1), temporalMetadata, temporalDomain);
+
+        // The timetable only needs the temporal metadata
+        Assert.assertEquals(temporalMetadata.getId(), frame1.getMetadataId());
+        Assert.assertEquals(temporalMetadata.getLastModified(), frame1.getLastModified());
+        Assert.assertEquals("Frames of the same file are the same input", 0, frame1.compareTo(frame2));
+        Assert.assertNotNull(frame1.toJSON());
+
+        // The full metadata is only loaded when requested
+        Assert.assertFalse(temporalMetadata.isMetadataLoaded());
+        try {
+            frame1.getMetadata();
+            Assert.fail("IllegalStateException expected, there is no metadata helper");
+        } catch (IllegalStateException ex) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testStream() throws Exception {
+        Map<String, Set<String>> variableIdMap = new HashMap<String, Set<String>>();
+        variableIdMap.put("downloads/gbr4_v2", new HashSet<String>(Arrays.asList("temp")));
+
+        final List<TemporalMetadata> streamed = new ArrayList<TemporalMetadata>();
+        TemporalMetadataLoader loader = new TemporalMetadataLoader(this.metadataCollection, null);
+        int count = loader.stream(variableIdMap, false, new TemporalMetadataHandler() {
+            @Override
+            public void handle(TemporalMetadata temporalMetadata) {
+                streamed.add(temporalMetadata);
+            }
+        });
+
+        Assert.assertEquals(1, count);
+        Assert.assertEquals(1, streamed.size());
+
+        // Without the time values, only the min and max dates are available
+        VariableTemporalDomain tempTemporalDomain = streamed.get(0).getVariableTemporalDomain("temp");
+        Assert.assertNotNull(tempTemporalDomain.getMinDate());
+        Assert.assertNotNull(tempTemporalDomain.getMaxDate());
+        Assert.assertTrue(tempTemporalDomain.getTimeAxis().isEmpty());
+    }
+
+    private Document loadMetadataDocument(String resource) throws Exception {
+        try (
+            InputStream inputStream = TemporalMetadataLoaderTest.class.getClassLoader().getResourceAsStream(resource);
+            Scanner scanner = new Scanner(inputStream, StandardCharsets.UTF_8.name())
+        ) {
+            return Document.parse(scanner.useDelimiter("\\A").next());
+        }
+    }
+}
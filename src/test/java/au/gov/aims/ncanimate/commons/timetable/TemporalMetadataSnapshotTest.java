@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ncanimate.commons.timetable;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class TemporalMetadataSnapshotTest {
+    private static final long HOUR = 60 * 60 * 1000L;
+    private static final String CONFIG_ID = "gbr4_v2_temp-wind-salt-current";
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testExportImport() throws Exception {
+        long start = new DateTime(2010, 9, 1, 0, 0, DateTimeZone.UTC).getMillis();
+
+        final List<TemporalMetadata> sourceMetadata = new ArrayList<TemporalMetadata>();
+        sourceMetadata.add(this.createTemporalMetadata("downloads/gbr4_v2", "gbr4_v2_2010-09.nc", "MD5:5f238185be1919bfb3ad928b29802aa8",
+                "temp", TimeAxis.createRegular(start, HOUR, 720)));
+        sourceMetadata.add(this.createTemporalMetadata("downloads/noaa_wave", "noaa_wave_2010-09.nc", null,
+                "hs", TimeAxis.create(new long[] { start, start + HOUR, start + 3 * HOUR })));
+
+        TemporalMetadataSource source = new TemporalMetadataSource() {
+            @Override
+            public int stream(Map<String, Set<String>> variableIdMap, boolean includeTimeValues, TemporalMetadataHandler handler) throws Exception {
+                for (TemporalMetadata temporalMetadata : sourceMetadata) {
+                    handler.handle(temporalMetadata);
+                }
+                return sourceMetadata.size();
+            }
+        };
+
+        Map<String, Set<String>> variableIdMap = new HashMap<String, Set<String>>();
+        variableIdMap.put("downloads/gbr4_v2", new HashSet<String>(Arrays.asList("temp")));
+        variableIdMap.put("downloads/noaa_wave", new HashSet<String>(Arrays.asList("hs")));
+
+        File snapshotFile = new File(this.tempFolder.getRoot(), "snapshot.bin");
+        long exportStart = System.currentTimeMillis();
+        Assert.assertEquals(2, TemporalMetadataSnapshot.export(source, CONFIG_ID, variableIdMap, snapshotFile));
+        Assert.assertArrayEquals("The temporary file should be removed",
+                new String[] { "snapshot.bin" }, this.tempFolder.getRoot().list());
+
+        final Map<String, TemporalMetadata> imported = new HashMap<String, TemporalMetadata>();
+        TemporalMetadataSnapshot snapshot = new TemporalMetadataSnapshot(snapshotFile, CONFIG_ID, null);
+        TemporalMetadataSnapshot.Header header = snapshot.readHeader();
+        Assert.assertEquals(CONFIG_ID, header.getConfigId());
+        Assert.assertTrue("Wrong export time", header.getExportTime().getMillis() >= exportStart);
+
+        int count = snapshot.stream(variableIdMap, true, new TemporalMetadataHandler() {
+            @Override
+            public void handle(TemporalMetadata temporalMetadata) {
+                imported.put(temporalMetadata.getDatasetId(), temporalMetadata);
+            }
+        });
+        Assert.assertEquals(2, count);
+
+        TemporalMetadata gbr4Metadata = imported.get("gbr4_v2_2010-09.nc");
+        Assert.assertEquals("downloads/gbr4_v2/gbr4_v2_2010-09.nc", gbr4Metadata.getId());
+        Assert.assertEquals("MD5:5f238185be1919bfb3ad928b29802aa8", gbr4Metadata.getChecksum());
+        Assert.assertEquals(start, gbr4Metadata.getLastModified());
+        TimeAxis gbr4TimeAxis = gbr4Metadata.getVariableTemporalDomain("temp").getTimeAxis();
+        Assert.assertTrue(gbr4TimeAxis.isRegular());
+        Assert.assertEquals(720, gbr4TimeAxis.size());
+        Assert.assertEquals(start + 719 * HOUR, gbr4TimeAxis.get(719));
+
+        TemporalMetadata waveMetadata = imported.get("noaa_wave_2010-09.nc");
+        Assert.assertNull(waveMetadata.getChecksum());
+        VariableTemporalDomain waveTemporalDomain = waveMetadata.getVariableTemporalDomain("hs");
+        Assert.assertEquals(start, waveTemporalDomain.getMinDate().getMillis());
+        Assert.assertEquals(start + 3 * HOUR, waveTemporalDomain.getMaxDate().getMillis());
+        Assert.assertFalse(waveTemporalDomain.getTimeAxis().isRegular());
+        Assert.assertEquals(start + 3 * HOUR, waveTemporalDomain.getTimeAxis().get(2));
+
+        // Only the requested definitions are streamed, without the time values
+        Map<String, Set<String>> gbr4VariableIdMap = new HashMap<String, Set<String>>();
+        gbr4VariableIdMap.put("downloads/gbr4_v2", new HashSet<String>(Arrays.asList("temp")));
+        final List<TemporalMetadata> filtered = new ArrayList<TemporalMetadata>();
+        snapshot.stream(gbr4VariableIdMap, false, new TemporalMetadataHandler() {
+            @Override
+            public void handle(TemporalMetadata temporalMetadata) {
+                filtered.add(temporalMetadata);
+            }
+        });
+        Assert.assertEquals(1, filtered.size());
+        Assert.assertTrue(filtered.get(0).getVariableTemporalDomain("temp").getTimeAxis().isEmpty());
+        Assert.assertNotNull(filtered.get(0).getVariableTemporalDomain("temp").getMaxDate());
+    }
+
+    @Test
+    public void testTruncatedSnapshot() throws Exception {
+        final TemporalMetadata temporalMetadata = this.createTemporalMetadata("downloads/gbr4_v2", "gbr4_v2_2010-09.nc", null,
+                "temp", TimeAxis.create(new long[] { 0, HOUR, 3 * HOUR }));
+        TemporalMetadataSource source = new TemporalMetadataSource() {
+            @Override
+            public int stream(Map<String, Set<String>> variableIdMap, boolean includeTimeValues, TemporalMetadataHandler handler) throws Exception {
+                handler.handle(temporalMetadata);
+                return 1;
+            }
+        };
+
+        Map<String, Set<String>> variableIdMap = new HashMap<String, Set<String>>();
+        variableIdMap.put("downloads/gbr4_v2", null);
+
+        File snapshotFile = new File(this.tempFolder.getRoot(), "snapshot.bin");
+        TemporalMetadataSnapshot.export(source, CONFIG_ID, variableIdMap, snapshotFile);
+
+        byte[] content = Files.readAllBytes(snapshotFile.toPath());
+        Files.write(snapshotFile.toPath(), Arrays.copyOf(content, content.length - 10));
+
+        try {
+            new TemporalMetadataSnapshot(snapshotFile).stream(variableIdMap, true, new TemporalMetadataHandler() {
+                @Override
+                public void handle(TemporalMetadata temporalMetadata) {
+                    // Nothing to do
+                }
+            });
+            Assert.fail("IOException expected, the snapshot file is truncated");
+        } catch (IOException ex) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testSnapshotOfOtherProduct() throws Exception {
+        final TemporalMetadata temporalMetadata = this.createTemporalMetadata("downloads/gbr4_v2", "gbr4_v2_2010-09.nc", null,
+                "temp", TimeAxis.createRegular(0, HOUR, 24));
+        TemporalMetadataSource source = new TemporalMetadataSource() {
+            @Override
+            public int stream(Map<String, Set<String>> variableIdMap, boolean includeTimeValues, TemporalMetadataHandler handler) throws Exception {
+                handler.handle(temporalMetadata);
+                return 1;
+            }
+        };
+
+        Map<String, Set<String>> variableIdMap = new HashMap<String, Set<String>>();
+        variableIdMap.put("downloads/gbr4_v2", null);
+
+        File snapshotFile = new File(this.tempFolder.getRoot(), "snapshot.bin");
+        TemporalMetadataSnapshot.export(source, CONFIG_ID, variableIdMap, snapshotFile);
+
+        TemporalMetadataHandler handler = new TemporalMetadataHandler() {
+            @Override
+            public void handle(TemporalMetadata temporalMetadata) {
+                // Nothing to do
+            }
+        };
+
+        // A snapshot without product accepts any snapshot file
+        Assert.assertEquals(1, new TemporalMetadataSnapshot(snapshotFile).stream(variableIdMap, true, handler));
+
+        try {
+            new TemporalMetadataSnapshot(snapshotFile, "gbr1_2-0_temp-wind-salt-current", null).stream(variableIdMap, true, handler);
+            Assert.fail("IOException expected, the snapshot file was exported for another product");
+        } catch (IOException ex) {
+            // Expected
+        }
+    }
+
+    private TemporalMetadata createTemporalMetadata(String definitionId, String datasetId, String checksum, String variableId, TimeAxis timeAxis) {
+        Map<String, VariableTemporalDomain> variableTemporalDomainMap = new HashMap<String, VariableTemporalDomain>();
+        variableTemporalDomainMap.put(variableId, new VariableTemporalDomain(
+                new DateTime(timeAxis.getMin(), DateTimeZone.UTC), new DateTime(timeAxis.getMax(), DateTimeZone.UTC), timeAxis));
+
+        return new TemporalMetadata(definitionId + "/" + datasetId, definitionId, datasetId,
+                timeAxis.get(0), checksum, variableTemporalDomainMap, null);
+    }
+}
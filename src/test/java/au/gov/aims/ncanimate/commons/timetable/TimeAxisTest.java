@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ncanimate.commons.timetable;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class TimeAxisTest {
+
+    @Test
+    public void testRegularAxis() {
+        long start = new DateTime(2010, 9, 1, 0, 0, DateTimeZone.UTC).getMillis();
+        long hour = 60 * 60 * 1000L;
+
+        TimeAxis timeAxis = TimeAxis.create(new long[] { start, start + hour, start + 2 * hour, start + 3 * hour });
+        Assert.assertTrue("Hourly values should be stored as a regular axis", timeAxis.isRegular());
+        Assert.assertEquals(4, timeAxis.size());
+        Assert.assertEquals(start, timeAxis.get(0));
+        Assert.assertEquals(start + 3 * hour, timeAxis.get(3));
+
+        // 10 years of hourly values, without allocating anything per value
+        TimeAxis decade = TimeAxis.createRegular(start, hour, 10 * 366 * 24);
+        Assert.assertEquals(start + 87839 * hour, decade.get(87839));
+
+        try {
+            timeAxis.get(4);
+            Assert.fail("IndexOutOfBoundsException expected");
+        } catch (IndexOutOfBoundsException ex) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testIrregularAxis() {
+        TimeAxis timeAxis = TimeAxis.create(new long[] { 0, 1000, 3000 });
+        Assert.assertFalse(timeAxis.isRegular());
+        Assert.assertEquals(3, timeAxis.size());
+        Assert.assertEquals(3000, timeAxis.get(2));
+
+        DateTimeZone brisbane = DateTimeZone.forID("Australia/Brisbane");
+        List<DateTime> dateTimes = timeAxis.toDateTimes(brisbane);
+        Assert.assertEquals(Arrays.asList(
+                new DateTime(0, brisbane),
+                new DateTime(1000, brisbane),
+                new DateTime(3000, brisbane)), dateTimes);
+
+        Assert.assertTrue(TimeAxis.create((long[]) null).isEmpty());
+        Assert.assertTrue(TimeAxis.create(new long[] { 42 }).isRegular());
+    }
+}